@@ -0,0 +1,1568 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import cycling.AsyncCyclingPortal;
+import cycling.CareerPosting;
+import cycling.CheckpointType;
+import cycling.ClassificationCache;
+import cycling.CyclingPortalImpl;
+import cycling.DuplicatedResultException;
+import cycling.GcTimeSummation;
+import cycling.IDNotRecognisedException;
+import cycling.InvalidCheckpointTimesException;
+import cycling.InvalidLocationException;
+import cycling.InvalidStageStateException;
+import cycling.PassageReorderBuffer;
+import cycling.RaceSnapshot;
+import cycling.SaveReport;
+import cycling.SeasonTotals;
+import cycling.SegmentAnalytics;
+import cycling.SingleFlight;
+import cycling.SnapshotCodec;
+import cycling.ResultIngestionPipeline;
+import cycling.StageType;
+import cycling.VersionedResult;
+
+/**
+ * A short program checking the features added to CyclingPortalImpl since
+ * version 1.0, each in its own method. Run it with assertions enabled
+ * from the root of the project so the saved portals in TestSystem are found.
+ *
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ */
+public class CyclingPortalFeatureTestApp {
+
+	/**
+	 * The portal saved by the version 1.0 build, before the serialised form changed
+	 */
+	private static final String BASELINE_PORTAL = "TestSystem/baseline-portal.ser";
+
+	/**
+	 * Test method.
+	 *
+	 * @param args optionally the path of the portal saved by the version 1.0 build
+	 * @throws Exception If any check fails with an exception
+	 */
+	public static void main(String[] args) throws Exception {
+		System.out.println("The feature checks started the execution...");
+		loadBaselinePortal(args.length > 0 ? args[0] : BASELINE_PORTAL);
+		backgroundSaveHoldsCapture(args.length > 0 ? args[0] : BASELINE_PORTAL);
+		checkpointsIndexedByLocation();
+		segmentSpeedsFromGeometry();
+		readSnapshotsDuringWrites();
+		directQueriesMatchSnapshot();
+		coalescedReadsAfterWrites();
+		staleWhileRevalidateMatchesDirectReads();
+		promoteAndRemoveLivePassages();
+		livePassagesRankEachCheckpoint();
+		reorderBufferReleasesAtWatermark();
+		correctionsMatchFreshResults();
+		bonusesOnlyChangeTheRace();
+		partialFinishersLeftOutOfTheRace();
+		summationKernelsAgree();
+		teamClassificationFollowsResults();
+		careersAndSeasonTotals();
+		virtualClassificationFollowsTheRoad();
+		virtualClassificationPastOneDay();
+		pipelineFailureFailsSubmissions();
+		classificationCacheEvictsLeastRecentlyUsed();
+		versionsMoveWithEveryMutation();
+		singleFlightCoalescesIdenticalCalls();
+		savedPortalsRoundTripWithEachCodec();
+		segmentSavesOnlyRewriteChanges();
+		parallelSegmentLoadKeepsOrder();
+		serialisedPortalKeepsEveryObject();
+		System.out.println("All feature checks passed.");
+	}
+
+	/**
+	 * Loads a portal saved by the version 1.0 build, checks every id and result
+	 * survived, then saves it again and checks it round trips.
+	 *
+	 * @param filename The path of the saved portal
+	 * @throws Exception If the portal cannot be loaded or saved
+	 */
+	private static void loadBaselinePortal(String filename) throws Exception {
+		CyclingPortalImpl portal = new CyclingPortalImpl();
+		portal.loadCyclingPortal(filename);
+		int raceId = 4990;
+		int[] stageIds = {5963, 1492, 9263};
+		int[] riderIds = {9857, 4998, 1895, 8922, 5884, 7784};
+		assert Arrays.equals(portal.getRaceIds(), new int[] {raceId})
+			: "race ids not kept when loading a baseline portal";
+		assert portal.viewRaceDetails(raceId).equals("{, id='4990', name='BaselineTour', "
+			+ "description='Race saved by the baseline build', stages='3', length=' 300.0'}")
+			: "race details not kept when loading a baseline portal";
+		assert Arrays.equals(portal.getRaceStages(raceId), stageIds)
+			: "stage ids not kept when loading a baseline portal";
+		assert Arrays.equals(portal.getStageCheckpoints(stageIds[0]), new int[] {2478})
+			: "sprint checkpoint id not kept when loading a baseline portal";
+		assert Arrays.equals(portal.getStageCheckpoints(stageIds[1]), new int[] {3617})
+			: "climb checkpoint id not kept when loading a baseline portal";
+		assert Arrays.equals(portal.getTeamRiders(7755), riderIds)
+			: "team riders not kept when loading a baseline portal";
+		//The baseline build repeated riders in the stage rank, which is kept as it was saved
+		int[] rank = portal.getRidersRankInStage(stageIds[0]);
+		assert rank.length == 32 && rank[0] == 7784 && rank[31] == 9857
+			: "stage rank not kept when loading a baseline portal";
+		//The stage still in preparation must still be recognised as in preparation
+		portal.concludeStagePreparation(stageIds[2]);
+		for(int i=0; i<riderIds.length; i++) {
+			portal.registerRiderResultsInStage(stageIds[2], riderIds[i], LocalTime.of(12, 0), LocalTime.of(12, 40 + i));
+		}
+		System.out.println("baseline portal loaded.");
+
+		String resaved = "baseline-resaved.ser";
+		int[] generalClassification = portal.getRidersGeneralClassificationRank(raceId);
+		portal.setDerivedStateSaved(true);
+		portal.saveCyclingPortal(resaved);
+		CyclingPortalImpl reloaded = new CyclingPortalImpl();
+		reloaded.loadCyclingPortal(resaved);
+		new File(resaved).delete();
+		assert reloaded.viewRaceDetails(raceId).equals(portal.viewRaceDetails(raceId))
+			: "race details not kept when saving a loaded baseline portal";
+		assert Arrays.equals(reloaded.getStageCheckpoints(stageIds[1]), new int[] {3617})
+			: "checkpoints not kept when saving a loaded baseline portal";
+		assert Arrays.equals(reloaded.getRidersRankInStage(stageIds[1]), portal.getRidersRankInStage(stageIds[1]))
+			: "stage rank not kept when saving a loaded baseline portal";
+		assert Arrays.equals(reloaded.getTeamRiders(7755), riderIds)
+			: "team riders not kept when saving a loaded baseline portal";
+		//The classification saved as derived state is answered without being recalculated
+		assert Arrays.equals(reloaded.getRidersGeneralClassificationRank(raceId), generalClassification)
+			: "general classification not kept when saving a loaded baseline portal";
+		assert reloaded.getClassificationCache().getHits() == 1 && reloaded.getClassificationCache().getMisses() == 0
+			: "derived state not restored when loading a resaved baseline portal";
+		//The stage standings saved as derived state keep the finishing order they were calculated in
+		for(int stageId: stageIds) {
+			assert Arrays.equals(reloaded.getRankedAdjustedElapsedTimesInStage(stageId), portal.getRankedAdjustedElapsedTimesInStage(stageId))
+				: "adjusted times not kept when saving a loaded baseline portal";
+			assert Arrays.equals(reloaded.getRidersPointsInStage(stageId), portal.getRidersPointsInStage(stageId))
+				: "stage points not kept when saving a loaded baseline portal";
+			assert Arrays.equals(reloaded.getRidersMountainPointsInStage(stageId), portal.getRidersMountainPointsInStage(stageId))
+				: "stage mountain points not kept when saving a loaded baseline portal";
+		}
+		System.out.println("baseline portal saved and loaded again.");
+	}
+
+	/**
+	 * Saves a portal in the background and changes it before the save finishes,
+	 * then checks the file holds the portal as it was when the save was asked
+	 * for, and that a loaded baseline portal saves in the background too.
+	 *
+	 * @param filename The path of the portal saved by the version 1.0 build
+	 * @throws Exception If the portal cannot be set up, saved or loaded
+	 */
+	private static void backgroundSaveHoldsCapture(String filename) throws Exception {
+		CyclingPortalImpl portal = new CyclingPortalImpl();
+		LocalTime[][] times = new LocalTime[40][];
+		for(int i=0; i<times.length; i++) {
+			LocalTime start = LocalTime.of(12, 0);
+			times[i] = new LocalTime[] {start, start.plusMinutes(50 + i % 9), start.plusMinutes(100 + i % 5), start.plusMinutes(230 - i)};
+		}
+		int[] ids = setUpCorrectionRace(portal, times);
+		int raceId = ids[0];
+		int stageId = ids[1];
+		int teamId = portal.getTeams()[0];
+		int[] generalClassification = portal.getRidersGeneralClassificationRank(raceId);
+		LocalTime[] generalTimes = portal.getGeneralClassificationTimesInRace(raceId);
+		int[] points = portal.getRidersPointsInStage(stageId);
+		int[] riderIds = portal.getTeamRiders(teamId);
+		portal.setDerivedStateSaved(true);
+
+		String saved = "background-saved.ser";
+		CompletableFuture<SaveReport> save = portal.saveCyclingPortalInBackground(saved, SnapshotCodec.DEFLATE, 6);
+		//None of these changes were made when the save was asked for, so none are in the file
+		portal.addRiderTimeBonusInStage(stageId, ids[2], Duration.ofMinutes(3));
+		portal.removeRider(ids[3]);
+		int lateId = portal.createRider(teamId, "Late", 1995);
+		portal.registerRiderResultsInStage(stageId, lateId, LocalTime.of(12, 0), LocalTime.of(12, 30), LocalTime.of(13, 0), LocalTime.of(14, 0));
+		assert save.join().getBytesWritten() > 0 : "background save wrote nothing";
+
+		CyclingPortalImpl reloaded = new CyclingPortalImpl();
+		reloaded.loadCyclingPortal(saved);
+		new File(saved).delete();
+		assert Arrays.equals(reloaded.getTeamRiders(teamId), riderIds)
+			: "background save holds riders changed after it was asked for";
+		assert Arrays.equals(reloaded.getRidersPointsInStage(stageId), points)
+			: "background save holds stage results changed after it was asked for";
+		assert Arrays.equals(reloaded.getRidersGeneralClassificationRank(raceId), generalClassification)
+			: "background save holds a general classification changed after it was asked for";
+		assert Arrays.equals(reloaded.getGeneralClassificationTimesInRace(raceId), generalTimes)
+			: "background save holds general classification times changed after it was asked for";
+		//The general classification saved as derived state is answered without being recalculated
+		assert reloaded.getClassificationCache().getMisses() == 0
+			: "derived state not held by the background save";
+
+		CyclingPortalImpl baseline = new CyclingPortalImpl();
+		baseline.loadCyclingPortal(filename);
+		baseline.saveCyclingPortalInBackground(saved).join();
+		reloaded.loadCyclingPortal(saved);
+		new File(saved).delete();
+		assert reloaded.viewRaceDetails(4990).equals(baseline.viewRaceDetails(4990))
+			: "race details not kept by the background save of a baseline portal";
+		assert Arrays.equals(reloaded.getRidersRankInStage(5963), baseline.getRidersRankInStage(5963))
+			: "stage rank not kept by the background save of a baseline portal";
+		assert Arrays.equals(reloaded.getTeamRiders(7755), baseline.getTeamRiders(7755))
+			: "team riders not kept by the background save of a baseline portal";
+		System.out.println("background save holds the portal as captured.");
+	}
+
+	/**
+	 * Adds checkpoints out of location order and checks they are listed, found
+	 * in a range and found nearest a location by where they are, including
+	 * after one is removed.
+	 *
+	 * @throws Exception If the stage cannot be set up or a query fails
+	 */
+	private static void checkpointsIndexedByLocation() throws Exception {
+		CyclingPortalImpl portal = new CyclingPortalImpl();
+		int raceId = portal.createRace("MapTour", "Race whose checkpoints are looked up by location");
+		int stageId = portal.addStageToRace(raceId, "Stage", "hills", 150, LocalDateTime.of(2023, 7, 1, 12, 0), StageType.MEDIUM_MOUNTAIN);
+		assert portal.getNearestCheckpoint(stageId, 50) == -1 : "nearest checkpoint found in a stage without checkpoints";
+		int late = portal.addCategorizedClimbToStage(stageId, 120.0, CheckpointType.C1, 7.0, 9.0);
+		int early = portal.addIntermediateSprintToStage(stageId, 30);
+		int middle = portal.addCategorizedClimbToStage(stageId, 70.0, CheckpointType.C3, 4.0, 3.0);
+
+		assert Arrays.equals(portal.getStageCheckpoints(stageId), new int[] {early, middle, late})
+			: "checkpoints not ordered by location";
+		assert Arrays.equals(portal.getStageCheckpointsBetween(stageId, 30, 70), new int[] {early, middle})
+			: "checkpoints at both ends of a range not included";
+		assert portal.getStageCheckpointsBetween(stageId, 71, 119).length == 0
+			: "checkpoints found in a range holding none";
+		assert portal.getNearestCheckpoint(stageId, 90) == middle : "nearest checkpoint wrong";
+		//Equally far from both, so the earlier one is found
+		assert portal.getNearestCheckpoint(stageId, 50) == early : "tie for nearest checkpoint not broken by location";
+		try {
+			portal.getStageCheckpointsBetween(stageId, 70, 30);
+			assert false : "range ending before it starts accepted";
+		} catch(InvalidLocationException e) {
+			//Expected, the range is reversed
+		}
+
+		portal.removeCheckpoint(middle);
+		assert Arrays.equals(portal.getStageCheckpoints(stageId), new int[] {early, late})
+			: "removed checkpoint still listed";
+		assert portal.getNearestCheckpoint(stageId, 90) == late : "removed checkpoint still found nearest";
+		System.out.println("checkpoints indexed by location.");
+	}
+
+	/**
+	 * Times two riders over a sprint and a climb and checks the speed of each
+	 * segment and the VAM of the climb against values worked out by hand, with
+	 * the parallel calculation giving the same result.
+	 *
+	 * @throws Exception If the stage cannot be set up or a query fails
+	 */
+	private static void segmentSpeedsFromGeometry() throws Exception {
+		CyclingPortalImpl portal = new CyclingPortalImpl();
+		int teamId = portal.createTeam("Segments", "Riders of the segment speed check");
+		int raceId = portal.createRace("SpeedTour", "Race timed segment by segment");
+		int stageId = portal.addStageToRace(raceId, "Stage", "hills", 150, LocalDateTime.of(2023, 7, 1, 12, 0), StageType.MEDIUM_MOUNTAIN);
+		portal.addIntermediateSprintToStage(stageId, 60);
+		int climbId = portal.addCategorizedClimbToStage(stageId, 100.0, CheckpointType.C2, 5.0, 8.0);
+		portal.concludeStagePreparation(stageId);
+		int steady = portal.createRider(teamId, "Steady", 1990);
+		int quick = portal.createRider(teamId, "Quick", 1991);
+		//60km in 1h30, 40km in 1h20 and 50km in 1h10
+		portal.registerRiderResultsInStage(stageId, steady, LocalTime.of(12, 0), LocalTime.of(13, 30), LocalTime.of(14, 50), LocalTime.of(16, 0));
+		//Every segment in half the time
+		portal.registerRiderResultsInStage(stageId, quick, LocalTime.of(12, 0), LocalTime.of(12, 45), LocalTime.of(13, 25), LocalTime.of(14, 0));
+
+		SegmentAnalytics analytics = portal.getSegmentAnalyticsInStage(stageId, false);
+		assert Arrays.equals(analytics.getRiderIds(), new int[] {quick, steady}) : "analytics rows not in finishing order";
+		assert Arrays.equals(analytics.getSegmentEnds(), new double[] {60, 100, 150}) : "segments not ending at the checkpoints";
+		assert Arrays.equals(analytics.getClimbIds(), new int[] {climbId}) : "climb not analysed";
+		double[][] speeds = analytics.getSegmentSpeeds();
+		assert Math.abs(speeds[1][0] - 40) < 1e-9 && Math.abs(speeds[1][1] - 30) < 1e-9 && Math.abs(speeds[1][2] - 300.0 / 7) < 1e-9
+			: "segment speeds wrong: " + Arrays.toString(speeds[1]);
+		assert Math.abs(speeds[0][0] - 80) < 1e-9 : "segment speed not doubled for the quicker rider";
+		//8km of the 40km segment climbs 400m, timed as a fifth of the 1h20 segment
+		double[][] vam = analytics.getClimbVam();
+		assert Math.abs(vam[1][0] - 1500) < 1e-9 && Math.abs(vam[0][0] - 3000) < 1e-9
+			: "climb VAM wrong: " + vam[1][0] + ", " + vam[0][0];
+
+		SegmentAnalytics parallel = portal.getSegmentAnalyticsInStage(stageId, true);
+		assert Arrays.deepEquals(parallel.getSegmentSpeeds(), speeds) && Arrays.deepEquals(parallel.getClimbVam(), vam)
+			: "parallel analytics differ from sequential ones";
+		System.out.println("segment speeds derived from geometry.");
+	}
+
+	/**
+	 * Reads snapshots of a race on another thread while results are registered
+	 * through a ResultIngestionPipeline, and checks every snapshot read agrees
+	 * with itself and no snapshot is older than one read before it.
+	 *
+	 * @throws Exception If the race cannot be set up or the reader fails
+	 */
+	private static void readSnapshotsDuringWrites() throws Exception {
+		CyclingPortalImpl portal = new CyclingPortalImpl();
+		int teamId = portal.createTeam("Snapshots", "Riders of the snapshot check");
+		int raceId = portal.createRace("SnapshotTour", "Race read while it is written");
+		int[] riderIds = new int[60];
+		for(int i=0; i<riderIds.length; i++) {
+			riderIds[i] = portal.createRider(teamId, "Rider" + i, 1990 + i % 10);
+		}
+		int[] stageIds = new int[3];
+		for(int i=0; i<stageIds.length; i++) {
+			stageIds[i] = portal.addStageToRace(raceId, "Stage" + i, "flat", 150, LocalDateTime.of(2023, 7, 1 + i, 12, 0), StageType.FLAT);
+			portal.addIntermediateSprintToStage(stageIds[i], 60);
+			portal.concludeStagePreparation(stageIds[i]);
+		}
+		assert portal.snapshot(raceId).getVersion() == portal.getRaceVersion(raceId)
+			: "snapshot not captured at the version the race was set up at";
+
+		AtomicBoolean writing = new AtomicBoolean(true);
+		AtomicReference<String> failure = new AtomicReference<String>();
+		Thread reader = new Thread(() -> {
+			long lastVersion = -1;
+			try {
+				while(writing.get()) {
+					RaceSnapshot snapshot = portal.snapshot(raceId);
+					int[] rank = snapshot.getRidersGeneralClassificationRank();
+					LocalTime[] times = snapshot.getGeneralClassificationTimesInRace();
+					if(snapshot.getVersion() < lastVersion) {
+						failure.set("snapshot version went back from " + lastVersion + " to " + snapshot.getVersion());
+					} else if(rank.length != times.length || rank.length != snapshot.getRidersPointsInRace().length) {
+						failure.set("snapshot classifications of different lengths at version " + snapshot.getVersion());
+					} else {
+						for(int i=1; i<times.length; i++) {
+							if(times[i].isBefore(times[i-1])) {
+								failure.set("snapshot times out of order at version " + snapshot.getVersion());
+							}
+						}
+					}
+					lastVersion = snapshot.getVersion();
+				}
+			} catch(Exception e) {
+				failure.set(e.toString());
+			}
+		}, "snapshot-reader");
+		reader.start();
+		CompletableFuture<?>[] registered = new CompletableFuture<?>[stageIds.length * riderIds.length];
+		try(ResultIngestionPipeline pipeline = new ResultIngestionPipeline(portal, 64, 8)) {
+			for(int s=0; s<stageIds.length; s++) {
+				for(int i=0; i<riderIds.length; i++) {
+					LocalTime start = LocalTime.of(12, 0);
+					registered[s * riderIds.length + i] = pipeline.submitResults(stageIds[s], riderIds[i], start,
+						start.plusMinutes(90 + (i * 7 + s) % 31), start.plusMinutes(200 + (i * 13 + s) % 47));
+				}
+			}
+			CompletableFuture.allOf(registered).join();
+		}
+		writing.set(false);
+		reader.join();
+		assert failure.get() == null : failure.get();
+		RaceSnapshot last = portal.snapshot(raceId);
+		assert last.getVersion() == portal.getRaceVersion(raceId)
+			: "snapshot not published by the last batch of results";
+		assert last.getRidersGeneralClassificationRank().length == riderIds.length
+			: "snapshot missing riders once every result is registered";
+		System.out.println("snapshots read consistently during writes.");
+	}
+
+	/**
+	 * Registers results in a race with sprint and mountain points, and checks
+	 * every race classification answers the same through the portal's direct
+	 * queries as through a snapshot, and that the answers are the right ones.
+	 *
+	 * @throws Exception If the race cannot be set up
+	 */
+	private static void directQueriesMatchSnapshot() throws Exception {
+		CyclingPortalImpl portal = new CyclingPortalImpl();
+		int teamId = portal.createTeam("Queries", "Riders of the direct query check");
+		int raceId = portal.createRace("QueryTour", "Race queried directly and by snapshot");
+		int[] riderIds = new int[6];
+		for(int i=0; i<riderIds.length; i++) {
+			riderIds[i] = portal.createRider(teamId, "Rider" + i, 1990 + i);
+		}
+		int flatId = portal.addStageToRace(raceId, "Flat", "flat", 150, LocalDateTime.of(2023, 7, 1, 12, 0), StageType.FLAT);
+		portal.addIntermediateSprintToStage(flatId, 60);
+		portal.concludeStagePreparation(flatId);
+		int mountainId = portal.addStageToRace(raceId, "Mountain", "climb", 120, LocalDateTime.of(2023, 7, 2, 10, 0), StageType.HIGH_MOUNTAIN);
+		portal.addCategorizedClimbToStage(mountainId, 80.0, CheckpointType.C1, 6.0, 10.0);
+		portal.concludeStagePreparation(mountainId);
+		for(int i=0; i<riderIds.length; i++) {
+			//The last rider wins the flat stage and the first the mountain stage, the first leads overall
+			portal.registerRiderResultsInStage(flatId, riderIds[i], LocalTime.of(12, 0), LocalTime.of(13, i), LocalTime.of(15, 2 * (5 - i)));
+			portal.registerRiderResultsInStage(mountainId, riderIds[i], LocalTime.of(10, 0), LocalTime.of(11, i), LocalTime.of(14, 3 * i));
+		}
+		RaceSnapshot snapshot = portal.snapshot(raceId);
+		assert Arrays.equals(portal.getRidersGeneralClassificationRank(raceId), snapshot.getRidersGeneralClassificationRank())
+			: "direct general classification rank differs from the snapshot";
+		assert Arrays.equals(portal.getGeneralClassificationTimesInRace(raceId), snapshot.getGeneralClassificationTimesInRace())
+			: "direct general classification times differ from the snapshot";
+		assert Arrays.equals(portal.getRidersPointsInRace(raceId), snapshot.getRidersPointsInRace())
+			: "direct points differ from the snapshot";
+		assert Arrays.equals(portal.getRidersMountainPointsInRace(raceId), snapshot.getRidersMountainPointsInRace())
+			: "direct mountain points differ from the snapshot";
+		assert Arrays.equals(portal.getRidersPointClassificationRank(raceId), snapshot.getRidersPointClassificationRank())
+			: "direct points classification differs from the snapshot";
+		assert Arrays.equals(portal.getRidersMountainPointClassificationRank(raceId), snapshot.getRidersMountainPointClassificationRank())
+			: "direct mountain classification differs from the snapshot";
+
+		assert Arrays.equals(portal.getRidersGeneralClassificationRank(raceId), riderIds)
+			: "general classification rank wrong";
+		LocalTime[] times = portal.getGeneralClassificationTimesInRace(raceId);
+		for(int i=0; i<riderIds.length; i++) {
+			assert times[i].equals(LocalTime.of(7, 10 + i)) : "general classification time of rider " + i + " wrong";
+		}
+		//Each rider's race points are the sum of their points in every stage
+		int[] points = portal.getRidersPointsInRace(raceId);
+		int[] mountainPoints = portal.getRidersMountainPointsInRace(raceId);
+		for(int i=0; i<riderIds.length; i++) {
+			int expectedPoints = 0;
+			int expectedMountainPoints = 0;
+			for(int stageId: new int[] {flatId, mountainId}) {
+				int position = Arrays.stream(portal.getRidersRankInStage(stageId)).boxed().toList().indexOf(riderIds[i]);
+				expectedPoints += portal.getRidersPointsInStage(stageId)[position];
+				expectedMountainPoints += portal.getRidersMountainPointsInStage(stageId)[position];
+			}
+			assert points[i] == expectedPoints : "points of rider " + i + " are not the sum of their stage points";
+			assert mountainPoints[i] == expectedMountainPoints : "mountain points of rider " + i + " are not the sum of their stage points";
+		}
+		int[] pointRank = portal.getRidersPointClassificationRank(raceId);
+		assert pointRank.length == riderIds.length && Arrays.stream(pointRank).distinct().count() == riderIds.length
+			: "points classification does not rank every rider once";
+		System.out.println("direct race queries match the snapshot.");
+	}
+
+	/**
+	 * Registers results through an AsyncCyclingPortal while other threads keep
+	 * reading the general classification, and checks a read asked for after a
+	 * write completes never shares a flight started before it.
+	 *
+	 * @throws Exception If the race cannot be set up or a read fails
+	 */
+	private static void coalescedReadsAfterWrites() throws Exception {
+		AsyncCyclingPortal portal = new AsyncCyclingPortal(new CyclingPortalImpl());
+		int teamId = portal.createTeam("Flights", "Riders of the coalescing check").join();
+		int raceId = portal.createRace("FlightTour", "Race read while it is written").join();
+		int stageId = portal.addStageToRace(raceId, "Stage", "flat", 150, LocalDateTime.of(2023, 7, 1, 12, 0), StageType.FLAT).join();
+		portal.concludeStagePreparation(stageId).join();
+		int[] riderIds = new int[200];
+		for(int i=0; i<riderIds.length; i++) {
+			riderIds[i] = portal.createRider(teamId, "Rider" + i, 1990 + i % 10).join();
+		}
+
+		AtomicBoolean writing = new AtomicBoolean(true);
+		AtomicReference<String> failure = new AtomicReference<String>();
+		Thread[] readers = new Thread[4];
+		for(int r=0; r<readers.length; r++) {
+			readers[r] = new Thread(() -> {
+				try {
+					while(writing.get()) {
+						portal.getRidersGeneralClassificationRank(raceId).join();
+					}
+				} catch(Exception e) {
+					failure.set(e.toString());
+				}
+			}, "flight-reader-" + r);
+			readers[r].start();
+		}
+		for(int i=0; i<riderIds.length; i++) {
+			LocalTime start = LocalTime.of(12, 0);
+			portal.registerRiderResultsInStage(stageId, riderIds[i], start, start.plusMinutes(200 + i % 47)).join();
+			int[] rank = portal.getRidersGeneralClassificationRank(raceId).join();
+			if(rank.length != i + 1) {
+				failure.compareAndSet(null, "read after result " + (i + 1) + " had " + rank.length + " riders");
+			}
+		}
+		writing.set(false);
+		for(Thread reader: readers) {
+			reader.join();
+		}
+		assert failure.get() == null : failure.get();
+		assert portal.getClassificationReadCoalescing().getInFlight() == 0
+			: "coalesced reads left in flight once every read completed";
+		portal.close();
+		System.out.println("coalesced reads fresh after writes.");
+	}
+
+	/**
+	 * Enables stale-while-revalidate with no staleness allowed, checks a read
+	 * asked for after a write completes always sees it, and that the six race
+	 * classifications match the wrapped portal's own queries.
+	 *
+	 * @throws Exception If the race cannot be set up or a read fails
+	 */
+	private static void staleWhileRevalidateMatchesDirectReads() throws Exception {
+		CyclingPortalImpl direct = new CyclingPortalImpl();
+		AsyncCyclingPortal portal = new AsyncCyclingPortal(direct);
+		portal.enableStaleWhileRevalidate(Duration.ZERO);
+		int teamId = portal.createTeam("Revalidated", "Riders of the stale read check").join();
+		int raceId = portal.createRace("StaleTour", "Race read while it is revalidated").join();
+		int flatId = portal.addStageToRace(raceId, "Flat", "flat", 150, LocalDateTime.of(2023, 7, 1, 12, 0), StageType.FLAT).join();
+		portal.addIntermediateSprintToStage(flatId, 60).join();
+		portal.concludeStagePreparation(flatId).join();
+		int hillId = portal.addStageToRace(raceId, "Hills", "hills", 150, LocalDateTime.of(2023, 7, 2, 12, 0), StageType.MEDIUM_MOUNTAIN).join();
+		portal.addCategorizedClimbToStage(hillId, 90.0, CheckpointType.C1, 6.0, 9.0).join();
+		portal.concludeStagePreparation(hillId).join();
+
+		for(int i=0; i<60; i++) {
+			int riderId = portal.createRider(teamId, "Rider" + i, 1990 + i % 10).join();
+			LocalTime start = LocalTime.of(12, 0);
+			portal.registerRiderResultsInStage(flatId, riderId, start, start.plusMinutes(60 + i % 7), start.plusMinutes(200 + i % 13)).join();
+			portal.registerRiderResultsInStage(hillId, riderId, start, start.plusMinutes(100 + i % 11), start.plusMinutes(240 - i % 17)).join();
+			int[] rank = portal.getRidersGeneralClassificationRank(raceId).join();
+			assert rank.length == i + 1 : "read after result " + (i + 1) + " had " + rank.length + " riders";
+			assert portal.snapshot(raceId).join().getVersion() == direct.snapshot(raceId).getVersion()
+				: "read after result " + (i + 1) + " was served an out of date snapshot";
+		}
+
+		assert Arrays.equals(portal.getRidersGeneralClassificationRank(raceId).join(), direct.getRidersGeneralClassificationRank(raceId))
+			: "general classification rank differs from the wrapped portal";
+		assert Arrays.equals(portal.getGeneralClassificationTimesInRace(raceId).join(), direct.getGeneralClassificationTimesInRace(raceId))
+			: "general classification times differ from the wrapped portal";
+		assert Arrays.equals(portal.getRidersPointsInRace(raceId).join(), direct.getRidersPointsInRace(raceId))
+			: "points differ from the wrapped portal";
+		assert Arrays.equals(portal.getRidersMountainPointsInRace(raceId).join(), direct.getRidersMountainPointsInRace(raceId))
+			: "mountain points differ from the wrapped portal";
+		assert Arrays.equals(portal.getRidersPointClassificationRank(raceId).join(), direct.getRidersPointClassificationRank(raceId))
+			: "points classification rank differs from the wrapped portal";
+		assert Arrays.equals(portal.getRidersMountainPointClassificationRank(raceId).join(), direct.getRidersMountainPointClassificationRank(raceId))
+			: "mountain classification rank differs from the wrapped portal";
+		portal.close();
+		System.out.println("stale-while-revalidate reads match the portal.");
+	}
+
+	/**
+	 * Records riders passing a live stage one checkpoint at a time, checks a
+	 * rider passing the finish is registered and rejected passages change
+	 * nothing, then removes riders part way through and after finishing.
+	 *
+	 * @throws Exception If the race cannot be set up or a passage fails
+	 */
+	private static void promoteAndRemoveLivePassages() throws Exception {
+		CyclingPortalImpl portal = new CyclingPortalImpl();
+		int teamId = portal.createTeam("Passages", "Riders of the live stage check");
+		int raceId = portal.createRace("LiveTour", "Race followed passage by passage");
+		int stageId = portal.addStageToRace(raceId, "Stage", "flat", 150, LocalDateTime.of(2023, 7, 1, 12, 0), StageType.FLAT);
+		int sprintId = portal.addIntermediateSprintToStage(stageId, 60);
+		portal.concludeStagePreparation(stageId);
+		int finisher = portal.createRider(teamId, "Finisher", 1995);
+		int chaser = portal.createRider(teamId, "Chaser", 1996);
+
+		portal.registerRiderStartInStage(stageId, finisher, LocalTime.of(12, 0));
+		portal.registerRiderPassageInStage(stageId, finisher, sprintId, LocalTime.of(13, 0));
+		portal.registerRiderFinishInStage(stageId, finisher, LocalTime.of(15, 0));
+		assert Arrays.equals(portal.getRidersRankInStage(stageId), new int[] {finisher})
+			: "rider passing the finish not registered in the stage";
+		assert portal.getRiderAdjustedElapsedTimeInStage(stageId, finisher).equals(LocalTime.of(3, 0))
+			: "elapsed time of a promoted rider wrong";
+		assert portal.getRiderPartialResultsInStage(stageId, finisher) == null
+			: "partial results kept after the rider finished";
+
+		portal.registerRiderStartInStage(stageId, chaser, LocalTime.of(12, 0));
+		portal.registerRiderPassageInStage(stageId, chaser, sprintId, LocalTime.of(13, 10));
+		try {
+			portal.registerRiderFinishInStage(stageId, chaser, LocalTime.of(12, 30));
+			assert false : "finish before the sprint accepted";
+		} catch(InvalidCheckpointTimesException e) {
+			//Expected, the finish is before the rider's sprint passage
+		}
+		try {
+			portal.registerRiderPassageInStage(stageId, chaser, sprintId, LocalTime.of(13, 20));
+			assert false : "second passage of the same sprint accepted";
+		} catch(DuplicatedResultException e) {
+			//Expected, the rider already passed the sprint
+		}
+		LocalTime[] partial = portal.getRiderPartialResultsInStage(stageId, chaser);
+		assert partial[1].equals(LocalTime.of(13, 10)) && partial[2] == null
+			: "rejected passages changed the rider's partial results";
+		assert Arrays.equals(portal.getRidersRankInStage(stageId), new int[] {finisher})
+			: "rejected passages changed the stage results";
+		assert Arrays.equals(portal.getRidersRankAtCheckpoint(sprintId), new int[] {finisher, chaser})
+			: "sprint ranking wrong while riders are on the road";
+		System.out.println("live passages promoted.");
+
+		//The chaser has no results yet, so is only known to the live stage
+		portal.removeRider(chaser);
+		assert Arrays.equals(portal.getRidersRankAtCheckpoint(sprintId), new int[] {finisher})
+			: "rider part way through a live stage not removed from its rankings";
+		portal.removeRider(finisher);
+		assert portal.getRidersRankInStage(stageId).length == 0
+			: "finished rider not removed from the stage results";
+		assert portal.getRidersRankAtCheckpoint(sprintId).length == 0
+			: "finished rider not removed from the live rankings";
+		assert portal.getVirtualGeneralClassificationRank(stageId).length == 0
+			: "removed riders kept in the virtual classification";
+		System.out.println("live passages removed with their riders.");
+	}
+
+	/**
+	 * Records three riders through a sprint and a climb with passages arriving
+	 * in no particular rider order, and checks each checkpoint ranks them by
+	 * passage time and finishing riders keep the times they passed.
+	 *
+	 * @throws Exception If the race cannot be set up or a passage fails
+	 */
+	private static void livePassagesRankEachCheckpoint() throws Exception {
+		CyclingPortalImpl portal = new CyclingPortalImpl();
+		int teamId = portal.createTeam("Checkpoints", "Riders of the live ranking check");
+		int raceId = portal.createRace("RankTour", "Race ranked at every checkpoint");
+		int stageId = portal.addStageToRace(raceId, "Stage", "hills", 150, LocalDateTime.of(2023, 7, 1, 12, 0), StageType.MEDIUM_MOUNTAIN);
+		int sprintId = portal.addIntermediateSprintToStage(stageId, 40);
+		int climbId = portal.addCategorizedClimbToStage(stageId, 90.0, CheckpointType.C2, 5.0, 8.0);
+		portal.concludeStagePreparation(stageId);
+		int[] riderIds = new int[3];
+		for(int i=0; i<riderIds.length; i++) {
+			riderIds[i] = portal.createRider(teamId, "Rider" + i, 1990 + i);
+			portal.registerRiderStartInStage(stageId, riderIds[i], LocalTime.of(12, 0));
+		}
+
+		portal.registerRiderPassageInStage(stageId, riderIds[2], sprintId, LocalTime.of(13, 5));
+		portal.registerRiderPassageInStage(stageId, riderIds[0], sprintId, LocalTime.of(13, 10));
+		portal.registerRiderPassageInStage(stageId, riderIds[0], climbId, LocalTime.of(14, 0));
+		portal.registerRiderPassageInStage(stageId, riderIds[1], sprintId, LocalTime.of(13, 0));
+		portal.registerRiderPassageInStage(stageId, riderIds[2], climbId, LocalTime.of(14, 20));
+		assert Arrays.equals(portal.getRidersRankAtCheckpoint(sprintId), new int[] {riderIds[1], riderIds[2], riderIds[0]})
+			: "sprint not ranked by passage time";
+		assert Arrays.equals(portal.getRankedTimesAtCheckpoint(sprintId), new LocalTime[] {LocalTime.of(13, 0), LocalTime.of(13, 5), LocalTime.of(13, 10)})
+			: "sprint times not matching its ranking";
+		assert Arrays.equals(portal.getRidersRankAtCheckpoint(climbId), new int[] {riderIds[0], riderIds[2]})
+			: "climb not ranked by passage time";
+		try {
+			portal.registerRiderPassageInStage(stageId, riderIds[1], climbId, LocalTime.of(12, 50));
+			assert false : "climb passed before the sprint accepted";
+		} catch(InvalidCheckpointTimesException e) {
+			//Expected, the climb comes after the sprint the rider passed at 13:00
+		}
+		LocalTime[] partial = portal.getRiderPartialResultsInStage(stageId, riderIds[1]);
+		assert Arrays.equals(partial, new LocalTime[] {LocalTime.of(12, 0), LocalTime.of(13, 0), null, null})
+			: "partial results not holding only the passages made";
+
+		portal.registerRiderPassageInStage(stageId, riderIds[1], climbId, LocalTime.of(14, 10));
+		portal.registerRiderFinishInStage(stageId, riderIds[1], LocalTime.of(16, 0));
+		assert Arrays.equals(portal.getRiderResultsInStage(stageId, riderIds[1]), new LocalTime[] {LocalTime.of(12, 0), LocalTime.of(13, 0), LocalTime.of(14, 10), LocalTime.of(4, 0)})
+			: "finished rider's result not holding the times passed";
+		assert portal.getRidersRankInStage(stageId).length == 1
+			: "riders still on the road registered in the stage";
+		System.out.println("live passages ranked at each checkpoint.");
+	}
+
+	/**
+	 * Offers transponder reads out of order and more than once, and checks
+	 * passages are only committed once the watermark passes them, in event
+	 * time order, with duplicates dropped and late reads applied as corrections.
+	 *
+	 * @throws Exception If the race cannot be set up or a read is rejected
+	 */
+	private static void reorderBufferReleasesAtWatermark() throws Exception {
+		CyclingPortalImpl portal = new CyclingPortalImpl();
+		int teamId = portal.createTeam("Transponders", "Riders of the reorder buffer check");
+		int raceId = portal.createRace("ReadTour", "Race read by transponders");
+		int stageId = portal.addStageToRace(raceId, "Stage", "flat", 150, LocalDateTime.of(2023, 7, 1, 12, 0), StageType.FLAT);
+		int sprintId = portal.addIntermediateSprintToStage(stageId, 60);
+		portal.concludeStagePreparation(stageId);
+		int first = portal.createRider(teamId, "First", 1995);
+		int second = portal.createRider(teamId, "Second", 1996);
+		PassageReorderBuffer buffer = new PassageReorderBuffer(portal, stageId, Duration.ofSeconds(2), Duration.ofMinutes(1));
+
+		buffer.offerStart(first, LocalTime.of(12, 0));
+		buffer.offerStart(second, LocalTime.of(12, 0));
+		assert buffer.getBufferedCount() == 2 && buffer.getCommittedPassages() == 0
+			: "reads committed before the watermark passed them";
+		//The second rider's read arrives first, moving the watermark past both starts only
+		buffer.offerPassage(second, sprintId, LocalTime.of(13, 0, 30));
+		buffer.offerPassage(first, sprintId, LocalTime.of(13, 0));
+		buffer.offerPassage(first, sprintId, LocalTime.of(13, 0, 1));
+		assert buffer.getWatermark().equals(LocalTime.of(12, 59, 30))
+			: "watermark not trailing the latest read by the allowed lateness";
+		assert buffer.getCommittedPassages() == 2 && buffer.getBufferedCount() == 2
+			: "sprint passages released before the watermark passed them";
+		assert buffer.getDuplicatesDropped() == 1
+			: "repeated read within the duplicate window not dropped";
+		assert portal.getRidersRankAtCheckpoint(sprintId).length == 0
+			: "sprint ranked before its passages were released";
+
+		buffer.offerFinish(first, LocalTime.of(15, 0));
+		assert buffer.getCommittedPassages() == 4 && buffer.getBufferedCount() == 1
+			: "passages behind the watermark not released";
+		assert Arrays.equals(portal.getRidersRankAtCheckpoint(sprintId), new int[] {first, second})
+			: "passages released out of event time order";
+		//Arriving behind the watermark, the read is applied straight away as a correction
+		buffer.offerPassage(second, sprintId, LocalTime.of(12, 59, 50));
+		assert buffer.getLateReads() == 1 && buffer.getCorrections() == 1
+			: "late read not applied as a correction";
+		assert Arrays.equals(portal.getRidersRankAtCheckpoint(sprintId), new int[] {second, first})
+			: "correction did not move the rider at the sprint";
+
+		buffer.flush();
+		assert buffer.getBufferedCount() == 0 && buffer.getWatermark().equals(LocalTime.of(15, 0))
+			: "flush left reads buffered";
+		assert Arrays.equals(portal.getRidersRankInStage(stageId), new int[] {first})
+			: "finish released by the flush not registered";
+		assert buffer.getRejected() == 0 : "reads rejected: " + buffer.getLastRejection();
+		System.out.println("reorder buffer released reads at the watermark.");
+	}
+
+	/**
+	 * Corrects passages of finished riders in a race whose stage results were
+	 * already calculated, and checks after each correction that the stage and
+	 * general classification results match those of a portal registering the
+	 * corrected times from scratch. Riders finish less than a second apart and
+	 * pass the sprint together, so bunched times and tied places are moved too.
+	 *
+	 * @throws Exception If the race cannot be set up or a correction fails
+	 */
+	private static void correctionsMatchFreshResults() throws Exception {
+		Random random = new Random(30);
+		LocalTime[][] times = new LocalTime[40][];
+		for(int i=0; i<times.length; i++) {
+			times[i] = new LocalTime[] {LocalTime.of(12, 0), LocalTime.of(13, i / 3), LocalTime.of(14, 0, random.nextInt(60)),
+				LocalTime.of(16, 0).plusNanos(i * 600_000_000L)};
+		}
+		CyclingPortalImpl portal = new CyclingPortalImpl();
+		int[] ids = setUpCorrectionRace(portal, times);
+		int stageId = ids[1];
+		int[] riderIds = Arrays.copyOfRange(ids, 2, ids.length);
+		//Calculating the standings and general classification so corrections patch them
+		portal.getRidersGeneralClassificationRank(ids[0]);
+		for(int c=0; c<30; c++) {
+			int rider = random.nextInt(riderIds.length);
+			int column = 1 + random.nextInt(3);
+			LocalTime time;
+			if(column == 1) {
+				time = LocalTime.of(12, 30).plusMinutes(random.nextInt(60));
+			} else if(column == 2) {
+				time = LocalTime.of(14, 0, random.nextInt(60));
+			} else {
+				//Never exactly another rider's finish, as riders on equal times are placed in the order they were registered
+				time = LocalTime.of(16, 0).plusNanos(random.nextInt(60) * 400_000_000L + c + 1);
+			}
+			portal.correctRiderPassageInStage(stageId, riderIds[rider], column, time);
+			times[rider][column] = time;
+
+			CyclingPortalImpl fresh = new CyclingPortalImpl();
+			int[] freshIds = setUpCorrectionRace(fresh, times);
+			int[] freshRiderIds = Arrays.copyOfRange(freshIds, 2, freshIds.length);
+			assert Arrays.equals(portal.getRankedAdjustedElapsedTimesInStage(stageId), fresh.getRankedAdjustedElapsedTimesInStage(freshIds[1]))
+				: "adjusted times wrong after correction " + c;
+			assert Arrays.equals(portal.getRidersPointsInStage(stageId), fresh.getRidersPointsInStage(freshIds[1]))
+				: "stage points wrong after correction " + c;
+			assert Arrays.equals(portal.getRidersMountainPointsInStage(stageId), fresh.getRidersMountainPointsInStage(freshIds[1]))
+				: "stage mountain points wrong after correction " + c;
+			assert Arrays.equals(positions(portal.getRidersRankInStage(stageId), riderIds), positions(fresh.getRidersRankInStage(freshIds[1]), freshRiderIds))
+				: "stage rank wrong after correction " + c;
+			//Riders on equal times are ordered by id, which differs between the portals, so each rider's time is compared
+			assert Arrays.equals(timesByRider(portal.getRidersGeneralClassificationRank(ids[0]), portal.getGeneralClassificationTimesInRace(ids[0]), riderIds),
+				timesByRider(fresh.getRidersGeneralClassificationRank(freshIds[0]), fresh.getGeneralClassificationTimesInRace(freshIds[0]), freshRiderIds))
+				: "general classification wrong after correction " + c;
+			assert Arrays.equals(portal.getGeneralClassificationTimesInRace(ids[0]), fresh.getGeneralClassificationTimesInRace(freshIds[0]))
+				: "general classification times wrong after correction " + c;
+		}
+		System.out.println("corrections match freshly registered results.");
+	}
+
+	/**
+	 * Gives time bonuses and penalties in a race whose general classification
+	 * was already calculated, and checks they move the riders in it while the
+	 * stage they were given in keeps its version and results.
+	 *
+	 * @throws Exception If the race cannot be set up
+	 */
+	private static void bonusesOnlyChangeTheRace() throws Exception {
+		CyclingPortalImpl portal = new CyclingPortalImpl();
+		int teamId = portal.createTeam("Bonuses", "Riders of the bonus check");
+		int raceId = portal.createRace("BonusTour", "Race with time bonuses");
+		int stageId = portal.addStageToRace(raceId, "Stage", "flat", 150, LocalDateTime.of(2023, 7, 1, 12, 0), StageType.FLAT);
+		portal.concludeStagePreparation(stageId);
+		int[] riderIds = new int[3];
+		for(int i=0; i<riderIds.length; i++) {
+			riderIds[i] = portal.createRider(teamId, "Rider" + i, 1990 + i);
+			portal.registerRiderResultsInStage(stageId, riderIds[i], LocalTime.of(12, 0), LocalTime.of(16, 0, 10 * i));
+		}
+		assert Arrays.equals(portal.getRidersGeneralClassificationRank(raceId), riderIds)
+			: "general classification wrong before any bonus";
+		long stageVersion = portal.getStageVersion(stageId);
+		long raceVersion = portal.getRaceVersion(raceId);
+		LocalTime[] stageTimes = portal.getRankedAdjustedElapsedTimesInStage(stageId);
+
+		portal.addRiderTimeBonusInStage(stageId, riderIds[2], Duration.ofSeconds(30));
+		portal.addRiderTimePenaltyInStage(stageId, riderIds[0], Duration.ofSeconds(15));
+		assert portal.getStageVersion(stageId) == stageVersion : "time bonus changed the stage version";
+		assert portal.getRaceVersion(raceId) == raceVersion + 2 : "time bonus did not change the race version";
+		assert Arrays.equals(portal.getRankedAdjustedElapsedTimesInStage(stageId), stageTimes)
+			: "time bonus changed the stage results";
+		assert Arrays.equals(portal.getRidersGeneralClassificationRank(raceId), new int[] {riderIds[2], riderIds[1], riderIds[0]})
+			: "time bonus and penalty did not move the riders in the general classification";
+		LocalTime[] times = portal.getGeneralClassificationTimesInRace(raceId);
+		assert times[0].equals(LocalTime.of(3, 59, 50)) && times[1].equals(LocalTime.of(4, 0, 10)) && times[2].equals(LocalTime.of(4, 0, 15))
+			: "general classification times wrong after a bonus and a penalty";
+		System.out.println("time bonuses only change the race.");
+	}
+
+	/**
+	 * Leaves a rider out of one stage and checks only riders with a time in
+	 * every stage with results are classified, then gives a bonus larger than
+	 * a rider's stage times and checks the total is shown as zero.
+	 *
+	 * @throws Exception If the race cannot be set up or a query fails
+	 */
+	private static void partialFinishersLeftOutOfTheRace() throws Exception {
+		CyclingPortalImpl portal = new CyclingPortalImpl();
+		int teamId = portal.createTeam("Partial", "Riders of the partial finisher check");
+		int raceId = portal.createRace("PartialTour", "Race a rider abandons");
+		int[] stageIds = new int[2];
+		for(int s=0; s<stageIds.length; s++) {
+			stageIds[s] = portal.addStageToRace(raceId, "Stage" + s, "flat", 150, LocalDateTime.of(2023, 7, 1 + s, 12, 0), StageType.FLAT);
+			portal.concludeStagePreparation(stageIds[s]);
+		}
+		int first = portal.createRider(teamId, "First", 1990);
+		int second = portal.createRider(teamId, "Second", 1991);
+		int abandoned = portal.createRider(teamId, "Abandoned", 1992);
+		for(int s=0; s<stageIds.length; s++) {
+			portal.registerRiderResultsInStage(stageIds[s], first, LocalTime.of(12, 0), LocalTime.of(13, 0));
+			portal.registerRiderResultsInStage(stageIds[s], second, LocalTime.of(12, 0), LocalTime.of(13, 10));
+		}
+		//Fastest in the only stage it finished, so it would lead if a missing stage counted as no time
+		portal.registerRiderResultsInStage(stageIds[0], abandoned, LocalTime.of(12, 0), LocalTime.of(12, 30));
+
+		assert Arrays.equals(portal.getRidersGeneralClassificationRank(raceId), new int[] {first, second})
+			: "rider missing a stage classified in the race";
+		assert Arrays.equals(portal.getGeneralClassificationTimesInRace(raceId), new LocalTime[] {LocalTime.of(2, 0), LocalTime.of(2, 20)})
+			: "general classification times include a rider missing a stage";
+		assert portal.getRidersPointsInRace(raceId).length == 2
+			: "points in race include a rider missing a stage";
+
+		portal.addRiderTimeBonusInStage(stageIds[1], second, Duration.ofHours(3));
+		assert Arrays.equals(portal.getRidersGeneralClassificationRank(raceId), new int[] {second, first})
+			: "bonus larger than the stage times did not lead the race";
+		assert portal.getGeneralClassificationTimesInRace(raceId)[0].equals(LocalTime.MIDNIGHT)
+			: "total below zero wrapped round instead of showing zero";
+		System.out.println("partial finishers left out of the race.");
+	}
+
+	/**
+	 * Sums stage columns of lengths around the vector width with the kernel
+	 * the portal uses and checks every row matches a plain sum, including the
+	 * rows left over after the last full vector.
+	 */
+	private static void summationKernelsAgree() {
+		GcTimeSummation kernel = GcTimeSummation.getInstance();
+		Random random = new Random(36);
+		for(int riders: new int[] {0, 1, 3, 7, 8, 9, 33, 1001}) {
+			long[][] columns = new long[4][riders];
+			long[] expected = new long[riders];
+			for(int s=0; s<columns.length; s++) {
+				for(int r=0; r<riders; r++) {
+					//Up to six hours per stage, in nanoseconds
+					columns[s][r] = (long) (random.nextDouble() * 21_600_000_000_000L);
+					expected[r] += columns[s][r];
+				}
+			}
+			assert Arrays.equals(kernel.sum(columns, riders), expected)
+				: "the " + kernel.getName() + " kernel summed " + riders + " riders wrongly";
+		}
+		System.out.println("summation kernels agree.");
+	}
+
+	/**
+	 * Registers, adds and removes results of three teams and checks the stage
+	 * and race team classifications count each team's three fastest riders and
+	 * leave out teams with fewer than three.
+	 *
+	 * @throws Exception If the race cannot be set up or a query fails
+	 */
+	private static void teamClassificationFollowsResults() throws Exception {
+		CyclingPortalImpl portal = new CyclingPortalImpl();
+		int raceId = portal.createRace("TeamTour", "Race with a team classification");
+		int firstStage = portal.addStageToRace(raceId, "First", "flat", 150, LocalDateTime.of(2023, 7, 1, 12, 0), StageType.FLAT);
+		portal.concludeStagePreparation(firstStage);
+		int[] teamIds = {portal.createTeam("Deep", "Four riders"), portal.createTeam("Even", "Three riders"), portal.createTeam("Short", "Two riders")};
+		int[][] finishMinutes = {{180, 181, 190, 200}, {179, 185, 186}, {170, 171}};
+		int[][] riderIds = new int[teamIds.length][];
+		for(int t=0; t<teamIds.length; t++) {
+			riderIds[t] = new int[finishMinutes[t].length];
+			for(int r=0; r<riderIds[t].length; r++) {
+				riderIds[t][r] = portal.createRider(teamIds[t], "Rider" + t + r, 1990 + r);
+				portal.registerRiderResultsInStage(firstStage, riderIds[t][r], LocalTime.of(12, 0), LocalTime.of(12, 0).plusMinutes(finishMinutes[t][r]));
+			}
+		}
+		//9h10 for the even team against 9h11 for the deep one, whose fourth rider does not count
+		assert Arrays.equals(portal.getTeamClassificationRankInStage(firstStage), new int[] {teamIds[1], teamIds[0]})
+			: "stage team classification not counting the three fastest riders";
+		assert Arrays.equals(portal.getTeamClassificationTimesInStage(firstStage), new LocalTime[] {LocalTime.of(9, 10), LocalTime.of(9, 11)})
+			: "stage team times wrong";
+
+		int fastest = portal.createRider(teamIds[0], "Fastest", 1999);
+		portal.registerRiderResultsInStage(firstStage, fastest, LocalTime.of(12, 0), LocalTime.of(14, 50));
+		assert Arrays.equals(portal.getTeamClassificationRankInStage(firstStage), new int[] {teamIds[0], teamIds[1]})
+			: "stage team classification not moved by a new result";
+		assert portal.getTeamClassificationTimesInStage(firstStage)[0].equals(LocalTime.of(8, 51))
+			: "stage team time not updated by a new result";
+
+		int secondStage = portal.addStageToRace(raceId, "Second", "flat", 150, LocalDateTime.of(2023, 7, 2, 12, 0), StageType.FLAT);
+		portal.concludeStagePreparation(secondStage);
+		portal.removeRider(riderIds[1][2]);
+		assert Arrays.equals(portal.getTeamClassificationRankInStage(firstStage), new int[] {teamIds[0]})
+			: "team left with two riders still classified";
+		for(int r=0; r<riderIds[1].length - 1; r++) {
+			portal.registerRiderResultsInStage(secondStage, riderIds[1][r], LocalTime.of(12, 0), LocalTime.of(13, 0));
+		}
+		for(int r=0; r<3; r++) {
+			portal.registerRiderResultsInStage(secondStage, riderIds[0][r], LocalTime.of(12, 0), LocalTime.of(13, 0));
+		}
+		assert Arrays.equals(portal.getTeamClassificationRankInRace(raceId), new int[] {teamIds[0]})
+			: "race team classification holding a team not classified in every stage";
+		//The team time of each stage comes from its own three fastest riders, 8h51 and then 3h
+		assert Arrays.equals(portal.getTeamClassificationTimesInRace(raceId), new LocalTime[] {LocalTime.of(11, 51)})
+			: "race team times wrong";
+		System.out.println("team classification follows the results.");
+	}
+
+	/**
+	 * Registers a rider in two races, the later race's stage raced first, and
+	 * checks the career lists the stages by start time, picks up results added
+	 * after it was first read, and the season totals sum both races.
+	 *
+	 * @throws Exception If the races cannot be set up or a query fails
+	 */
+	private static void careersAndSeasonTotals() throws Exception {
+		CyclingPortalImpl portal = new CyclingPortalImpl();
+		int teamId = portal.createTeam("Season", "Riders of the career check");
+		int rider = portal.createRider(teamId, "Rider", 1990);
+		int rival = portal.createRider(teamId, "Rival", 1991);
+		int summerId = portal.createRace("SummerTour", "Race raced second");
+		int summerStage = portal.addStageToRace(summerId, "Summer", "flat", 150, LocalDateTime.of(2023, 7, 1, 12, 0), StageType.FLAT);
+		portal.concludeStagePreparation(summerStage);
+		int springId = portal.createRace("SpringTour", "Race raced first");
+		int springStage = portal.addStageToRace(springId, "Spring", "flat", 150, LocalDateTime.of(2023, 4, 1, 12, 0), StageType.FLAT);
+		portal.concludeStagePreparation(springStage);
+		portal.registerRiderResultsInStage(summerStage, rider, LocalTime.of(12, 0), LocalTime.of(15, 0));
+		portal.registerRiderResultsInStage(summerStage, rival, LocalTime.of(12, 0), LocalTime.of(15, 10));
+		assert portal.getRiderCareer(rider).length == 1 : "career not holding the first result";
+
+		//Registered once the career index is built, so it is added to it rather than rebuilt
+		portal.registerRiderResultsInStage(springStage, rival, LocalTime.of(12, 0), LocalTime.of(15, 0));
+		portal.registerRiderResultsInStage(springStage, rider, LocalTime.of(12, 0), LocalTime.of(15, 20));
+		CareerPosting[] career = portal.getRiderCareer(rider);
+		assert career.length == 2 && career[0].getStageId() == springStage && career[1].getStageId() == summerStage
+			: "career not ordered by stage start time";
+		assert career[0].getRaceId() == springId && career[0].getPosition() == 2 && career[0].getAdjustedTime().equals(LocalTime.of(3, 20))
+			: "career posting of the later result wrong";
+		assert career[1].getPosition() == 1 && career[1].getSprinterPoints() == 50
+			: "career posting of the stage win wrong";
+
+		portal.addRiderTimePenaltyInStage(springStage, rider, Duration.ofMinutes(1));
+		SeasonTotals totals = portal.getSeasonTotals(summerId, springId).get(rider);
+		assert totals.getRaces() == 2 && totals.getStages() == 2 && totals.getStageWins() == 1
+			: "season counts wrong: " + totals;
+		assert totals.getTotalTime().equals(Duration.ofMinutes(381)) : "season time not holding both races and the penalty: " + totals;
+		assert totals.getSprinterPoints() == 80 && totals.getMountainPoints() == 0 : "season points wrong: " + totals;
+		assert portal.getSeasonTotals(springId).get(rider).getRaces() == 1 : "season totals counting a race not asked for";
+		System.out.println("careers and season totals summed.");
+	}
+
+	/**
+	 * Sets up a race with a stage holding a sprint and a climb, and a second
+	 * stage every rider finishes in the same time, then registers the times.
+	 *
+	 * @param portal The portal the race is set up in
+	 * @param times The start, sprint, climb and finish times of every rider in the first stage
+	 * @return The race id, the first stage id and then the rider ids
+	 * @throws Exception If the race cannot be set up
+	 */
+	private static int[] setUpCorrectionRace(CyclingPortalImpl portal, LocalTime[][] times) throws Exception {
+		int teamId = portal.createTeam("Corrections", "Riders of the correction check");
+		int raceId = portal.createRace("CorrectionTour", "Race whose results are corrected");
+		int stageId = portal.addStageToRace(raceId, "Corrected", "hills", 150, LocalDateTime.of(2023, 7, 1, 12, 0), StageType.MEDIUM_MOUNTAIN);
+		portal.addIntermediateSprintToStage(stageId, 40);
+		portal.addCategorizedClimbToStage(stageId, 80.0, CheckpointType.C2, 5.0, 8.0);
+		portal.concludeStagePreparation(stageId);
+		int otherId = portal.addStageToRace(raceId, "Other", "flat", 150, LocalDateTime.of(2023, 7, 2, 12, 0), StageType.FLAT);
+		portal.concludeStagePreparation(otherId);
+		int[] ids = new int[times.length + 2];
+		ids[0] = raceId;
+		ids[1] = stageId;
+		for(int i=0; i<times.length; i++) {
+			ids[i + 2] = portal.createRider(teamId, "Rider" + i, 1990 + i % 10);
+			portal.registerRiderResultsInStage(stageId, ids[i + 2], times[i].clone());
+			portal.registerRiderResultsInStage(otherId, ids[i + 2], LocalTime.of(12, 0), LocalTime.of(16, 0));
+		}
+		return ids;
+	}
+
+	/**
+	 * Lays the times of a classification out in the order the riders were created.
+	 *
+	 * @param rank The ranked rider ids
+	 * @param times The times matching the rank
+	 * @param riderIds The rider ids in the order they were created
+	 * @return The time of each rider, at the index the rider was created at
+	 */
+	private static LocalTime[] timesByRider(int[] rank, LocalTime[] times, int[] riderIds) {
+		LocalTime[] byRider = new LocalTime[riderIds.length];
+		int[] positions = positions(rank, riderIds);
+		for(int i=0; i<positions.length; i++) {
+			byRider[positions[i]] = times[i];
+		}
+		return byRider;
+	}
+
+	/**
+	 * Turns a ranking of riders into the indexes the riders were created at.
+	 *
+	 * @param rank The ranked rider ids
+	 * @param riderIds The rider ids in the order they were created
+	 * @return The creation index of each ranked rider
+	 */
+	private static int[] positions(int[] rank, int[] riderIds) {
+		int[] positions = new int[rank.length];
+		for(int i=0; i<rank.length; i++) {
+			for(int j=0; j<riderIds.length; j++) {
+				if(riderIds[j] == rank[i]) {
+					positions[i] = j;
+				}
+			}
+		}
+		return positions;
+	}
+
+	/**
+	 * Follows two riders through a live stage after a finished one and checks
+	 * the virtual classification takes the furthest checkpoint passed and
+	 * reorders as the rider behind on time gains on the road.
+	 *
+	 * @throws Exception If the race cannot be set up or a passage fails
+	 */
+	private static void virtualClassificationFollowsTheRoad() throws Exception {
+		CyclingPortalImpl portal = new CyclingPortalImpl();
+		int teamId = portal.createTeam("Virtual", "Riders of the virtual classification check");
+		int raceId = portal.createRace("VirtualTour", "Race followed on the road");
+		int leader = portal.createRider(teamId, "Leader", 1995);
+		int chaser = portal.createRider(teamId, "Chaser", 1996);
+		int doneId = portal.addStageToRace(raceId, "Done", "flat", 150, LocalDateTime.of(2023, 7, 1, 12, 0), StageType.FLAT);
+		portal.concludeStagePreparation(doneId);
+		portal.registerRiderResultsInStage(doneId, leader, LocalTime.of(12, 0), LocalTime.of(15, 0));
+		portal.registerRiderResultsInStage(doneId, chaser, LocalTime.of(12, 0), LocalTime.of(15, 5));
+		int liveId = portal.addStageToRace(raceId, "Live", "hills", 150, LocalDateTime.of(2023, 7, 2, 12, 0), StageType.MEDIUM_MOUNTAIN);
+		int sprintId = portal.addIntermediateSprintToStage(liveId, 40);
+		int climbId = portal.addCategorizedClimbToStage(liveId, 90.0, CheckpointType.C1, 7.0, 9.0);
+		portal.concludeStagePreparation(liveId);
+		portal.registerRiderStartInStage(liveId, leader, LocalTime.of(12, 0));
+		portal.registerRiderStartInStage(liveId, chaser, LocalTime.of(12, 0));
+
+		//Ten minutes faster to the sprint, so the chaser takes the lead at it
+		portal.registerRiderPassageInStage(liveId, leader, sprintId, LocalTime.of(13, 0));
+		portal.registerRiderPassageInStage(liveId, chaser, sprintId, LocalTime.of(12, 50));
+		assert Arrays.equals(portal.getVirtualGeneralClassificationRank(liveId), new int[] {chaser, leader})
+			: "virtual classification not reordered at the sprint";
+		assert Arrays.equals(portal.getVirtualGeneralClassificationTimes(liveId), new LocalTime[] {LocalTime.of(3, 55), LocalTime.of(4, 0)})
+			: "virtual times at the sprint wrong";
+
+		//Only the leader has reached the climb, so only the leader is classified there
+		portal.registerRiderPassageInStage(liveId, leader, climbId, LocalTime.of(14, 0));
+		assert Arrays.equals(portal.getVirtualGeneralClassificationRank(liveId), new int[] {leader})
+			: "virtual classification not taken at the furthest checkpoint";
+		portal.registerRiderPassageInStage(liveId, chaser, climbId, LocalTime.of(14, 2));
+		assert Arrays.equals(portal.getVirtualGeneralClassificationRank(liveId), new int[] {leader, chaser})
+			: "virtual classification not reordered at the climb";
+		assert Arrays.equals(portal.getVirtualGeneralClassificationTimes(liveId), new LocalTime[] {LocalTime.of(5, 0), LocalTime.of(5, 7)})
+			: "virtual times at the climb wrong";
+		System.out.println("virtual classification follows the road.");
+	}
+
+	/**
+	 * Follows a live stage of a race whose riders already have more than a
+	 * day of stage times, and checks the virtual general classification is
+	 * answered with the same wrapped times as the general classification.
+	 *
+	 * @throws Exception If the race cannot be set up or a passage fails
+	 */
+	private static void virtualClassificationPastOneDay() throws Exception {
+		CyclingPortalImpl portal = new CyclingPortalImpl();
+		int teamId = portal.createTeam("LongDays", "Riders of the long race check");
+		int raceId = portal.createRace("LongTour", "Race longer than a day in total");
+		int[] riderIds = {portal.createRider(teamId, "Leader", 1995), portal.createRider(teamId, "Follower", 1996)};
+		for(int s=0; s<2; s++) {
+			int stageId = portal.addStageToRace(raceId, "Long" + s, "flat", 250, LocalDateTime.of(2023, 7, 1 + s, 6, 0), StageType.FLAT);
+			portal.concludeStagePreparation(stageId);
+			for(int i=0; i<riderIds.length; i++) {
+				//Thirteen hours and more per stage, so two stages already pass a day
+				portal.registerRiderResultsInStage(stageId, riderIds[i], LocalTime.of(6, 0), LocalTime.of(19, 10 * i));
+			}
+		}
+		int liveId = portal.addStageToRace(raceId, "Live", "flat", 150, LocalDateTime.of(2023, 7, 3, 12, 0), StageType.FLAT);
+		int sprintId = portal.addIntermediateSprintToStage(liveId, 60);
+		portal.concludeStagePreparation(liveId);
+		for(int i=0; i<riderIds.length; i++) {
+			portal.registerRiderStartInStage(liveId, riderIds[i], LocalTime.of(12, 0));
+			portal.registerRiderPassageInStage(liveId, riderIds[i], sprintId, LocalTime.of(13, 0));
+		}
+		assert Arrays.equals(portal.getVirtualGeneralClassificationRank(liveId), riderIds)
+			: "virtual classification rank wrong past one day";
+		LocalTime[] times = portal.getVirtualGeneralClassificationTimes(liveId);
+		//Two stages of 13h, or 13h10m for the follower, plus an hour to the sprint, wrapped past midnight
+		assert times[0].equals(LocalTime.of(3, 0)) && times[1].equals(LocalTime.of(3, 20))
+			: "virtual classification times wrong past one day";
+		System.out.println("virtual classification answered past one day.");
+	}
+
+	/**
+	 * Feeds a ResultIngestionPipeline a result its portal fails on with an
+	 * error, and checks the pipeline stops and fails the commands queued
+	 * behind it and any submitted afterwards instead of hanging.
+	 *
+	 * @throws Exception If the race cannot be set up
+	 */
+	private static void pipelineFailureFailsSubmissions() throws Exception {
+		int[] failingRider = new int[1];
+		CyclingPortalImpl portal = new CyclingPortalImpl() {
+			@Override
+			public void registerRiderResultsInStage(int stageId, int riderId, LocalTime... checkpoints) throws IDNotRecognisedException,
+			DuplicatedResultException, InvalidCheckpointTimesException, InvalidStageStateException {
+				if(riderId == failingRider[0]) {
+					throw new AssertionError("writer failure injected by the check");
+				}
+				super.registerRiderResultsInStage(stageId, riderId, checkpoints);
+			}
+		};
+		int teamId = portal.createTeam("Failures", "Riders of the pipeline failure check");
+		int raceId = portal.createRace("FailingTour", "Race whose writer fails");
+		int stageId = portal.addStageToRace(raceId, "Stage", "flat", 150, LocalDateTime.of(2023, 7, 1, 12, 0), StageType.FLAT);
+		portal.concludeStagePreparation(stageId);
+		int[] riderIds = new int[40];
+		for(int i=0; i<riderIds.length; i++) {
+			riderIds[i] = portal.createRider(teamId, "Rider" + i, 1990 + i % 10);
+		}
+		failingRider[0] = riderIds[10];
+		LocalTime start = LocalTime.of(12, 0);
+		//A buffer smaller than the submissions, so producers also wait on a full buffer
+		ResultIngestionPipeline pipeline = new ResultIngestionPipeline(portal, 8, 4);
+		CompletableFuture<?>[] registered = new CompletableFuture<?>[riderIds.length];
+		for(int i=0; i<riderIds.length; i++) {
+			registered[i] = pipeline.submitResults(stageId, riderIds[i], start, start.plusMinutes(200 + i));
+		}
+		int failed = 0;
+		for(int i=0; i<riderIds.length; i++) {
+			try {
+				registered[i].join();
+				assert i < 10 : "result queued after the failure registered";
+			} catch(CompletionException e) {
+				failed++;
+			}
+		}
+		assert failed == riderIds.length - 10 : failed + " results failed, expected every result from the failing one on";
+		assert pipeline.getFailure() != null && pipeline.getFailure().getCause() instanceof AssertionError
+			: "pipeline failure not reported";
+		assert pipeline.submitDeletion(stageId, riderIds[0]).isCompletedExceptionally()
+			: "submission accepted after the pipeline failed";
+		pipeline.close();
+		assert portal.getRidersRankInStage(stageId).length == 10
+			: "results before the failure not kept";
+		System.out.println("pipeline failure fails its submissions.");
+	}
+
+	/**
+	 * Fills the classification cache of a portal past its bound and checks the
+	 * least recently used results are evicted first and every lookup is counted.
+	 *
+	 * @throws Exception If the races cannot be created or queried
+	 */
+	private static void classificationCacheEvictsLeastRecentlyUsed() throws Exception {
+		CyclingPortalImpl portal = new CyclingPortalImpl();
+		ClassificationCache cache = portal.getClassificationCache();
+		int[] raceIds = new int[ClassificationCache.DEFAULT_MAX_ENTRIES + 4];
+		for(int i=0; i<raceIds.length; i++) {
+			raceIds[i] = portal.createRace("CacheRace" + i, "Race filling the cache");
+		}
+		for(int i=0; i<ClassificationCache.DEFAULT_MAX_ENTRIES; i++) {
+			portal.getGeneralClassificationTimesInRace(raceIds[i]);
+		}
+		assert cache.getMisses() == ClassificationCache.DEFAULT_MAX_ENTRIES && cache.getHits() == 0 && cache.getEvictions() == 0
+			: "first lookups not counted as misses";
+		assert cache.size() == ClassificationCache.DEFAULT_MAX_ENTRIES : "results not kept up to the bound";
+		//Using the first race again so the second becomes the least recently used
+		portal.getGeneralClassificationTimesInRace(raceIds[0]);
+		assert cache.getHits() == 1 : "repeated lookup not counted as a hit";
+		for(int i=ClassificationCache.DEFAULT_MAX_ENTRIES; i<raceIds.length; i++) {
+			portal.getGeneralClassificationTimesInRace(raceIds[i]);
+		}
+		assert cache.getEvictions() == 4 && cache.size() == ClassificationCache.DEFAULT_MAX_ENTRIES : "cache grew past its bound";
+		portal.getGeneralClassificationTimesInRace(raceIds[0]);
+		assert cache.getHits() == 2 : "recently used result evicted";
+		portal.getGeneralClassificationTimesInRace(raceIds[1]);
+		assert cache.getHits() == 2 && cache.getMisses() == raceIds.length + 1 : "least recently used result not evicted";
+		assert cache.getEvictions() == 5 : "reinserted result did not evict the next least recently used";
+		portal.removeRaceById(raceIds[0]);
+		assert cache.size() == ClassificationCache.DEFAULT_MAX_ENTRIES - 1 : "removed race left in the cache";
+		System.out.println("classification cache evicts the least recently used results.");
+	}
+
+	/**
+	 * Changes a race in each way that can change its results and checks every
+	 * change moves the versions, and that conditional reads only answer with a
+	 * value when the version the client knows is out of date.
+	 *
+	 * @throws Exception If the race cannot be set up or a query fails
+	 */
+	private static void versionsMoveWithEveryMutation() throws Exception {
+		CyclingPortalImpl portal = new CyclingPortalImpl();
+		int raceId = portal.createRace("VersionTour", "Race changed in every way");
+		long raceVersion = portal.getRaceVersion(raceId);
+		int stageId = portal.addStageToRace(raceId, "Stage", "hilly", 150, LocalDateTime.of(2023, 7, 1, 12, 0), StageType.HIGH_MOUNTAIN);
+		assert portal.getRaceVersion(raceId) > raceVersion : "adding a stage did not change the race version";
+
+		raceVersion = portal.getRaceVersion(raceId);
+		long stageVersion = portal.getStageVersion(stageId);
+		int climbId = portal.addCategorizedClimbToStage(stageId, 60.0, CheckpointType.C1, 6.0, 5.0);
+		assert portal.getStageVersion(stageId) > stageVersion && portal.getRaceVersion(raceId) > raceVersion
+			: "adding a checkpoint did not change the versions";
+		stageVersion = portal.getStageVersion(stageId);
+		portal.removeCheckpoint(climbId);
+		assert portal.getStageVersion(stageId) > stageVersion : "removing a checkpoint did not change the stage version";
+		stageVersion = portal.getStageVersion(stageId);
+		portal.concludeStagePreparation(stageId);
+		assert portal.getStageVersion(stageId) > stageVersion : "concluding preparation did not change the stage version";
+
+		//A client which read the stage at its current version is told nothing changed
+		VersionedResult<int[]> unchanged = portal.getRidersRankInStage(stageId, portal.getStageVersion(stageId));
+		assert !unchanged.isModified() && unchanged.getValue() == null && unchanged.getVersion() == portal.getStageVersion(stageId)
+			: "unchanged stage answered with a value";
+
+		int teamId = portal.createTeam("Versions", "Riders of the version check");
+		int riderId = portal.createRider(teamId, "Rider", 1990);
+		stageVersion = portal.getStageVersion(stageId);
+		portal.registerRiderResultsInStage(stageId, riderId, LocalTime.of(12, 0), LocalTime.of(16, 0));
+		VersionedResult<int[]> changed = portal.getRidersRankInStage(stageId, stageVersion);
+		assert changed.isModified() && Arrays.equals(changed.getValue(), new int[] {riderId}) && changed.getVersion() > stageVersion
+			: "registered result not read at the new version";
+		VersionedResult<LocalTime[]> times = portal.getGeneralClassificationTimesInRace(raceId, raceVersion);
+		assert times.isModified() && Arrays.equals(times.getValue(), portal.getGeneralClassificationTimesInRace(raceId))
+			: "conditional general classification differs from the direct query";
+		assert !portal.getGeneralClassificationTimesInRace(raceId, times.getVersion()).isModified()
+			: "general classification read again without a change";
+
+		raceVersion = portal.getRaceVersion(raceId);
+		portal.addRiderTimeBonusInStage(stageId, riderId, Duration.ofSeconds(10));
+		assert portal.getRaceVersion(raceId) > raceVersion : "time bonus did not change the race version";
+		raceVersion = portal.getRaceVersion(raceId);
+		portal.removeTeam(teamId);
+		assert portal.getRaceVersion(raceId) > raceVersion : "removing a team whose riders raced did not change the race version";
+		System.out.println("versions move with every change.");
+	}
+
+	/**
+	 * Starts identical calls while one is in flight and checks they share its
+	 * result without running again, that other keys run on their own, and
+	 * that a call made after the flight completes runs afresh.
+	 *
+	 * @throws Exception If a call fails
+	 */
+	private static void singleFlightCoalescesIdenticalCalls() throws Exception {
+		SingleFlight<String, Integer> flights = new SingleFlight<String, Integer>();
+		AtomicReference<CompletableFuture<Integer>> running = new AtomicReference<CompletableFuture<Integer>>();
+		int[] runs = new int[1];
+		CompletableFuture<Integer> first = flights.execute("gc", started -> {
+			runs[0]++;
+			running.set(started);
+		});
+		CompletableFuture<Integer> second = flights.execute("gc", started -> runs[0]++);
+		CompletableFuture<Integer> other = flights.execute("points", started -> started.complete(7));
+		assert runs[0] == 1 && second == first : "identical call ran while one was in flight";
+		assert other.join() == 7 : "call for another key not run";
+		assert flights.getInFlight() == 1 && !first.isDone() : "flight finished before its call completed";
+
+		running.get().complete(42);
+		assert first.join() == 42 && second.join() == 42 : "coalesced calls did not share the result";
+		assert flights.getInFlight() == 0 : "completed flight still in flight";
+		assert flights.getRequests() == 3 && flights.getExecutions() == 2 && flights.getCoalesced() == 1
+			: "coalescing counters wrong: " + flights;
+
+		CompletableFuture<Integer> after = flights.execute("gc", started -> {
+			runs[0]++;
+			started.complete(43);
+		});
+		assert runs[0] == 2 && after.join() == 43 : "call after the flight completed shared its old result";
+		CompletableFuture<Integer> failed = flights.execute("gc", started -> {
+			throw new IllegalStateException("failed read");
+		});
+		try {
+			failed.join();
+			assert false : "failed call completed normally";
+		} catch(CompletionException e) {
+			assert e.getCause() instanceof IllegalStateException : "failure of the call not passed on";
+		}
+		assert flights.getInFlight() == 0 : "failed flight still in flight";
+		System.out.println("single flight coalesces identical calls.");
+	}
+
+	/**
+	 * Saves a portal with each codec, at the fastest and smallest levels, and
+	 * checks every copy loads back with the same results. The portal is large
+	 * enough for a deflated save to span several blocks.
+	 *
+	 * @throws Exception If the portal cannot be saved or loaded
+	 */
+	private static void savedPortalsRoundTripWithEachCodec() throws Exception {
+		Random random = new Random(46);
+		LocalTime[][] times = new LocalTime[400][];
+		for(int i=0; i<times.length; i++) {
+			times[i] = new LocalTime[] {LocalTime.of(12, 0), LocalTime.of(13, random.nextInt(60)), LocalTime.of(14, random.nextInt(60)),
+				LocalTime.of(16, 0).plusNanos(random.nextInt(1_000_000) * 1000L)};
+		}
+		CyclingPortalImpl portal = new CyclingPortalImpl();
+		int[] ids = setUpCorrectionRace(portal, times);
+		int raceId = ids[0];
+		int stageId = ids[1];
+		//A long description spreads the deflated save over several blocks without a slow set up
+		StringBuilder description = new StringBuilder();
+		for(int i=0; i<(3 << 19); i++) {
+			description.append((char) ('a' + random.nextInt(26)));
+		}
+		int teamId = portal.createTeam("Described", description.toString());
+		int[] rank = portal.getRidersGeneralClassificationRank(raceId);
+		String saved = "codec-round-trip.ser";
+		long[] sizes = new long[3];
+		int[][] saves = {{0, 1}, {1, 1}, {1, 9}};
+		for(int i=0; i<saves.length; i++) {
+			SnapshotCodec codec = SnapshotCodec.values()[saves[i][0]];
+			portal.saveCyclingPortal(saved, codec, saves[i][1]);
+			sizes[i] = new File(saved).length();
+			CyclingPortalImpl reloaded = new CyclingPortalImpl();
+			reloaded.loadCyclingPortal(saved);
+			String save = codec + " at level " + saves[i][1];
+			assert reloaded.viewRaceDetails(raceId).equals(portal.viewRaceDetails(raceId)) : "race details not kept by " + save;
+			assert Arrays.equals(reloaded.getStageCheckpoints(stageId), portal.getStageCheckpoints(stageId)) : "checkpoints not kept by " + save;
+			assert Arrays.equals(reloaded.getRiderResultsInStage(stageId, ids[2]), portal.getRiderResultsInStage(stageId, ids[2]))
+				: "rider results not kept by " + save;
+			assert Arrays.equals(reloaded.getRidersGeneralClassificationRank(raceId), rank) : "general classification not kept by " + save;
+			assert Arrays.equals(reloaded.getRidersPointsInRace(raceId), portal.getRidersPointsInRace(raceId)) : "points not kept by " + save;
+			assert Arrays.equals(reloaded.getTeams(), portal.getTeams()) && reloaded.getTeamRiders(teamId).length == 0
+				: "teams not kept by " + save;
+		}
+		new File(saved).delete();
+		assert sizes[0] > (1 << 20) : "plain save too small to check several deflated blocks";
+		assert sizes[1] < sizes[0] && sizes[2] <= sizes[1] : "deflated saves not smaller: " + Arrays.toString(sizes);
+		try {
+			portal.saveCyclingPortal(saved, SnapshotCodec.DEFLATE, 10);
+			assert false : "deflate level outside 1 to 9 accepted";
+		} catch(IllegalArgumentException e) {
+			new File(saved).delete();
+		}
+		System.out.println("saved portals round trip with each codec.");
+	}
+
+	/**
+	 * Saves a portal to a directory of segments again after each kind of
+	 * change and checks only the segments of what changed are written, that
+	 * segments of removed races are deleted, and that a loaded portal saved
+	 * back to its directory writes nothing.
+	 *
+	 * @throws Exception If the portal cannot be saved or loaded
+	 */
+	private static void segmentSavesOnlyRewriteChanges() throws Exception {
+		File directory = Files.createTempDirectory("segments").toFile();
+		CyclingPortalImpl portal = new CyclingPortalImpl();
+		int teamId = portal.createTeam("Segments", "Riders of the segment check");
+		int[] riderIds = new int[4];
+		for(int i=0; i<riderIds.length; i++) {
+			riderIds[i] = portal.createRider(teamId, "Rider" + i, 1990 + i);
+		}
+		int[] raceIds = new int[3];
+		int[] stageIds = new int[raceIds.length];
+		for(int r=0; r<raceIds.length; r++) {
+			raceIds[r] = portal.createRace("SegmentTour" + r, "Race saved in its own segment");
+			stageIds[r] = portal.addStageToRace(raceIds[r], "SegmentStage" + r, "flat", 150, LocalDateTime.of(2023, 7, 1 + r, 12, 0), StageType.FLAT);
+			portal.concludeStagePreparation(stageIds[r]);
+			for(int i=0; i<riderIds.length; i++) {
+				portal.registerRiderResultsInStage(stageIds[r], riderIds[i], LocalTime.of(12, 0), LocalTime.of(16, i, r));
+			}
+		}
+		int emptyRaceId = portal.createRace("EmptySegmentTour", "Race without stages");
+		String path = directory.getPath();
+		assert portal.saveCyclingPortalSegments(path) == 2 + raceIds.length : "first save did not write every segment";
+		assert portal.saveCyclingPortalSegments(path) == 0 : "save without changes wrote segments";
+
+		portal.addRiderTimeBonusInStage(stageIds[1], riderIds[3], Duration.ofSeconds(20));
+		assert portal.saveCyclingPortalSegments(path) == 1 : "changed race not the only segment written";
+		portal.createRider(teamId, "Late", 1995);
+		assert portal.saveCyclingPortalSegments(path) == 1 : "new rider not saved by the teams segment alone";
+		portal.removeRaceById(emptyRaceId);
+		assert portal.saveCyclingPortalSegments(path) == 0 : "removing a race rewrote the other segments";
+		//The manifest, the teams and the races with stages
+		assert directory.list().length == 2 + raceIds.length : "segment of the removed race left in the directory";
+
+		CyclingPortalImpl loaded = new CyclingPortalImpl();
+		loaded.loadCyclingPortalSegments(path);
+		assert Arrays.equals(loaded.getRidersGeneralClassificationRank(raceIds[1]), portal.getRidersGeneralClassificationRank(raceIds[1]))
+			: "changed race not loaded from its new segment";
+		assert loaded.getTeamRiders(teamId).length == riderIds.length + 1 : "rider not loaded from the teams segment";
+		assert loaded.saveCyclingPortalSegments(path) == 0 : "loaded portal rewrote segments it had not changed";
+		for(File file: directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+		System.out.println("segment saves only rewrite what changed.");
+	}
+
+	/**
+	 * Loads enough race segments for the load to be split across threads and
+	 * checks every race keeps its stages in order, its checkpoints and its
+	 * results, and that the loaded races share the riders of the loaded teams.
+	 *
+	 * @throws Exception If the portal cannot be saved or loaded
+	 */
+	private static void parallelSegmentLoadKeepsOrder() throws Exception {
+		File directory = Files.createTempDirectory("segments").toFile();
+		CyclingPortalImpl portal = new CyclingPortalImpl();
+		int teamId = portal.createTeam("Parallel", "Riders of the parallel load check");
+		int[] riderIds = new int[5];
+		for(int i=0; i<riderIds.length; i++) {
+			riderIds[i] = portal.createRider(teamId, "Rider" + i, 1990 + i);
+		}
+		int[] raceIds = new int[40];
+		int[] days = {3, 1, 2};
+		for(int r=0; r<raceIds.length; r++) {
+			raceIds[r] = portal.createRace("ParallelTour" + r, "Race loaded in parallel");
+			//Stages added out of date order, so their order differs from their ids and start times
+			for(int day: days) {
+				int stageId = portal.addStageToRace(raceIds[r], "Parallel" + r + "Day" + day, "hills", 100 + day, LocalDateTime.of(2023, 7, day, 12, 0),
+					StageType.MEDIUM_MOUNTAIN);
+				portal.addIntermediateSprintToStage(stageId, 30 + r);
+				portal.addCategorizedClimbToStage(stageId, 60.0, CheckpointType.C3, 4.0, 3.0);
+				portal.concludeStagePreparation(stageId);
+				for(int i=0; i<riderIds.length; i++) {
+					portal.registerRiderResultsInStage(stageId, riderIds[i], LocalTime.of(12, 0), LocalTime.of(13, i + r % 7),
+						LocalTime.of(14, r % 11, i), LocalTime.of(16, (i * 7 + r + day) % 60));
+				}
+			}
+		}
+		String path = directory.getPath();
+		portal.saveCyclingPortalSegments(path);
+		CyclingPortalImpl loaded = new CyclingPortalImpl();
+		loaded.loadCyclingPortalSegments(path);
+		assert Arrays.equals(loaded.getRaceIds(), portal.getRaceIds()) : "race ids not kept by the parallel load";
+		for(int r=0; r<raceIds.length; r++) {
+			int raceId = raceIds[r];
+			int[] stageIds = loaded.getRaceStages(raceId);
+			assert Arrays.equals(stageIds, portal.getRaceStages(raceId)) : "stage order of race " + raceId + " not kept";
+			for(int s=0; s<stageIds.length; s++) {
+				LocalTime[] results = loaded.getRiderResultsInStage(stageIds[s], riderIds[0]);
+				assert results[results.length - 1].equals(LocalTime.of(4, r + days[s])) : "stages of race " + raceId + " not kept in the order they were added";
+			}
+			for(int stageId: stageIds) {
+				assert Arrays.equals(loaded.getStageCheckpoints(stageId), portal.getStageCheckpoints(stageId))
+					: "checkpoints of stage " + stageId + " not kept";
+				assert Arrays.equals(loaded.getRidersRankInStage(stageId), portal.getRidersRankInStage(stageId))
+					: "results of stage " + stageId + " not kept";
+			}
+			assert Arrays.equals(loaded.getRidersGeneralClassificationRank(raceId), portal.getRidersGeneralClassificationRank(raceId))
+				: "general classification of race " + raceId + " not kept";
+			assert Arrays.equals(loaded.getRidersMountainPointsInRace(raceId), portal.getRidersMountainPointsInRace(raceId))
+				: "mountain points of race " + raceId + " not kept";
+		}
+		//Removing a loaded rider must reach the results in every race segment
+		loaded.removeRider(riderIds[0]);
+		for(int raceId: raceIds) {
+			assert loaded.getRidersGeneralClassificationRank(raceId).length == riderIds.length - 1
+				: "race " + raceId + " loaded its own copy of a rider";
+		}
+		for(File file: directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+		System.out.println("parallel segment load keeps every race in order.");
+	}
+
+	/**
+	 * Saves a portal holding every kind of stage and checkpoint, stages in each
+	 * state, teams, riders and time adjustments, then checks each of them loads
+	 * back with the same details and the links between them restored.
+	 *
+	 * @throws Exception If the portal cannot be saved or loaded
+	 */
+	private static void serialisedPortalKeepsEveryObject() throws Exception {
+		CyclingPortalImpl portal = new CyclingPortalImpl();
+		int[] teamIds = {portal.createTeam("ProxyA", "First team of the proxy check"), portal.createTeam("ProxyB", null)};
+		int[] riderIds = new int[5];
+		for(int i=0; i<riderIds.length; i++) {
+			riderIds[i] = portal.createRider(teamIds[i % 2], "Rider" + i, 1985 + i);
+		}
+		int raceId = portal.createRace("ProxyTour", "Race holding every kind of object");
+		StageType[] types = {StageType.FLAT, StageType.MEDIUM_MOUNTAIN, StageType.HIGH_MOUNTAIN, StageType.TT};
+		int[] stageIds = new int[types.length];
+		for(int s=0; s<types.length; s++) {
+			stageIds[s] = portal.addStageToRace(raceId, "Proxy" + types[s], "stage " + s, 120 + s, LocalDateTime.of(2023, 7, 1 + s, 12, 0), types[s]);
+		}
+		portal.addIntermediateSprintToStage(stageIds[0], 50);
+		portal.addCategorizedClimbToStage(stageIds[1], 40.0, CheckpointType.C4, 3.0, 2.0);
+		portal.addCategorizedClimbToStage(stageIds[1], 90.0, CheckpointType.C3, 4.5, 4.0);
+		portal.addCategorizedClimbToStage(stageIds[2], 30.0, CheckpointType.C2, 6.0, 6.0);
+		portal.addIntermediateSprintToStage(stageIds[2], 60);
+		portal.addCategorizedClimbToStage(stageIds[2], 80.0, CheckpointType.C1, 7.0, 8.0);
+		portal.addCategorizedClimbToStage(stageIds[2], 115.0, CheckpointType.HC, 8.5, 12.0);
+		for(int s=0; s<stageIds.length; s++) {
+			portal.concludeStagePreparation(stageIds[s]);
+			int passages = portal.getStageCheckpoints(stageIds[s]).length;
+			for(int i=0; i<riderIds.length; i++) {
+				LocalTime[] times = new LocalTime[passages + 2];
+				for(int c=0; c<times.length; c++) {
+					times[c] = LocalTime.of(12 + c, (i * 13 + s * 7 + c) % 60, i);
+				}
+				portal.registerRiderResultsInStage(stageIds[s], riderIds[i], times);
+			}
+		}
+		int preparingId = portal.addStageToRace(raceId, "ProxyPreparing", "stage still in preparation", 90, LocalDateTime.of(2023, 7, 6, 12, 0), StageType.FLAT);
+		portal.addRiderTimeBonusInStage(stageIds[0], riderIds[1], Duration.ofSeconds(10));
+		portal.addRiderTimePenaltyInStage(stageIds[2], riderIds[3], Duration.ofSeconds(20));
+
+		String saved = "proxy-round-trip.ser";
+		portal.saveCyclingPortal(saved);
+		CyclingPortalImpl loaded = new CyclingPortalImpl();
+		loaded.loadCyclingPortal(saved);
+		new File(saved).delete();
+		assert loaded.viewRaceDetails(raceId).equals(portal.viewRaceDetails(raceId)) : "race details not kept";
+		assert Arrays.equals(loaded.getRaceStages(raceId), portal.getRaceStages(raceId)) : "stages not kept";
+		for(int stageId: stageIds) {
+			assert loaded.getStagesRaceId(stageId) == raceId : "stage " + stageId + " not linked back to its race";
+			assert Arrays.equals(loaded.getStageCheckpoints(stageId), portal.getStageCheckpoints(stageId)) : "checkpoints of stage " + stageId + " not kept";
+			assert Arrays.equals(loaded.getRidersPointsInStage(stageId), portal.getRidersPointsInStage(stageId)) : "sprint points of stage " + stageId + " not kept";
+			assert Arrays.equals(loaded.getRidersMountainPointsInStage(stageId), portal.getRidersMountainPointsInStage(stageId))
+				: "mountain points of stage " + stageId + " not kept";
+			for(int riderId: riderIds) {
+				assert Arrays.equals(loaded.getRiderResultsInStage(stageId, riderId), portal.getRiderResultsInStage(stageId, riderId))
+					: "results of rider " + riderId + " in stage " + stageId + " not kept";
+				assert loaded.getRiderTimeBonusInStage(stageId, riderId).equals(portal.getRiderTimeBonusInStage(stageId, riderId))
+					&& loaded.getRiderTimePenaltyInStage(stageId, riderId).equals(portal.getRiderTimePenaltyInStage(stageId, riderId))
+					: "time adjustments of rider " + riderId + " in stage " + stageId + " not kept";
+			}
+		}
+		assert Arrays.equals(loaded.getGeneralClassificationTimesInRace(raceId), portal.getGeneralClassificationTimesInRace(raceId))
+			: "general classification not kept";
+		assert Arrays.equals(loaded.getTeamClassificationRankInRace(raceId), portal.getTeamClassificationRankInRace(raceId))
+			: "team classification not kept";
+		for(int teamId: teamIds) {
+			assert Arrays.equals(loaded.getTeamRiders(teamId), portal.getTeamRiders(teamId)) : "riders of team " + teamId + " not kept";
+		}
+
+		//Stage states are compared by reference, so each must still be recognised
+		loaded.addIntermediateSprintToStage(preparingId, 45);
+		try {
+			loaded.addIntermediateSprintToStage(stageIds[0], 70);
+			assert false : "checkpoint added to a loaded stage whose preparation was concluded";
+		} catch(InvalidStageStateException e) {
+			//The stage was concluded before it was saved
+		}
+		loaded.concludeStagePreparation(preparingId);
+		loaded.registerRiderResultsInStage(preparingId, riderIds[0], LocalTime.of(12, 0), LocalTime.of(12, 30), LocalTime.of(14, 0));
+		//Removing a rider reaches the team and every stage it has results in
+		loaded.removeRider(riderIds[2]);
+		assert loaded.getTeamRiders(teamIds[0]).length == portal.getTeamRiders(teamIds[0]).length - 1 : "rider not linked back to its team";
+		assert loaded.getRidersRankInStage(stageIds[3]).length == riderIds.length - 1 : "removed rider left in a loaded stage";
+		System.out.println("serialised portal keeps every object.");
+	}
+}
@@ -0,0 +1,72 @@
+import java.util.Random;
+
+import cycling.GcTimeSummation;
+
+/**
+ * A short benchmark comparing the scalar general classification summation
+ * kernel with the kernel returned by GcTimeSummation.getInstance(), which is
+ * the SIMD kernel when run with --add-modules jdk.incubator.vector.
+ *
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ */
+public class GcSummationBenchmark {
+
+	/**
+	 * Benchmark method.
+	 *
+	 * @param args optionally the number of riders and the number of stages
+	 */
+	public static void main(String[] args) {
+		int riders = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		int stages = args.length > 1 ? Integer.parseInt(args[1]) : 21;
+		Random random = new Random(42);
+		long[][] columns = new long[stages][riders];
+		for (int s = 0; s < stages; s++) {
+			for (int r = 0; r < riders; r++) {
+				//Between three and six hours per stage, in nanoseconds
+				columns[s][r] = 10_800_000_000_000L + (long) (random.nextDouble() * 10_800_000_000_000L);
+			}
+		}
+		GcTimeSummation scalar = new GcTimeSummation();
+		GcTimeSummation selected = GcTimeSummation.getInstance();
+		long[] expected = scalar.sum(columns, riders);
+		long[] actual = selected.sum(columns, riders);
+		for (int r = 0; r < riders; r++) {
+			assert expected[r] == actual[r] : "Kernels disagree for rider row " + r;
+		}
+		double scalarMillis = time(scalar, columns, riders);
+		double selectedMillis = time(selected, columns, riders);
+		System.out.printf("%d riders x %d stages%n", riders, stages);
+		System.out.printf("scalar: %.3f ms%n", scalarMillis);
+		System.out.printf("%s: %.3f ms (%.2fx)%n", selected.getName(), selectedMillis, scalarMillis / selectedMillis);
+	}
+
+	/**
+	 * Times a kernel after warming it up.
+	 *
+	 * @param kernel  The kernel being timed.
+	 * @param columns The stage columns being summed.
+	 * @param riders  The number of rider rows.
+	 * @return The average time of one summation in milliseconds.
+	 */
+	private static double time(GcTimeSummation kernel, long[][] columns, int riders) {
+		long checksum = 0;
+		for (int i = 0; i < 50; i++) {
+			checksum += kernel.sum(columns, riders)[i % riders];
+		}
+		int runs = 100;
+		long start = System.nanoTime();
+		for (int i = 0; i < runs; i++) {
+			checksum += kernel.sum(columns, riders)[i % riders];
+		}
+		long elapsed = System.nanoTime() - start;
+		//Printing the checksum keeps the summations from being optimised away
+		if (checksum == 42) {
+			System.out.println(checksum);
+		}
+		return elapsed / 1e6 / runs;
+	}
+}
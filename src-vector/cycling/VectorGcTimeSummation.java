@@ -0,0 +1,49 @@
+package cycling;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * VectorGcTimeSummation sums general classification times with the
+ * jdk.incubator.vector API. Each block of riders is accumulated in a
+ * vector register across every stage before being stored once.
+ * It lives in its own source folder, compiled separately with
+ * --add-modules jdk.incubator.vector, so the portal builds without the
+ * incubator module. It is only ever loaded through
+ * {@link GcTimeSummation#getInstance()}
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+class VectorGcTimeSummation extends GcTimeSummation {
+    /**
+     * The widest vector shape supported by the platform
+     */
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+    @Override
+    public long[] sum(long[][] stageColumns, int riders) {
+        long[] totals = new long[riders];
+        int upperBound = SPECIES.loopBound(riders);
+        int i = 0;
+        for(; i<upperBound; i+=SPECIES.length()) {
+            LongVector total = LongVector.zero(SPECIES);
+            for(long[] column: stageColumns) {
+                total = total.add(LongVector.fromArray(SPECIES, column, i));
+            }
+            total.intoArray(totals, i);
+        }
+        //Riders past the last full vector are summed with scalar code
+        for(; i<riders; i++) {
+            for(long[] column: stageColumns) {
+                totals[i] += column[i];
+            }
+        }
+        return totals;
+    }
+    @Override
+    public String getName() {
+        return "vector(" + SPECIES.length() + " lanes)";
+    }
+}
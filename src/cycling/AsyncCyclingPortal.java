@@ -0,0 +1,882 @@
+package cycling;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.function.UnaryOperator;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * AsyncCyclingPortal is a non-blocking facade over a CyclingPortal.
+ * Every method of the portal is mirrored by a method returning a
+ * CompletableFuture. Reads run concurrently on a bounded thread pool,
+ * writes to the same race run one after another in the order they
+ * were submitted, and the checked exceptions the portal throws
+ * complete the returned futures exceptionally.
+ * While a facade is in use the portal must only be accessed through it.
+ * Race classifications can optionally be served stale while a single
+ * background read recomputes them, see {@link #enableStaleWhileRevalidate(Duration)}.
+ * Concurrent identical race classification reads share one computation
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+public class AsyncCyclingPortal implements AutoCloseable {
+    /**
+     * A call to the wrapped portal which may throw a checked exception
+     */
+    @FunctionalInterface
+    private interface PortalCall<T> {
+        /**
+         * Runs the call against the wrapped portal
+         * @return The result of the call
+         * @throws Exception Any exception thrown by the portal
+         */
+        T call() throws Exception;
+    }
+    /**
+     * A snapshot served to readers and when it went out of date
+     */
+    private static final class ServedSnapshot {
+        /**
+         * The last snapshot computed for the race
+         */
+        private final RaceSnapshot snapshot;
+        /**
+         * The System.nanoTime() of the first write after the snapshot, 0 while it is up to date
+         */
+        private final long staleSince;
+
+        /**
+         * Creates a new served snapshot
+         * @param snapshot The last snapshot computed for the race
+         * @param staleSince The time it went out of date, 0 if it is up to date
+         */
+        private ServedSnapshot(RaceSnapshot snapshot, long staleSince) {
+            this.snapshot = snapshot;
+            this.staleSince = staleSince;
+        }
+    }
+    /**
+     * The lane for writes which are not tied to a single race,
+     * such as teams, riders and whole portal operations
+     */
+    private static final int PORTAL_LANE = -1;
+    /**
+     * The number of threads running calls, further calls wait in the pool's queue
+     */
+    private static final int POOL_SIZE = Math.max(2, Runtime.getRuntime().availableProcessors());
+    /**
+     * The portal being wrapped
+     */
+    private final CyclingPortal portal;
+    /**
+     * The executor running every call on a bounded pool of daemon threads
+     */
+    private final ExecutorService executor;
+    /**
+     * The lock letting reads run together while writes run alone
+     */
+    private final ReentrantReadWriteLock lock;
+    /**
+     * A map with raceIds as keys and the last write submitted for that race as values
+     */
+    private final ConcurrentHashMap<Integer, CompletableFuture<?>> lanes;
+    /**
+     * A map with stageIds as keys and the raceId of their lane as values, kept up to date by the writes
+     */
+    private final ConcurrentHashMap<Integer, Integer> stageRaces;
+    /**
+     * A map with checkpointIds as keys and the stageId they belong to as values, kept up to date by the writes
+     */
+    private final ConcurrentHashMap<Integer, Integer> checkpointStages;
+    /**
+     * How long a snapshot may be served after it goes out of date, null while
+     * stale-while-revalidate is disabled
+     */
+    private volatile Duration maxStaleness;
+    /**
+     * A map with raceIds as keys and the snapshot served for that race as values
+     */
+    private final ConcurrentHashMap<Integer, ServedSnapshot> servedSnapshots;
+    /**
+     * The raceIds with a background recomputation running
+     */
+    private final Set<Integer> revalidating;
+    /**
+     * The coalescing layer shared by identical race classification reads
+     */
+    private final SingleFlight<String, Object> classificationReads;
+
+    /**
+     * Creates a new asynchronous facade over a portal
+     * @param portal The portal being wrapped
+     */
+    public AsyncCyclingPortal(CyclingPortal portal) {
+        this.portal = portal;
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(), call -> {
+                Thread thread = new Thread(call, "async-portal-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        this.lock = new ReentrantReadWriteLock();
+        this.lanes = new ConcurrentHashMap<Integer, CompletableFuture<?>>();
+        this.stageRaces = new ConcurrentHashMap<Integer, Integer>();
+        this.checkpointStages = new ConcurrentHashMap<Integer, Integer>();
+        //No call has been submitted yet, so the portal is indexed without taking the lock
+        indexLanes();
+        this.servedSnapshots = new ConcurrentHashMap<Integer, ServedSnapshot>();
+        this.revalidating = ConcurrentHashMap.newKeySet();
+        this.classificationReads = new SingleFlight<String, Object>();
+    }
+    /**
+     * Runs a call while holding a lock and completes a future with its outcome
+     * @param held The lock held while the call runs
+     * @param call The call being run
+     * @param result The future completed with the result or exception of the call
+     */
+    private <T> void runLocked(Lock held, PortalCall<T> call, CompletableFuture<T> result) {
+        held.lock();
+        try {
+            result.complete(call.call());
+        } catch(Throwable e) {
+            result.completeExceptionally(e);
+        } finally {
+            held.unlock();
+        }
+    }
+    /**
+     * Runs a write while holding the write lock and completes a future with its outcome.
+     * The snapshots the write may have changed are marked out of date before the lock
+     * is released, so no reader can see the write and still be served them as up to date
+     * @param lane The raceId the write is serialized on, or {@link #PORTAL_LANE}
+     * @param call The write being run
+     * @param result The future completed with the result or exception of the write
+     */
+    private <T> void runWrite(int lane, PortalCall<T> call, CompletableFuture<T> result) {
+        Lock held = lock.writeLock();
+        held.lock();
+        try {
+            T value;
+            try {
+                value = call.call();
+            } finally {
+                //A failed write may have changed part of the race before throwing
+                invalidateSnapshots(lane);
+            }
+            result.complete(value);
+        } catch(Throwable e) {
+            result.completeExceptionally(e);
+        } finally {
+            held.unlock();
+        }
+    }
+    /**
+     * Runs a read on the pool, concurrently with other reads
+     * @param call The read being run
+     * @return A future of the result of the read
+     */
+    private <T> CompletableFuture<T> read(PortalCall<T> call) {
+        CompletableFuture<T> result = new CompletableFuture<T>();
+        executor.execute(() -> runLocked(lock.readLock(), call, result));
+        return result;
+    }
+    /**
+     * Runs a read, sharing the computation with any identical read already in flight.
+     * The flight is completed, and its key forgotten, while the read lock is still
+     * held. A write cannot finish while a read holds the read lock, so a caller joining
+     * a flight never gets results from before a write that completed before it asked
+     * @param key The key identifying identical reads
+     * @param call The read being run
+     * @param copy Copies the shared result so every caller gets its own array
+     * @return A future of the result of the read
+     */
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> coalescedRead(String key, PortalCall<T> call, UnaryOperator<T> copy) {
+        PortalCall<Object> shared = call::call;
+        return classificationReads.execute(key, flight -> executor.execute(() -> runLocked(lock.readLock(), shared, flight)))
+        .thenApply(result -> copy.apply((T) result));
+    }
+    /**
+     * Gets the statistics of the coalescing of race classification reads
+     * @return The coalescing layer, counting requested, run and coalesced reads
+     */
+    public SingleFlight<String, Object> getClassificationReadCoalescing() {
+        return classificationReads;
+    }
+    /**
+     * Runs a write once every write submitted earlier to the same lane has finished
+     * @param lane The raceId the write is serialized on, or {@link #PORTAL_LANE}
+     * @param call The write being run
+     * @return A future of the result of the write
+     */
+    private <T> CompletableFuture<T> write(int lane, PortalCall<T> call) {
+        CompletableFuture<T> result = new CompletableFuture<T>();
+        lanes.compute(lane, (key, tail) -> {
+            if(tail == null) {
+                executor.execute(() -> runWrite(lane, call, result));
+            } else {
+                tail.whenCompleteAsync((value, error) -> runWrite(lane, call, result), executor);
+            }
+            return result;
+        });
+        //Dropping the lane once it has no pending writes
+        result.whenComplete((value, error) -> lanes.remove(lane, result));
+        return result;
+    }
+    /**
+     * Enables serving race classifications stale while they are recomputed.
+     * Once a write makes a race's snapshot out of date, readers keep getting
+     * the last snapshot, with its version, straight away while one background
+     * read recomputes it. Only a snapshot out of date for longer than the bound,
+     * or a race read for the first time, is recomputed before answering
+     * @param maxStaleness How long a snapshot may be served after it goes out of date
+     * @throws UnsupportedOperationException If the wrapped portal is not a {@link CyclingPortalImpl}
+     */
+    public void enableStaleWhileRevalidate(Duration maxStaleness) {
+        if(!(portal instanceof CyclingPortalImpl)) {
+            throw new UnsupportedOperationException("Stale-while-revalidate needs race snapshots, which only CyclingPortalImpl provides.");
+        }
+        if(maxStaleness.isNegative()) {
+            throw new IllegalArgumentException("You have entered a negative staleness bound, ensure it is zero or positive.");
+        }
+        this.maxStaleness = maxStaleness;
+    }
+    /**
+     * Disables serving stale race classifications, every read is answered from the portal again
+     */
+    public void disableStaleWhileRevalidate() {
+        this.maxStaleness = null;
+        servedSnapshots.clear();
+    }
+    /**
+     * Marks the snapshots a write may have changed as out of date and starts recomputing them.
+     * Called while holding the write lock, so the recomputations only start once the write is done
+     * @param lane The raceId the write ran on, or {@link #PORTAL_LANE} for every race
+     */
+    private void invalidateSnapshots(int lane) {
+        if(maxStaleness == null) {
+            return;
+        }
+        for(int raceId: lane == PORTAL_LANE ? servedSnapshots.keySet() : Set.of(lane)) {
+            long now = System.nanoTime();
+            //Keeping the time of the first write so the bound counts from when the snapshot went out of date
+            ServedSnapshot served = servedSnapshots.computeIfPresent(raceId,
+                (key, current) -> current.staleSince != 0 ? current : new ServedSnapshot(current.snapshot, now));
+            if(served != null) {
+                revalidate(raceId);
+            }
+        }
+    }
+    /**
+     * Starts a background recomputation of a race's snapshot unless one is already running
+     * @param raceId The unique id of the race
+     */
+    private void revalidate(int raceId) {
+        if(!revalidating.add(raceId)) {
+            return;
+        }
+        executor.execute(() -> {
+            lock.readLock().lock();
+            try {
+                publishSnapshot(raceId);
+            } catch(IDNotRecognisedException e) {
+                //The race was removed so there is nothing left to serve
+                servedSnapshots.remove(raceId);
+            } finally {
+                lock.readLock().unlock();
+                revalidating.remove(raceId);
+            }
+            //A write finishing while the recomputation ran may have left it out of date again
+            ServedSnapshot served = servedSnapshots.get(raceId);
+            if(served != null && served.staleSince != 0) {
+                revalidate(raceId);
+            }
+        });
+    }
+    /**
+     * Captures a race's snapshot at its current version, recomputing its classifications
+     * if a write changed them, and serves it as up to date. Must be called while holding
+     * the read lock so no write lands before it is served
+     * @param raceId The unique id of the race
+     * @return The snapshot read
+     * @throws IDNotRecognisedException If the ID does not match any race in the system
+     */
+    private RaceSnapshot publishSnapshot(int raceId) throws IDNotRecognisedException {
+        RaceSnapshot snapshot = ((CyclingPortalImpl) portal).snapshot(raceId);
+        if(maxStaleness != null) {
+            servedSnapshots.put(raceId, new ServedSnapshot(snapshot, 0));
+        }
+        return snapshot;
+    }
+    /**
+     * Gets the snapshot of a race's classifications. With stale-while-revalidate
+     * enabled the last snapshot is returned without waiting while it is up to date
+     * or has been out of date for no longer than the bound; its version tells
+     * how current it is
+     * @param raceId The ID of the race being queried
+     * @return A future of the snapshot of the race
+     * @throws UnsupportedOperationException If the wrapped portal is not a {@link CyclingPortalImpl}
+     */
+    public CompletableFuture<RaceSnapshot> snapshot(int raceId) {
+        if(!(portal instanceof CyclingPortalImpl)) {
+            throw new UnsupportedOperationException("Snapshots are only provided by CyclingPortalImpl.");
+        }
+        Duration bound = maxStaleness;
+        ServedSnapshot served = bound == null ? null : servedSnapshots.get(raceId);
+        if(served != null) {
+            if(served.staleSince == 0) {
+                return CompletableFuture.completedFuture(served.snapshot);
+            }
+            if(System.nanoTime() - served.staleSince <= bound.toNanos()) {
+                revalidate(raceId);
+                return CompletableFuture.completedFuture(served.snapshot);
+            }
+        }
+        //Snapshots are immutable so callers of one flight share the same snapshot
+        return coalescedRead("snapshot/" + raceId, () -> publishSnapshot(raceId), UnaryOperator.identity());
+    }
+    /**
+     * Finds the lane of a write to a stage from the lane index, without locking
+     * @param stageId The unique id of the stage
+     * @return The raceId the stage belongs to, or {@link #PORTAL_LANE} if it is not recognised
+     */
+    private int stageLane(int stageId) {
+        return stageRaces.getOrDefault(stageId, PORTAL_LANE);
+    }
+    /**
+     * Finds the lane of a write to a checkpoint from the lane index, without locking
+     * @param checkpointId The unique id of the checkpoint
+     * @return The raceId the checkpoint belongs to, or {@link #PORTAL_LANE} if it is not recognised
+     */
+    private int checkpointLane(int checkpointId) {
+        Integer stageId = checkpointStages.get(checkpointId);
+        return stageId == null ? PORTAL_LANE : stageLane(stageId);
+    }
+    /**
+     * Rebuilds the lane index from every race in the portal. Only called while
+     * nothing else can use the portal, from the constructor or inside a write
+     */
+    private void indexLanes() {
+        stageRaces.clear();
+        checkpointStages.clear();
+        try {
+            for(int raceId: portal.getRaceIds()) {
+                for(int stageId: portal.getRaceStages(raceId)) {
+                    stageRaces.put(stageId, raceId);
+                    for(int checkpointId: portal.getStageCheckpoints(stageId)) {
+                        checkpointStages.put(checkpointId, stageId);
+                    }
+                }
+            }
+        } catch(IDNotRecognisedException e) {
+            //The ids were just read so this cannot happen
+        }
+    }
+    /**
+     * Asynchronous version of {@link MiniCyclingPortal#getRaceIds()}
+     * @return A future of the race IDs in the system
+     */
+    public CompletableFuture<int[]> getRaceIds() {
+        return read(() -> portal.getRaceIds());
+    }
+    /**
+     * Asynchronous version of {@link MiniCyclingPortal#createRace(String, String)}
+     * @param name Race's name
+     * @param description Race's description (can be null)
+     * @return A future of the unique ID of the created race
+     */
+    public CompletableFuture<Integer> createRace(String name, String description) {
+        return write(PORTAL_LANE, () -> portal.createRace(name, description));
+    }
+    /**
+     * Asynchronous version of {@link MiniCyclingPortal#viewRaceDetails(int)}
+     * @param raceId The ID of the race being queried
+     * @return A future of the formatted details of the race
+     */
+    public CompletableFuture<String> viewRaceDetails(int raceId) {
+        return read(() -> portal.viewRaceDetails(raceId));
+    }
+    /**
+     * Asynchronous version of {@link MiniCyclingPortal#removeRaceById(int)}
+     * @param raceId The ID of the race to be removed
+     * @return A future completed once the race is removed
+     */
+    public CompletableFuture<Void> removeRaceById(int raceId) {
+        return write(raceId, () -> {
+            portal.removeRaceById(raceId);
+            stageRaces.values().removeIf(id -> id == raceId);
+            checkpointStages.values().removeIf(id -> !stageRaces.containsKey(id));
+            return null;
+        });
+    }
+    /**
+     * Asynchronous version of {@link MiniCyclingPortal#getNumberOfStages(int)}
+     * @param raceId The ID of the race being queried
+     * @return A future of the number of stages created for the race
+     */
+    public CompletableFuture<Integer> getNumberOfStages(int raceId) {
+        return read(() -> portal.getNumberOfStages(raceId));
+    }
+    /**
+     * Asynchronous version of
+     * {@link MiniCyclingPortal#addStageToRace(int, String, String, double, LocalDateTime, StageType)}
+     * @param raceId The race which the stage will be added to
+     * @param stageName An identifier name for the stage
+     * @param description A descriptive text for the stage
+     * @param length Stage length in kilometres
+     * @param startTime The date and time in which the stage will be raced
+     * @param type The type of the stage
+     * @return A future of the unique ID of the stage
+     */
+    public CompletableFuture<Integer> addStageToRace(int raceId, String stageName, String description, double length,
+    LocalDateTime startTime, StageType type) {
+        return write(raceId, () -> {
+            int stageId = portal.addStageToRace(raceId, stageName, description, length, startTime, type);
+            stageRaces.put(stageId, raceId);
+            return stageId;
+        });
+    }
+    /**
+     * Asynchronous version of {@link MiniCyclingPortal#getRaceStages(int)}
+     * @param raceId The ID of the race being queried
+     * @return A future of the stage IDs of the race
+     */
+    public CompletableFuture<int[]> getRaceStages(int raceId) {
+        return read(() -> portal.getRaceStages(raceId));
+    }
+    /**
+     * Asynchronous version of {@link MiniCyclingPortal#getStageLength(int)}
+     * @param stageId The ID of the stage being queried
+     * @return A future of the stage's length
+     */
+    public CompletableFuture<Double> getStageLength(int stageId) {
+        return read(() -> portal.getStageLength(stageId));
+    }
+    /**
+     * Asynchronous version of {@link MiniCyclingPortal#removeStageById(int)}
+     * @param stageId The ID of the stage being removed
+     * @return A future completed once the stage is removed
+     */
+    public CompletableFuture<Void> removeStageById(int stageId) {
+        return write(stageLane(stageId), () -> {
+            portal.removeStageById(stageId);
+            stageRaces.remove(stageId);
+            checkpointStages.values().removeIf(id -> id == stageId);
+            return null;
+        });
+    }
+    /**
+     * Asynchronous version of
+     * {@link MiniCyclingPortal#addCategorizedClimbToStage(int, Double, CheckpointType, Double, Double)}
+     * @param stageId The ID of the stage to which the climb checkpoint is being added
+     * @param location The kilometre location where the climb finishes within the stage
+     * @param type The category of the climb
+     * @param averageGradient The average gradient for the climb
+     * @param length The length of the climb in kilometre
+     * @return A future of the ID of the checkpoint created
+     */
+    public CompletableFuture<Integer> addCategorizedClimbToStage(int stageId, Double location, CheckpointType type,
+    Double averageGradient, Double length) {
+        return write(stageLane(stageId), () -> {
+            int checkpointId = portal.addCategorizedClimbToStage(stageId, location, type, averageGradient, length);
+            checkpointStages.put(checkpointId, stageId);
+            return checkpointId;
+        });
+    }
+    /**
+     * Asynchronous version of {@link MiniCyclingPortal#addIntermediateSprintToStage(int, double)}
+     * @param stageId The ID of the stage to which the intermediate sprint checkpoint is being added
+     * @param location The kilometre location where the intermediate sprint finishes within the stage
+     * @return A future of the ID of the checkpoint created
+     */
+    public CompletableFuture<Integer> addIntermediateSprintToStage(int stageId, double location) {
+        return write(stageLane(stageId), () -> {
+            int checkpointId = portal.addIntermediateSprintToStage(stageId, location);
+            checkpointStages.put(checkpointId, stageId);
+            return checkpointId;
+        });
+    }
+    /**
+     * Asynchronous version of {@link MiniCyclingPortal#removeCheckpoint(int)}
+     * @param checkpointId The ID of the checkpoint to be removed
+     * @return A future completed once the checkpoint is removed
+     */
+    public CompletableFuture<Void> removeCheckpoint(int checkpointId) {
+        return write(checkpointLane(checkpointId), () -> {
+            portal.removeCheckpoint(checkpointId);
+            checkpointStages.remove(checkpointId);
+            return null;
+        });
+    }
+    /**
+     * Asynchronous version of {@link MiniCyclingPortal#concludeStagePreparation(int)}
+     * @param stageId The ID of the stage to be concluded
+     * @return A future completed once the stage preparation is concluded
+     */
+    public CompletableFuture<Void> concludeStagePreparation(int stageId) {
+        return write(stageLane(stageId), () -> {
+            portal.concludeStagePreparation(stageId);
+            return null;
+        });
+    }
+    /**
+     * Asynchronous version of {@link MiniCyclingPortal#getStageCheckpoints(int)}
+     * @param stageId The ID of the stage being queried
+     * @return A future of the checkpoint IDs of the stage
+     */
+    public CompletableFuture<int[]> getStageCheckpoints(int stageId) {
+        return read(() -> portal.getStageCheckpoints(stageId));
+    }
+    /**
+     * Asynchronous version of {@link MiniCyclingPortal#createTeam(String, String)}
+     * @param name The identifier name of the team
+     * @param description A description of the team
+     * @return A future of the ID of the created team
+     */
+    public CompletableFuture<Integer> createTeam(String name, String description) {
+        return write(PORTAL_LANE, () -> portal.createTeam(name, description));
+    }
+    /**
+     * Asynchronous version of {@link MiniCyclingPortal#removeTeam(int)}
+     * @param teamId The ID of the team to be removed
+     * @return A future completed once the team is removed
+     */
+    public CompletableFuture<Void> removeTeam(int teamId) {
+        return write(PORTAL_LANE, () -> {
+            portal.removeTeam(teamId);
+            return null;
+        });
+    }
+    /**
+     * Asynchronous version of {@link MiniCyclingPortal#getTeams()}
+     * @return A future of the IDs of the teams in the system
+     */
+    public CompletableFuture<int[]> getTeams() {
+        return read(() -> portal.getTeams());
+    }
+    /**
+     * Asynchronous version of {@link MiniCyclingPortal#getTeamRiders(int)}
+     * @param teamId The ID of the team being queried
+     * @return A future of the riders' IDs of the team
+     */
+    public CompletableFuture<int[]> getTeamRiders(int teamId) {
+        return read(() -> portal.getTeamRiders(teamId));
+    }
+    /**
+     * Asynchronous version of {@link MiniCyclingPortal#createRider(int, String, int)}
+     * @param teamId The ID rider's team
+     * @param name The name of the rider
+     * @param yearOfBirth The year of birth of the rider
+     * @return A future of the ID of the rider in the system
+     */
+    public CompletableFuture<Integer> createRider(int teamId, String name, int yearOfBirth) {
+        return write(PORTAL_LANE, () -> portal.createRider(teamId, name, yearOfBirth));
+    }
+    /**
+     * Asynchronous version of {@link MiniCyclingPortal#removeRider(int)}
+     * @param riderId The ID of the rider to be removed
+     * @return A future completed once the rider is removed
+     */
+    public CompletableFuture<Void> removeRider(int riderId) {
+        return write(PORTAL_LANE, () -> {
+            portal.removeRider(riderId);
+            return null;
+        });
+    }
+    /**
+     * Asynchronous version of {@link MiniCyclingPortal#registerRiderResultsInStage(int, int, LocalTime...)}
+     * @param stageId The ID of the stage the result refers to
+     * @param riderId The ID of the rider
+     * @param checkpoints The times of the rider including the start and finish time
+     * @return A future completed once the result is registered
+     */
+    public CompletableFuture<Void> registerRiderResultsInStage(int stageId, int riderId, LocalTime... checkpoints) {
+        LocalTime[] times = checkpoints.clone();
+        return write(stageLane(stageId), () -> {
+            portal.registerRiderResultsInStage(stageId, riderId, times);
+            return null;
+        });
+    }
+    /**
+     * Asynchronous version of {@link MiniCyclingPortal#getRiderResultsInStage(int, int)}
+     * @param stageId The ID of the stage the result refers to
+     * @param riderId The ID of the rider
+     * @return A future of the times of the rider in the stage
+     */
+    public CompletableFuture<LocalTime[]> getRiderResultsInStage(int stageId, int riderId) {
+        return read(() -> portal.getRiderResultsInStage(stageId, riderId));
+    }
+    /**
+     * Asynchronous version of {@link MiniCyclingPortal#getRiderAdjustedElapsedTimeInStage(int, int)}
+     * @param stageId The ID of the stage the result refers to
+     * @param riderId The ID of the rider
+     * @return A future of the adjusted elapsed time for the rider in the stage
+     */
+    public CompletableFuture<LocalTime> getRiderAdjustedElapsedTimeInStage(int stageId, int riderId) {
+        return read(() -> portal.getRiderAdjustedElapsedTimeInStage(stageId, riderId));
+    }
+    /**
+     * Asynchronous version of {@link MiniCyclingPortal#deleteRiderResultsInStage(int, int)}
+     * @param stageId The ID of the stage the result refers to
+     * @param riderId The ID of the rider
+     * @return A future completed once the result is deleted
+     */
+    public CompletableFuture<Void> deleteRiderResultsInStage(int stageId, int riderId) {
+        return write(stageLane(stageId), () -> {
+            portal.deleteRiderResultsInStage(stageId, riderId);
+            return null;
+        });
+    }
+    /**
+     * Asynchronous version of {@link MiniCyclingPortal#getRidersRankInStage(int)}
+     * @param stageId The ID of the stage being queried
+     * @return A future of the riders' IDs sorted by their elapsed time
+     */
+    public CompletableFuture<int[]> getRidersRankInStage(int stageId) {
+        return read(() -> portal.getRidersRankInStage(stageId));
+    }
+    /**
+     * Asynchronous version of {@link MiniCyclingPortal#getRankedAdjustedElapsedTimesInStage(int)}
+     * @param stageId The ID of the stage being queried
+     * @return A future of the ranked adjusted elapsed times of the stage
+     */
+    public CompletableFuture<LocalTime[]> getRankedAdjustedElapsedTimesInStage(int stageId) {
+        return read(() -> portal.getRankedAdjustedElapsedTimesInStage(stageId));
+    }
+    /**
+     * Asynchronous version of {@link MiniCyclingPortal#getRidersPointsInStage(int)}
+     * @param stageId The ID of the stage being queried
+     * @return A future of the ranked points of the stage
+     */
+    public CompletableFuture<int[]> getRidersPointsInStage(int stageId) {
+        return read(() -> portal.getRidersPointsInStage(stageId));
+    }
+    /**
+     * Asynchronous version of {@link MiniCyclingPortal#getRidersMountainPointsInStage(int)}
+     * @param stageId The ID of the stage being queried
+     * @return A future of the ranked mountain points of the stage
+     */
+    public CompletableFuture<int[]> getRidersMountainPointsInStage(int stageId) {
+        return read(() -> portal.getRidersMountainPointsInStage(stageId));
+    }
+    /**
+     * Asynchronous version of {@link MiniCyclingPortal#eraseCyclingPortal()}
+     * @return A future completed once the portal is erased
+     */
+    public CompletableFuture<Void> eraseCyclingPortal() {
+        return write(PORTAL_LANE, () -> {
+            portal.eraseCyclingPortal();
+            stageRaces.clear();
+            checkpointStages.clear();
+            return null;
+        });
+    }
+    /**
+     * Asynchronous version of {@link MiniCyclingPortal#saveCyclingPortal(String)}.
+     * Saving only reads the portal so it runs alongside other reads
+     * @param filename Location of the file to be saved
+     * @return A future completed once the portal is saved
+     */
+    public CompletableFuture<Void> saveCyclingPortal(String filename) {
+        return read(() -> {
+            portal.saveCyclingPortal(filename);
+            return null;
+        });
+    }
+    /**
+     * Asynchronous version of {@link CyclingPortalImpl#saveCyclingPortalInBackground(String)}.
+     * Writers only wait while the portal is captured in memory, not while the file is written
+     * @param filename Location of the file to be saved
+     * @return A future of the report of the save, completed once the file is in place
+     * @throws UnsupportedOperationException If the wrapped portal is not a {@link CyclingPortalImpl}
+     */
+    public CompletableFuture<SaveReport> saveCyclingPortalInBackground(String filename) {
+        if(!(portal instanceof CyclingPortalImpl)) {
+            throw new UnsupportedOperationException("Background saves are only provided by CyclingPortalImpl.");
+        }
+        return read(() -> ((CyclingPortalImpl) portal).saveCyclingPortalInBackground(filename))
+        .thenCompose(save -> save);
+    }
+    /**
+     * Asynchronous version of {@link CyclingPortalImpl#saveCyclingPortalInBackground(String, SnapshotCodec, int)}.
+     * Writers only wait while the portal is captured and compressed in memory
+     * @param filename Location of the file to be saved
+     * @param codec The compression used for the file
+     * @param level The compression level, from 1 for speed to 9 for size
+     * @return A future of the report of the save, completed once the file is in place
+     * @throws UnsupportedOperationException If the wrapped portal is not a {@link CyclingPortalImpl}
+     */
+    public CompletableFuture<SaveReport> saveCyclingPortalInBackground(String filename, SnapshotCodec codec, int level) {
+        if(!(portal instanceof CyclingPortalImpl)) {
+            throw new UnsupportedOperationException("Background saves are only provided by CyclingPortalImpl.");
+        }
+        return read(() -> ((CyclingPortalImpl) portal).saveCyclingPortalInBackground(filename, codec, level))
+        .thenCompose(save -> save);
+    }
+    /**
+     * Asynchronous version of {@link CyclingPortalImpl#saveCyclingPortalSegments(String)}.
+     * Saving only reads the portal so it runs alongside other reads
+     * @param directory Location of the directory to be saved to
+     * @return A future of the number of segments written
+     * @throws UnsupportedOperationException If the wrapped portal is not a {@link CyclingPortalImpl}
+     */
+    public CompletableFuture<Integer> saveCyclingPortalSegments(String directory) {
+        if(!(portal instanceof CyclingPortalImpl)) {
+            throw new UnsupportedOperationException("Segmented saves are only provided by CyclingPortalImpl.");
+        }
+        return read(() -> ((CyclingPortalImpl) portal).saveCyclingPortalSegments(directory));
+    }
+    /**
+     * Asynchronous version of {@link CyclingPortalImpl#loadCyclingPortalSegments(String)}
+     * @param directory Location of the directory to be loaded
+     * @return A future completed once the portal is loaded
+     * @throws UnsupportedOperationException If the wrapped portal is not a {@link CyclingPortalImpl}
+     */
+    public CompletableFuture<Void> loadCyclingPortalSegments(String directory) {
+        if(!(portal instanceof CyclingPortalImpl)) {
+            throw new UnsupportedOperationException("Segmented saves are only provided by CyclingPortalImpl.");
+        }
+        return write(PORTAL_LANE, () -> {
+            //A load failing part way may still have replaced some races
+            try {
+                ((CyclingPortalImpl) portal).loadCyclingPortalSegments(directory);
+            } finally {
+                indexLanes();
+            }
+            return null;
+        });
+    }
+    /**
+     * Asynchronous version of {@link MiniCyclingPortal#loadCyclingPortal(String)}
+     * @param filename Location of the file to be loaded
+     * @return A future completed once the portal is loaded
+     */
+    public CompletableFuture<Void> loadCyclingPortal(String filename) {
+        return write(PORTAL_LANE, () -> {
+            try {
+                portal.loadCyclingPortal(filename);
+            } finally {
+                indexLanes();
+            }
+            return null;
+        });
+    }
+    /**
+     * Asynchronous version of {@link CyclingPortal#removeRaceByName(String)}
+     * @param name The name of the race to be removed
+     * @return A future completed once the race is removed
+     */
+    public CompletableFuture<Void> removeRaceByName(String name) {
+        return write(PORTAL_LANE, () -> {
+            portal.removeRaceByName(name);
+            indexLanes();
+            return null;
+        });
+    }
+    /**
+     * Asynchronous version of {@link CyclingPortal#getRidersGeneralClassificationRank(int)}.
+     * Answered from the race's snapshot while stale-while-revalidate is enabled
+     * @param raceId The ID of the race being queried
+     * @return A future of the riders' IDs ranked by general classification
+     */
+    public CompletableFuture<int[]> getRidersGeneralClassificationRank(int raceId) {
+        if(maxStaleness != null) {
+            return snapshot(raceId).thenApply(RaceSnapshot::getRidersGeneralClassificationRank);
+        }
+        return coalescedRead("getRidersGeneralClassificationRank/" + raceId, () -> portal.getRidersGeneralClassificationRank(raceId), int[]::clone);
+    }
+    /**
+     * Asynchronous version of {@link CyclingPortal#getGeneralClassificationTimesInRace(int)}.
+     * Answered from the race's snapshot while stale-while-revalidate is enabled
+     * @param raceId The ID of the race being queried
+     * @return A future of the general classification times of the race
+     */
+    public CompletableFuture<LocalTime[]> getGeneralClassificationTimesInRace(int raceId) {
+        if(maxStaleness != null) {
+            return snapshot(raceId).thenApply(RaceSnapshot::getGeneralClassificationTimesInRace);
+        }
+        return coalescedRead("getGeneralClassificationTimesInRace/" + raceId, () -> portal.getGeneralClassificationTimesInRace(raceId), LocalTime[]::clone);
+    }
+    /**
+     * Asynchronous version of {@link CyclingPortal#getRidersPointsInRace(int)}.
+     * Answered from the race's snapshot while stale-while-revalidate is enabled
+     * @param raceId The ID of the race being queried
+     * @return A future of the riders' points sorted by general classification
+     */
+    public CompletableFuture<int[]> getRidersPointsInRace(int raceId) {
+        if(maxStaleness != null) {
+            return snapshot(raceId).thenApply(RaceSnapshot::getRidersPointsInRace);
+        }
+        return coalescedRead("getRidersPointsInRace/" + raceId, () -> portal.getRidersPointsInRace(raceId), int[]::clone);
+    }
+    /**
+     * Asynchronous version of {@link CyclingPortal#getRidersMountainPointsInRace(int)}.
+     * Answered from the race's snapshot while stale-while-revalidate is enabled
+     * @param raceId The ID of the race being queried
+     * @return A future of the riders' mountain points sorted by general classification
+     */
+    public CompletableFuture<int[]> getRidersMountainPointsInRace(int raceId) {
+        if(maxStaleness != null) {
+            return snapshot(raceId).thenApply(RaceSnapshot::getRidersMountainPointsInRace);
+        }
+        return coalescedRead("getRidersMountainPointsInRace/" + raceId, () -> portal.getRidersMountainPointsInRace(raceId), int[]::clone);
+    }
+    /**
+     * Asynchronous version of {@link CyclingPortal#getRidersPointClassificationRank(int)}.
+     * Answered from the race's snapshot while stale-while-revalidate is enabled
+     * @param raceId The ID of the race being queried
+     * @return A future of the riders' IDs ranked by points
+     */
+    public CompletableFuture<int[]> getRidersPointClassificationRank(int raceId) {
+        if(maxStaleness != null) {
+            return snapshot(raceId).thenApply(RaceSnapshot::getRidersPointClassificationRank);
+        }
+        return coalescedRead("getRidersPointClassificationRank/" + raceId, () -> portal.getRidersPointClassificationRank(raceId), int[]::clone);
+    }
+    /**
+     * Asynchronous version of {@link CyclingPortal#getRidersMountainPointClassificationRank(int)}.
+     * Answered from the race's snapshot while stale-while-revalidate is enabled
+     * @param raceId The ID of the race being queried
+     * @return A future of the riders' IDs ranked by mountain points
+     */
+    public CompletableFuture<int[]> getRidersMountainPointClassificationRank(int raceId) {
+        if(maxStaleness != null) {
+            return snapshot(raceId).thenApply(RaceSnapshot::getRidersMountainPointClassificationRank);
+        }
+        return coalescedRead("getRidersMountainPointClassificationRank/" + raceId, () -> portal.getRidersMountainPointClassificationRank(raceId), int[]::clone);
+    }
+    /**
+     * Stops accepting new calls and waits for the submitted ones to finish
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        boolean interrupted = false;
+        while(true) {
+            try {
+                if(executor.awaitTermination(1, TimeUnit.DAYS)) {
+                    break;
+                }
+            } catch(InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        //Keeping the interrupt for the caller once every call has finished
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package cycling;
+import java.time.LocalTime;
+
+/**
+ * CareerPosting is one entry of a rider's career: their result
+ * in a single stage. Postings are immutable, a stage whose results
+ * change has its postings replaced
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+public final class CareerPosting {
+    /**
+     * The unique id of the race the stage belongs to
+     */
+    private final int raceId;
+    /**
+     * The unique id of the stage
+     */
+    private final int stageId;
+    /**
+     * The finishing position of the rider, starting from 1
+     */
+    private final int position;
+    /**
+     * The adjusted elapsed time of the rider
+     */
+    private final LocalTime adjustedTime;
+    /**
+     * The sprint points the rider won in the stage
+     */
+    private final int sprinterPoints;
+    /**
+     * The mountain points the rider won in the stage
+     */
+    private final int mountainPoints;
+
+    /**
+     * Creates a new posting
+     * @param raceId The unique id of the race
+     * @param stageId The unique id of the stage
+     * @param position The finishing position of the rider, starting from 1
+     * @param adjustedTime The adjusted elapsed time of the rider
+     * @param sprinterPoints The sprint points the rider won
+     * @param mountainPoints The mountain points the rider won
+     */
+    CareerPosting(int raceId, int stageId, int position, LocalTime adjustedTime, int sprinterPoints, int mountainPoints) {
+        this.raceId = raceId;
+        this.stageId = stageId;
+        this.position = position;
+        this.adjustedTime = adjustedTime;
+        this.sprinterPoints = sprinterPoints;
+        this.mountainPoints = mountainPoints;
+    }
+    /**
+     * Gets the unique id of the race of a posting
+     * @return The unique id of the race
+     */
+    public int getRaceId() {
+        return this.raceId;
+    }
+    /**
+     * Gets the unique id of the stage of a posting
+     * @return The unique id of the stage
+     */
+    public int getStageId() {
+        return this.stageId;
+    }
+    /**
+     * Gets the finishing position of a posting
+     * @return The finishing position of the rider, starting from 1
+     */
+    public int getPosition() {
+        return this.position;
+    }
+    /**
+     * Gets the adjusted elapsed time of a posting
+     * @return The adjusted elapsed time of the rider
+     */
+    public LocalTime getAdjustedTime() {
+        return this.adjustedTime;
+    }
+    /**
+     * Gets the sprint points of a posting
+     * @return The sprint points the rider won in the stage
+     */
+    public int getSprinterPoints() {
+        return this.sprinterPoints;
+    }
+    /**
+     * Gets the mountain points of a posting
+     * @return The mountain points the rider won in the stage
+     */
+    public int getMountainPoints() {
+        return this.mountainPoints;
+    }
+    /**
+     * Writes a formatted string containing information about a posting
+     * @return A formatted string containing the stage, position, time and points of this posting
+     */
+    @Override
+    public String toString() {
+        return "{" +
+            "raceId='" + this.raceId + "'" +
+            ", stageId='" + this.stageId + "'" +
+            ", position='" + this.position + "'" +
+            ", adjustedTime='" + this.adjustedTime + "'" +
+            ", sprinterPoints='" + this.sprinterPoints + "'" +
+            ", mountainPoints='" + this.mountainPoints + "'" +
+            "}";
+    }
+}
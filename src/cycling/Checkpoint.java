@@ -13,12 +13,15 @@ import java.time.LocalTime;;
  * @version 2.0
  */
 public abstract class Checkpoint implements Serializable {
+    /**
+     * The version of the serialised form
+     */
+    private static final long serialVersionUID = 8790362279395540503L;
     @SuppressWarnings("unused")
     /**
      * Unique id of a checkpoint
      */
     private int id;
-    @SuppressWarnings("unused")
     /**
      * The location a checkpoint is at in a stage
      */
@@ -44,6 +47,21 @@ public abstract class Checkpoint implements Serializable {
         this.location = location;
         this.id = id;
     }
+    /**
+     * Gets the location of a checkpoint
+     * @return The kilometre location of this checkpoint in its stage
+     */
+    public double getLocation() {
+        return this.location;
+    }
+    /**
+     * Gets the id stored by the base class, which is where checkpoints
+     * saved by the baseline build kept their id
+     * @return The unique id passed to the constructor
+     */
+    int getBaseId() {
+        return this.id;
+    }
     /**
      * Gets the id for a checkpoint
      * @return The unique id of this checkpoint
@@ -73,4 +91,14 @@ public abstract class Checkpoint implements Serializable {
      * @return The number of points
      */
     public abstract int getRiderPointReward(int riderId);
+    /**
+     * Gets the points awarded for each place at a checkpoint
+     * @return The points for each place, first place first
+     */
+    public abstract int[] getPointsTable();
+    /**
+     * Copies a checkpoint and its results, so the copy is unaffected by later results
+     * @return The copy of this checkpoint
+     */
+    abstract Checkpoint copy();
 }
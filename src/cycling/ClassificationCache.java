@@ -0,0 +1,306 @@
+package cycling;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ClassificationCache keeps the results of race classification
+ * queries so repeated reads between changes to a race are array
+ * copies. Each result is stored with the version of the race it
+ * was calculated at and a lookup at any other version is a miss.
+ * The least recently used results are evicted once either the
+ * number of results or their estimated size passes its bound
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+public class ClassificationCache {
+    /**
+     * The classifications whose results are cached
+     */
+    public enum Kind {
+        GENERAL_CLASSIFICATION_TIMES,
+        GENERAL_CLASSIFICATION_RANK,
+        POINTS,
+        MOUNTAIN_POINTS,
+        POINT_CLASSIFICATION_RANK,
+        MOUNTAIN_POINT_CLASSIFICATION_RANK
+    }
+    /**
+     * The default number of results kept
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    /**
+     * The default estimated size of the results kept in bytes
+     */
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+    /**
+     * The estimated size of an array header in bytes
+     */
+    private static final long ARRAY_HEADER_BYTES = 16;
+    /**
+     * The estimated size of a LocalTime element, the reference and the object, in bytes
+     */
+    private static final long LOCAL_TIME_BYTES = 4 + 24;
+    /**
+     * The key of a cached result
+     */
+    private static final class Key {
+        /**
+         * The unique id of the race
+         */
+        private final int raceId;
+        /**
+         * The classification
+         */
+        private final Kind kind;
+
+        /**
+         * Creates a new key
+         * @param raceId The unique id of the race
+         * @param kind The classification
+         */
+        private Key(int raceId, Kind kind) {
+            this.raceId = raceId;
+            this.kind = kind;
+        }
+        @Override
+        public boolean equals(Object other) {
+            if(!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return raceId == key.raceId && kind == key.kind;
+        }
+        @Override
+        public int hashCode() {
+            return 31 * raceId + kind.hashCode();
+        }
+    }
+    /**
+     * A cached result
+     */
+    private static final class Entry {
+        /**
+         * The version of the race the result was calculated at
+         */
+        private final long version;
+        /**
+         * The result, an int[] or LocalTime[]
+         */
+        private final Object value;
+        /**
+         * The estimated size of the result in bytes
+         */
+        private final long bytes;
+
+        /**
+         * Creates a new entry
+         * @param version The version of the race
+         * @param value The result
+         * @param bytes The estimated size of the result in bytes
+         */
+        private Entry(long version, Object value, long bytes) {
+            this.version = version;
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+    /**
+     * The cached results in least recently used order
+     */
+    private final LinkedHashMap<Key, Entry> entries;
+    /**
+     * The largest number of results kept
+     */
+    private final int maxEntries;
+    /**
+     * The largest estimated size of the results kept in bytes
+     */
+    private final long maxBytes;
+    /**
+     * The estimated size of the results currently kept in bytes
+     */
+    private long bytes;
+    /**
+     * The number of lookups answered from the cache
+     */
+    private long hits;
+    /**
+     * The number of lookups that had to be calculated
+     */
+    private long misses;
+    /**
+     * The number of results evicted to stay within the bounds
+     */
+    private long evictions;
+
+    /**
+     * Creates a cache with the default bounds
+     */
+    public ClassificationCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    }
+    /**
+     * Creates a cache with the given bounds
+     * @param maxEntries The largest number of results kept
+     * @param maxBytes The largest estimated size of the results kept in bytes
+     */
+    public ClassificationCache(int maxEntries, long maxBytes) {
+        if(maxEntries < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("You have entered an invalid cache bound, ensure the bounds are positive.");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        //Access order moves every hit to the end, leaving the least recently used first
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    }
+    /**
+     * Looks up a cached result
+     * @param raceId The unique id of the race
+     * @param kind The classification
+     * @param version The current version of the race
+     * @return A copy of the result, or null if it is not cached at this version
+     */
+    synchronized Object get(int raceId, Kind kind, long version) {
+        Key key = new Key(raceId, kind);
+        Entry entry = entries.get(key);
+        if(entry == null || entry.version != version) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return copy(entry.value);
+    }
+    /**
+     * Stores a result, replacing any result of the same classification at an older version
+     * @param <T> The type of the result, int[] or LocalTime[]
+     * @param raceId The unique id of the race
+     * @param kind The classification
+     * @param version The version of the race the result was calculated at
+     * @param value The result
+     * @return A copy of the result for the caller
+     */
+    @SuppressWarnings("unchecked")
+    synchronized <T> T put(int raceId, Kind kind, long version, T value) {
+        Entry entry = new Entry(version, value, estimateBytes(value));
+        //A single result larger than the whole bound is returned without being kept
+        if(entry.bytes <= maxBytes) {
+            Entry previous = entries.put(new Key(raceId, kind), entry);
+            if(previous != null) {
+                bytes -= previous.bytes;
+            }
+            bytes += entry.bytes;
+            evict();
+        }
+        return (T) copy(value);
+    }
+    /**
+     * Removes every result of a race
+     * @param raceId The unique id of the race
+     */
+    public synchronized void removeRace(int raceId) {
+        Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while(iterator.hasNext()) {
+            Map.Entry<Key, Entry> entry = iterator.next();
+            if(entry.getKey().raceId == raceId) {
+                bytes -= entry.getValue().bytes;
+                iterator.remove();
+            }
+        }
+    }
+    /**
+     * Gets the results of a race calculated at a version, without counting a
+     * lookup or changing which results are least recently used
+     * @param raceId The unique id of the race
+     * @param version The current version of the race
+     * @return A map with classifications as keys and their cached results as values
+     */
+    synchronized Map<Kind, Object> getResults(int raceId, long version) {
+        Map<Kind, Object> results = new EnumMap<Kind, Object>(Kind.class);
+        for(Map.Entry<Key, Entry> entry: entries.entrySet()) {
+            if(entry.getKey().raceId == raceId && entry.getValue().version == version) {
+                results.put(entry.getKey().kind, entry.getValue().value);
+            }
+        }
+        return results;
+    }
+    /**
+     * Removes every result, keeping the counters
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+    /**
+     * Evicts the least recently used results until the cache is within its bounds
+     */
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while(iterator.hasNext() && (entries.size() > maxEntries || bytes > maxBytes)) {
+            bytes -= iterator.next().bytes;
+            iterator.remove();
+            evictions++;
+        }
+    }
+    /**
+     * Copies a result so callers cannot change the cached array
+     * @param value The result, an int[] or LocalTime[]
+     * @return A copy of the result
+     */
+    private static Object copy(Object value) {
+        if(value instanceof int[]) {
+            return ((int[]) value).clone();
+        }
+        return ((Object[]) value).clone();
+    }
+    /**
+     * Estimates the size of a result
+     * @param value The result, an int[] or LocalTime[]
+     * @return The estimated size of the result in bytes
+     */
+    private static long estimateBytes(Object value) {
+        if(value instanceof int[]) {
+            return ARRAY_HEADER_BYTES + 4L * ((int[]) value).length;
+        }
+        return ARRAY_HEADER_BYTES + LOCAL_TIME_BYTES * ((Object[]) value).length;
+    }
+    /**
+     * Gets the number of lookups answered from a cache
+     * @return The number of hits
+     */
+    public synchronized long getHits() {
+        return this.hits;
+    }
+    /**
+     * Gets the number of lookups a cache could not answer
+     * @return The number of misses
+     */
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+    /**
+     * Gets the number of results evicted from a cache
+     * @return The number of evictions
+     */
+    public synchronized long getEvictions() {
+        return this.evictions;
+    }
+    /**
+     * Gets the number of results in a cache
+     * @return The number of results currently kept
+     */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+    /**
+     * Gets the estimated size of the results in a cache
+     * @return The estimated size of the results currently kept in bytes
+     */
+    public synchronized long getBytes() {
+        return this.bytes;
+    }
+}
@@ -0,0 +1,202 @@
+package cycling;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * CompressedSnapshotInputStream reads a snapshot written by
+ * {@link CompressedSnapshotOutputStream}. A read-ahead thread reads
+ * and inflates the next blocks while the object graph is decoded
+ * from the current one, so loading keeps close to disk speed
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+final class CompressedSnapshotInputStream extends InputStream {
+    /**
+     * The number of inflated blocks which may wait to be decoded
+     */
+    private static final int QUEUED_BLOCKS = 4;
+    /**
+     * The block handed over after the last one
+     */
+    private static final byte[] LAST_BLOCK = new byte[0];
+    /**
+     * The stream the blocks are read from
+     */
+    private final DataInputStream in;
+    /**
+     * The inflated blocks waiting to be decoded
+     */
+    private final BlockingQueue<byte[]> blocks;
+    /**
+     * The thread reading and inflating blocks ahead
+     */
+    private final Thread reader;
+    /**
+     * The block currently being decoded
+     */
+    private byte[] block;
+    /**
+     * The position in the current block
+     */
+    private int position;
+    /**
+     * The first error the read-ahead thread hit, null while it is working
+     */
+    private volatile IOException failure;
+
+    /**
+     * Creates a stream reading a compressed snapshot and starts its read-ahead thread
+     * @param in The stream positioned at the start of the snapshot
+     * @throws IOException If the header is not that of a compressed snapshot
+     */
+    private CompressedSnapshotInputStream(InputStream in) throws IOException {
+        this.in = new DataInputStream(in);
+        if(this.in.readInt() != CompressedSnapshotOutputStream.MAGIC) {
+            throw new IOException("The file is not a compressed portal snapshot.");
+        }
+        int version = this.in.readUnsignedByte();
+        if(version != CompressedSnapshotOutputStream.FORMAT_VERSION) {
+            throw new IOException("The compressed portal snapshot uses an unsupported format version " + version + ".");
+        }
+        int codec = this.in.readUnsignedByte();
+        if(codec != SnapshotCodec.DEFLATE.ordinal()) {
+            throw new IOException("The compressed portal snapshot uses an unsupported codec " + codec + ".");
+        }
+        //The block size is only informative, every block records its own length
+        this.in.readInt();
+        this.blocks = new ArrayBlockingQueue<byte[]>(QUEUED_BLOCKS);
+        this.block = new byte[0];
+        this.reader = new Thread(this::inflateBlocks, "snapshot-inflater");
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+    /**
+     * Opens a saved portal, inflating it if it is a compressed snapshot
+     * @param in The buffered stream of the saved portal
+     * @return A stream of the serialised portal
+     * @throws IOException If the start of the file cannot be read
+     */
+    static InputStream open(BufferedInputStream in) throws IOException {
+        in.mark(4);
+        DataInputStream peek = new DataInputStream(in);
+        int magic;
+        try {
+            magic = peek.readInt();
+        } catch(IOException e) {
+            magic = 0;
+        }
+        in.reset();
+        return magic == CompressedSnapshotOutputStream.MAGIC ? new CompressedSnapshotInputStream(in) : in;
+    }
+    /**
+     * Reads and inflates blocks until the last one, run on the read-ahead thread
+     */
+    private void inflateBlocks() {
+        Inflater inflater = new Inflater();
+        try {
+            while(true) {
+                int rawLength = in.readInt();
+                if(rawLength == CompressedSnapshotOutputStream.END_OF_BLOCKS) {
+                    break;
+                }
+                int method = in.readUnsignedByte();
+                byte[] stored = new byte[in.readInt()];
+                in.readFully(stored);
+                if(method == CompressedSnapshotOutputStream.STORED) {
+                    blocks.put(stored);
+                    continue;
+                }
+                byte[] raw = new byte[rawLength];
+                inflater.reset();
+                inflater.setInput(stored);
+                int inflated = 0;
+                while(inflated < rawLength && !inflater.finished()) {
+                    inflated += inflater.inflate(raw, inflated, rawLength - inflated);
+                }
+                if(inflated != rawLength) {
+                    throw new IOException("A block of the compressed portal snapshot is truncated.");
+                }
+                blocks.put(raw);
+            }
+        } catch(IOException e) {
+            failure = e;
+        } catch(DataFormatException e) {
+            failure = new IOException("A block of the compressed portal snapshot is corrupt.", e);
+        } catch(InterruptedException e) {
+            return;
+        } finally {
+            inflater.end();
+        }
+        try {
+            blocks.put(LAST_BLOCK);
+        } catch(InterruptedException e) {
+            //The stream was closed before reaching the end
+        }
+    }
+    /**
+     * Moves on to the next inflated block once the current one is used up
+     * @return False once every block has been read
+     * @throws IOException If a block could not be read or inflated
+     */
+    private boolean nextBlock() throws IOException {
+        while(position == block.length) {
+            if(block == LAST_BLOCK) {
+                if(failure != null) {
+                    throw failure;
+                }
+                return false;
+            }
+            try {
+                block = blocks.take();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the snapshot inflater.");
+            }
+            position = 0;
+        }
+        return true;
+    }
+    @Override
+    public int read() throws IOException {
+        if(!nextBlock()) {
+            return -1;
+        }
+        return block[position++] & 0xFF;
+    }
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if(length == 0) {
+            return 0;
+        }
+        if(!nextBlock()) {
+            return -1;
+        }
+        int copied = Math.min(length, block.length - position);
+        System.arraycopy(block, position, bytes, offset, copied);
+        position += copied;
+        return copied;
+    }
+    @Override
+    public int available() {
+        return block.length - position;
+    }
+    /**
+     * Stops the read-ahead thread and closes the stream
+     * @throws IOException If the stream cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        reader.interrupt();
+        in.close();
+    }
+}
@@ -0,0 +1,241 @@
+package cycling;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * CompressedSnapshotOutputStream splits a serialised portal into
+ * fixed size blocks and deflates each one on a separate compressor
+ * thread, so encoding the object graph and compressing it overlap.
+ * A small bounded queue between the two keeps memory use flat.
+ * Blocks which do not shrink are stored as they are
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+final class CompressedSnapshotOutputStream extends OutputStream {
+    /**
+     * The first four bytes of a compressed snapshot, "CYCZ"
+     */
+    static final int MAGIC = 0x4359435A;
+    /**
+     * The version of the block format
+     */
+    static final int FORMAT_VERSION = 1;
+    /**
+     * The marker of a block stored without compression
+     */
+    static final int STORED = 0;
+    /**
+     * The marker of a deflated block
+     */
+    static final int DEFLATED = 1;
+    /**
+     * The marker written instead of a block length after the last block
+     */
+    static final int END_OF_BLOCKS = -1;
+    /**
+     * The default number of serialised bytes per block
+     */
+    static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+    /**
+     * The number of full blocks which may wait for the compressor
+     */
+    private static final int QUEUED_BLOCKS = 4;
+    /**
+     * The block handed to the compressor to tell it no more blocks follow
+     */
+    private static final byte[] LAST_BLOCK = new byte[0];
+    /**
+     * The stream the blocks are written to
+     */
+    private final DataOutputStream out;
+    /**
+     * The deflate level of the blocks
+     */
+    private final int level;
+    /**
+     * The number of serialised bytes per block
+     */
+    private final int blockSize;
+    /**
+     * The blocks waiting for the compressor
+     */
+    private final BlockingQueue<byte[]> blocks;
+    /**
+     * The thread compressing and writing the blocks
+     */
+    private final Thread compressor;
+    /**
+     * The block currently being filled
+     */
+    private byte[] block;
+    /**
+     * The number of bytes in the current block
+     */
+    private int count;
+    /**
+     * The first error the compressor hit, null while it is working
+     */
+    private volatile IOException failure;
+    /**
+     * Whether the stream has been closed
+     */
+    private boolean closed;
+
+    /**
+     * Creates a stream writing deflated blocks and starts its compressor thread
+     * @param out The stream the blocks are written to
+     * @param level The deflate level, from 1 for speed to 9 for size
+     * @param blockSize The number of serialised bytes per block
+     * @throws IOException If the header cannot be written
+     */
+    CompressedSnapshotOutputStream(OutputStream out, int level, int blockSize) throws IOException {
+        if(level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("You have entered an invalid compression level, ensure it is between 1 and 9.");
+        }
+        this.out = new DataOutputStream(out);
+        this.level = level;
+        this.blockSize = blockSize;
+        this.blocks = new ArrayBlockingQueue<byte[]>(QUEUED_BLOCKS);
+        this.block = new byte[blockSize];
+        this.out.writeInt(MAGIC);
+        this.out.writeByte(FORMAT_VERSION);
+        this.out.writeByte(SnapshotCodec.DEFLATE.ordinal());
+        this.out.writeInt(blockSize);
+        this.compressor = new Thread(this::compressBlocks, "snapshot-compressor");
+        this.compressor.setDaemon(true);
+        this.compressor.start();
+    }
+    @Override
+    public void write(int b) throws IOException {
+        if(count == blockSize) {
+            handOver();
+        }
+        block[count++] = (byte) b;
+    }
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while(length > 0) {
+            if(count == blockSize) {
+                handOver();
+            }
+            int copied = Math.min(length, blockSize - count);
+            System.arraycopy(bytes, offset, block, count, copied);
+            count += copied;
+            offset += copied;
+            length -= copied;
+        }
+    }
+    /**
+     * Hands the current block to the compressor and starts a new one
+     * @throws IOException If the compressor has failed
+     */
+    private void handOver() throws IOException {
+        queue(count == blockSize ? block : Arrays.copyOf(block, count));
+        block = new byte[blockSize];
+        count = 0;
+    }
+    /**
+     * Queues a block for the compressor, waiting if it is behind
+     * @param next The block being queued
+     * @throws IOException If the compressor has failed
+     */
+    private void queue(byte[] next) throws IOException {
+        if(failure != null) {
+            throw failure;
+        }
+        try {
+            blocks.put(next);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the snapshot compressor.");
+        }
+    }
+    /**
+     * Compresses and writes blocks until the last one, run on the compressor thread
+     */
+    private void compressBlocks() {
+        Deflater deflater = new Deflater(level);
+        byte[] chunk = new byte[64 * 1024];
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try {
+            while(true) {
+                byte[] next = blocks.take();
+                if(next == LAST_BLOCK) {
+                    break;
+                }
+                //Once failed the remaining blocks are only drained so the encoder never waits forever
+                if(failure != null) {
+                    continue;
+                }
+                try {
+                    deflater.reset();
+                    deflater.setInput(next);
+                    deflater.finish();
+                    compressed.reset();
+                    while(!deflater.finished()) {
+                        compressed.write(chunk, 0, deflater.deflate(chunk));
+                    }
+                    out.writeInt(next.length);
+                    if(compressed.size() < next.length) {
+                        out.writeByte(DEFLATED);
+                        out.writeInt(compressed.size());
+                        compressed.writeTo(out);
+                    } else {
+                        out.writeByte(STORED);
+                        out.writeInt(next.length);
+                        out.write(next);
+                    }
+                } catch(IOException e) {
+                    failure = e;
+                }
+            }
+        } catch(InterruptedException e) {
+            failure = new InterruptedIOException("The snapshot compressor was interrupted.");
+        } finally {
+            deflater.end();
+        }
+    }
+    /**
+     * Hands over the last block, waits for the compressor to write every block and closes the stream
+     * @throws IOException If a block could not be compressed or written
+     */
+    @Override
+    public void close() throws IOException {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if(count > 0) {
+                handOver();
+            }
+            queue(LAST_BLOCK);
+            compressor.join();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the snapshot compressor.");
+        } finally {
+            if(compressor.isAlive()) {
+                compressor.interrupt();
+            }
+            if(failure != null) {
+                out.close();
+            }
+        }
+        if(failure != null) {
+            throw failure;
+        }
+        out.writeInt(END_OF_BLOCKS);
+        out.close();
+    }
+}
@@ -1,15 +1,22 @@
 package cycling;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OptionalDataException;
+import java.io.OutputStream;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.time.Duration;
 import java.lang.Double;
 
@@ -23,6 +30,12 @@ import java.lang.Double;
  *
  */
 public class CyclingPortalImpl implements CyclingPortal {
+	/**
+	 * Version of the serialised portal. The versions of the portal and of every
+	 * class saved with it are fixed so saves from earlier builds still load,
+	 * classes the baseline build saved keep the values that build computed
+	 */
+	private static final long serialVersionUID = 9052649864036428417L;
 	/**
 	 * Map of races in this portal
 	 */
@@ -43,6 +56,34 @@ public class CyclingPortalImpl implements CyclingPortal {
 	 * List of usedRiderIds in this portal
 	 */
 	private ArrayList<Integer> usedRiderIds;
+	/**
+	 * Index of every rider's results across races, built the first time it is used
+	 */
+	private transient volatile RiderCareerIndex careerIndex;
+	/**
+	 * Cache of race classification results, keyed by race version
+	 */
+	private transient ClassificationCache classificationCache;
+	/**
+	 * Segmented save this portal last wrote or loaded, tracking what changed since
+	 */
+	private transient SegmentStore segmentStore;
+	/**
+	 * Whether snapshots of this portal also hold the results calculated from each race
+	 */
+	private transient boolean derivedStateSaved;
+	/**
+	 * Results calculated from each race, read with this portal when it was saved holding them
+	 */
+	private transient DerivedState derivedState;
+	/**
+	 * Results calculated from each race when this portal is an image captured for a background save
+	 */
+	private transient DerivedState capturedDerivedState;
+	/**
+	 * Number of pipelines whose writer thread publishes the snapshots of this portal
+	 */
+	private transient volatile int snapshotPublishers;
 
 	/**
 	 * Initial empty consutrctor for new CyclingPortalImpl.
@@ -55,6 +96,25 @@ public class CyclingPortalImpl implements CyclingPortal {
 		this.usedStageIds = new ArrayList<Integer>();
 		this.usedCheckpointIds = new ArrayList<Integer>();
 		this.usedRiderIds = new ArrayList<Integer>();
+		this.classificationCache = new ClassificationCache();
+	}
+	/**
+	 * Constructor for a CyclingPortalImpl holding contents loaded from segments.
+	 *
+	 * @param races The loaded races
+	 * @param teams The loaded teams
+	 * @param usedStageIds The stage ids in use
+	 * @param usedCheckpointIds The checkpoint ids in use
+	 * @param usedRiderIds The rider ids in use
+	 */
+	CyclingPortalImpl(Map<Integer, Race> races, Map<Integer, Team> teams, ArrayList<Integer> usedStageIds,
+			ArrayList<Integer> usedCheckpointIds, ArrayList<Integer> usedRiderIds) {
+		this.races = races;
+		this.teams = teams;
+		this.usedStageIds = usedStageIds;
+		this.usedCheckpointIds = usedCheckpointIds;
+		this.usedRiderIds = usedRiderIds;
+		this.classificationCache = new ClassificationCache();
 	}
 	/**
 	 * Get the races currently created in the platform.
@@ -151,6 +211,12 @@ public class CyclingPortalImpl implements CyclingPortal {
 			}
 			usedStageIds.remove(usedStageIds.indexOf(race.getStages().get(i).getId()));
 		}
+		if(careerIndex != null) {
+			for(int stageId: race.getStages().keySet()) {
+				careerIndex.removeStage(stageId);
+			}
+		}
+		classificationCache.removeRace(raceId);
 		races.remove(raceId);
 	}
 	/**
@@ -220,6 +286,7 @@ public class CyclingPortalImpl implements CyclingPortal {
 
 		int id = races.get(raceId).addStage(stageName, description, length, startTime, type);
 		usedStageIds.add(id);
+		races.get(raceId).incrementVersion();
 		return id;
 	}
 	/**
@@ -295,6 +362,10 @@ public class CyclingPortalImpl implements CyclingPortal {
 		Race race = Race.findStagesRace(stageId, races);
 		race.getStages().remove(stageId);
 		race.getOrderedStageIds().remove(race.getOrderedStageIds().indexOf(stageId));
+		race.incrementVersion();
+		if(careerIndex != null) {
+			careerIndex.removeStage(stageId);
+		}
 		
 	}
 	/**
@@ -342,6 +413,8 @@ public class CyclingPortalImpl implements CyclingPortal {
 		}
 		int cpId = Race.findStage(stageId, races).addMountainCheckpoint(location, type, averageGradient, length);
 		usedCheckpointIds.add(cpId);
+		Race.findStage(stageId, races).incrementVersion();
+		Race.findStagesRace(stageId, races).incrementVersion();
 		return cpId;
 	}
 	/**
@@ -383,6 +456,8 @@ public class CyclingPortalImpl implements CyclingPortal {
 		}
 		int cpId = Race.findStage(stageId, races).addSprintCheckpoint(location);
 		usedCheckpointIds.add(cpId);
+		Race.findStage(stageId, races).incrementVersion();
+		Race.findStagesRace(stageId, races).incrementVersion();
 		return cpId;
 	}
 	/**
@@ -409,8 +484,11 @@ public class CyclingPortalImpl implements CyclingPortal {
 		if(Stage.findCheckpointsStage(checkpointId, races, usedStageIds).getState() != "in preparation") {
 			throw new InvalidStageStateException("You can no longer change the details of this stage as preparation phase has already been concluded.");
 		}
+		Stage stage = Stage.findCheckpointsStage(checkpointId, races, usedStageIds);
 		usedCheckpointIds.remove(index);
-		Stage.findCheckpointsStage(checkpointId, races, usedStageIds).getCheckpoints().remove(checkpointId);
+		stage.removeCheckpoint(checkpointId);
+		stage.incrementVersion();
+		stage.getRace().incrementVersion();
 	}
 	/**
 	 * Concludes the preparation of a stage. After conclusion, the stage's state
@@ -437,6 +515,8 @@ public class CyclingPortalImpl implements CyclingPortal {
 		}
 		
 		Race.findStage(stageId, races).setState();
+		Race.findStage(stageId, races).incrementVersion();
+		Race.findStagesRace(stageId, races).incrementVersion();
 	}
 	/**
 	 * Retrieves the list of checkpoint (mountains and sprints) IDs of a stage.
@@ -459,8 +539,57 @@ public class CyclingPortalImpl implements CyclingPortal {
 			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined stage.");
 		}
 		
-		return Race.findStage(stageId, races).getCheckpoints().keySet().stream().
-		mapToInt(Integer:: intValue).toArray();
+		return Race.findStage(stageId, races).getOrderedCheckpointIds();
+	}
+	/**
+	 * Retrieves the checkpoint IDs of a stage lying between two locations.
+	 * 
+	 * @param stageId The ID of the stage being queried.
+	 * @param from    The kilometre location the range starts at, inclusive.
+	 * @param to      The kilometre location the range ends at, inclusive.
+	 * @return The list of checkpoint IDs in the range ordered (from first to last)
+	 *         by their location in the stage. An empty list if there are none.
+	 * @throws IDNotRecognisedException If the ID does not match to any stage in the
+	 *                                  system.
+	 * @throws InvalidLocationException If the range ends before it starts.
+	 */
+	public int[] getStageCheckpointsBetween(int stageId, double from, double to) throws IDNotRecognisedException,
+			InvalidLocationException {
+		boolean found = false;
+		for(int id: usedStageIds) {
+			if(stageId == id) {
+				found = true;
+			}
+		}
+		if(found == false) {
+			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined stage.");
+		}
+		if(from > to) {
+			throw new InvalidLocationException("You have entered an incorrectly formatted range, ensure the start location is not after the end location.");
+		}
+		return Race.findStage(stageId, races).getCheckpointsBetween(from, to);
+	}
+	/**
+	 * Retrieves the checkpoint of a stage closest to a location.
+	 * 
+	 * @param stageId  The ID of the stage being queried.
+	 * @param location The kilometre location within the stage.
+	 * @return The ID of the closest checkpoint, the earlier one if two are equally
+	 *         close. Returns -1 if the stage has no checkpoints.
+	 * @throws IDNotRecognisedException If the ID does not match to any stage in the
+	 *                                  system.
+	 */
+	public int getNearestCheckpoint(int stageId, double location) throws IDNotRecognisedException {
+		boolean found = false;
+		for(int id: usedStageIds) {
+			if(stageId == id) {
+				found = true;
+			}
+		}
+		if(found == false) {
+			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined stage.");
+		}
+		return Race.findStage(stageId, races).getNearestCheckpoint(location);
 	}
 	/**
 	 * Creates a team with name and description.
@@ -487,6 +616,9 @@ public class CyclingPortalImpl implements CyclingPortal {
 		Team newTeam = new Team(name, description, teams);
 		int id = newTeam.getId();
 		teams.put(id, newTeam);
+		if(segmentStore != null) {
+			segmentStore.markTeamsDirty();
+		}
 		return id;
 	}
 	/**
@@ -508,7 +640,24 @@ public class CyclingPortalImpl implements CyclingPortal {
 			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined team.");
 		}
 		
+		//Races the team's riders took part in lose the team from their team classification
+		for(Rider rider: teams.get(teamId).getRiders().values()) {
+			for(int raceId: rider.getRacesEnrolled()) {
+				if(races.containsKey(raceId)) {
+					races.get(raceId).incrementVersion();
+				}
+			}
+		}
 		teams.remove(teamId);
+		//Race segments may still refer to the team's riders so every segment is rewritten
+		if(segmentStore != null) {
+			segmentStore.markAllDirty();
+		}
+		for(Race race: races.values()) {
+			for(Stage stage: race.getStages().values()) {
+				stage.removeTeamFromClassification(teamId);
+			}
+		}
 	}
 	/**
 	 * Get the list of teams' IDs in the system.
@@ -570,6 +719,9 @@ public class CyclingPortalImpl implements CyclingPortal {
 		}
 		int id = teams.get(teamId).addRider(name, yearOfBirth);
 		usedRiderIds.add(id);
+		if(segmentStore != null) {
+			segmentStore.markTeamsDirty();
+		}
 		return id;
 	}
 	/**
@@ -601,20 +753,33 @@ public class CyclingPortalImpl implements CyclingPortal {
 					int[] currentRaceStages = races.get((riderRaces.get(i))).getStages().keySet().
 					stream().mapToInt(Integer::intValue).toArray();
 					int currStageId = currentRaceStages[j];
-					Race.findStage(currStageId, races).getRiderTimes().remove(riderId);
-					Race.findStage(currStageId, races).getRiderPositions().remove
-					(Race.findStage(currStageId, races).getRiderPositions().indexOf(riderId));
-					Race.findStage(currStageId, races).getAdjustedTimes().remove(riderId);
+					if(Race.findStage(currStageId, races).removeResults(riderId)) {
+						Race.findStage(currStageId, races).incrementVersion();
+					}
+					Race.findStage(currStageId, races).getTimeAdjustments().removeRider(riderId);
 				}
-				//Removes the rider from the races final elapsed times if it has been calculated
-				races.get((riderRaces.get(i))).getAdjustedTimes().values().remove(riderId);
+				races.get((riderRaces.get(i))).incrementVersion();
 			}
 			//Removes the rider from the team they were in
 		}
+		//Riders part way through a live stage are not enrolled in its race yet
+		for(Race race: races.values()) {
+			for(Stage stage: race.getStages().values()) {
+				if(stage.isLive()) {
+					stage.getLiveStage().removeRider(riderId);
+				}
+			}
+		}
+		if(careerIndex != null) {
+			careerIndex.removeRider(riderId);
+		}
 		Team team = Team.findRider(riderId, teams).getTeam();
 		team.getRiders().remove(riderId);
 		team.getOrderedRiderIds().remove(team.getOrderedRiderIds().indexOf(riderId));
 		usedRiderIds.remove(index);
+		if(segmentStore != null) {
+			segmentStore.markTeamsDirty();
+		}
 	}
 	/**
 	 * Record the times of a rider in a stage.
@@ -671,9 +836,12 @@ public class CyclingPortalImpl implements CyclingPortal {
 				inOrder = false;
 			}
 		}
-		if(inOrder == false || checkpoints.length != Race.findStage(stageId, races).getCheckpoints().size()+2) {
+		if(inOrder == false || checkpoints.length != Race.findStage(stageId, races).getLayout().getColumnCount()) {
 			throw new InvalidCheckpointTimesException("You have entered an incorrectly formatted checkpoints list, ensure it contains the rider's times in order for each checkpoint as well as the start and finish time of the given stage.");
 		}
+		if(Race.findStage(stageId, races).isLive()) {
+			Race.findStage(stageId, races).getLiveStage().recordResults(riderId, checkpoints.clone());
+		}
 		//Converting the final time in the checkpoint array to be a pure LocalTime representation of a duration
 		LocalTime midnight = LocalTime.parse("00:00:00");
 		Duration elapsedTime = Duration.between(checkpoints[0], checkpoints[checkpoints.length-1]);
@@ -681,6 +849,7 @@ public class CyclingPortalImpl implements CyclingPortal {
 		Race.findStage(stageId, races).getRiderTimes().put(riderId, checkpoints);
 		//Adding race to rider's enrolled races
 		ArrayList<Integer> riderRaces = Team.findRider(riderId, teams).getRacesEnrolled();
+		int racesEnrolledBefore = riderRaces.size();
 		//Adding automatically if the rider has no currently enrolled races
 		if(riderRaces.size()==0) {
 			Team.findRider(riderId, teams).getRacesEnrolled().add(Race.findStagesRace(stageId, races).getId());
@@ -714,26 +883,19 @@ public class CyclingPortalImpl implements CyclingPortal {
 		if(raceRiders != null && !raceRiders.contains(Team.findRider(riderId, teams))) {
 			Race.findStagesRace(stageId, races).getRiders().add(Team.findRider(riderId, teams));
 		}
-		//Insert the rider id at the appropriate position on the stages leaderboard
-		int[] stagePositions = Race.findStage(stageId, races).getRiderPositions().stream().mapToInt(Integer::intValue).toArray();
-		Map<Integer, LocalTime[]> riderTimeMap = Race.findStage(stageId, races).getRiderTimes();
-		LocalTime riderBeingAddedDuration = checkpoints[checkpoints.length-1];
-		//If there are no other times recorded, immediately add
-		if(riderTimeMap.size()==1) {
-			Race.findStage(stageId, races).getRiderPositions().add(riderId);
-		} else {
-			for(int i=0; i<stagePositions.length; i++) {
-				LocalTime[] currentCheckTimes = riderTimeMap.get(stagePositions[i]);
-				LocalTime currentCheckDuration = currentCheckTimes[currentCheckTimes.length-1];
-				//Check if it is the highest duration so far
-				if(riderBeingAddedDuration.isAfter(riderTimeMap.get(stagePositions[stagePositions.length-1])[checkpoints.length-1])) {
-					Race.findStage(stageId, races).getRiderPositions().add(0, riderId);
-				//Else place it before the first time that has a longer duration than it
-				} else if(riderBeingAddedDuration.isBefore(currentCheckDuration)){
-					Race.findStage(stageId, races).getRiderPositions().add(i, riderId);
-				}
-			}
+		//Riders are saved with their teams, so a newly enrolled race changes the teams segment
+		if(segmentStore != null && riderRaces.size() != racesEnrolledBefore) {
+			segmentStore.markTeamsDirty();
 		}
+		//Insert the rider id at the appropriate position on the stages leaderboard
+		Race.findStage(stageId, races).addRiderPosition(riderId);
+		Race.findStage(stageId, races).getTeamClassification(teams).addResult(Team.findRider(riderId, teams).getTeam().getId(),
+		riderId, Race.findStage(stageId, races).getElapsedTime(riderId).toNanoOfDay());
+		if(careerIndex != null) {
+			careerIndex.addPosting(riderId, Race.findStage(stageId, races));
+		}
+		Race.findStage(stageId, races).incrementVersion();
+		Race.findStagesRace(stageId, races).incrementVersion();
 	} 
 	
 	
@@ -807,7 +969,7 @@ public class CyclingPortalImpl implements CyclingPortal {
 			return null;
 		}
 		
-		Map<Integer, LocalTime> adjustedTimes = Race.findStage(stageId, races).adjustTimes(0);
+		Map<Integer, LocalTime> adjustedTimes = Race.findStage(stageId, races).getAdjustedTimes();
 		return adjustedTimes.get(riderId);
 	}
 	/**
@@ -839,7 +1001,13 @@ public class CyclingPortalImpl implements CyclingPortal {
 			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined rider.");
 		}
 		
-		Race.findStage(stageId, races).getRiderTimes().remove(riderId);
+		if(Race.findStage(stageId, races).removeResults(riderId)) {
+			Race.findStage(stageId, races).incrementVersion();
+			Race.findStagesRace(stageId, races).incrementVersion();
+		}
+		if(careerIndex != null) {
+			careerIndex.removePosting(riderId, stageId);
+		}
 	}
 	/**
 	 * Get the riders finished position in a a stage.
@@ -892,7 +1060,7 @@ public class CyclingPortalImpl implements CyclingPortal {
 			return new LocalTime[] {};
 		}
 		
-		Map<Integer, LocalTime> adjustedTimes = Race.findStage(stageId, races).adjustTimes(0);
+		Map<Integer, LocalTime> adjustedTimes = Race.findStage(stageId, races).getAdjustedTimes();
 		return adjustedTimes.values().toArray(new LocalTime[0]);
 	}
 	/**
@@ -961,6 +1129,62 @@ public class CyclingPortalImpl implements CyclingPortal {
 		this.usedCheckpointIds = new ArrayList<Integer>();
 		this.usedStageIds = new ArrayList<Integer>();
 		this.usedRiderIds = new ArrayList<Integer>();
+		this.careerIndex = null;
+		this.segmentStore = null;
+		this.classificationCache.clear();
+	}
+	/**
+	 * Sets whether snapshots of this portal also hold the results already
+	 * calculated from each race: the general classification totals and any
+	 * cached race classifications. A portal loaded from such a snapshot
+	 * answers them without recalculating, as long as the stage stamp or race
+	 * version each result was saved with still matches, and rebuilds them on
+	 * first use otherwise. Snapshots are larger when this is enabled.
+	 * Segmented saves never hold derived state.
+	 *
+	 * @param saved Whether derived state is saved, false by default.
+	 */
+	public void setDerivedStateSaved(boolean saved) {
+		this.derivedStateSaved = saved;
+	}
+	/**
+	 * Gets whether snapshots of this portal also hold the results already
+	 * calculated from each race.
+	 *
+	 * @return Whether derived state is saved.
+	 */
+	public boolean isDerivedStateSaved() {
+		return this.derivedStateSaved;
+	}
+	/**
+	 * Writes this portal, followed by its derived state when it is saved
+	 * @param out The stream the portal is written to
+	 * @throws IOException If the stream cannot be written
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		if(derivedStateSaved) {
+			out.writeObject(capturedDerivedState != null ? capturedDerivedState : DerivedState.capture(races, classificationCache));
+		} else {
+			out.writeObject(null);
+		}
+	}
+	/**
+	 * Reads this portal and any derived state saved with it
+	 * @param in The stream the portal is read from
+	 * @throws IOException If the stream cannot be read
+	 * @throws ClassNotFoundException If required class files cannot be found
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		//Portals saved before derived state was added end after their fields
+		try {
+			this.derivedState = (DerivedState) in.readObject();
+		} catch(OptionalDataException e) {
+			if(!e.eof) {
+				throw e;
+			}
+		}
 	}
 	/**
 	 * Method saves this CyclingPortalImpl contents into a serialised file,
@@ -976,9 +1200,163 @@ public class CyclingPortalImpl implements CyclingPortal {
 		out.writeObject(this);
 		out.close();
 	}
+	/**
+	 * Saves this CyclingPortalImpl contents into a file compressed with the
+	 * codec given. With {@link SnapshotCodec#DEFLATE} the serialised portal is
+	 * split into blocks which are deflated on a separate thread while the rest
+	 * of the portal is still being serialised. Either format can be loaded with
+	 * {@link #loadCyclingPortal(String)}.
+	 *
+	 * @param filename Location of the file to be saved.
+	 * @param codec    The compression used for the file.
+	 * @param level    The compression level, from 1 for speed to 9 for size.
+	 *                 Ignored with {@link SnapshotCodec#NONE}.
+	 * @throws IOException              If there is a problem experienced when trying
+	 *                                  to save the store contents to the file.
+	 * @throws IllegalArgumentException If the level is not between 1 and 9.
+	 */
+	public void saveCyclingPortal(String filename, SnapshotCodec codec, int level) throws IOException {
+		ObjectOutputStream out = new ObjectOutputStream(compress(new BufferedOutputStream(new FileOutputStream(filename)), codec, level));
+		out.writeObject(this);
+		out.close();
+	}
+	/**
+	 * Wraps the stream a snapshot is written to with the codec given
+	 * @param out The stream the snapshot is written to
+	 * @param codec The compression used for the snapshot
+	 * @param level The compression level, from 1 for speed to 9 for size
+	 * @return The stream the portal is serialised into
+	 * @throws IOException If the header of the compressed snapshot cannot be written
+	 */
+	private static OutputStream compress(OutputStream out, SnapshotCodec codec, int level) throws IOException {
+		if(codec == SnapshotCodec.DEFLATE) {
+			return new CompressedSnapshotOutputStream(out, level, CompressedSnapshotOutputStream.DEFAULT_BLOCK_SIZE);
+		}
+		return out;
+	}
+	/**
+	 * Copies the contents of this portal into a portal of their own, which
+	 * later changes to this one leave untouched. Only collections are copied,
+	 * nothing is serialised, so the copy is a cheap consistent point in time
+	 * for a background save to serialise on another thread
+	 * @return The image of this portal, holding its derived state if that is saved
+	 */
+	private CyclingPortalImpl captureImage() {
+		Map<Integer, Rider> copiedRiders = new HashMap<Integer, Rider>();
+		Map<Integer, Team> copiedTeams = new HashMap<Integer, Team>();
+		for(Map.Entry<Integer, Team> team: teams.entrySet()) {
+			copiedTeams.put(team.getKey(), team.getValue().copy(copiedRiders));
+		}
+		Map<Integer, Race> copiedRaces = new HashMap<Integer, Race>();
+		for(Map.Entry<Integer, Race> race: races.entrySet()) {
+			copiedRaces.put(race.getKey(), race.getValue().copy(copiedRiders));
+		}
+		CyclingPortalImpl image = new CyclingPortalImpl(copiedRaces, copiedTeams, new ArrayList<Integer>(usedStageIds),
+			new ArrayList<Integer>(usedCheckpointIds), new ArrayList<Integer>(usedRiderIds));
+		image.derivedStateSaved = derivedStateSaved;
+		if(derivedStateSaved) {
+			image.capturedDerivedState = DerivedState.capture(races, classificationCache);
+		}
+		return image;
+	}
+	/**
+	 * Saves this CyclingPortalImpl contents in the background. The portal is
+	 * copied on the caller thread, which is the consistent point in time the
+	 * file holds, and the copy is then serialised and written asynchronously,
+	 * so the caller, and any writers waiting on it, carry on straight away.
+	 * The file is replaced only once it is fully written and can be loaded
+	 * with {@link #loadCyclingPortal(String)}.
+	 *
+	 * @param filename Location of the file to be saved.
+	 * @return A future completed with the capture duration, total duration and
+	 *         bytes written once the file is in place.
+	 * @throws IOException If there is a problem experienced when capturing the
+	 *                     store contents.
+	 */
+	public CompletableFuture<SaveReport> saveCyclingPortalInBackground(String filename) throws IOException {
+		return saveCyclingPortalInBackground(filename, SnapshotCodec.NONE, 1);
+	}
+	/**
+	 * Saves this CyclingPortalImpl contents in the background, compressed with
+	 * the codec given. The copy captured on the caller thread is serialised and
+	 * compressed on the background thread.
+	 *
+	 * @param filename Location of the file to be saved.
+	 * @param codec    The compression used for the file.
+	 * @param level    The compression level, from 1 for speed to 9 for size.
+	 *                 Ignored with {@link SnapshotCodec#NONE}.
+	 * @return A future completed with the capture duration, total duration and
+	 *         bytes written once the file is in place.
+	 * @throws IOException              If there is a problem experienced when
+	 *                                  capturing the store contents.
+	 * @throws IllegalArgumentException If the level is not between 1 and 9.
+	 */
+	public CompletableFuture<SaveReport> saveCyclingPortalInBackground(String filename, SnapshotCodec codec, int level) throws IOException {
+		//Checked here as the stream is only opened on the encoding thread
+		if(codec == SnapshotCodec.DEFLATE && (level < 1 || level > 9)) {
+			throw new IllegalArgumentException("You have entered an invalid compression level, ensure it is between 1 and 9.");
+		}
+		long start = System.nanoTime();
+		CyclingPortalImpl image = captureImage();
+		return SnapshotFileWriter.write(filename, out -> {
+			ObjectOutputStream objects = new ObjectOutputStream(compress(out, codec, level));
+			objects.writeObject(image);
+			objects.close();
+		}, start, Duration.ofNanos(System.nanoTime() - start));
+	}
+	/**
+	 * Saves this CyclingPortalImpl contents into a directory of segment files:
+	 * one for all teams and riders, one per race and a manifest listing them.
+	 * After the first save to a directory only the races whose version changed,
+	 * and the teams when a team or rider changed, are written again, so saving
+	 * often costs time in proportion to what changed. The manifest is replaced
+	 * last, so the directory always holds a complete save.
+	 *
+	 * @param directory Location of the directory to be saved to.
+	 * @return The number of segments written by this save.
+	 * @throws IOException If there is a problem experienced when trying to save
+	 *                     the store contents to the directory.
+	 */
+	public synchronized int saveCyclingPortalSegments(String directory) throws IOException {
+		Path path = Path.of(directory).toAbsolutePath();
+		if(segmentStore == null || !segmentStore.getDirectory().equals(path)) {
+			segmentStore = new SegmentStore(path);
+		}
+		return segmentStore.save(races, teams, usedStageIds, usedCheckpointIds, usedRiderIds);
+	}
+	/**
+	 * Method loads and replaces this CyclingPortalImpl contents with the
+	 * contents of a directory saved with {@link #saveCyclingPortalSegments(String)}.
+	 * The race segments are decoded in parallel across the available cores and
+	 * this portal is only changed once every segment has been read, so a failed
+	 * load leaves it as it was. Saving back to the same directory afterwards
+	 * only writes what changed.
+	 *
+	 * @param directory Location of the directory to be loaded.
+	 * @throws IOException            If there is a problem experienced when trying
+	 *                                to load the store contents from the directory.
+	 * @throws ClassNotFoundException If required class files cannot be found when
+	 *                                loading.
+	 */
+	public synchronized void loadCyclingPortalSegments(String directory) throws IOException, ClassNotFoundException {
+		SegmentStore store = new SegmentStore(Path.of(directory));
+		CyclingPortalImpl loadedImpl = store.load();
+		this.races = loadedImpl.races;
+		this.teams = loadedImpl.teams;
+		this.usedCheckpointIds = loadedImpl.usedCheckpointIds;
+		this.usedRiderIds = loadedImpl.usedRiderIds;
+		this.usedStageIds = loadedImpl.usedStageIds;
+		this.careerIndex = null;
+		this.segmentStore = store;
+		this.classificationCache.clear();
+	}
 	/**
 	 * Method loads and replaces this CyclingPortalImpl contents with the
-	 * serialised contents stored in the file given in the argument.
+	 * serialised contents stored in the file given in the argument. Files
+	 * saved with a {@link SnapshotCodec} are recognised and inflated while
+	 * they are read. Derived state saved with the file, see
+	 * {@link #setDerivedStateSaved(boolean)}, is restored for every race it
+	 * still matches.
 	 *
 	 * @param filename Location of the file to be loaded.
 	 * @throws IOException            If there is a problem experienced when trying
@@ -988,13 +1366,19 @@ public class CyclingPortalImpl implements CyclingPortal {
 	 */
 	@Override
 	public void loadCyclingPortal(String filename) throws IOException, ClassNotFoundException {
-		ObjectInputStream in = new ObjectInputStream(new FileInputStream(filename));
+		ObjectInputStream in = new ObjectInputStream(CompressedSnapshotInputStream.open(new BufferedInputStream(new FileInputStream(filename))));
 		CyclingPortalImpl loadedImpl = (CyclingPortalImpl) in.readObject();
 		this.races = loadedImpl.races;
 		this.teams = loadedImpl.teams;
 		this.usedCheckpointIds = loadedImpl.usedCheckpointIds;
 		this.usedRiderIds = loadedImpl.usedRiderIds;
 		this.usedStageIds = loadedImpl.usedStageIds;
+		this.careerIndex = null;
+		this.segmentStore = null;
+		this.classificationCache.clear();
+		if(loadedImpl.derivedState != null) {
+			loadedImpl.derivedState.restore(this.races, this.classificationCache);
+		}
 		in.close();
 	}
 	/**
@@ -1031,6 +1415,12 @@ public class CyclingPortalImpl implements CyclingPortal {
 			}
 			usedStageIds.remove(usedStageIds.indexOf(race.getStages().get(i).getId()));
 		}
+		if(careerIndex != null) {
+			for(int stageId: race.getStages().keySet()) {
+				careerIndex.removeStage(stageId);
+			}
+		}
+		classificationCache.removeRace(race.getId());
 		races.remove(race.getId());
 		
 	}
@@ -1039,8 +1429,9 @@ public class CyclingPortalImpl implements CyclingPortal {
 	 * 
 	 * @param raceId The ID of the race being queried.
 	 * @return A list of riders' times sorted by the sum of their adjusted elapsed
-	 *         times in all stages of the race. An empty list if there is no result
-	 *         for any stage in the race.
+	 *         times in all stages of the race. Only riders with a result in every
+	 *         stage with results are classified. An empty list if there is no
+	 *         result for any stage in the race.
 	 * @throws IDNotRecognisedException If the ID does not match any race in the
 	 *                                  system.
 	 */
@@ -1055,32 +1446,24 @@ public class CyclingPortalImpl implements CyclingPortal {
 		if(found == false) {
 			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined race.");
 		}
-
-		Race race = races.get(raceId);
-		//Testing for the case where no stages have any results
-		for(int i=0; i<race.getStages().size(); i++) {
-			if(race.getStages().get(usedStageIds.get(i)).getRiderPositions().size() > 0) {
-				break;
-			}
-			else if(i==race.getStages().size()-1){
-				return new LocalTime[] {};
-			}
-		}
-		LocalTime[] generalClassificationTimes = new LocalTime[race.getRiders().size()];
-		int[] allStages = race.getStages().keySet().stream().mapToInt(Integer::intValue).toArray();
-		LocalTime currentRiderTime;
-		for(int i=0; i<race.getRiders().size(); i++) {
-			currentRiderTime = LocalTime.parse("00:00:00");
-			for(int j=0; j<allStages.length; j++) {
-				Duration dur = Duration.between(currentRiderTime, getRiderAdjustedElapsedTimeInStage
-				(allStages[j], race.getRiders().get(i).getId()));
-				currentRiderTime.plus(dur);
-			}
-			race.addAdjustedTime(currentRiderTime, race.getRiders().get(i).getId());
-			generalClassificationTimes[i] = currentRiderTime;
+		long version = races.get(raceId).getVersion();
+		LocalTime[] cached = (LocalTime[]) classificationCache.get(raceId, ClassificationCache.Kind.GENERAL_CLASSIFICATION_TIMES, version);
+		if(cached != null) {
+			return cached;
 		}
-		Arrays.sort(generalClassificationTimes);
-		return generalClassificationTimes;
+		return classificationCache.put(raceId, ClassificationCache.Kind.GENERAL_CLASSIFICATION_TIMES, version, computeGeneralClassificationTimesInRace(raceId));
+	}
+	/**
+	 * Reads the general classification times of riders in a race from the snapshot
+	 * of the race at its current version, see {@link #getGeneralClassificationTimesInRace(int)}.
+	 * 
+	 * @param raceId The ID of the race being queried.
+	 * @return A list of riders' times sorted by the sum of their adjusted elapsed
+	 *         times in all stages of the race. An empty list if there is no result
+	 *         for any stage in the race.
+	 */
+	private LocalTime[] computeGeneralClassificationTimesInRace(int raceId) {
+		return captureSnapshot(races.get(raceId)).getGeneralClassificationTimesInRace();
 	}
 	/**
 	 * Get the overall points of riders in a race.
@@ -1103,23 +1486,24 @@ public class CyclingPortalImpl implements CyclingPortal {
 		if(found == false) {
 			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined race.");
 		}
-		Race race = races.get(raceId);
-		for(int i=0; i<race.getStages().size(); i++) {
-			if(race.getStages().get(usedStageIds.get(i)).getRiderPositions().size() > 0) {
-				break;
-			}
-			else if(i==race.getStages().size()-1){
-				return new int[] {};
-			}
-		}
-		int[] generalClassificationRanks = getRidersGeneralClassificationRank(raceId);
-		Map<Integer, Integer> sprinterPoints = new HashMap<>(races.get(raceId).
-		getSprinterPoints());
-		int[] sortedPoints = new int[generalClassificationRanks.length];
-		for(int i=0; i<sortedPoints.length; i++) {
-			sortedPoints[i] = sprinterPoints.get(generalClassificationRanks[i]);
+		long version = races.get(raceId).getVersion();
+		int[] cached = (int[]) classificationCache.get(raceId, ClassificationCache.Kind.POINTS, version);
+		if(cached != null) {
+			return cached;
 		}
-		return sortedPoints;
+		return classificationCache.put(raceId, ClassificationCache.Kind.POINTS, version, computeRidersPointsInRace(raceId));
+	}
+	/**
+	 * Reads the overall points of riders in a race from the snapshot
+	 * of the race at its current version, see {@link #getRidersPointsInRace(int)}.
+	 * 
+	 * @param raceId The ID of the race being queried.
+	 * @return An array of riders' points (i.e., the sum of their points in all stages
+	 *         of the race), sorted by the total adjusted elapsed time. An empty array if
+	 *         there is no result for any stage in the race.
+	 */
+	private int[] computeRidersPointsInRace(int raceId) {
+		return captureSnapshot(races.get(raceId)).getRidersPointsInRace();
 	}
 	/**
 	 * Get the overall mountain points of riders in a race.
@@ -1143,14 +1527,25 @@ public class CyclingPortalImpl implements CyclingPortal {
 		if(found == false) {
 			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined race.");
 		}
-		int[] generalClassificationRanks = getRidersGeneralClassificationRank(raceId);
-		Map<Integer, Integer> mountainPoints = new HashMap<>(races.get(raceId).
-		getMountainPoints());
-		int[] sortedPoints = new int[generalClassificationRanks.length];
-		for(int i=0; i<sortedPoints.length; i++) {
-			sortedPoints[i] = mountainPoints.get(generalClassificationRanks[i]);
+		long version = races.get(raceId).getVersion();
+		int[] cached = (int[]) classificationCache.get(raceId, ClassificationCache.Kind.MOUNTAIN_POINTS, version);
+		if(cached != null) {
+			return cached;
 		}
-		return sortedPoints;
+		return classificationCache.put(raceId, ClassificationCache.Kind.MOUNTAIN_POINTS, version, computeRidersMountainPointsInRace(raceId));
+	}
+	/**
+	 * Reads the overall mountain points of riders in a race from the snapshot
+	 * of the race at its current version, see {@link #getRidersMountainPointsInRace(int)}.
+	 * 
+	 * @param raceId The ID of the race being queried.
+	 * @return An array of riders' mountain points (i.e., the sum of their mountain
+	 *         points in all stages of the race), sorted by the total adjusted elapsed time.
+	 *         An empty array if there is no result for any stage in the race.
+	 *  
+	 */
+	private int[] computeRidersMountainPointsInRace(int raceId) {
+		return captureSnapshot(races.get(raceId)).getRidersMountainPointsInRace();
 	}
 	/**
 	 * Get the general classification rank of riders in a race.
@@ -1158,8 +1553,9 @@ public class CyclingPortalImpl implements CyclingPortal {
 	 * @param raceId The ID of the race being queried.
 	 * @return A ranked list of riders' IDs sorted ascending by the sum of their
 	 *         adjusted elapsed times in all stages of the race. That is, the first
-	 *         in this list is the winner (least time). An empty list if there is no
-	 *         result for any stage in the race.
+	 *         in this list is the winner (least time). Only riders with a result
+	 *         in every stage with results are classified. An empty list if there
+	 *         is no result for any stage in the race.
 	 * @throws IDNotRecognisedException If the ID does not match any race in the
 	 *                                  system.
 	 */
@@ -1174,24 +1570,25 @@ public class CyclingPortalImpl implements CyclingPortal {
 		if(found == false) {
 			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined race.");
 		}
-		Race race = races.get(raceId);
-		//Testing for the case where no stages have any results
-		for(int i=0; i<race.getStages().size(); i++) {
-			if(race.getStages().get(usedStageIds.get(i)).getRiderPositions().size() > 0) {
-				break;
-			}
-			else if(i==race.getStages().size()-1) {
-				return new int[] {};
-			}
-		}
-		LocalTime[] keys = getGeneralClassificationTimesInRace(raceId);
-		int[] generalClassificationRanks = new int[keys.length];
-		Map<LocalTime, Integer> times = races.get(raceId).getAdjustedTimes();
-		for(int i=0; i<keys.length; i++) {
-			generalClassificationRanks[i] = times.get(keys[i]);
+		long version = races.get(raceId).getVersion();
+		int[] cached = (int[]) classificationCache.get(raceId, ClassificationCache.Kind.GENERAL_CLASSIFICATION_RANK, version);
+		if(cached != null) {
+			return cached;
 		}
-		return generalClassificationRanks;
-		
+		return classificationCache.put(raceId, ClassificationCache.Kind.GENERAL_CLASSIFICATION_RANK, version, computeRidersGeneralClassificationRank(raceId));
+	}
+	/**
+	 * Reads the general classification rank of riders in a race from the snapshot
+	 * of the race at its current version, see {@link #getRidersGeneralClassificationRank(int)}.
+	 * 
+	 * @param raceId The ID of the race being queried.
+	 * @return A ranked list of riders' IDs sorted ascending by the sum of their
+	 *         adjusted elapsed times in all stages of the race. That is, the first
+	 *         in this list is the winner (least time). An empty list if there is no
+	 *         result for any stage in the race.
+	 */
+	private int[] computeRidersGeneralClassificationRank(int raceId) {
+		return captureSnapshot(races.get(raceId)).getRidersGeneralClassificationRank();
 	}
 	/**
 	 * Get the ranked list of riders based on the points classification in a race.
@@ -1215,24 +1612,25 @@ public class CyclingPortalImpl implements CyclingPortal {
 		if(found == false) {
 			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined race.");
 		}
-		Race race = races.get(raceId);
-		//Testing for the case where no stages have any results
-		for(int i=0; i<race.getStages().size(); i++) {
-			if(race.getStages().get(usedStageIds.get(i)).getRiderPositions().size() > 0) {
-				break;
-			}
-			else if(i==race.getStages().size()-1) {
-				return new int[] {};
-			}
-		}
-
-		ArrayList<Integer> sortedPoints = races.get(raceId).sprinterPointsSorted();
-		Map<Integer, Integer> sprinterMap = races.get(raceId).getSprinterClassification();
-		int[] sprinterClassification = new int[sortedPoints.size()];
-		for(int i=0; i<sortedPoints.size(); i++) {
-			sprinterClassification[i] = sprinterMap.get(sortedPoints.get(i));
+		long version = races.get(raceId).getVersion();
+		int[] cached = (int[]) classificationCache.get(raceId, ClassificationCache.Kind.POINT_CLASSIFICATION_RANK, version);
+		if(cached != null) {
+			return cached;
 		}
-		return sprinterClassification;
+		return classificationCache.put(raceId, ClassificationCache.Kind.POINT_CLASSIFICATION_RANK, version, computeRidersPointClassificationRank(raceId));
+	}
+	/**
+	 * Reads the points classification rank of riders in a race from the snapshot
+	 * of the race at its current version, see {@link #getRidersPointClassificationRank(int)}.
+	 * 
+	 * @param raceId The ID of the race being queried.
+	 * @return A ranked list of riders' IDs sorted descending by the sum of their
+	 *         points in all stages of the race. That is, the first in this list is
+	 *         the winner (more points). An empty list if there is no result for any
+	 *         stage in the race.
+	 */
+	private int[] computeRidersPointClassificationRank(int raceId) {
+		return captureSnapshot(races.get(raceId)).getRidersPointClassificationRank();
 	}
 	/**
 	 * Get the ranked list of riders based on the mountain classification in a race.
@@ -1256,22 +1654,1166 @@ public class CyclingPortalImpl implements CyclingPortal {
 		if(found == false) {
 			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined race.");
 		}
+		long version = races.get(raceId).getVersion();
+		int[] cached = (int[]) classificationCache.get(raceId, ClassificationCache.Kind.MOUNTAIN_POINT_CLASSIFICATION_RANK, version);
+		if(cached != null) {
+			return cached;
+		}
+		return classificationCache.put(raceId, ClassificationCache.Kind.MOUNTAIN_POINT_CLASSIFICATION_RANK, version, computeRidersMountainPointClassificationRank(raceId));
+	}
+	/**
+	 * Reads the mountain classification rank of riders in a race from the snapshot
+	 * of the race at its current version, see {@link #getRidersMountainPointClassificationRank(int)}.
+	 * 
+	 * @param raceId The ID of the race being queried.
+	 * @return A ranked list of riders' IDs sorted descending by the sum of their
+	 *         mountain points in all stages of the race. That is, the first in this
+	 *         list is the winner (more points). An empty list if there is no result
+	 *         for any stage in the race.
+	 */
+	private int[] computeRidersMountainPointClassificationRank(int raceId) {
+		return captureSnapshot(races.get(raceId)).getRidersMountainPointClassificationRank();
+	}
+	/**
+	 * Gets the cache of race classification results, for example to read its
+	 * hit and miss counters.
+	 * 
+	 * @return The classification cache of this portal.
+	 */
+	public ClassificationCache getClassificationCache() {
+		return classificationCache;
+	}
+	/**
+	 * Get a read-only snapshot of the classifications of a race. Snapshots are
+	 * immutable, so every query on the same snapshot answers from the same
+	 * results even if new results are registered in the meantime. A snapshot
+	 * is captured by the first read after the race changes and reused until it
+	 * changes again, so a burst of writes is only calculated once. While a
+	 * ResultIngestionPipeline is writing to this portal reads never calculate,
+	 * they get the snapshot its writer thread published at the end of its last
+	 * batch.
+	 * 
+	 * @param raceId The ID of the race being queried.
+	 * @return The latest snapshot of the race.
+	 * @throws IDNotRecognisedException If the ID does not match any race in the
+	 *                                  system.
+	 */
+	public RaceSnapshot snapshot(int raceId) throws IDNotRecognisedException {
 		Race race = races.get(raceId);
-		//Testing for the case where no stages have any results
-		for(int i=0; i<race.getStages().size(); i++) {
-			if(race.getStages().get(usedStageIds.get(i)).getRiderPositions().size() > 0) {
-				break;
+		if(race == null) {
+			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined race.");
+		}
+		if(snapshotPublishers > 0) {
+			RaceSnapshot published = race.getSnapshotReference().get();
+			//A race created since the pipeline's last batch has no results from it to race with
+			if(published != null) {
+				return published;
 			}
-			else if(i==race.getStages().size()-1) {
-				return new int[] {};
+		}
+		return captureSnapshot(race);
+	}
+	/**
+	 * Gets the snapshot of a race at its current version, capturing and
+	 * publishing a new one if the race changed since the last was captured.
+	 * 
+	 * @param race The race being captured.
+	 * @return The snapshot of the race at its current version.
+	 */
+	private RaceSnapshot captureSnapshot(Race race) {
+		RaceSnapshot published = race.getSnapshotReference().get();
+		if(published != null && published.getVersion() == race.getVersion()) {
+			return published;
+		}
+		synchronized(race) {
+			published = race.getSnapshotReference().get();
+			if(published == null || published.getVersion() != race.getVersion()) {
+				published = RaceSnapshot.capture(race);
+				race.getSnapshotReference().set(published);
 			}
+			return published;
+		}
+	}
+	/**
+	 * Publishes a snapshot of every race changed since its last snapshot was
+	 * captured. Called by the writer thread of a ResultIngestionPipeline when
+	 * a batch ends, so each race is captured once per batch.
+	 */
+	void publishSnapshots() {
+		for(Race race: races.values()) {
+			captureSnapshot(race);
 		}
-		ArrayList<Integer> sortedPoints = races.get(raceId).mountainPointsSorted();
-		Map<Integer, Integer> mountainMap = races.get(raceId).getMountainClassification();
-		int[] mountainClassification = new int[sortedPoints.size()];
-		for(int i=0; i<sortedPoints.size(); i++) {
-			mountainClassification[i] = mountainMap.get(sortedPoints.get(i));
+	}
+	/**
+	 * Starts publishing snapshots from a pipeline's writer thread. Until the
+	 * matching {@link #detachSnapshotPublisher()} reads only get published
+	 * snapshots, as capturing one would race with the writer thread. Must be
+	 * called before the writer thread starts.
+	 */
+	synchronized void attachSnapshotPublisher() {
+		publishSnapshots();
+		snapshotPublishers++;
+	}
+	/**
+	 * Stops publishing snapshots from a pipeline's writer thread once it has
+	 * stopped, so reads capture snapshots themselves again.
+	 */
+	synchronized void detachSnapshotPublisher() {
+		snapshotPublishers--;
+	}
+	/**
+	 * Gets the version of a race. The version increases whenever a stage is added
+	 * to or removed from the race or one of its stages changes, so clients and
+	 * caches can tell whether anything changed since they last read it.
+	 * 
+	 * @param raceId The ID of the race being queried.
+	 * @return The current version of the race.
+	 * @throws IDNotRecognisedException If the ID does not match any race in the
+	 *                                  system.
+	 */
+	public long getRaceVersion(int raceId) throws IDNotRecognisedException {
+		boolean found = false;
+		for(int id: getRaceIds()) {
+			if(raceId == id) {
+				found = true;
+			}
+		}
+		if(found == false) {
+			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined race.");
+		}
+		return races.get(raceId).getVersion();
+	}
+	/**
+	 * Gets the version of a stage. The version increases whenever the stage's
+	 * checkpoints, state or results change. Time bonuses and penalties only change
+	 * the version of the race, and passages of riders who have not yet finished a
+	 * stage being raced do not change it.
+	 * 
+	 * @param stageId The ID of the stage being queried.
+	 * @return The current version of the stage.
+	 * @throws IDNotRecognisedException If the ID does not match to any stage in the
+	 *                                  system.
+	 */
+	public long getStageVersion(int stageId) throws IDNotRecognisedException {
+		return findStageById(stageId).getVersion();
+	}
+	/**
+	 * A query which is only run when the version a client knows is out of date.
+	 *
+	 * @param <T> The type of the value queried.
+	 */
+	private interface VersionedQuery<T> {
+		/**
+		 * Runs the query.
+		 * 
+		 * @return The value queried.
+		 * @throws IDNotRecognisedException If an ID does not match the system.
+		 */
+		T query() throws IDNotRecognisedException;
+	}
+	/**
+	 * Runs a query only if the current version differs from the version a client
+	 * already knows.
+	 * 
+	 * @param <T>          The type of the value queried.
+	 * @param version      The current version of the race or stage.
+	 * @param knownVersion The version the client last read.
+	 * @param query        The query to run if the version changed.
+	 * @return The value at the current version, or a not modified result.
+	 * @throws IDNotRecognisedException If an ID does not match the system.
+	 */
+	private <T> VersionedResult<T> queryIfModified(long version, long knownVersion, VersionedQuery<T> query)
+	throws IDNotRecognisedException {
+		if(version == knownVersion) {
+			return VersionedResult.notModified(version);
+		}
+		return VersionedResult.modified(version, query.query());
+	}
+	/**
+	 * Conditional version of {@link #getRidersRankInStage(int)}, answering without running the
+	 * query if the stage has not changed since the version the client knows.
+	 * 
+	 * @param stageId      The ID of the stage being queried.
+	 * @param knownVersion The version of the stage the client last read.
+	 * @return The current version of the stage and, if it changed, the riders' IDs ranked by elapsed time.
+	 * @throws IDNotRecognisedException If the ID does not match to any stage in the
+	 *                                  system.
+	 */
+	public VersionedResult<int[]> getRidersRankInStage(int stageId, long knownVersion) throws IDNotRecognisedException {
+		return queryIfModified(getStageVersion(stageId), knownVersion, () -> getRidersRankInStage(stageId));
+	}
+	/**
+	 * Conditional version of {@link #getRankedAdjustedElapsedTimesInStage(int)}, answering without running the
+	 * query if the stage has not changed since the version the client knows.
+	 * 
+	 * @param stageId      The ID of the stage being queried.
+	 * @param knownVersion The version of the stage the client last read.
+	 * @return The current version of the stage and, if it changed, the ranked adjusted elapsed times.
+	 * @throws IDNotRecognisedException If the ID does not match to any stage in the
+	 *                                  system.
+	 */
+	public VersionedResult<LocalTime[]> getRankedAdjustedElapsedTimesInStage(int stageId, long knownVersion) throws IDNotRecognisedException {
+		return queryIfModified(getStageVersion(stageId), knownVersion, () -> getRankedAdjustedElapsedTimesInStage(stageId));
+	}
+	/**
+	 * Conditional version of {@link #getRidersPointsInStage(int)}, answering without running the
+	 * query if the stage has not changed since the version the client knows.
+	 * 
+	 * @param stageId      The ID of the stage being queried.
+	 * @param knownVersion The version of the stage the client last read.
+	 * @return The current version of the stage and, if it changed, the riders' points ranked by elapsed time.
+	 * @throws IDNotRecognisedException If the ID does not match to any stage in the
+	 *                                  system.
+	 */
+	public VersionedResult<int[]> getRidersPointsInStage(int stageId, long knownVersion) throws IDNotRecognisedException {
+		return queryIfModified(getStageVersion(stageId), knownVersion, () -> getRidersPointsInStage(stageId));
+	}
+	/**
+	 * Conditional version of {@link #getRidersMountainPointsInStage(int)}, answering without running the
+	 * query if the stage has not changed since the version the client knows.
+	 * 
+	 * @param stageId      The ID of the stage being queried.
+	 * @param knownVersion The version of the stage the client last read.
+	 * @return The current version of the stage and, if it changed, the riders' mountain points ranked by elapsed time.
+	 * @throws IDNotRecognisedException If the ID does not match to any stage in the
+	 *                                  system.
+	 */
+	public VersionedResult<int[]> getRidersMountainPointsInStage(int stageId, long knownVersion) throws IDNotRecognisedException {
+		return queryIfModified(getStageVersion(stageId), knownVersion, () -> getRidersMountainPointsInStage(stageId));
+	}
+	/**
+	 * Conditional version of {@link #getGeneralClassificationTimesInRace(int)}, answering without running the
+	 * query if the race has not changed since the version the client knows.
+	 * 
+	 * @param raceId       The ID of the race being queried.
+	 * @param knownVersion The version of the race the client last read.
+	 * @return The current version of the race and, if it changed, the general classification times.
+	 * @throws IDNotRecognisedException If the ID does not match any race in the
+	 *                                  system.
+	 */
+	public VersionedResult<LocalTime[]> getGeneralClassificationTimesInRace(int raceId, long knownVersion) throws IDNotRecognisedException {
+		return queryIfModified(getRaceVersion(raceId), knownVersion, () -> getGeneralClassificationTimesInRace(raceId));
+	}
+	/**
+	 * Conditional version of {@link #getRidersPointsInRace(int)}, answering without running the
+	 * query if the race has not changed since the version the client knows.
+	 * 
+	 * @param raceId       The ID of the race being queried.
+	 * @param knownVersion The version of the race the client last read.
+	 * @return The current version of the race and, if it changed, the riders' points in general classification order.
+	 * @throws IDNotRecognisedException If the ID does not match any race in the
+	 *                                  system.
+	 */
+	public VersionedResult<int[]> getRidersPointsInRace(int raceId, long knownVersion) throws IDNotRecognisedException {
+		return queryIfModified(getRaceVersion(raceId), knownVersion, () -> getRidersPointsInRace(raceId));
+	}
+	/**
+	 * Conditional version of {@link #getRidersMountainPointsInRace(int)}, answering without running the
+	 * query if the race has not changed since the version the client knows.
+	 * 
+	 * @param raceId       The ID of the race being queried.
+	 * @param knownVersion The version of the race the client last read.
+	 * @return The current version of the race and, if it changed, the riders' mountain points in general classification order.
+	 * @throws IDNotRecognisedException If the ID does not match any race in the
+	 *                                  system.
+	 */
+	public VersionedResult<int[]> getRidersMountainPointsInRace(int raceId, long knownVersion) throws IDNotRecognisedException {
+		return queryIfModified(getRaceVersion(raceId), knownVersion, () -> getRidersMountainPointsInRace(raceId));
+	}
+	/**
+	 * Conditional version of {@link #getRidersGeneralClassificationRank(int)}, answering without running the
+	 * query if the race has not changed since the version the client knows.
+	 * 
+	 * @param raceId       The ID of the race being queried.
+	 * @param knownVersion The version of the race the client last read.
+	 * @return The current version of the race and, if it changed, the general classification rank.
+	 * @throws IDNotRecognisedException If the ID does not match any race in the
+	 *                                  system.
+	 */
+	public VersionedResult<int[]> getRidersGeneralClassificationRank(int raceId, long knownVersion) throws IDNotRecognisedException {
+		return queryIfModified(getRaceVersion(raceId), knownVersion, () -> getRidersGeneralClassificationRank(raceId));
+	}
+	/**
+	 * Conditional version of {@link #getRidersPointClassificationRank(int)}, answering without running the
+	 * query if the race has not changed since the version the client knows.
+	 * 
+	 * @param raceId       The ID of the race being queried.
+	 * @param knownVersion The version of the race the client last read.
+	 * @return The current version of the race and, if it changed, the points classification rank.
+	 * @throws IDNotRecognisedException If the ID does not match any race in the
+	 *                                  system.
+	 */
+	public VersionedResult<int[]> getRidersPointClassificationRank(int raceId, long knownVersion) throws IDNotRecognisedException {
+		return queryIfModified(getRaceVersion(raceId), knownVersion, () -> getRidersPointClassificationRank(raceId));
+	}
+	/**
+	 * Conditional version of {@link #getRidersMountainPointClassificationRank(int)}, answering without running the
+	 * query if the race has not changed since the version the client knows.
+	 * 
+	 * @param raceId       The ID of the race being queried.
+	 * @param knownVersion The version of the race the client last read.
+	 * @return The current version of the race and, if it changed, the mountain classification rank.
+	 * @throws IDNotRecognisedException If the ID does not match any race in the
+	 *                                  system.
+	 */
+	public VersionedResult<int[]> getRidersMountainPointClassificationRank(int raceId, long knownVersion) throws IDNotRecognisedException {
+		return queryIfModified(getRaceVersion(raceId), knownVersion, () -> getRidersMountainPointClassificationRank(raceId));
+	}
+	/**
+	 * Conditional version of {@link #snapshot(int)}, answering without running the
+	 * query if the race has not changed since the version the client knows.
+	 * 
+	 * @param raceId       The ID of the race being queried.
+	 * @param knownVersion The version of the race the client last read.
+	 * @return The current version of the race and, if it changed, the latest snapshot.
+	 * @throws IDNotRecognisedException If the ID does not match any race in the
+	 *                                  system.
+	 */
+	public VersionedResult<RaceSnapshot> snapshot(int raceId, long knownVersion) throws IDNotRecognisedException {
+		return queryIfModified(getRaceVersion(raceId), knownVersion, () -> snapshot(raceId));
+	}
+	/**
+	 * Gets the race a stage belongs to.
+	 * 
+	 * @param stageId The ID of the stage being queried.
+	 * @return The ID of the race the stage belongs to.
+	 * @throws IDNotRecognisedException If the ID does not match to any stage in the
+	 *                                  system.
+	 */
+	public int getStagesRaceId(int stageId) throws IDNotRecognisedException {
+		boolean found = false;
+		for(int id: usedStageIds) {
+			if(stageId == id) {
+				found = true;
+			}
+		}
+		if(found == false) {
+			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined stage.");
+		}
+		return Race.findStagesRace(stageId, races).getId();
+	}
+	/**
+	 * Records a rider crossing the start line of a stage while it is being raced.
+	 * 
+	 * @param stageId The ID of the stage the passage refers to.
+	 * @param riderId The ID of the rider.
+	 * @param time    The time at which the rider started.
+	 * @throws IDNotRecognisedException        If the ID does not match to any rider or
+	 *                                         stage in the system.
+	 * @throws DuplicatedResultException       If the rider has already started or
+	 *                                         already has a result for the stage.
+	 * @throws InvalidCheckpointTimesException If the time is out of order with the
+	 *                                         rider's other passages.
+	 * @throws InvalidStageStateException      If the stage is not "waiting for results".
+	 */
+	public void registerRiderStartInStage(int stageId, int riderId, LocalTime time) throws IDNotRecognisedException,
+	DuplicatedResultException, InvalidCheckpointTimesException, InvalidStageStateException {
+		registerRiderPassage(stageId, riderId, 0, time);
+	}
+	/**
+	 * Records a rider passing an intermediate sprint or climb of a stage while it
+	 * is being raced. The running ranking of the checkpoint is updated straight away.
+	 * 
+	 * @param stageId      The ID of the stage the passage refers to.
+	 * @param riderId      The ID of the rider.
+	 * @param checkpointId The ID of the checkpoint being passed.
+	 * @param time         The time at which the rider passed the checkpoint.
+	 * @throws IDNotRecognisedException        If the ID does not match to any rider,
+	 *                                         stage or checkpoint of the stage.
+	 * @throws DuplicatedResultException       If the rider has already passed the
+	 *                                         checkpoint or already has a result for the stage.
+	 * @throws InvalidCheckpointTimesException If the time is out of order with the
+	 *                                         rider's other passages.
+	 * @throws InvalidStageStateException      If the stage is not "waiting for results".
+	 */
+	public void registerRiderPassageInStage(int stageId, int riderId, int checkpointId, LocalTime time)
+	throws IDNotRecognisedException, DuplicatedResultException, InvalidCheckpointTimesException, InvalidStageStateException {
+		boolean found = false;
+		for(int id: usedStageIds) {
+			if(stageId == id) {
+				found = true;
+			}
+		}
+		if(found == false) {
+			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined stage.");
+		}
+		if(!Race.findStage(stageId, races).getCheckpoints().containsKey(checkpointId)) {
+			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined checkpoint of this stage.");
+		}
+		if(Race.findStage(stageId, races).getState() == "in preparation") {
+			throw new InvalidStageStateException("You cannot add results to this stage as preparation phase has not yet been concluded.");
+		}
+		registerRiderPassage(stageId, riderId, Race.findStage(stageId, races).getLiveStage().getColumn(checkpointId), time);
+	}
+	/**
+	 * Records a rider crossing the finish line of a stage while it is being raced.
+	 * Once a rider has passed the start, every checkpoint and the finish their
+	 * times are registered as their result in the stage.
+	 * 
+	 * @param stageId The ID of the stage the passage refers to.
+	 * @param riderId The ID of the rider.
+	 * @param time    The time at which the rider finished.
+	 * @throws IDNotRecognisedException        If the ID does not match to any rider or
+	 *                                         stage in the system.
+	 * @throws DuplicatedResultException       If the rider has already finished or
+	 *                                         already has a result for the stage.
+	 * @throws InvalidCheckpointTimesException If the time is out of order with the
+	 *                                         rider's other passages.
+	 * @throws InvalidStageStateException      If the stage is not "waiting for results".
+	 */
+	public void registerRiderFinishInStage(int stageId, int riderId, LocalTime time) throws IDNotRecognisedException,
+	DuplicatedResultException, InvalidCheckpointTimesException, InvalidStageStateException {
+		boolean found = false;
+		for(int id: usedStageIds) {
+			if(stageId == id) {
+				found = true;
+			}
+		}
+		if(found == false) {
+			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined stage.");
+		}
+		registerRiderPassage(stageId, riderId, Race.findStage(stageId, races).getLayout().getColumnCount()-1, time);
+	}
+	/**
+	 * Records a rider passing a column of a stage and promotes their times to a
+	 * full result once every column has been passed.
+	 * 
+	 * @param stageId The ID of the stage the passage refers to.
+	 * @param riderId The ID of the rider.
+	 * @param column  The column passed, 0 for the start and n+1 for the finish.
+	 * @param time    The time of the passage.
+	 */
+	private void registerRiderPassage(int stageId, int riderId, int column, LocalTime time) throws IDNotRecognisedException,
+	DuplicatedResultException, InvalidCheckpointTimesException, InvalidStageStateException {
+		boolean stageFound = false;
+		boolean riderFound = false;
+		for(int id: usedStageIds) {
+			if(stageId == id) {
+				stageFound = true;
+			}
+		}
+		if(stageFound == false) {
+			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined stage.");
+		}
+		for(int id: usedRiderIds) {
+			if(riderId == id) {
+				riderFound = true;
+			}
+		}
+		if(riderFound == false) {
+			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined rider.");
+		}
+		Stage stage = Race.findStage(stageId, races);
+		if(stage.getState() == "in preparation") {
+			throw new InvalidStageStateException("You cannot add results to this stage as preparation phase has not yet been concluded.");
+		}
+		if(stage.getRiderTimes().containsKey(riderId)) {
+			throw new DuplicatedResultException("You have entered a riderID for which results have already been entered in this stage, ensure you are entering the correct stageID and riderID.");
+		}
+		//A passage completing the rider is registered as their results, which checks everything before changing anything
+		LocalTime[] completed = stage.getLiveStage().checkPassage(riderId, column, time);
+		if(completed != null) {
+			registerRiderResultsInStage(stageId, riderId, completed);
+		} else {
+			stage.getLiveStage().recordPassage(riderId, column, time);
+		}
+	}
+	/**
+	 * Gets the column a checkpoint occupies in the times of a stage.
+	 * 
+	 * @param checkpointId The ID of the checkpoint being queried.
+	 * @return The column of the checkpoint, 1 for the first checkpoint by location,
+	 *         since column 0 holds the start time.
+	 * @throws IDNotRecognisedException If the ID does not match to any checkpoint in
+	 *                                  the system.
+	 */
+	public int getCheckpointColumn(int checkpointId) throws IDNotRecognisedException {
+		return findCheckpointsStage(checkpointId).getLayout().getColumn(checkpointId);
+	}
+	/**
+	 * Corrects the time of a passage already recorded for a rider in a stage. The
+	 * passage is replaced in the checkpoint ranking and, if the rider has already
+	 * finished, their results are replaced. Only the rider is moved: the adjusted
+	 * times and points of the stage are patched for the riders whose place the
+	 * correction changes, and the general classification moves just the riders
+	 * whose adjusted time changed. A passage which was never recorded is recorded
+	 * as new.
+	 * 
+	 * @param stageId The ID of the stage the passage refers to.
+	 * @param riderId The ID of the rider.
+	 * @param column  The column of the passage, 0 for the start, 1 to n for the
+	 *                checkpoints ordered by location and n+1 for the finish.
+	 * @param time    The corrected time of the passage.
+	 * @throws IDNotRecognisedException        If the ID does not match to any rider or
+	 *                                         stage in the system.
+	 * @throws DuplicatedResultException       Never for a correction, only if the
+	 *                                         passage is recorded as new.
+	 * @throws InvalidCheckpointTimesException If the column is not part of the stage or
+	 *                                         the time is out of order with the rider's
+	 *                                         other passages.
+	 * @throws InvalidStageStateException      If the stage is not "waiting for results".
+	 */
+	public void correctRiderPassageInStage(int stageId, int riderId, int column, LocalTime time) throws IDNotRecognisedException,
+	DuplicatedResultException, InvalidCheckpointTimesException, InvalidStageStateException {
+		boolean found = false;
+		for(int id: usedStageIds) {
+			if(stageId == id) {
+				found = true;
+			}
+		}
+		if(found == false) {
+			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined stage.");
+		}
+		Stage stage = Race.findStage(stageId, races);
+		if(stage.getState() == "in preparation") {
+			throw new InvalidStageStateException("You cannot add results to this stage as preparation phase has not yet been concluded.");
+		}
+		if(column < 0 || column >= stage.getLayout().getColumnCount()) {
+			throw new InvalidCheckpointTimesException("You have entered a passage for a column which is not part of this stage, ensure it is between the start and the finish.");
+		}
+		LiveStage live = stage.getLiveStage();
+		LocalTime[] times;
+		boolean finished = stage.getRiderTimes().containsKey(riderId);
+		if(finished) {
+			//Finished riders store their elapsed time last so the finish time of day is rebuilt
+			times = stage.getRiderTimes().get(riderId).clone();
+			times[times.length-1] = times[0].plus(Duration.between(LocalTime.MIDNIGHT, times[times.length-1]));
+		} else {
+			times = live.getPartialTimes(riderId);
+		}
+		if(times == null || times[column] == null) {
+			registerRiderPassage(stageId, riderId, column, time);
+			return;
+		}
+		for(int i=0; i<times.length; i++) {
+			if(times[i] != null && ((i < column && times[i].isAfter(time)) || (i > column && times[i].isBefore(time)))) {
+				throw new InvalidCheckpointTimesException("You have entered a passage time out of order with the rider's other passages, ensure checkpoints are passed in order.");
+			}
+		}
+		live.replacePassage(riderId, column, times[column], time);
+		times[column] = time;
+		if(finished) {
+			times[times.length-1] = LocalTime.MIDNIGHT.plus(Duration.between(times[0], times[times.length-1]));
+			Race race = Race.findStagesRace(stageId, races);
+			//Only an index up to date before the correction can be moved by it
+			GeneralClassificationIndex index = race.getBuiltGeneralClassificationIndex();
+			Map<Integer, Long> timeChanges = stage.correctResults(riderId, times);
+			race.incrementVersion();
+			if(index != null && timeChanges != null) {
+				for(Map.Entry<Integer, Long> change: timeChanges.entrySet()) {
+					index.applyStageTimeChange(change.getKey(), change.getValue());
+				}
+				index.restamp(race);
+			}
+		}
+	}
+	/**
+	 * Get the times a rider has passed so far in a stage being raced.
+	 * 
+	 * @param stageId The ID of the stage being queried.
+	 * @param riderId The ID of the rider.
+	 * @return The times of the rider at the start, each checkpoint and the finish,
+	 *         with null for those not yet passed. Returns null if the rider has no
+	 *         partial results, for example because they have already finished.
+	 * @throws IDNotRecognisedException If the ID does not match to any rider or
+	 *                                  stage in the system.
+	 */
+	public LocalTime[] getRiderPartialResultsInStage(int stageId, int riderId) throws IDNotRecognisedException {
+		boolean stageFound = false;
+		boolean riderFound = false;
+		for(int id: usedStageIds) {
+			if(stageId == id) {
+				stageFound = true;
+			}
+		}
+		if(stageFound == false) {
+			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined stage.");
+		}
+		for(int id: usedRiderIds) {
+			if(riderId == id) {
+				riderFound = true;
+			}
+		}
+		if(riderFound == false) {
+			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined rider.");
+		}
+		if(!Race.findStage(stageId, races).isLive()) {
+			return null;
+		}
+		return Race.findStage(stageId, races).getLiveStage().getPartialTimes(riderId);
+	}
+	/**
+	 * Get the running order of riders at a checkpoint of a stage being raced.
+	 * For an intermediate sprint this is the sprint order, for a climb the
+	 * climb order.
+	 * 
+	 * @param checkpointId The ID of the checkpoint being queried.
+	 * @return The riders' IDs in the order they passed the checkpoint. An empty
+	 *         list if no rider has passed it.
+	 * @throws IDNotRecognisedException If the ID does not match to any checkpoint in
+	 *                                  the system.
+	 */
+	public int[] getRidersRankAtCheckpoint(int checkpointId) throws IDNotRecognisedException {
+		Stage stage = findCheckpointsStage(checkpointId);
+		if(!stage.isLive()) {
+			return new int[] {};
+		}
+		return stage.getLiveStage().getRanking(stage.getLiveStage().getColumn(checkpointId));
+	}
+	/**
+	 * Get the passage times of riders at a checkpoint of a stage being raced.
+	 * 
+	 * @param checkpointId The ID of the checkpoint being queried.
+	 * @return The times riders passed the checkpoint, matching
+	 *         {@link #getRidersRankAtCheckpoint(int)}. An empty list if no rider
+	 *         has passed it.
+	 * @throws IDNotRecognisedException If the ID does not match to any checkpoint in
+	 *                                  the system.
+	 */
+	public LocalTime[] getRankedTimesAtCheckpoint(int checkpointId) throws IDNotRecognisedException {
+		Stage stage = findCheckpointsStage(checkpointId);
+		if(!stage.isLive()) {
+			return new LocalTime[] {};
+		}
+		return stage.getLiveStage().getRankingTimes(stage.getLiveStage().getColumn(checkpointId));
+	}
+	/**
+	 * Get the time gaps of every rider at every checkpoint of a stage, both to the
+	 * leader at that checkpoint and to the rider directly ahead. Gaps are measured
+	 * on the time each rider took from their own start.
+	 * 
+	 * @param stageId The ID of the stage being queried.
+	 * @return The gap matrix of the stage, with a row per rider in finishing order
+	 *         and a column per checkpoint ordered by location followed by the
+	 *         finish. The matrix has no rows if there is no result for the stage.
+	 * @throws IDNotRecognisedException If the ID does not match to any stage in the
+	 *                                  system.
+	 */
+	public GapMatrix getGapMatrixInStage(int stageId) throws IDNotRecognisedException {
+		boolean found = false;
+		for(int id: usedStageIds) {
+			if(stageId == id) {
+				found = true;
+			}
+		}
+		if(found == false) {
+			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined stage.");
+		}
+		return Race.findStage(stageId, races).getGapMatrix();
+	}
+	/**
+	 * Get the speed of every rider over each segment between consecutive
+	 * checkpoints of a stage, and their VAM on each categorised climb.
+	 * 
+	 * @param stageId  The ID of the stage being queried.
+	 * @param parallel Whether riders are calculated in parallel. The result is the
+	 *                 same either way.
+	 * @return The segment analytics of the stage, with a row per rider in
+	 *         finishing order. The analytics have no rows if there is no result for
+	 *         the stage.
+	 * @throws IDNotRecognisedException If the ID does not match to any stage in the
+	 *                                  system.
+	 */
+	public SegmentAnalytics getSegmentAnalyticsInStage(int stageId, boolean parallel) throws IDNotRecognisedException {
+		boolean found = false;
+		for(int id: usedStageIds) {
+			if(stageId == id) {
+				found = true;
+			}
+		}
+		if(found == false) {
+			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined stage.");
+		}
+		return Race.findStage(stageId, races).getSegmentAnalytics(parallel);
+	}
+	/**
+	 * Get the virtual general classification of a race while one of its stages is
+	 * being raced. Each rider's time is their general classification time before
+	 * the stage plus the time they took to reach the furthest checkpoint any rider
+	 * has passed, as if the race ended there.
+	 * 
+	 * @param stageId The ID of the stage being raced.
+	 * @return The riders' IDs who have passed the furthest checkpoint, ordered by
+	 *         virtual time. An empty list if no rider has passed a checkpoint.
+	 * @throws IDNotRecognisedException If the ID does not match to any stage in the
+	 *                                  system.
+	 */
+	public int[] getVirtualGeneralClassificationRank(int stageId) throws IDNotRecognisedException {
+		boolean found = false;
+		for(int id: usedStageIds) {
+			if(stageId == id) {
+				found = true;
+			}
+		}
+		if(found == false) {
+			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined stage.");
+		}
+		Stage stage = Race.findStage(stageId, races);
+		if(!stage.isLive()) {
+			return new int[] {};
+		}
+		VirtualClassification virtual = stage.getVirtualClassification();
+		return virtual.getRank(virtual.getLatestColumn());
+	}
+	/**
+	 * Get the virtual general classification times of a race while one of its
+	 * stages is being raced.
+	 * 
+	 * @param stageId The ID of the stage being raced.
+	 * @return The virtual times of the riders, matching
+	 *         {@link #getVirtualGeneralClassificationRank(int)}. An empty list if
+	 *         no rider has passed a checkpoint.
+	 * @throws IDNotRecognisedException If the ID does not match to any stage in the
+	 *                                  system.
+	 */
+	public LocalTime[] getVirtualGeneralClassificationTimes(int stageId) throws IDNotRecognisedException {
+		boolean found = false;
+		for(int id: usedStageIds) {
+			if(stageId == id) {
+				found = true;
+			}
+		}
+		if(found == false) {
+			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined stage.");
+		}
+		Stage stage = Race.findStage(stageId, races);
+		if(!stage.isLive()) {
+			return new LocalTime[] {};
+		}
+		VirtualClassification virtual = stage.getVirtualClassification();
+		return virtual.getTimes(virtual.getLatestColumn());
+	}
+	/**
+	 * Get the team classification of a stage, ranked by the sum of the elapsed
+	 * times of each team's three fastest riders. Teams with fewer than three
+	 * riders finishing the stage are not classified.
+	 * 
+	 * @param stageId The ID of the stage being queried.
+	 * @return The teams' IDs ordered by total time. An empty list if no team is
+	 *         classified.
+	 * @throws IDNotRecognisedException If the ID does not match to any stage in the
+	 *                                  system.
+	 */
+	public int[] getTeamClassificationRankInStage(int stageId) throws IDNotRecognisedException {
+		return findStageById(stageId).getTeamClassification(teams).getRank();
+	}
+	/**
+	 * Get the team classification times of a stage.
+	 * 
+	 * @param stageId The ID of the stage being queried.
+	 * @return The total times of the teams, matching
+	 *         {@link #getTeamClassificationRankInStage(int)}.
+	 * @throws IDNotRecognisedException If the ID does not match to any stage in the
+	 *                                  system.
+	 */
+	public LocalTime[] getTeamClassificationTimesInStage(int stageId) throws IDNotRecognisedException {
+		return findStageById(stageId).getTeamClassification(teams).getTimes();
+	}
+	/**
+	 * Get the team classification of a race, ranked by the sum of each team's
+	 * stage team times. Only teams classified in every stage with results are
+	 * classified in the race.
+	 * 
+	 * @param raceId The ID of the race being queried.
+	 * @return The teams' IDs ordered by total time. An empty list if no team is
+	 *         classified.
+	 * @throws IDNotRecognisedException If the ID does not match any race in the
+	 *                                  system.
+	 */
+	public int[] getTeamClassificationRankInRace(int raceId) throws IDNotRecognisedException {
+		return rankTeamTotals(sumTeamClassifications(raceId)).stream().mapToInt(Map.Entry::getKey).toArray();
+	}
+	/**
+	 * Get the team classification times of a race.
+	 * 
+	 * @param raceId The ID of the race being queried.
+	 * @return The total times of the teams, matching
+	 *         {@link #getTeamClassificationRankInRace(int)}.
+	 * @throws IDNotRecognisedException If the ID does not match any race in the
+	 *                                  system.
+	 */
+	public LocalTime[] getTeamClassificationTimesInRace(int raceId) throws IDNotRecognisedException {
+		return rankTeamTotals(sumTeamClassifications(raceId)).stream()
+		.map(entry -> LocalTime.MIDNIGHT.plusNanos(entry.getValue())).toArray(LocalTime[]::new);
+	}
+	/**
+	 * Sums the team classifications of every stage of a race with results.
+	 * 
+	 * @param raceId The ID of the race.
+	 * @return A map with teamIds as keys and their total time in nanoseconds as values.
+	 * @throws IDNotRecognisedException If the ID does not match any race in the
+	 *                                  system.
+	 */
+	private Map<Integer, Long> sumTeamClassifications(int raceId) throws IDNotRecognisedException {
+		boolean found = false;
+		for(int id: getRaceIds()) {
+			if(raceId == id) {
+				found = true;
+			}
+		}
+		if(found == false) {
+			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined race.");
+		}
+		ArrayList<TeamClassification> stageClassifications = new ArrayList<TeamClassification>();
+		for(Stage stage: races.get(raceId).getStages().values()) {
+			if(stage.getRiderPositions().size() > 0) {
+				stageClassifications.add(stage.getTeamClassification(teams));
+			}
+		}
+		return TeamClassification.sumStages(stageClassifications);
+	}
+	/**
+	 * Orders team totals by time, using the team ID to break ties.
+	 * 
+	 * @param totals A map with teamIds as keys and their total time as values.
+	 * @return The entries of the map in classification order.
+	 */
+	private ArrayList<Map.Entry<Integer, Long>> rankTeamTotals(Map<Integer, Long> totals) {
+		ArrayList<Map.Entry<Integer, Long>> ranked = new ArrayList<Map.Entry<Integer, Long>>(totals.entrySet());
+		ranked.sort(Map.Entry.<Integer, Long>comparingByValue().thenComparing(Map.Entry.comparingByKey()));
+		return ranked;
+	}
+	/**
+	 * Get the young rider classification of a race: the general classification
+	 * of riders aged at most {@link GeneralClassificationIndex#YOUNG_RIDER_MAX_AGE}
+	 * in the year of the race.
+	 * 
+	 * @param raceId The ID of the race being queried.
+	 * @return A ranked list of riders' IDs sorted ascending by their general
+	 *         classification time. An empty list if there is no result for any
+	 *         stage in the race.
+	 * @throws IDNotRecognisedException If the ID does not match any race in the
+	 *                                  system.
+	 */
+	public int[] getRidersYoungRiderClassificationRank(int raceId) throws IDNotRecognisedException {
+		return getRidersAgeCategoryRank(raceId, 0, GeneralClassificationIndex.YOUNG_RIDER_MAX_AGE);
+	}
+	/**
+	 * Get the young rider classification times of a race.
+	 * 
+	 * @param raceId The ID of the race being queried.
+	 * @return The general classification times matching
+	 *         {@link #getRidersYoungRiderClassificationRank(int)}.
+	 * @throws IDNotRecognisedException If the ID does not match any race in the
+	 *                                  system.
+	 */
+	public LocalTime[] getYoungRiderClassificationTimesInRace(int raceId) throws IDNotRecognisedException {
+		return getAgeCategoryTimesInRace(raceId, 0, GeneralClassificationIndex.YOUNG_RIDER_MAX_AGE);
+	}
+	/**
+	 * Get the general classification of the riders of an age category in a race.
+	 * A rider's age is the age they reach during the year of the race's first
+	 * stage.
+	 * 
+	 * @param raceId The ID of the race being queried.
+	 * @param minAge The youngest age in the category.
+	 * @param maxAge The oldest age in the category.
+	 * @return A ranked list of riders' IDs sorted ascending by their general
+	 *         classification time. An empty list if there is no result for any
+	 *         stage in the race.
+	 * @throws IDNotRecognisedException If the ID does not match any race in the
+	 *                                  system.
+	 * @throws IllegalArgumentException If the ages are negative or minAge is
+	 *                                  greater than maxAge.
+	 */
+	public int[] getRidersAgeCategoryRank(int raceId, int minAge, int maxAge) throws IDNotRecognisedException {
+		Race race = findAgeCategoryRace(raceId, minAge, maxAge);
+		if(race.getYear() < 0) {
+			return new int[0];
+		}
+		return race.getGeneralClassificationIndex().getRank(race.getYear() - maxAge, race.getYear() - minAge);
+	}
+	/**
+	 * Get the general classification times of the riders of an age category in
+	 * a race.
+	 * 
+	 * @param raceId The ID of the race being queried.
+	 * @param minAge The youngest age in the category.
+	 * @param maxAge The oldest age in the category.
+	 * @return The general classification times matching
+	 *         {@link #getRidersAgeCategoryRank(int, int, int)}.
+	 * @throws IDNotRecognisedException If the ID does not match any race in the
+	 *                                  system.
+	 * @throws IllegalArgumentException If the ages are negative or minAge is
+	 *                                  greater than maxAge.
+	 */
+	public LocalTime[] getAgeCategoryTimesInRace(int raceId, int minAge, int maxAge) throws IDNotRecognisedException {
+		Race race = findAgeCategoryRace(raceId, minAge, maxAge);
+		if(race.getYear() < 0) {
+			return new LocalTime[0];
+		}
+		return race.getGeneralClassificationIndex().getTimes(race.getYear() - maxAge, race.getYear() - minAge);
+	}
+	/**
+	 * Finds the race of an age category classification, checking the category is valid.
+	 * 
+	 * @param raceId The ID of the race.
+	 * @param minAge The youngest age in the category.
+	 * @param maxAge The oldest age in the category.
+	 * @return The race.
+	 * @throws IDNotRecognisedException If the ID does not match any race in the
+	 *                                  system.
+	 * @throws IllegalArgumentException If the ages are negative or minAge is
+	 *                                  greater than maxAge.
+	 */
+	private Race findAgeCategoryRace(int raceId, int minAge, int maxAge) throws IDNotRecognisedException {
+		boolean found = false;
+		for(int id: getRaceIds()) {
+			if(raceId == id) {
+				found = true;
+			}
+		}
+		if(found == false) {
+			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined race.");
+		}
+		if(minAge < 0 || minAge > maxAge) {
+			throw new IllegalArgumentException("You have entered an invalid age category, ensure the ages are positive and the minimum is not above the maximum.");
+		}
+		return races.get(raceId);
+	}
+	/**
+	 * Get a rider's results in every stage of every race, ordered by the start
+	 * time of the stages.
+	 * 
+	 * @param riderId The ID of the rider being queried.
+	 * @return The rider's stage postings with their position, adjusted elapsed
+	 *         time and points. An empty array if the rider has no results.
+	 * @throws IDNotRecognisedException If the ID does not match to any rider in
+	 *                                  the system.
+	 */
+	public CareerPosting[] getRiderCareer(int riderId) throws IDNotRecognisedException {
+		boolean found = false;
+		for(int id: usedRiderIds) {
+			if(riderId == id) {
+				found = true;
+			}
+		}
+		if(found == false) {
+			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined rider.");
+		}
+		return getCareerIndex().getCareer(riderId);
+	}
+	/**
+	 * Gets the index of every rider's results across races, building it the
+	 * first time it is used. Concurrent readers share one build.
+	 * 
+	 * @return The career index of this portal.
+	 */
+	private RiderCareerIndex getCareerIndex() {
+		RiderCareerIndex index = careerIndex;
+		if(index != null) {
+			return index;
+		}
+		synchronized(this) {
+			if(careerIndex == null) {
+				careerIndex = new RiderCareerIndex(races);
+			}
+			return careerIndex;
+		}
+	}
+	/**
+	 * Get every rider's totals across a season of races. Races are totalled in
+	 * parallel on the common fork/join pool.
+	 * 
+	 * @param raceIds The IDs of the races in the season.
+	 * @return A map with riders' IDs as keys and their season totals as values.
+	 * @throws IDNotRecognisedException If any ID does not match any race in the
+	 *                                  system.
+	 */
+	public Map<Integer, SeasonTotals> getSeasonTotals(int... raceIds) throws IDNotRecognisedException {
+		ArrayList<Race> season = new ArrayList<Race>();
+		for(int raceId: raceIds) {
+			boolean found = false;
+			for(int id: getRaceIds()) {
+				if(raceId == id) {
+					found = true;
+				}
+			}
+			if(found == false) {
+				throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined race.");
+			}
+			if(!season.contains(races.get(raceId))) {
+				season.add(races.get(raceId));
+			}
+		}
+		return SeasonAggregation.aggregate(season);
+	}
+	/**
+	 * Finds a stage, checking its ID is in use.
+	 * 
+	 * @param stageId The ID of the stage.
+	 * @return The stage.
+	 * @throws IDNotRecognisedException If the ID does not match to any stage in the
+	 *                                  system.
+	 */
+	private Stage findStageById(int stageId) throws IDNotRecognisedException {
+		boolean found = false;
+		for(int id: usedStageIds) {
+			if(stageId == id) {
+				found = true;
+			}
+		}
+		if(found == false) {
+			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined stage.");
+		}
+		return Race.findStage(stageId, races);
+	}
+	/**
+	 * Gives a rider a time bonus in a stage, for example for placing at the finish
+	 * or an intermediate sprint. Bonuses are taken off the rider's general
+	 * classification time but do not change the stage ranking.
+	 * 
+	 * @param stageId The ID of the stage the bonus was earned in.
+	 * @param riderId The ID of the rider.
+	 * @param bonus   The time bonus.
+	 * @throws IDNotRecognisedException   If the ID does not match to any rider or
+	 *                                    stage in the system.
+	 * @throws InvalidStageStateException If the stage is "in preparation".
+	 */
+	public void addRiderTimeBonusInStage(int stageId, int riderId, Duration bonus) throws IDNotRecognisedException,
+			InvalidStageStateException {
+		addRiderTimeAdjustment(stageId, riderId, bonus, true);
+	}
+	/**
+	 * Gives a rider a jury time penalty in a stage. Penalties are added to the
+	 * rider's general classification time but do not change the stage ranking.
+	 * 
+	 * @param stageId The ID of the stage the penalty was given in.
+	 * @param riderId The ID of the rider.
+	 * @param penalty The time penalty.
+	 * @throws IDNotRecognisedException   If the ID does not match to any rider or
+	 *                                    stage in the system.
+	 * @throws InvalidStageStateException If the stage is "in preparation".
+	 */
+	public void addRiderTimePenaltyInStage(int stageId, int riderId, Duration penalty) throws IDNotRecognisedException,
+			InvalidStageStateException {
+		addRiderTimeAdjustment(stageId, riderId, penalty, false);
+	}
+	/**
+	 * Records a time bonus or penalty in the ledger of a stage and moves the rider
+	 * in the general classification by the difference only. The stage's results
+	 * and version are left alone, so nothing calculated from them is invalidated,
+	 * only the version of the race changes.
+	 * 
+	 * @param stageId    The ID of the stage.
+	 * @param riderId    The ID of the rider.
+	 * @param adjustment The time being given.
+	 * @param bonus      Whether the time is a bonus rather than a penalty.
+	 * @throws IDNotRecognisedException   If the ID does not match to any rider or
+	 *                                    stage in the system.
+	 * @throws InvalidStageStateException If the stage is "in preparation".
+	 */
+	private void addRiderTimeAdjustment(int stageId, int riderId, Duration adjustment, boolean bonus)
+			throws IDNotRecognisedException, InvalidStageStateException {
+		boolean stageFound = false;
+		boolean riderFound = false;
+		for(int id: usedStageIds) {
+			if(stageId == id) {
+				stageFound = true;
+			}
+		}
+		if(stageFound == false) {
+			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined stage.");
+		}
+		for(int id: usedRiderIds) {
+			if(riderId == id) {
+				riderFound = true;
+			}
+		}
+		if(riderFound == false) {
+			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined rider.");
+		}
+		if(adjustment.isNegative()) {
+			throw new IllegalArgumentException("You have entered a negative time, ensure bonuses and penalties are given as positive durations.");
+		}
+		Stage stage = Race.findStage(stageId, races);
+		if(stage.getState() == "in preparation") {
+			throw new InvalidStageStateException("You cannot give time to riders in this stage as preparation phase has not yet been concluded.");
+		}
+		long nanos = adjustment.toNanos();
+		Race race = Race.findStagesRace(stageId, races);
+		if(bonus) {
+			stage.getTimeAdjustments().addBonus(riderId, nanos);
+		} else {
+			stage.getTimeAdjustments().addPenalty(riderId, nanos);
+		}
+		//The stage results are unchanged, so only the race's classifications go out of date
+		race.incrementVersion();
+		//An index which is not up to date reads every ledger when it is rebuilt
+		GeneralClassificationIndex index = race.getBuiltGeneralClassificationIndex();
+		if(index != null) {
+			index.applyAdjustment(riderId, bonus ? -nanos : nanos);
+		}
+	}
+	/**
+	 * Get the total time bonus given to a rider in a stage.
+	 * 
+	 * @param stageId The ID of the stage being queried.
+	 * @param riderId The ID of the rider.
+	 * @return The total bonus, zero if the rider has none.
+	 * @throws IDNotRecognisedException If the ID does not match to any rider or
+	 *                                  stage in the system.
+	 */
+	public Duration getRiderTimeBonusInStage(int stageId, int riderId) throws IDNotRecognisedException {
+		return Duration.ofNanos(findTimeAdjustments(stageId, riderId).getBonus(riderId));
+	}
+	/**
+	 * Get the total time penalty given to a rider in a stage.
+	 * 
+	 * @param stageId The ID of the stage being queried.
+	 * @param riderId The ID of the rider.
+	 * @return The total penalty, zero if the rider has none.
+	 * @throws IDNotRecognisedException If the ID does not match to any rider or
+	 *                                  stage in the system.
+	 */
+	public Duration getRiderTimePenaltyInStage(int stageId, int riderId) throws IDNotRecognisedException {
+		return Duration.ofNanos(findTimeAdjustments(stageId, riderId).getPenalty(riderId));
+	}
+	/**
+	 * Finds the ledger of time bonuses and penalties of a stage.
+	 * 
+	 * @param stageId The ID of the stage.
+	 * @param riderId The ID of the rider being looked up.
+	 * @return The ledger of the stage.
+	 * @throws IDNotRecognisedException If the ID does not match to any rider or
+	 *                                  stage in the system.
+	 */
+	private TimeAdjustmentLedger findTimeAdjustments(int stageId, int riderId) throws IDNotRecognisedException {
+		boolean stageFound = false;
+		boolean riderFound = false;
+		for(int id: usedStageIds) {
+			if(stageId == id) {
+				stageFound = true;
+			}
+		}
+		if(stageFound == false) {
+			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined stage.");
+		}
+		for(int id: usedRiderIds) {
+			if(riderId == id) {
+				riderFound = true;
+			}
+		}
+		if(riderFound == false) {
+			throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined rider.");
+		}
+		return Race.findStage(stageId, races).getTimeAdjustments();
+	}
+	/**
+	 * Finds the stage a checkpoint belongs to.
+	 * 
+	 * @param checkpointId The ID of the checkpoint.
+	 * @return The stage containing the checkpoint.
+	 * @throws IDNotRecognisedException If the ID does not match to any checkpoint in
+	 *                                  the system.
+	 */
+	private Stage findCheckpointsStage(int checkpointId) throws IDNotRecognisedException {
+		for(Race race: races.values()) {
+			for(Stage stage: race.getStages().values()) {
+				if(stage.getCheckpoints().containsKey(checkpointId)) {
+					return stage;
+				}
+			}
 		}
-		return mountainClassification;
+		throw new IDNotRecognisedException("You have entered an unrecognisable ID, ensure the ID requested matches a previously defined checkpoint.");
 	}
 }
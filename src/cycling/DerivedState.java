@@ -0,0 +1,252 @@
+package cycling;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * DerivedState holds the results calculated from each race, so a
+ * portal saved with it can answer classifications straight after it
+ * is loaded instead of recalculating them on the first queries. The
+ * general classification totals are saved with the stage stamp they
+ * were summed at, the cached classifications with the race version
+ * they were calculated at and the adjusted times and points of each
+ * stage with the stage version. When a portal is loaded each part is
+ * only restored if its stamp or version still matches, anything else
+ * is left to be rebuilt on first use as before
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+final class DerivedState implements Externalizable {
+    /**
+     * The version of the derived state format, increased whenever the fields written change.
+     * Version 2 added the standings of each stage
+     */
+    private static final long serialVersionUID = 2L;
+    /**
+     * The adjusted times and points calculated for one stage
+     */
+    private static final class StageState {
+        /**
+         * The version of the stage they were calculated at
+         */
+        private long version;
+        /**
+         * A map with riderIds as keys and their adjusted times as values, in finishing order
+         */
+        private Map<Integer, LocalTime> adjustedTimes;
+        /**
+         * A map with riderIds as keys and their sprinter points as values, in finishing order
+         */
+        private Map<Integer, Integer> sprinterPoints;
+        /**
+         * A map with riderIds as keys and their mountain points as values, in finishing order
+         */
+        private Map<Integer, Integer> mountainPoints;
+    }
+    /**
+     * The results calculated from one race
+     */
+    private static final class RaceState {
+        /**
+         * The version of the race the classifications were calculated at
+         */
+        private long version;
+        /**
+         * The stamp the general classification totals were summed at, null if they were not built
+         */
+        private long[] stamp;
+        /**
+         * A map with riderIds as keys and the sum of their adjusted stage times in nanoseconds as values
+         */
+        private Map<Integer, Long> stageTotals;
+        /**
+         * A map with riderIds as keys and their net bonuses and penalties in nanoseconds as values
+         */
+        private Map<Integer, Long> adjustments;
+        /**
+         * A map with classifications as keys and their results as values
+         */
+        private Map<ClassificationCache.Kind, Object> classifications;
+        /**
+         * A map with stageIds as keys and the standings calculated for each stage as values
+         */
+        private Map<Integer, StageState> stages;
+    }
+    /**
+     * A map with raceIds as keys and the results calculated from each race as values
+     */
+    private Map<Integer, RaceState> races;
+
+    /**
+     * Creates an empty derived state for serialisation to read into
+     */
+    public DerivedState() {
+        this.races = new LinkedHashMap<Integer, RaceState>();
+    }
+    /**
+     * Collects the results already calculated from every race. Nothing is
+     * calculated here, races whose general classification index has not
+     * been built or is out of date only contribute their cached results,
+     * and only stages whose standings are up to date contribute them
+     * @param races The races in CyclingPortalImpl
+     * @param cache The classification results cached by CyclingPortalImpl
+     * @return The derived state of the races
+     */
+    static DerivedState capture(Map<Integer, Race> races, ClassificationCache cache) {
+        DerivedState derived = new DerivedState();
+        for(Race race: races.values()) {
+            RaceState state = new RaceState();
+            state.version = race.getVersion();
+            GeneralClassificationIndex index = race.getBuiltGeneralClassificationIndex();
+            if(index != null) {
+                state.stamp = index.getStamp();
+                //Copied as the index keeps moving riders after it is captured
+                state.stageTotals = new HashMap<Integer, Long>(index.getStageTotals());
+                state.adjustments = new HashMap<Integer, Long>(index.getAdjustments());
+            }
+            state.classifications = cache.getResults(race.getId(), state.version);
+            state.stages = new LinkedHashMap<Integer, StageState>();
+            for(Stage stage: race.getStages().values()) {
+                if(stage.hasStandings()) {
+                    StageState standings = new StageState();
+                    standings.version = stage.getVersion();
+                    //Copied into linked maps so the finishing order is kept when they are written
+                    standings.adjustedTimes = new LinkedHashMap<Integer, LocalTime>(stage.getAdjustedTimes());
+                    standings.sprinterPoints = new LinkedHashMap<Integer, Integer>(stage.getSprinterPoints());
+                    standings.mountainPoints = new LinkedHashMap<Integer, Integer>(stage.getMountainPoints());
+                    state.stages.put(stage.getId(), standings);
+                }
+            }
+            if(state.stamp != null || !state.classifications.isEmpty() || !state.stages.isEmpty()) {
+                derived.races.put(race.getId(), state);
+            }
+        }
+        return derived;
+    }
+    /**
+     * Restores the results of every race and stage whose stamp or version still matches
+     * @param races The loaded races
+     * @param cache The classification cache the results are restored into
+     * @return The number of races with at least one result restored
+     */
+    int restore(Map<Integer, Race> races, ClassificationCache cache) {
+        int restored = 0;
+        for(Map.Entry<Integer, RaceState> entry: this.races.entrySet()) {
+            Race race = races.get(entry.getKey());
+            RaceState state = entry.getValue();
+            if(race == null) {
+                continue;
+            }
+            boolean used = false;
+            if(state.stamp != null && Arrays.equals(state.stamp, GeneralClassificationIndex.stampOf(race))) {
+                race.setGeneralClassificationIndex(new GeneralClassificationIndex(race, state.stamp,
+                    state.stageTotals, state.adjustments));
+                used = true;
+            }
+            if(state.version == race.getVersion()) {
+                for(Map.Entry<ClassificationCache.Kind, Object> result: state.classifications.entrySet()) {
+                    cache.put(race.getId(), result.getKey(), state.version, result.getValue());
+                    used = true;
+                }
+            }
+            for(Map.Entry<Integer, StageState> standings: state.stages.entrySet()) {
+                Stage stage = race.getStages().get(standings.getKey());
+                StageState saved = standings.getValue();
+                if(stage != null && stage.restoreStandings(saved.version, saved.adjustedTimes, saved.sprinterPoints,
+                saved.mountainPoints)) {
+                    used = true;
+                }
+            }
+            if(used) {
+                restored++;
+            }
+        }
+        return restored;
+    }
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeInt(races.size());
+        for(Map.Entry<Integer, RaceState> entry: races.entrySet()) {
+            RaceState state = entry.getValue();
+            out.writeInt(entry.getKey());
+            out.writeLong(state.version);
+            out.writeBoolean(state.stamp != null);
+            if(state.stamp != null) {
+                out.writeInt(state.stamp.length);
+                for(long value: state.stamp) {
+                    out.writeLong(value);
+                }
+                ExternalFormat.writeMap(out, state.stageTotals, ExternalFormat.INT, ExternalFormat.LONG);
+                ExternalFormat.writeMap(out, state.adjustments, ExternalFormat.INT, ExternalFormat.LONG);
+            }
+            out.writeByte(state.classifications.size());
+            for(Map.Entry<ClassificationCache.Kind, Object> result: state.classifications.entrySet()) {
+                out.writeByte(result.getKey().ordinal());
+                //Only the general classification times are LocalTime[], every other result is an int[]
+                if(result.getKey() == ClassificationCache.Kind.GENERAL_CLASSIFICATION_TIMES) {
+                    ExternalFormat.TIMES.write(out, (LocalTime[]) result.getValue());
+                } else {
+                    out.writeObject(result.getValue());
+                }
+            }
+            out.writeInt(state.stages.size());
+            for(Map.Entry<Integer, StageState> standings: state.stages.entrySet()) {
+                StageState saved = standings.getValue();
+                out.writeInt(standings.getKey());
+                out.writeLong(saved.version);
+                ExternalFormat.writeMap(out, saved.adjustedTimes, ExternalFormat.INT, ExternalFormat.TIME);
+                ExternalFormat.writeMap(out, saved.sprinterPoints, ExternalFormat.INT, ExternalFormat.INT);
+                ExternalFormat.writeMap(out, saved.mountainPoints, ExternalFormat.INT, ExternalFormat.INT);
+            }
+        }
+    }
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        int size = in.readInt();
+        for(int i=0; i<size; i++) {
+            RaceState state = new RaceState();
+            int raceId = in.readInt();
+            state.version = in.readLong();
+            if(in.readBoolean()) {
+                state.stamp = new long[in.readInt()];
+                for(int j=0; j<state.stamp.length; j++) {
+                    state.stamp[j] = in.readLong();
+                }
+                state.stageTotals = ExternalFormat.readMap(in, ExternalFormat.READ_INT, ExternalFormat.READ_LONG);
+                state.adjustments = ExternalFormat.readMap(in, ExternalFormat.READ_INT, ExternalFormat.READ_LONG);
+            }
+            state.classifications = new EnumMap<ClassificationCache.Kind, Object>(ClassificationCache.Kind.class);
+            int results = in.readByte();
+            for(int j=0; j<results; j++) {
+                ClassificationCache.Kind kind = ClassificationCache.Kind.values()[in.readByte()];
+                if(kind == ClassificationCache.Kind.GENERAL_CLASSIFICATION_TIMES) {
+                    state.classifications.put(kind, ExternalFormat.READ_TIMES.read(in));
+                } else {
+                    state.classifications.put(kind, (int[]) in.readObject());
+                }
+            }
+            state.stages = new LinkedHashMap<Integer, StageState>();
+            int stages = in.readInt();
+            for(int j=0; j<stages; j++) {
+                StageState saved = new StageState();
+                int stageId = in.readInt();
+                saved.version = in.readLong();
+                saved.adjustedTimes = ExternalFormat.readMap(in, ExternalFormat.READ_INT, ExternalFormat.READ_TIME);
+                saved.sprinterPoints = ExternalFormat.readMap(in, ExternalFormat.READ_INT, ExternalFormat.READ_INT);
+                saved.mountainPoints = ExternalFormat.readMap(in, ExternalFormat.READ_INT, ExternalFormat.READ_INT);
+                state.stages.put(stageId, saved);
+            }
+            races.put(raceId, state);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package cycling;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ExternalFormat writes and reads the fields of the domain classes
+ * for {@link SerializationProxy}. Times are written as nanoseconds of
+ * the day, ids and points as primitive ints, and every collection is
+ * prefixed with its length, -1 standing for null. Maps record whether
+ * they kept insertion order so they are rebuilt as the same kind
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+final class ExternalFormat {
+    /**
+     * Writes one value of a collection
+     * @param <T> The type of the value
+     */
+    interface Writer<T> {
+        /**
+         * Writes a value
+         * @param out The stream written to
+         * @param value The value being written
+         * @throws IOException If the stream cannot be written
+         */
+        void write(ObjectOutput out, T value) throws IOException;
+    }
+    /**
+     * Reads one value of a collection
+     * @param <T> The type of the value
+     */
+    interface Reader<T> {
+        /**
+         * Reads a value
+         * @param in The stream read from
+         * @return The value read
+         * @throws IOException If the stream cannot be read
+         * @throws ClassNotFoundException If the class of an object read cannot be found
+         */
+        T read(ObjectInput in) throws IOException, ClassNotFoundException;
+    }
+    /**
+     * Writes an id or points as a primitive int
+     */
+    static final Writer<Integer> INT = (out, value) -> out.writeInt(value);
+    /**
+     * Reads an id or points written by {@link #INT}
+     */
+    static final Reader<Integer> READ_INT = in -> in.readInt();
+    /**
+     * Writes a time in nanoseconds as a primitive long
+     */
+    static final Writer<Long> LONG = (out, value) -> out.writeLong(value);
+    /**
+     * Reads a time in nanoseconds written by {@link #LONG}
+     */
+    static final Reader<Long> READ_LONG = in -> in.readLong();
+    /**
+     * Writes a time of day as nanoseconds
+     */
+    static final Writer<LocalTime> TIME = ExternalFormat::writeTime;
+    /**
+     * Reads a time of day written by {@link #TIME}
+     */
+    static final Reader<LocalTime> READ_TIME = ExternalFormat::readTime;
+    /**
+     * Writes a rider's times at every checkpoint of a stage
+     */
+    static final Writer<LocalTime[]> TIMES = (out, times) -> {
+        out.writeInt(times.length);
+        for(LocalTime time: times) {
+            writeTime(out, time);
+        }
+    };
+    /**
+     * Reads a rider's times written by {@link #TIMES}
+     */
+    static final Reader<LocalTime[]> READ_TIMES = in -> {
+        LocalTime[] times = new LocalTime[in.readInt()];
+        for(int i=0; i<times.length; i++) {
+            times[i] = readTime(in);
+        }
+        return times;
+    };
+    /**
+     * Writes an object through serialization, so shared objects are written once
+     */
+    static final Writer<Object> OBJECT = (out, value) -> out.writeObject(value);
+    /**
+     * The length written for a null collection or time
+     */
+    private static final int NULL = -1;
+    /**
+     * The marker of a map rebuilt as a HashMap
+     */
+    private static final byte HASH_MAP = 0;
+    /**
+     * The marker of a map rebuilt as a LinkedHashMap
+     */
+    private static final byte LINKED_MAP = 1;
+
+    /**
+     * ExternalFormat only holds static helpers
+     */
+    private ExternalFormat() {
+
+    }
+    /**
+     * Creates a reader of objects written by {@link #OBJECT}
+     * @param <T> The type of the objects
+     * @param type The class of the objects
+     * @return A reader casting each object read to the type
+     */
+    static <T> Reader<T> objects(Class<T> type) {
+        return in -> type.cast(in.readObject());
+    }
+    /**
+     * Writes a time of day, which may be null
+     * @param out The stream written to
+     * @param time The time being written
+     * @throws IOException If the stream cannot be written
+     */
+    static void writeTime(ObjectOutput out, LocalTime time) throws IOException {
+        out.writeLong(time == null ? NULL : time.toNanoOfDay());
+    }
+    /**
+     * Reads a time of day written by {@link #writeTime(ObjectOutput, LocalTime)}
+     * @param in The stream read from
+     * @return The time read, or null
+     * @throws IOException If the stream cannot be read
+     */
+    static LocalTime readTime(ObjectInput in) throws IOException {
+        long nanos = in.readLong();
+        return nanos == NULL ? null : LocalTime.ofNanoOfDay(nanos);
+    }
+    /**
+     * Writes a date and time, which may be null
+     * @param out The stream written to
+     * @param dateTime The date and time being written
+     * @throws IOException If the stream cannot be written
+     */
+    static void writeDateTime(ObjectOutput out, LocalDateTime dateTime) throws IOException {
+        out.writeBoolean(dateTime != null);
+        if(dateTime != null) {
+            out.writeLong(dateTime.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(dateTime.getNano());
+        }
+    }
+    /**
+     * Reads a date and time written by {@link #writeDateTime(ObjectOutput, LocalDateTime)}
+     * @param in The stream read from
+     * @return The date and time read, or null
+     * @throws IOException If the stream cannot be read
+     */
+    static LocalDateTime readDateTime(ObjectInput in) throws IOException {
+        if(!in.readBoolean()) {
+            return null;
+        }
+        long seconds = in.readLong();
+        return LocalDateTime.ofEpochSecond(seconds, in.readInt(), ZoneOffset.UTC);
+    }
+    /**
+     * Writes a list prefixed with its length
+     * @param <T> The type of the elements
+     * @param out The stream written to
+     * @param list The list being written, may be null
+     * @param elements The writer of each element
+     * @throws IOException If the stream cannot be written
+     */
+    static <T> void writeList(ObjectOutput out, List<? extends T> list, Writer<T> elements) throws IOException {
+        if(list == null) {
+            out.writeInt(NULL);
+            return;
+        }
+        out.writeInt(list.size());
+        for(T element: list) {
+            elements.write(out, element);
+        }
+    }
+    /**
+     * Reads a list written by {@link #writeList(ObjectOutput, List, Writer)}
+     * @param <T> The type of the elements
+     * @param in The stream read from
+     * @param elements The reader of each element
+     * @return The list read, or null
+     * @throws IOException If the stream cannot be read
+     * @throws ClassNotFoundException If the class of an element cannot be found
+     */
+    static <T> ArrayList<T> readList(ObjectInput in, Reader<T> elements) throws IOException, ClassNotFoundException {
+        int size = in.readInt();
+        if(size == NULL) {
+            return null;
+        }
+        ArrayList<T> list = new ArrayList<T>(size);
+        for(int i=0; i<size; i++) {
+            list.add(elements.read(in));
+        }
+        return list;
+    }
+    /**
+     * Writes a map prefixed with its length and kind
+     * @param <K> The type of the keys
+     * @param <V> The type of the values
+     * @param out The stream written to
+     * @param map The map being written, may be null
+     * @param keys The writer of each key
+     * @param values The writer of each value
+     * @throws IOException If the stream cannot be written
+     */
+    static <K, V> void writeMap(ObjectOutput out, Map<? extends K, ? extends V> map, Writer<K> keys,
+        Writer<V> values) throws IOException {
+        if(map == null) {
+            out.writeInt(NULL);
+            return;
+        }
+        out.writeInt(map.size());
+        out.writeByte(map instanceof LinkedHashMap ? LINKED_MAP : HASH_MAP);
+        for(Map.Entry<? extends K, ? extends V> entry: map.entrySet()) {
+            keys.write(out, entry.getKey());
+            values.write(out, entry.getValue());
+        }
+    }
+    /**
+     * Reads a map written by {@link #writeMap(ObjectOutput, Map, Writer, Writer)}
+     * @param <K> The type of the keys
+     * @param <V> The type of the values
+     * @param in The stream read from
+     * @param keys The reader of each key
+     * @param values The reader of each value
+     * @return A map of the kind written, or null
+     * @throws IOException If the stream cannot be read
+     * @throws ClassNotFoundException If the class of a value cannot be found
+     */
+    static <K, V> Map<K, V> readMap(ObjectInput in, Reader<K> keys, Reader<V> values)
+        throws IOException, ClassNotFoundException {
+        int size = in.readInt();
+        if(size == NULL) {
+            return null;
+        }
+        int capacity = (int) Math.min(Integer.MAX_VALUE, size * 4L / 3 + 1);
+        Map<K, V> map = in.readByte() == LINKED_MAP ? new LinkedHashMap<K, V>(capacity) : new HashMap<K, V>(capacity);
+        for(int i=0; i<size; i++) {
+            K key = keys.read(in);
+            map.put(key, values.read(in));
+        }
+        return map;
+    }
+}
@@ -0,0 +1,168 @@
+package cycling;
+import java.util.Arrays;
+
+/**
+ * GapMatrix holds the time gaps of every rider at every checkpoint
+ * of a stage, both to the leader at that checkpoint and to the rider
+ * directly ahead. It is calculated in one pass over the stage's
+ * {@link StageTimeColumns} and is cached by the stage until its
+ * results change
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+public final class GapMatrix {
+    /**
+     * The version of the stage's results the matrix was calculated from
+     */
+    private final long version;
+    /**
+     * The riderIds of each row, in finishing order
+     */
+    private final int[] riderIds;
+    /**
+     * The checkpointIds of each column ordered by location, the finish is the extra last column
+     */
+    private final int[] checkpointIds;
+    /**
+     * The gap in nanoseconds of each rider to the leader at each column
+     */
+    private final long[][] gapsToLeader;
+    /**
+     * The gap in nanoseconds of each rider to the rider ahead at each column
+     */
+    private final long[][] gapsToRiderAhead;
+
+    /**
+     * Creates a new gap matrix, use {@link #calculate(StageTimeColumns)} instead
+     * @param version The version of the stage's results
+     * @param riderIds The riderIds of each row
+     * @param checkpointIds The checkpointIds of each column
+     * @param gapsToLeader The gap of each rider to the leader at each column
+     * @param gapsToRiderAhead The gap of each rider to the rider ahead at each column
+     */
+    private GapMatrix(long version, int[] riderIds, int[] checkpointIds, long[][] gapsToLeader, long[][] gapsToRiderAhead) {
+        this.version = version;
+        this.riderIds = riderIds;
+        this.checkpointIds = checkpointIds;
+        this.gapsToLeader = gapsToLeader;
+        this.gapsToRiderAhead = gapsToRiderAhead;
+    }
+    /**
+     * Calculates the gap matrix of a stage
+     * @param timeColumns The results of the stage laid out as primitive columns
+     * @return The gaps of every rider with results at every checkpoint and the finish
+     */
+    static GapMatrix calculate(StageTimeColumns timeColumns) {
+        int rows = timeColumns.getRowCount();
+        int columns = timeColumns.getColumnCount();
+        long[][] gapsToLeader = new long[rows][columns];
+        long[][] gapsToRiderAhead = new long[rows][columns];
+        int rowBits = Math.max(1, 32 - Integer.numberOfLeadingZeros(rows));
+        long[] order = new long[rows];
+        int[] sorted = new int[rows];
+        for(int column=0; column<columns; column++) {
+            long[] times = timeColumns.getColumn(column);
+            sortRows(times, rowBits, order, sorted);
+            long leader = rows == 0 ? 0 : times[sorted[0]];
+            long ahead = leader;
+            for(int i=0; i<rows; i++) {
+                int row = sorted[i];
+                gapsToLeader[row][column] = times[row] - leader;
+                gapsToRiderAhead[row][column] = times[row] - ahead;
+                ahead = times[row];
+            }
+        }
+        return new GapMatrix(timeColumns.getVersion(), timeColumns.getRiderIds().clone(),
+        timeColumns.getCheckpointIds().clone(), gapsToLeader, gapsToRiderAhead);
+    }
+    /**
+     * Orders the rows of a column by time, ties kept in row order. When every
+     * time fits above the row bits each row is packed below its time so one
+     * primitive sort orders the column, otherwise the rows are sorted by index
+     * @param times The time of each row in nanoseconds
+     * @param rowBits The number of bits needed to hold a row
+     * @param order The scratch array the packed rows are sorted in
+     * @param sorted The array the rows are written to in time order
+     */
+    private static void sortRows(long[] times, int rowBits, long[] order, int[] sorted) {
+        long max = 0;
+        for(long time: times) {
+            max = Math.max(max, time);
+        }
+        boolean packed = Long.numberOfLeadingZeros(max) > rowBits;
+        for(long time: times) {
+            packed &= time >= 0;
+        }
+        if(packed) {
+            for(int row=0; row<times.length; row++) {
+                order[row] = (times[row] << rowBits) | row;
+            }
+            Arrays.sort(order);
+            for(int i=0; i<times.length; i++) {
+                sorted[i] = (int) (order[i] & ((1L << rowBits) - 1));
+            }
+            return;
+        }
+        //The packed value would overflow, so the rows are sorted as objects instead
+        Integer[] rows = new Integer[times.length];
+        for(int row=0; row<rows.length; row++) {
+            rows[row] = row;
+        }
+        Arrays.sort(rows, (a, b) -> Long.compare(times[a], times[b]));
+        for(int i=0; i<rows.length; i++) {
+            sorted[i] = rows[i];
+        }
+    }
+    /**
+     * Gets the version of the stage's results a matrix was calculated from
+     * @return The version of the stage when this matrix was calculated
+     */
+    public long getVersion() {
+        return this.version;
+    }
+    /**
+     * Gets the riderIds of each row of a matrix
+     * @return The riderIds in finishing order
+     */
+    public int[] getRiderIds() {
+        return this.riderIds.clone();
+    }
+    /**
+     * Gets the checkpointIds of each column of a matrix
+     * @return The checkpointIds ordered by location, the finish is
+     * the one extra column after these
+     */
+    public int[] getCheckpointIds() {
+        return this.checkpointIds.clone();
+    }
+    /**
+     * Gets the gap of each rider to the leader at each checkpoint and the finish
+     * @return The gaps in nanoseconds, indexed by row then column
+     */
+    public long[][] getGapsToLeader() {
+        return copy(this.gapsToLeader);
+    }
+    /**
+     * Gets the gap of each rider to the rider directly ahead at each
+     * checkpoint and the finish, 0 for the leader
+     * @return The gaps in nanoseconds, indexed by row then column
+     */
+    public long[][] getGapsToRiderAhead() {
+        return copy(this.gapsToRiderAhead);
+    }
+    /**
+     * Copies a matrix so the cached one cannot be changed
+     * @param matrix The matrix being copied
+     * @return A copy of the matrix
+     */
+    private static long[][] copy(long[][] matrix) {
+        long[][] copy = new long[matrix.length][];
+        for(int i=0; i<matrix.length; i++) {
+            copy[i] = matrix[i].clone();
+        }
+        return copy;
+    }
+}
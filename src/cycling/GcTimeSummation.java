@@ -0,0 +1,65 @@
+package cycling;
+
+/**
+ * GcTimeSummation adds up the adjusted stage times of every rider
+ * for the general classification. Times are laid out as one long[]
+ * column per stage, indexed by rider row, and summed with plain
+ * scalar loops. When the SIMD kernel in src-vector has been compiled
+ * and the jdk.incubator.vector module is available {@link #getInstance()}
+ * returns it instead
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+public class GcTimeSummation {
+    /**
+     * The kernel shared by every general classification calculation
+     */
+    private static GcTimeSummation instance;
+
+    /**
+     * Gets the fastest kernel available, loading the SIMD kernel
+     * reflectively so the portal still runs without the incubator module
+     * @return The shared kernel
+     */
+    public static synchronized GcTimeSummation getInstance() {
+        if(instance == null) {
+            instance = new GcTimeSummation();
+            try {
+                GcTimeSummation vector = (GcTimeSummation) Class.forName("cycling.VectorGcTimeSummation")
+                .getDeclaredConstructor().newInstance();
+                //Running the kernel once so a missing module fails here rather than mid classification
+                vector.sum(new long[][] {{1, 2}}, 2);
+                instance = vector;
+            } catch(ReflectiveOperationException | LinkageError e) {
+                //The incubator module was not added, the scalar kernel is used
+            }
+        }
+        return instance;
+    }
+    /**
+     * Sums the times of every rider over each stage
+     * @param stageColumns One column per stage holding the adjusted time in
+     * nanoseconds of each rider row, 0 where the rider has no result
+     * @param riders The number of rider rows in every column
+     * @return The total time in nanoseconds of each rider row
+     */
+    public long[] sum(long[][] stageColumns, int riders) {
+        long[] totals = new long[riders];
+        for(long[] column: stageColumns) {
+            for(int i=0; i<riders; i++) {
+                totals[i] += column[i];
+            }
+        }
+        return totals;
+    }
+    /**
+     * Gets the name of a kernel
+     * @return The name of this kernel
+     */
+    public String getName() {
+        return "scalar";
+    }
+}
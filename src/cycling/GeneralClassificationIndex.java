@@ -0,0 +1,332 @@
+package cycling;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * GeneralClassificationIndex keeps the general classification of a
+ * race ordered by total time. Only riders with a time in every stage
+ * that has results are classified. Stage times are summed in bulk when
+ * the results of a stage change, while time bonuses and penalties
+ * move a single rider by delta in O(log n). Riders are also kept in
+ * one ordered partition per year of birth, so age category
+ * classifications merge a few small partitions instead of filtering
+ * the whole classification
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+public class GeneralClassificationIndex {
+    /**
+     * The oldest age, reached during the year of the race, of a rider in the young rider classification
+     */
+    public static final int YOUNG_RIDER_MAX_AGE = 25;
+    /**
+     * A rider's total time in the classification
+     */
+    private static class Entry {
+        /**
+         * The unique id of the rider
+         */
+        private final int riderId;
+        /**
+         * The total time in nanoseconds including bonuses and penalties
+         */
+        private final long total;
+
+        /**
+         * Creates a new entry
+         * @param riderId The unique id of the rider
+         * @param total The total time in nanoseconds
+         */
+        private Entry(int riderId, long total) {
+            this.riderId = riderId;
+            this.total = total;
+        }
+    }
+    /**
+     * Orders entries by total time, using the rider id to break ties
+     */
+    private static final Comparator<Entry> TOTAL_ORDER =
+        Comparator.<Entry>comparingLong(e -> e.total).thenComparingInt(e -> e.riderId);
+    /**
+     * The stageIds and results versions the index was built from
+     */
+    private long[] stamp;
+    /**
+     * A map with riderIds as keys and the sum of their adjusted stage times in nanoseconds as values
+     */
+    private final Map<Integer, Long> stageTotals;
+    /**
+     * A map with riderIds as keys and their net bonuses and penalties in nanoseconds as values
+     */
+    private final Map<Integer, Long> adjustments;
+    /**
+     * The riders ordered by total time
+     */
+    private final TreeSet<Entry> order;
+    /**
+     * A map with riderIds as keys and their year of birth as values
+     */
+    private final Map<Integer, Integer> birthYears;
+    /**
+     * A map with years of birth as keys and the riders born that year ordered by total time as values
+     */
+    private final TreeMap<Integer, TreeSet<Entry>> yearPartitions;
+
+    /**
+     * Builds the index of a race from the results of every stage
+     * @param race The race being indexed
+     */
+    public GeneralClassificationIndex(Race race) {
+        this.stamp = stampOf(race);
+        this.stageTotals = new HashMap<Integer, Long>();
+        this.adjustments = new HashMap<Integer, Long>();
+        this.order = new TreeSet<Entry>(TOTAL_ORDER);
+        this.birthYears = new HashMap<Integer, Integer>();
+        this.yearPartitions = new TreeMap<Integer, TreeSet<Entry>>();
+        for(Rider rider: race.getRiders()) {
+            birthYears.put(rider.getId(), rider.getYearOfBirth());
+        }
+        Map<Integer, Integer> riderRows = new HashMap<Integer, Integer>();
+        Map<Integer, Integer> stagesFinished = new HashMap<Integer, Integer>();
+        ArrayList<Map<Integer, LocalTime>> stageTimes = new ArrayList<Map<Integer, LocalTime>>();
+        for(int stageId: race.getOrderedStageIds()) {
+            Stage stage = race.getStages().get(stageId);
+            for(Map.Entry<Integer, Long> entry: stage.getTimeAdjustments().getNetAdjustments().entrySet()) {
+                adjustments.merge(entry.getKey(), entry.getValue(), Long::sum);
+            }
+            if(stage.getRiderPositions().size() < 1) {
+                continue;
+            }
+            Map<Integer, LocalTime> adjustedTimes = stage.getAdjustedTimes();
+            for(int riderId: adjustedTimes.keySet()) {
+                riderRows.putIfAbsent(riderId, riderRows.size());
+                stagesFinished.merge(riderId, 1, Integer::sum);
+            }
+            stageTimes.add(adjustedTimes);
+        }
+        //Laying the adjusted times out as one column per stage so they are summed in one pass
+        long[][] stageColumns = new long[stageTimes.size()][riderRows.size()];
+        for(int i=0; i<stageTimes.size(); i++) {
+            for(Map.Entry<Integer, LocalTime> entry: stageTimes.get(i).entrySet()) {
+                stageColumns[i][riderRows.get(entry.getKey())] = entry.getValue().toNanoOfDay();
+            }
+        }
+        long[] totals = GcTimeSummation.getInstance().sum(stageColumns, riderRows.size());
+        for(Map.Entry<Integer, Integer> entry: riderRows.entrySet()) {
+            int riderId = entry.getKey();
+            //A rider missing a stage has no comparable total, so is left out rather than summed as 0
+            if(stagesFinished.get(riderId) < stageTimes.size()) {
+                continue;
+            }
+            stageTotals.put(riderId, totals[entry.getValue()]);
+            addEntry(new Entry(riderId, getTotal(riderId)));
+        }
+    }
+    /**
+     * Rebuilds the index of a race from totals saved with the portal, without
+     * adjusting or summing any stage times. Only used once the stamp the totals
+     * were saved with has been checked against the race
+     * @param race The race being indexed
+     * @param stamp The stamp the totals were saved with
+     * @param stageTotals The saved sums of each rider's adjusted stage times in nanoseconds
+     * @param adjustments The saved net bonuses and penalties of each rider in nanoseconds
+     */
+    GeneralClassificationIndex(Race race, long[] stamp, Map<Integer, Long> stageTotals, Map<Integer, Long> adjustments) {
+        this.stamp = stamp;
+        this.stageTotals = stageTotals;
+        this.adjustments = adjustments;
+        this.order = new TreeSet<Entry>(TOTAL_ORDER);
+        this.birthYears = new HashMap<Integer, Integer>();
+        this.yearPartitions = new TreeMap<Integer, TreeSet<Entry>>();
+        for(Rider rider: race.getRiders()) {
+            birthYears.put(rider.getId(), rider.getYearOfBirth());
+        }
+        for(int riderId: stageTotals.keySet()) {
+            addEntry(new Entry(riderId, getTotal(riderId)));
+        }
+    }
+    /**
+     * Calculates the stamp of a race, which changes whenever a stage
+     * is added or removed or the results of a stage change
+     * @param race The race being stamped
+     * @return The stageIds and results versions of every stage in order
+     */
+    public static long[] stampOf(Race race) {
+        ArrayList<Integer> orderedStageIds = race.getOrderedStageIds();
+        long[] stamp = new long[orderedStageIds.size() * 2];
+        for(int i=0; i<orderedStageIds.size(); i++) {
+            stamp[2*i] = orderedStageIds.get(i);
+            stamp[2*i+1] = race.getStages().get(orderedStageIds.get(i)).getVersion();
+        }
+        return stamp;
+    }
+    /**
+     * Gets the stamp the index was built from
+     * @return The stageIds and results versions of every stage when this index was built
+     */
+    public long[] getStamp() {
+        return this.stamp;
+    }
+    /**
+     * Gets the sums of every rider's adjusted stage times
+     * @return A map with riderIds as keys and their stage totals in nanoseconds as values
+     */
+    Map<Integer, Long> getStageTotals() {
+        return this.stageTotals;
+    }
+    /**
+     * Gets the net bonuses and penalties of every rider
+     * @return A map with riderIds as keys and their net adjustments in nanoseconds as values
+     */
+    Map<Integer, Long> getAdjustments() {
+        return this.adjustments;
+    }
+    /**
+     * Marks the index as up to date with a race after a change it
+     * has already applied, such as a time bonus moving one rider
+     * @param race The race the index belongs to
+     */
+    public void restamp(Race race) {
+        this.stamp = stampOf(race);
+    }
+    /**
+     * Gets the total time of a rider in the classification
+     * @param riderId The unique id of the rider
+     * @return The sum of the rider's adjusted stage times plus their
+     * net penalties in nanoseconds
+     */
+    private long getTotal(int riderId) {
+        return stageTotals.get(riderId) + adjustments.getOrDefault(riderId, 0L);
+    }
+    /**
+     * Moves a rider after a bonus or penalty changes their total time
+     * @param riderId The unique id of the rider
+     * @param delta The change to the rider's total time in nanoseconds
+     */
+    public void applyAdjustment(int riderId, long delta) {
+        //Riders without results are only placed once they have stage times
+        if(!stageTotals.containsKey(riderId)) {
+            adjustments.merge(riderId, delta, Long::sum);
+            return;
+        }
+        removeEntry(new Entry(riderId, getTotal(riderId)));
+        adjustments.merge(riderId, delta, Long::sum);
+        addEntry(new Entry(riderId, getTotal(riderId)));
+    }
+    /**
+     * Moves a rider after a corrected result changes their adjusted time in one stage
+     * @param riderId The unique id of the rider
+     * @param delta The change to the rider's adjusted stage time in nanoseconds
+     */
+    public void applyStageTimeChange(int riderId, long delta) {
+        if(!stageTotals.containsKey(riderId)) {
+            return;
+        }
+        removeEntry(new Entry(riderId, getTotal(riderId)));
+        stageTotals.merge(riderId, delta, Long::sum);
+        addEntry(new Entry(riderId, getTotal(riderId)));
+    }
+    /**
+     * Adds an entry to the classification and to its rider's year of birth partition
+     * @param entry The entry being added
+     */
+    private void addEntry(Entry entry) {
+        order.add(entry);
+        Integer year = birthYears.get(entry.riderId);
+        if(year != null) {
+            yearPartitions.computeIfAbsent(year, y -> new TreeSet<Entry>(TOTAL_ORDER)).add(entry);
+        }
+    }
+    /**
+     * Removes an entry from the classification and from its rider's year of birth partition
+     * @param entry The entry being removed
+     */
+    private void removeEntry(Entry entry) {
+        order.remove(entry);
+        Integer year = birthYears.get(entry.riderId);
+        if(year != null) {
+            yearPartitions.get(year).remove(entry);
+        }
+    }
+    /**
+     * Converts a total time to a time of day. Bonuses larger than a rider's
+     * stage times would make the total negative, which is shown as zero
+     * rather than wrapping round to the end of the day
+     * @param entry The entry of the rider
+     * @return The total time of the rider
+     */
+    private static LocalTime toTime(Entry entry) {
+        return LocalTime.MIDNIGHT.plusNanos(Math.max(0, entry.total));
+    }
+    /**
+     * Gets the general classification rank
+     * @return The riderIds ordered by total time
+     */
+    public int[] getRank() {
+        return order.stream().mapToInt(e -> e.riderId).toArray();
+    }
+    /**
+     * Gets the general classification times
+     * @return The total times matching {@link #getRank()}
+     */
+    public LocalTime[] getTimes() {
+        return order.stream().map(GeneralClassificationIndex::toTime).toArray(LocalTime[]::new);
+    }
+    /**
+     * Merges the year of birth partitions in a range into one classification
+     * @param firstYear The earliest year of birth included
+     * @param lastYear The latest year of birth included
+     * @return The entries of riders born in the range ordered by total time
+     */
+    private ArrayList<Entry> mergePartitions(int firstYear, int lastYear) {
+        ArrayList<Entry> merged = new ArrayList<Entry>();
+        if(firstYear > lastYear) {
+            return merged;
+        }
+        //Each partition is already ordered, so only the head of each one is compared
+        PriorityQueue<Map.Entry<Entry, Iterator<Entry>>> heads = new PriorityQueue<Map.Entry<Entry, Iterator<Entry>>>(
+            Map.Entry.comparingByKey(TOTAL_ORDER));
+        for(TreeSet<Entry> partition: yearPartitions.subMap(firstYear, true, lastYear, true).values()) {
+            Iterator<Entry> iterator = partition.iterator();
+            if(iterator.hasNext()) {
+                heads.add(Map.entry(iterator.next(), iterator));
+            }
+        }
+        while(!heads.isEmpty()) {
+            Map.Entry<Entry, Iterator<Entry>> head = heads.poll();
+            merged.add(head.getKey());
+            if(head.getValue().hasNext()) {
+                heads.add(Map.entry(head.getValue().next(), head.getValue()));
+            }
+        }
+        return merged;
+    }
+    /**
+     * Gets the general classification rank of riders born in a range of years
+     * @param firstYear The earliest year of birth included
+     * @param lastYear The latest year of birth included
+     * @return The riderIds of riders born in the range ordered by total time
+     */
+    public int[] getRank(int firstYear, int lastYear) {
+        return mergePartitions(firstYear, lastYear).stream().mapToInt(e -> e.riderId).toArray();
+    }
+    /**
+     * Gets the general classification times of riders born in a range of years
+     * @param firstYear The earliest year of birth included
+     * @param lastYear The latest year of birth included
+     * @return The total times matching {@link #getRank(int, int)}
+     */
+    public LocalTime[] getTimes(int firstYear, int lastYear) {
+        return mergePartitions(firstYear, lastYear).stream().map(GeneralClassificationIndex::toTime).toArray(LocalTime[]::new);
+    }
+}
@@ -0,0 +1,289 @@
+package cycling;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * LiveStage keeps the passages of riders through a stage
+ * while it is being raced. Passages arrive one checkpoint
+ * at a time, partial results are kept per rider and every
+ * column (start, each checkpoint and finish) keeps a running
+ * ranking ordered by passage time and a virtual general
+ * classification of the race
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+public class LiveStage {
+    /**
+     * A single rider passing a single column of a stage
+     */
+    private static class Passage {
+        /**
+         * The unique id of the rider
+         */
+        private final int riderId;
+        /**
+         * The time of day the rider passed, in nanoseconds
+         */
+        private final long time;
+
+        /**
+         * Creates a new passage
+         * @param riderId The unique id of the rider
+         * @param time The time of day the rider passed
+         */
+        private Passage(int riderId, LocalTime time) {
+            this.riderId = riderId;
+            this.time = time.toNanoOfDay();
+        }
+    }
+    /**
+     * Orders passages by time, using the rider id to break ties
+     */
+    private static final Comparator<Passage> PASSAGE_ORDER =
+        Comparator.<Passage>comparingLong(p -> p.time).thenComparingInt(p -> p.riderId);
+    /**
+     * The checkpointIds of the stage ordered by location
+     */
+    private final int[] checkpointIds;
+    /**
+     * A map with riderIds as keys and the times passed so far as values,
+     * a missing passage is null
+     */
+    private final Map<Integer, LocalTime[]> partialTimes;
+    /**
+     * A map with riderIds as keys and the number of columns passed as values
+     */
+    private final Map<Integer, Integer> passedColumns;
+    /**
+     * The running ranking of every column of the stage
+     */
+    private final ArrayList<TreeSet<Passage>> rankings;
+    /**
+     * A map with riderIds as keys and every time recorded so far as values,
+     * including riders who have finished
+     */
+    private final Map<Integer, LocalTime[]> recordedTimes;
+    /**
+     * The general classification of the race as if it ended at each column
+     */
+    private final VirtualClassification virtualClassification;
+
+    /**
+     * Creates an empty live view of a stage
+     * @param checkpointIds The checkpointIds of the stage ordered by location
+     */
+    public LiveStage(int[] checkpointIds) {
+        this.checkpointIds = checkpointIds.clone();
+        this.partialTimes = new HashMap<Integer, LocalTime[]>();
+        this.passedColumns = new HashMap<Integer, Integer>();
+        this.rankings = new ArrayList<TreeSet<Passage>>();
+        for(int i=0; i<getColumnCount(); i++) {
+            this.rankings.add(new TreeSet<Passage>(PASSAGE_ORDER));
+        }
+        this.recordedTimes = new HashMap<Integer, LocalTime[]>();
+        this.virtualClassification = new VirtualClassification(getColumnCount());
+    }
+    /**
+     * Gets the number of columns of a stage: the start,
+     * every checkpoint and the finish
+     * @return The number of columns of this stage
+     */
+    public final int getColumnCount() {
+        return checkpointIds.length + 2;
+    }
+    /**
+     * Gets the column of a checkpoint
+     * @param checkpointId The unique id of the checkpoint
+     * @return The column of the checkpoint, or -1 if it is not in this stage
+     */
+    public int getColumn(int checkpointId) {
+        for(int i=0; i<checkpointIds.length; i++) {
+            if(checkpointIds[i] == checkpointId) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+    /**
+     * Checks a rider passing a column of a stage without recording it
+     * @param riderId The unique id of the rider
+     * @param column The column being passed, 0 for the start and
+     * {@link #getColumnCount()}-1 for the finish
+     * @param time The time of day the rider passed
+     * @return The complete times of the rider if this passage would
+     * complete every column, otherwise null
+     * @throws DuplicatedResultException If the rider has already passed this column
+     * @throws InvalidCheckpointTimesException If the time is out of order with
+     * the rider's other passages
+     */
+    public LocalTime[] checkPassage(int riderId, int column, LocalTime time)
+    throws DuplicatedResultException, InvalidCheckpointTimesException {
+        LocalTime[] times = partialTimes.get(riderId);
+        if(times == null) {
+            times = new LocalTime[getColumnCount()];
+        }
+        if(times[column] != null) {
+            throw new DuplicatedResultException("You have entered a passage which has already been recorded for this rider, ensure you are entering the correct checkpoint and riderID.");
+        }
+        //The passage must come after every earlier column and before every later one
+        for(int i=0; i<times.length; i++) {
+            if(times[i] != null && ((i < column && times[i].isAfter(time)) || (i > column && times[i].isBefore(time)))) {
+                throw new InvalidCheckpointTimesException("You have entered a passage time out of order with the rider's other passages, ensure checkpoints are passed in order.");
+            }
+        }
+        int passed = partialTimes.containsKey(riderId) ? passedColumns.get(riderId) : 0;
+        if(passed + 1 < getColumnCount()) {
+            return null;
+        }
+        LocalTime[] completed = times.clone();
+        completed[column] = time;
+        return completed;
+    }
+    /**
+     * Records a rider passing a column of a stage, nothing is changed
+     * if the passage fails {@link #checkPassage(int, int, LocalTime)}
+     * @param riderId The unique id of the rider
+     * @param column The column being passed, 0 for the start and
+     * {@link #getColumnCount()}-1 for the finish
+     * @param time The time of day the rider passed
+     * @return The complete times of the rider if every column has now
+     * been passed, otherwise null
+     * @throws DuplicatedResultException If the rider has already passed this column
+     * @throws InvalidCheckpointTimesException If the time is out of order with
+     * the rider's other passages
+     */
+    public LocalTime[] recordPassage(int riderId, int column, LocalTime time)
+    throws DuplicatedResultException, InvalidCheckpointTimesException {
+        checkPassage(riderId, column, time);
+        LocalTime[] times = partialTimes.get(riderId);
+        if(times == null) {
+            times = new LocalTime[getColumnCount()];
+        }
+        times[column] = time;
+        partialTimes.put(riderId, times);
+        recordedTimes.put(riderId, times);
+        rankings.get(column).add(new Passage(riderId, time));
+        virtualClassification.onPassage(riderId, column, times);
+        int passed = passedColumns.merge(riderId, 1, Integer::sum);
+        if(passed < getColumnCount()) {
+            return null;
+        }
+        partialTimes.remove(riderId);
+        return times.clone();
+    }
+    /**
+     * Records the complete times of a rider registered in one go,
+     * so they appear in the running rankings
+     * @param riderId The unique id of the rider
+     * @param times The times of the rider for every column
+     */
+    public void recordResults(int riderId, LocalTime[] times) {
+        //Riders promoted from their passages are already in every ranking
+        if(passedColumns.getOrDefault(riderId, 0) == getColumnCount() && !partialTimes.containsKey(riderId)) {
+            return;
+        }
+        removeRider(riderId);
+        for(int i=0; i<times.length && i<getColumnCount(); i++) {
+            rankings.get(i).add(new Passage(riderId, times[i]));
+        }
+        passedColumns.put(riderId, getColumnCount());
+        recordedTimes.put(riderId, times.clone());
+        virtualClassification.onPassage(riderId, 0, recordedTimes.get(riderId));
+    }
+    /**
+     * Replaces a passage already in the running ranking of a column
+     * and updates the rider in the virtual classification
+     * @param riderId The unique id of the rider
+     * @param column The column of the passage
+     * @param oldTime The time the passage was recorded with
+     * @param newTime The corrected time of the passage
+     */
+    public void replacePassage(int riderId, int column, LocalTime oldTime, LocalTime newTime) {
+        rankings.get(column).remove(new Passage(riderId, oldTime));
+        rankings.get(column).add(new Passage(riderId, newTime));
+        //Partial times share their array with the recorded times
+        LocalTime[] times = recordedTimes.get(riderId);
+        if(times != null) {
+            LocalTime[] oldTimes = times.clone();
+            times[column] = newTime;
+            virtualClassification.onReplace(riderId, column, oldTimes, times);
+        }
+    }
+    /**
+     * Removes every passage of a rider
+     * @param riderId The unique id of the rider
+     * @param times The times the rider was recorded with, or null to search every ranking
+     */
+    private void removePassages(int riderId, LocalTime[] times) {
+        for(int i=0; i<getColumnCount(); i++) {
+            if(times != null && times[i] != null) {
+                rankings.get(i).remove(new Passage(riderId, times[i]));
+            } else if(times == null) {
+                rankings.get(i).removeIf(p -> p.riderId == riderId);
+            }
+        }
+    }
+    /**
+     * Removes a rider from a live stage
+     * @param riderId The unique id of the rider
+     */
+    public void removeRider(int riderId) {
+        if(!passedColumns.containsKey(riderId)) {
+            return;
+        }
+        partialTimes.remove(riderId);
+        LocalTime[] times = recordedTimes.remove(riderId);
+        removePassages(riderId, times);
+        if(times != null) {
+            virtualClassification.onRemove(riderId, times);
+        }
+        passedColumns.remove(riderId);
+    }
+    /**
+     * Gets every time recorded so far in a live stage
+     * @return A map with riderIds as keys and their recorded times as values
+     */
+    public Map<Integer, LocalTime[]> getRecordedTimes() {
+        return this.recordedTimes;
+    }
+    /**
+     * Gets the virtual general classification of a live stage
+     * @return The virtual classification of this stage
+     */
+    public VirtualClassification getVirtualClassification() {
+        return this.virtualClassification;
+    }
+    /**
+     * Gets the times a rider has passed so far
+     * @param riderId The unique id of the rider
+     * @return The times of the rider with null for columns not yet
+     * passed, or null if the rider has no partial results
+     */
+    public LocalTime[] getPartialTimes(int riderId) {
+        LocalTime[] times = partialTimes.get(riderId);
+        return times == null ? null : times.clone();
+    }
+    /**
+     * Gets the running ranking of a column
+     * @param column The column being queried
+     * @return The riderIds in the order they passed the column
+     */
+    public int[] getRanking(int column) {
+        return rankings.get(column).stream().mapToInt(p -> p.riderId).toArray();
+    }
+    /**
+     * Gets the passage times of the running ranking of a column
+     * @param column The column being queried
+     * @return The passage times in the order riders passed the column
+     */
+    public LocalTime[] getRankingTimes(int column) {
+        return rankings.get(column).stream().map(p -> LocalTime.ofNanoOfDay(p.time)).toArray(LocalTime[]::new);
+    }
+}
@@ -1,4 +1,8 @@
 package cycling;
+import java.io.ObjectOutput;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.IOException;
 import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -17,7 +21,10 @@ import java.util.Map;
  * @version 2.0
  */
 public class MountainCheckpoint extends Checkpoint{
-    @SuppressWarnings("unused")
+    /**
+     * The version of the serialised form
+     */
+    private static final long serialVersionUID = -9027949677824122303L;
     /**
      * The average gradient of the climb
      */
@@ -28,7 +35,6 @@ public class MountainCheckpoint extends Checkpoint{
      */
     private double location;
     private CheckpointType type;
-    @SuppressWarnings("unused")
     /**
      * The length of the climb
      */
@@ -63,6 +69,8 @@ public class MountainCheckpoint extends Checkpoint{
      */
     public MountainCheckpoint(double location, CheckpointType type, double gradient, double length, int id) {
         super(location, id);
+        this.id = id;
+        this.location = location;
         this.type = type;
         this.gradient = gradient;
         this.length = length;
@@ -77,6 +85,20 @@ public class MountainCheckpoint extends Checkpoint{
     public CheckpointType getType() {
         return this.type;
     }
+    /**
+     * Gets the average gradient of a climb
+     * @return The average gradient of this climb as a percentage
+     */
+    public double getGradient() {
+        return this.gradient;
+    }
+    /**
+     * Gets the length of a climb
+     * @return The length (in km) of this climb, ending at this checkpoint
+     */
+    public double getLength() {
+        return this.length;
+    }
     @Override
     public void addResult(int riderId, LocalTime time) {
         riderTimes.put(time, riderId);
@@ -133,4 +155,80 @@ public class MountainCheckpoint extends Checkpoint{
         }
         return points;
     }
+    @Override
+    public int[] getPointsTable() {
+        switch(this.type) {
+            case C4:
+                return CATFOURPOINTS.clone();
+            case C3:
+                return CATTHREEPOINTS.clone();
+            case C2:
+                return CATTWOPOINTS.clone();
+            case C1:
+                return CATONEPOINTS.clone();
+            case HC:
+                return CATHORSPOINTS.clone();
+            default:
+                return new int[] {};
+        }
+    }
+    /**
+     * Reads a checkpoint saved in the default serialised form by the baseline build
+     * @param in The stream read from
+     * @throws IOException If the stream cannot be read
+     * @throws ClassNotFoundException If the class of a field cannot be found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        //The baseline build only set the id and location held by Checkpoint
+        if(id == 0) {
+            id = getBaseId();
+            location = getLocation();
+        }
+    }
+    @Override
+    MountainCheckpoint copy() {
+        MountainCheckpoint checkpoint = new MountainCheckpoint(location, type, gradient, length, id);
+        checkpoint.riderTimes = riderTimes == null ? null : new HashMap<LocalTime, Integer>(riderTimes);
+        checkpoint.sortedTimes = sortedTimes == null ? null : new ArrayList<LocalTime>(sortedTimes);
+        return checkpoint;
+    }
+    /**
+     * Replaces a checkpoint with a {@link SerializationProxy} when it is serialised
+     * @return The proxy written in place of this checkpoint
+     */
+    private Object writeReplace() {
+        return new SerializationProxy(SerializationProxy.MOUNTAIN_CHECKPOINT, this);
+    }
+    /**
+     * Writes the fields of a checkpoint for its {@link SerializationProxy}
+     * @param out The stream written to
+     * @throws IOException If the stream cannot be written
+     */
+    void writeExternal(ObjectOutput out) throws IOException {
+        out.writeInt(id);
+        out.writeDouble(location);
+        out.writeByte(type.ordinal());
+        out.writeDouble(gradient);
+        out.writeDouble(length);
+        ExternalFormat.writeMap(out, riderTimes, ExternalFormat.TIME, ExternalFormat.INT);
+        ExternalFormat.writeList(out, sortedTimes, ExternalFormat.TIME);
+    }
+    /**
+     * Rebuilds a checkpoint written by {@link #writeExternal(ObjectOutput)}
+     * @param in The stream read from
+     * @return The rebuilt checkpoint
+     * @throws IOException If the stream cannot be read
+     * @throws ClassNotFoundException Never, times are read as primitives
+     */
+    static MountainCheckpoint readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        int id = in.readInt();
+        double location = in.readDouble();
+        CheckpointType type = CheckpointType.values()[in.readByte()];
+        double gradient = in.readDouble();
+        MountainCheckpoint checkpoint = new MountainCheckpoint(location, type, gradient, in.readDouble(), id);
+        checkpoint.riderTimes = ExternalFormat.readMap(in, ExternalFormat.READ_TIME, ExternalFormat.READ_INT);
+        checkpoint.sortedTimes = ExternalFormat.readList(in, ExternalFormat.READ_TIME);
+        return checkpoint;
+    }
 }
@@ -0,0 +1,307 @@
+package cycling;
+import java.time.Duration;
+import java.time.LocalTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * PassageReorderBuffer sits in front of the live passages of a
+ * stage. Transponder reads arrive out of order and sometimes more
+ * than once, so reads are buffered, duplicates within a window are
+ * dropped and passages are committed to the portal in event time
+ * order once the watermark has passed them. A later read of a
+ * passage outside the duplicate window is a correction and only
+ * moves that rider in the rankings of the stage
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+public class PassageReorderBuffer {
+    /**
+     * A transponder read waiting in the buffer
+     */
+    private static class BufferedPassage {
+        /**
+         * The unique id of the rider
+         */
+        private final int riderId;
+        /**
+         * The column passed, 0 for the start and n+1 for the finish
+         */
+        private final int column;
+        /**
+         * The time the passage happened
+         */
+        private final LocalTime eventTime;
+        /**
+         * The order the read arrived in, used to break ties
+         */
+        private final long sequence;
+
+        /**
+         * Creates a new buffered passage
+         * @param riderId The unique id of the rider
+         * @param column The column passed
+         * @param eventTime The time the passage happened
+         * @param sequence The order the read arrived in
+         */
+        private BufferedPassage(int riderId, int column, LocalTime eventTime, long sequence) {
+            this.riderId = riderId;
+            this.column = column;
+            this.eventTime = eventTime;
+            this.sequence = sequence;
+        }
+        /**
+         * Gets the key identifying the passage of a rider through a column
+         * @return The key of this passage
+         */
+        private long getKey() {
+            return ((long) riderId << 32) | column;
+        }
+    }
+    /**
+     * The portal passages are committed to
+     */
+    private final CyclingPortalImpl portal;
+    /**
+     * The unique id of the stage being buffered
+     */
+    private final int stageId;
+    /**
+     * The column of the finish line of the stage
+     */
+    private final int finishColumn;
+    /**
+     * Reads of the same passage closer together than this are duplicates
+     */
+    private final Duration duplicateWindow;
+    /**
+     * How far behind the latest event the watermark trails
+     */
+    private final Duration allowedLateness;
+    /**
+     * The passages waiting for the watermark, earliest event first
+     */
+    private final PriorityQueue<BufferedPassage> pending;
+    /**
+     * A map with passage keys as keys and the latest read accepted for them as values
+     */
+    private final Map<Long, BufferedPassage> latestReads;
+    /**
+     * A map with passage keys as keys and the time committed to the portal as values
+     */
+    private final Map<Long, LocalTime> committed;
+    /**
+     * The latest event time seen so far
+     */
+    private LocalTime maxEventTime;
+    /**
+     * Passages at or before the watermark are committed
+     */
+    private LocalTime watermark;
+    /**
+     * The number of reads received
+     */
+    private long sequence;
+    /**
+     * The number of reads dropped as duplicates
+     */
+    private long duplicatesDropped;
+    /**
+     * The number of reads arriving after the watermark had passed them
+     */
+    private long lateReads;
+    /**
+     * The number of passages committed as new
+     */
+    private long committedPassages;
+    /**
+     * The number of committed passages corrected
+     */
+    private long corrections;
+    /**
+     * The number of passages the portal rejected
+     */
+    private long rejected;
+    /**
+     * The last exception thrown by the portal for a rejected passage
+     */
+    private Exception lastRejection;
+
+    /**
+     * Creates an empty buffer in front of a stage
+     * @param portal The portal passages are committed to
+     * @param stageId The ID of the stage being buffered
+     * @param duplicateWindow Reads of the same passage closer together than this are dropped
+     * @param allowedLateness How long to wait for out of order reads before committing
+     * @throws IDNotRecognisedException If the ID does not match to any stage in the system
+     */
+    public PassageReorderBuffer(CyclingPortalImpl portal, int stageId, Duration duplicateWindow, Duration allowedLateness)
+    throws IDNotRecognisedException {
+        this.portal = portal;
+        this.stageId = stageId;
+        this.finishColumn = portal.getStageCheckpoints(stageId).length + 1;
+        this.duplicateWindow = duplicateWindow;
+        this.allowedLateness = allowedLateness;
+        this.pending = new PriorityQueue<BufferedPassage>((a, b) -> {
+            int compare = a.eventTime.compareTo(b.eventTime);
+            return compare != 0 ? compare : Long.compare(a.sequence, b.sequence);
+        });
+        this.latestReads = new HashMap<Long, BufferedPassage>();
+        this.committed = new HashMap<Long, LocalTime>();
+    }
+    /**
+     * Offers a read of a rider crossing the start line
+     * @param riderId The ID of the rider
+     * @param eventTime The time the rider started
+     */
+    public synchronized void offerStart(int riderId, LocalTime eventTime) {
+        offer(riderId, 0, eventTime);
+    }
+    /**
+     * Offers a read of a rider passing a checkpoint
+     * @param riderId The ID of the rider
+     * @param checkpointId The ID of the checkpoint passed
+     * @param eventTime The time the rider passed the checkpoint
+     * @throws IDNotRecognisedException If the ID does not match to any checkpoint in the system
+     */
+    public synchronized void offerPassage(int riderId, int checkpointId, LocalTime eventTime) throws IDNotRecognisedException {
+        offer(riderId, portal.getCheckpointColumn(checkpointId), eventTime);
+    }
+    /**
+     * Offers a read of a rider crossing the finish line
+     * @param riderId The ID of the rider
+     * @param eventTime The time the rider finished
+     */
+    public synchronized void offerFinish(int riderId, LocalTime eventTime) {
+        offer(riderId, finishColumn, eventTime);
+    }
+    /**
+     * Buffers a read, advances the watermark and commits every
+     * passage the watermark has passed
+     * @param riderId The unique id of the rider
+     * @param column The column passed
+     * @param eventTime The time the passage happened
+     */
+    private void offer(int riderId, int column, LocalTime eventTime) {
+        BufferedPassage passage = new BufferedPassage(riderId, column, eventTime, sequence++);
+        BufferedPassage previous = latestReads.get(passage.getKey());
+        if(previous != null && Duration.between(previous.eventTime, eventTime).abs().compareTo(duplicateWindow) < 0) {
+            duplicatesDropped++;
+            return;
+        }
+        latestReads.put(passage.getKey(), passage);
+        if(watermark != null && !eventTime.isAfter(watermark)) {
+            //The watermark has already passed this read so there is nothing left to order it against
+            lateReads++;
+            commit(passage);
+            return;
+        }
+        pending.add(passage);
+        if(maxEventTime == null || eventTime.isAfter(maxEventTime)) {
+            maxEventTime = eventTime;
+            LocalTime candidate = maxEventTime.minus(allowedLateness);
+            //The watermark only moves forward, and cannot wrap past midnight
+            if(candidate.isBefore(maxEventTime) && (watermark == null || candidate.isAfter(watermark))) {
+                watermark = candidate;
+            }
+        }
+        while(!pending.isEmpty() && watermark != null && !pending.peek().eventTime.isAfter(watermark)) {
+            commit(pending.poll());
+        }
+    }
+    /**
+     * Commits every buffered passage regardless of the watermark,
+     * used once no more reads are expected
+     */
+    public synchronized void flush() {
+        while(!pending.isEmpty()) {
+            commit(pending.poll());
+        }
+        watermark = maxEventTime;
+    }
+    /**
+     * Commits a passage to the portal, as a correction if the
+     * passage was committed before
+     * @param passage The passage being committed
+     */
+    private void commit(BufferedPassage passage) {
+        //A newer read of the same passage supersedes this one
+        if(latestReads.get(passage.getKey()) != passage) {
+            return;
+        }
+        LocalTime previous = committed.get(passage.getKey());
+        try {
+            if(previous == null) {
+                portal.correctRiderPassageInStage(stageId, passage.riderId, passage.column, passage.eventTime);
+                committedPassages++;
+            } else if(!previous.equals(passage.eventTime)) {
+                portal.correctRiderPassageInStage(stageId, passage.riderId, passage.column, passage.eventTime);
+                corrections++;
+            }
+            committed.put(passage.getKey(), passage.eventTime);
+        } catch(Exception e) {
+            rejected++;
+            lastRejection = e;
+        }
+    }
+    /**
+     * Gets the current watermark of a buffer
+     * @return The time up to which passages have been committed, or null before any read
+     */
+    public synchronized LocalTime getWatermark() {
+        return this.watermark;
+    }
+    /**
+     * Gets the number of passages waiting for the watermark
+     * @return The number of buffered passages
+     */
+    public synchronized int getBufferedCount() {
+        return this.pending.size();
+    }
+    /**
+     * Gets the number of reads dropped as duplicates
+     * @return The number of duplicate reads
+     */
+    public synchronized long getDuplicatesDropped() {
+        return this.duplicatesDropped;
+    }
+    /**
+     * Gets the number of reads which arrived after the watermark had passed them
+     * @return The number of late reads
+     */
+    public synchronized long getLateReads() {
+        return this.lateReads;
+    }
+    /**
+     * Gets the number of passages committed as new
+     * @return The number of committed passages
+     */
+    public synchronized long getCommittedPassages() {
+        return this.committedPassages;
+    }
+    /**
+     * Gets the number of committed passages which were corrected
+     * @return The number of corrections
+     */
+    public synchronized long getCorrections() {
+        return this.corrections;
+    }
+    /**
+     * Gets the number of passages the portal rejected
+     * @return The number of rejected passages
+     */
+    public synchronized long getRejected() {
+        return this.rejected;
+    }
+    /**
+     * Gets the exception the portal threw for the last rejected passage
+     * @return The last rejection, or null if no passage has been rejected
+     */
+    public synchronized Exception getLastRejection() {
+        return this.lastRejection;
+    }
+}
@@ -1,10 +1,13 @@
 package cycling;
+import java.io.ObjectOutput;
+import java.io.ObjectInput;
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
-import java.time.LocalTime;
+import java.util.concurrent.atomic.AtomicReference;
 import java.io.Serializable;
 /**
  * Race stores information regarding a race
@@ -16,6 +19,10 @@ import java.io.Serializable;
  *
  */
 public class Race implements Serializable{
+    /**
+     * The version of the serialised form
+     */
+    private static final long serialVersionUID = 5313887290325068031L;
     /**
      * The unique id of a race
      */
@@ -41,25 +48,18 @@ public class Race implements Serializable{
      */
     private ArrayList<Integer> orderedStageIds;
     /**
-     * A map with elapsed durations as keys and riderIds as values
+     * The version of a race, increased every time its stages or their results change.
+     * Volatile so readers of the published snapshot see the version it was captured at
      */
-    private Map<LocalTime, Integer> adjustedTimes;
+    private volatile long version;
     /**
-     * A map with riderIds as keys and sprint points as values
+     * The most recently published read-only snapshot of a race
      */
-    private Map<Integer, Integer> sprinterPoints;
+    private transient AtomicReference<RaceSnapshot> snapshot;
     /**
-     * A map with riderIds as keys and mountain points as values
+     * The general classification of a race, rebuilt when the results of a stage change
      */
-    private Map<Integer, Integer> mountainPoints;
-    /**
-     * A map with sprint points as keys and riderIds as values
-     */
-    private Map<Integer, Integer> sprinterClassification;
-    /**
-     * A map with mountain points as keys and mountainPoints as values
-     */
-    private Map<Integer, Integer> mountainClassification;
+    private transient volatile GeneralClassificationIndex generalClassification;
 
     /**
      * Constructs an empty temporary race
@@ -87,11 +87,6 @@ public class Race implements Serializable{
         this.description = description;
         this.id = id;
         this.stages = new HashMap<Integer, Stage>();
-        this.adjustedTimes = new HashMap<LocalTime, Integer>();
-        this.sprinterPoints = new HashMap<Integer, Integer>();
-        this.mountainPoints = new HashMap<Integer, Integer>();
-        this.sprinterClassification = new HashMap<Integer, Integer>();
-        this.mountainClassification = new HashMap<Integer, Integer>();
         this.orderedStageIds = new ArrayList<Integer>();
         this.riders = new ArrayList<Rider>();
     }
@@ -117,91 +112,71 @@ public class Race implements Serializable{
         return this.description;
     }
     /**
-     * Gets the sprinter classification map of a race
-     * @return The sprinter classfication map of this race
-     */
-    public Map<Integer, Integer> getSprinterClassification() {
-        return this.sprinterClassification;
-    }
-    /**
-     * Gets the mountain calssification map of a race
-     * @return The mountain classifcaiton map of this race
+     * Gets the version of a race
+     * @return The version of this race, which changes whenever a stage
+     * is added or removed or one of its stages changes
      */
-    public Map<Integer, Integer> getMountainClassification() {
-        return this.mountainClassification;
+    public long getVersion() {
+        return this.version;
     }
     /**
-     * Adds an adjusted race finish time for a rider
-     * @param time The time they finished in
-     * @param riderId The id of the rider
+     * Increases the version of a race, marking any
+     * published snapshot of it as out of date
      */
-    public void addAdjustedTime(LocalTime time, int riderId) {
-        this.adjustedTimes.put(time, riderId);
+    public void incrementVersion() {
+        this.version++;
     }
     /**
-     * Gets the adjusted times of a race
-     * @return The adjusted times of this race
+     * Gets the reference holding the published snapshot of a race.
+     * A new snapshot is published by swapping the reference once the
+     * race has changed, so readers holding an older snapshot are never
+     * affected
+     * @return The snapshot reference of this race
      */
-    public Map<LocalTime, Integer> getAdjustedTimes() {
-        return this.adjustedTimes;
-    }
-    /**
-     * Gets the mountain points for every rider in a race
-     * @return The mountain points for every rider in this race
-     */
-    public Map<Integer, Integer> getMountainPoints() {
-        //Initalizing each riders points at 0 to avoid null access errors
-        for(int i=0; i<riders.size(); i++) {
-            mountainPoints.put(riders.get(i).getId(), 0);
-            mountainClassification.put(0, riders.get(i).getId());
-        }
-        //Adding the points for each rider for each stage in the race
-        for(int i=0; i<stages.size(); i++) {
-            for(int j=0; j<riders.size(); j++) {
-                mountainPoints.put(riders.get(j).getId(), mountainPoints.get(j)
-                 + stages.get(i).getRiderMountainPoints(riders.get(j).getId()));
-                mountainClassification.put(mountainPoints.get(j), riders.get(j).getId());
-            }
+    public synchronized AtomicReference<RaceSnapshot> getSnapshotReference() {
+        if(this.snapshot == null) {
+            this.snapshot = new AtomicReference<RaceSnapshot>();
         }
-        return this.mountainPoints;
+        return this.snapshot;
     }
     /**
-     * Gets the sprinter points for every rider in a race
-     * @return The sprinter points for every rider in this race
+     * Gets the general classification index of a race, rebuilding it
+     * only if a stage has been added or removed or its results changed.
+     * Concurrent readers share one rebuild
+     * @return The general classification index of this race
      */
-    public Map<Integer, Integer> getSprinterPoints() {
-        //Initalizing each riders points at 0 to avoid null access errors
-        for(int i=0; i<riders.size(); i++) {
-            sprinterPoints.put(riders.get(i).getId(), 0);
-            sprinterClassification.put(0, riders.get(i).getId());
+    public GeneralClassificationIndex getGeneralClassificationIndex() {
+        GeneralClassificationIndex index = getBuiltGeneralClassificationIndex();
+        if(index != null) {
+            return index;
         }
-        //Adding the points for each rider for each stage in the race
-        for(int i=0; i<stages.size(); i++) {
-            for(int j=0; j<riders.size(); j++) {
-                sprinterPoints.put(riders.get(j).getId(), sprinterPoints.get(j)
-                 + stages.get(i).getRiderSprinterPoints(riders.get(j).getId()));
-                sprinterClassification.put(sprinterPoints.get(j), riders.get(j).getId());
+        synchronized(this) {
+            index = getBuiltGeneralClassificationIndex();
+            if(index == null) {
+                index = new GeneralClassificationIndex(this);
+                this.generalClassification = index;
             }
+            return index;
         }
-        return this.sprinterPoints;
     }
     /**
-     * Creates an array of the sprinter points for a race sorted
-     * @return The array of the sprinter points for this race sorted
+     * Gets the general classification index of a race only if it has
+     * already been built and is up to date, without building it
+     * @return The up to date general classification index, or null
      */
-    public ArrayList<Integer> sprinterPointsSorted() {
-        ArrayList<Integer> sortedPoints = new ArrayList<>(this.sprinterPoints.values());
-        Collections.sort(sortedPoints);
-        return sortedPoints;
+    GeneralClassificationIndex getBuiltGeneralClassificationIndex() {
+        GeneralClassificationIndex index = this.generalClassification;
+        if(index == null || !Arrays.equals(index.getStamp(), GeneralClassificationIndex.stampOf(this))) {
+            return null;
+        }
+        return index;
     }
     /**
-     * Creates an array of the mountain points for a race sorted
-     * @return The array of the mountain points for this race sorted
+     * Sets the general classification index of a race, restored from a saved portal
+     * @param index The restored general classification index
      */
-    public ArrayList<Integer> mountainPointsSorted() {
-        ArrayList<Integer> sortedPoints = new ArrayList<>(this.mountainPoints.values());
-        Collections.sort(sortedPoints);
-        return sortedPoints;
+    void setGeneralClassificationIndex(GeneralClassificationIndex index) {
+        this.generalClassification = index;
     }
     /**
      * Creates a new stage with the given parameters.
@@ -235,6 +210,16 @@ public class Race implements Serializable{
     public ArrayList<Integer> getOrderedStageIds() {
         return this.orderedStageIds;
     }
+    /**
+     * Gets the year a race is held in, taken from its first stage
+     * @return The year of the first stage of this race, or -1 if it has no stages
+     */
+    public int getYear() {
+        if(this.orderedStageIds.isEmpty()) {
+            return -1;
+        }
+        return this.stages.get(this.orderedStageIds.get(0)).getStartTime().getYear();
+    }
     /**
      * Gets the riders in a race
      * @return An ArrayList of rider ids of those competing in this race
@@ -311,5 +296,75 @@ public class Race implements Serializable{
             ", length=' " + this.getLength() + "'" +
             "}";
     }
+    /**
+     * Copies a race and its stages, so the copy is unaffected by later changes.
+     * The riders are taken from the copied teams, so they are shared the same way
+     * @param copiedRiders The copied riders, by riderId
+     * @return The copy of this race
+     */
+    Race copy(Map<Integer, Rider> copiedRiders) {
+        Race race = new Race();
+        race.id = id;
+        race.name = name;
+        race.description = description;
+        if(riders != null) {
+            race.riders = new ArrayList<Rider>();
+            for(Rider rider: riders) {
+                race.riders.add(copiedRiders.computeIfAbsent(rider.getId(), riderId -> rider.copy(null)));
+            }
+        }
+        if(stages != null) {
+            race.stages = new HashMap<Integer, Stage>();
+            for(Map.Entry<Integer, Stage> stage: stages.entrySet()) {
+                race.stages.put(stage.getKey(), stage.getValue().copy(race));
+            }
+        }
+        race.orderedStageIds = orderedStageIds == null ? null : new ArrayList<Integer>(orderedStageIds);
+        race.version = version;
+        return race;
+    }
+    /**
+     * Replaces a race with a {@link SerializationProxy} when it is serialised
+     * @return The proxy written in place of this race
+     */
+    private Object writeReplace() {
+        return new SerializationProxy(SerializationProxy.RACE, this);
+    }
+    /**
+     * Writes the fields of a race for its {@link SerializationProxy}
+     * @param out The stream written to
+     * @throws IOException If the stream cannot be written
+     */
+    void writeExternal(ObjectOutput out) throws IOException {
+        out.writeInt(id);
+        out.writeObject(name);
+        out.writeObject(description);
+        ExternalFormat.writeList(out, riders, ExternalFormat.OBJECT);
+        ExternalFormat.writeMap(out, stages, ExternalFormat.INT, ExternalFormat.OBJECT);
+        ExternalFormat.writeList(out, orderedStageIds, ExternalFormat.INT);
+        out.writeLong(version);
+    }
+    /**
+     * Rebuilds a race written by {@link #writeExternal(ObjectOutput)} and links its stages back to it
+     * @param in The stream read from
+     * @return The rebuilt race
+     * @throws IOException If the stream cannot be read
+     * @throws ClassNotFoundException If the class of a stage or rider cannot be found
+     */
+    static Race readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        Race race = new Race();
+        race.id = in.readInt();
+        race.name = (String) in.readObject();
+        race.description = (String) in.readObject();
+        race.riders = ExternalFormat.readList(in, ExternalFormat.objects(Rider.class));
+        race.stages = ExternalFormat.readMap(in, ExternalFormat.READ_INT, ExternalFormat.objects(Stage.class));
+        if(race.stages != null) {
+            for(Stage stage: race.stages.values()) {
+                stage.setRace(race);
+            }
+        }
+        race.orderedStageIds = ExternalFormat.readList(in, ExternalFormat.READ_INT);
+        race.version = in.readLong();
+        return race;
+    }
 }
-
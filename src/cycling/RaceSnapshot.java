@@ -0,0 +1,211 @@
+package cycling;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * RaceSnapshot is an immutable, versioned view of the
+ * classifications of a race. Every query on a snapshot
+ * answers from the same frozen results, so arrays read
+ * from one snapshot always agree with each other
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+public final class RaceSnapshot {
+    /**
+     * The unique id of the race this snapshot was taken of
+     */
+    private final int raceId;
+    /**
+     * The version of the race this snapshot was taken at
+     */
+    private final long version;
+    /**
+     * The riderIds ordered by general classification
+     */
+    private final int[] generalClassificationRank;
+    /**
+     * The general classification times ordered by general classification
+     */
+    private final LocalTime[] generalClassificationTimes;
+    /**
+     * The sprint points of each rider ordered by general classification
+     */
+    private final int[] pointsInRace;
+    /**
+     * The mountain points of each rider ordered by general classification
+     */
+    private final int[] mountainPointsInRace;
+    /**
+     * The riderIds ordered by sprint points
+     */
+    private final int[] pointClassificationRank;
+    /**
+     * The riderIds ordered by mountain points
+     */
+    private final int[] mountainPointClassificationRank;
+
+    /**
+     * Creates a new snapshot from already computed classifications
+     * @param raceId The unique id of the race
+     * @param version The version of the race the classifications belong to
+     * @param generalClassificationRank The riderIds ordered by general classification
+     * @param generalClassificationTimes The times ordered by general classification
+     * @param pointsInRace The sprint points ordered by general classification
+     * @param mountainPointsInRace The mountain points ordered by general classification
+     * @param pointClassificationRank The riderIds ordered by sprint points
+     * @param mountainPointClassificationRank The riderIds ordered by mountain points
+     */
+    private RaceSnapshot(int raceId, long version, int[] generalClassificationRank, LocalTime[] generalClassificationTimes,
+    int[] pointsInRace, int[] mountainPointsInRace, int[] pointClassificationRank, int[] mountainPointClassificationRank) {
+        this.raceId = raceId;
+        this.version = version;
+        this.generalClassificationRank = generalClassificationRank;
+        this.generalClassificationTimes = generalClassificationTimes;
+        this.pointsInRace = pointsInRace;
+        this.mountainPointsInRace = mountainPointsInRace;
+        this.pointClassificationRank = pointClassificationRank;
+        this.mountainPointClassificationRank = mountainPointClassificationRank;
+    }
+    /**
+     * Captures the current classifications of a race. The caller must
+     * make sure the race is not written to while it is being captured
+     * @param race The race being captured
+     * @return A new snapshot of the race at its current version
+     */
+    public static RaceSnapshot capture(Race race) {
+        long version = race.getVersion();
+        Map<Integer, Integer> sprinterPoints = new HashMap<Integer, Integer>();
+        Map<Integer, Integer> mountainPoints = new HashMap<Integer, Integer>();
+        //Summing the points of every rider over each stage with results
+        for(int stageId: race.getOrderedStageIds()) {
+            Stage stage = race.getStages().get(stageId);
+            if(stage.getRiderPositions().size() < 1) {
+                continue;
+            }
+            for(Map.Entry<Integer, Integer> entry: stage.getSprinterPoints().entrySet()) {
+                sprinterPoints.merge(entry.getKey(), entry.getValue(), Integer::sum);
+            }
+            for(Map.Entry<Integer, Integer> entry: stage.getMountainPoints().entrySet()) {
+                mountainPoints.merge(entry.getKey(), entry.getValue(), Integer::sum);
+            }
+        }
+        GeneralClassificationIndex index = race.getGeneralClassificationIndex();
+        int[] generalClassificationRank = index.getRank();
+        LocalTime[] generalClassificationTimes = index.getTimes();
+        ArrayList<Integer> riders = new ArrayList<Integer>();
+        for(int riderId: generalClassificationRank) {
+            riders.add(riderId);
+        }
+        int[] pointsInRace = new int[riders.size()];
+        int[] mountainPointsInRace = new int[riders.size()];
+        Map<Integer, Integer> generalPositions = new HashMap<Integer, Integer>();
+        for(int i=0; i<riders.size(); i++) {
+            int riderId = riders.get(i);
+            pointsInRace[i] = sprinterPoints.getOrDefault(riderId, 0);
+            mountainPointsInRace[i] = mountainPoints.getOrDefault(riderId, 0);
+            generalPositions.put(riderId, i);
+        }
+        return new RaceSnapshot(race.getId(), version, generalClassificationRank, generalClassificationTimes,
+        pointsInRace, mountainPointsInRace, rankByPoints(riders, sprinterPoints, generalPositions),
+        rankByPoints(riders, mountainPoints, generalPositions));
+    }
+    /**
+     * Ranks riders descending by their points, riders with
+     * equal points keep their general classification order
+     * @param riders The riderIds being ranked
+     * @param points A map with riderIds as keys and points as values
+     * @param generalPositions A map with riderIds as keys and general classification positions as values
+     * @return The ranked riderIds
+     */
+    private static int[] rankByPoints(ArrayList<Integer> riders, Map<Integer, Integer> points, Map<Integer, Integer> generalPositions) {
+        ArrayList<Integer> ranked = new ArrayList<Integer>(riders);
+        ranked.sort((a, b) -> {
+            int compare = Integer.compare(points.getOrDefault(b, 0), points.getOrDefault(a, 0));
+            return compare != 0 ? compare : Integer.compare(generalPositions.get(a), generalPositions.get(b));
+        });
+        return ranked.stream().mapToInt(Integer::intValue).toArray();
+    }
+    /**
+     * Gets the id of the race a snapshot was taken of
+     * @return The unique id of the race
+     */
+    public int getRaceId() {
+        return this.raceId;
+    }
+    /**
+     * Gets the version of the race a snapshot was taken at
+     * @return The version of the race
+     */
+    public long getVersion() {
+        return this.version;
+    }
+    /**
+     * Get the general classification rank of riders in the race.
+     * @return A ranked list of riders' IDs sorted ascending by the sum of their
+     *         adjusted elapsed times in all stages of the race. An empty list if
+     *         there is no result for any stage in the race.
+     */
+    public int[] getRidersGeneralClassificationRank() {
+        return generalClassificationRank.clone();
+    }
+    /**
+     * Get the general classification times of riders in the race.
+     * @return A list of riders' times sorted by the sum of their adjusted elapsed
+     *         times in all stages of the race, matching
+     *         {@link #getRidersGeneralClassificationRank()}.
+     */
+    public LocalTime[] getGeneralClassificationTimesInRace() {
+        return generalClassificationTimes.clone();
+    }
+    /**
+     * Get the overall points of riders in the race.
+     * @return An array of riders' points sorted by the total adjusted elapsed
+     *         time, matching {@link #getRidersGeneralClassificationRank()}.
+     */
+    public int[] getRidersPointsInRace() {
+        return pointsInRace.clone();
+    }
+    /**
+     * Get the overall mountain points of riders in the race.
+     * @return An array of riders' mountain points sorted by the total adjusted
+     *         elapsed time, matching {@link #getRidersGeneralClassificationRank()}.
+     */
+    public int[] getRidersMountainPointsInRace() {
+        return mountainPointsInRace.clone();
+    }
+    /**
+     * Get the ranked list of riders based on the points classification in the race.
+     * @return A ranked list of riders' IDs sorted descending by the sum of their
+     *         points in all stages of the race.
+     */
+    public int[] getRidersPointClassificationRank() {
+        return pointClassificationRank.clone();
+    }
+    /**
+     * Get the ranked list of riders based on the mountain classification in the race.
+     * @return A ranked list of riders' IDs sorted descending by the sum of their
+     *         mountain points in all stages of the race.
+     */
+    public int[] getRidersMountainPointClassificationRank() {
+        return mountainPointClassificationRank.clone();
+    }
+    /**
+     * Writes a formatted string containing information about a snapshot
+     * @return A formatted string containing the race id, version
+     * and general classification of this snapshot
+     */
+    @Override
+    public String toString() {
+        return "{" +
+            "raceId='" + this.raceId + "'" +
+            ", version='" + this.version + "'" +
+            ", generalClassification='" + Arrays.toString(this.generalClassificationRank) + "'" +
+            "}";
+    }
+}
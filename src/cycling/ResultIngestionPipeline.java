@@ -0,0 +1,389 @@
+package cycling;
+import java.time.LocalTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ResultIngestionPipeline is an asynchronous front-end for
+ * registering results in a CyclingPortalImpl. Producers on any
+ * thread claim a slot in a pre-allocated ring buffer without
+ * locking, and a single writer thread applies the queued
+ * commands to the portal in batches before publishing new
+ * race snapshots and completing the producers' futures.
+ * Threads reading while results are ingested should use
+ * {@link CyclingPortalImpl#snapshot(int)}, which only reads the
+ * snapshot the writer thread last published. While a pipeline
+ * is running it must be the only writer of results to its portal.
+ * If the writer thread fails the pipeline stops, and every queued
+ * or later submission is completed exceptionally
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+public class ResultIngestionPipeline implements AutoCloseable {
+    /**
+     * A pre-allocated slot of the ring buffer holding one queued command
+     */
+    private static class ResultCommand {
+        /**
+         * Whether this command deletes results instead of registering them
+         */
+        private boolean deletion;
+        /**
+         * The unique id of the stage the command refers to
+         */
+        private int stageId;
+        /**
+         * The unique id of the rider the command refers to
+         */
+        private int riderId;
+        /**
+         * The times being registered, null for deletions
+         */
+        private LocalTime[] times;
+        /**
+         * The future completed once this command has been applied
+         */
+        private CompletableFuture<Void> future;
+    }
+    /**
+     * The portal results are applied to
+     */
+    private final CyclingPortalImpl portal;
+    /**
+     * The pre-allocated slots of the ring buffer
+     */
+    private final ResultCommand[] buffer;
+    /**
+     * The sequence each slot was last published with, used as the sequence barrier
+     */
+    private final AtomicLongArray published;
+    /**
+     * A mask turning sequences into slot indexes, the capacity is a power of two
+     */
+    private final int mask;
+    /**
+     * The largest number of commands applied before publishing snapshots
+     */
+    private final int maxBatchSize;
+    /**
+     * The next sequence to be claimed by a producer
+     */
+    private final AtomicLong cursor;
+    /**
+     * The number of sequences applied by the writer thread
+     */
+    private final AtomicLong consumed;
+    /**
+     * The number of producers currently publishing a command
+     */
+    private final AtomicInteger activeProducers;
+    /**
+     * The total number of commands applied
+     */
+    private final AtomicLong appliedCommands;
+    /**
+     * The total time in nanoseconds spent applying batches
+     */
+    private final AtomicLong totalApplyNanos;
+    /**
+     * The longest time in nanoseconds spent applying a single batch
+     */
+    private final AtomicLong maxApplyNanos;
+    /**
+     * The thread applying commands to the portal
+     */
+    private final Thread writer;
+    /**
+     * Whether the pipeline has been asked to stop
+     */
+    private volatile boolean closed;
+    /**
+     * The failure which stopped the writer thread, null while it is running normally
+     */
+    private volatile IllegalStateException failure;
+
+    /**
+     * Creates a new pipeline in front of a portal and starts its writer thread
+     * @param portal The portal results are applied to
+     * @param capacity The number of slots in the ring buffer, rounded up to a power of two
+     * @param maxBatchSize The largest number of commands applied in one batch
+     * @throws IllegalArgumentException If the capacity or batch size is less than 1
+     */
+    public ResultIngestionPipeline(CyclingPortalImpl portal, int capacity, int maxBatchSize) {
+        if(capacity < 1 || maxBatchSize < 1) {
+            throw new IllegalArgumentException("You have entered an invalid pipeline size, ensure the capacity and batch size are at least 1.");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if(size < capacity) {
+            size = size << 1;
+        }
+        this.portal = portal;
+        this.buffer = new ResultCommand[size];
+        this.published = new AtomicLongArray(size);
+        for(int i=0; i<size; i++) {
+            this.buffer[i] = new ResultCommand();
+            this.published.set(i, -1);
+        }
+        this.mask = size - 1;
+        this.maxBatchSize = maxBatchSize;
+        this.cursor = new AtomicLong();
+        this.consumed = new AtomicLong();
+        this.activeProducers = new AtomicInteger();
+        this.appliedCommands = new AtomicLong();
+        this.totalApplyNanos = new AtomicLong();
+        this.maxApplyNanos = new AtomicLong();
+        this.writer = new Thread(this::runWriter, "result-ingestion-writer");
+        this.writer.setDaemon(true);
+        portal.attachSnapshotPublisher();
+        this.writer.start();
+    }
+    /**
+     * Queues the times of a rider in a stage to be registered, as
+     * {@link CyclingPortalImpl#registerRiderResultsInStage(int, int, LocalTime...)} would
+     * @param stageId The ID of the stage the result refers to
+     * @param riderId The ID of the rider
+     * @param checkpoints The times of the rider including the start and finish time
+     * @return A future completed once the result is registered, or completed
+     * exceptionally with the exception the portal threw
+     */
+    public CompletableFuture<Void> submitResults(int stageId, int riderId, LocalTime... checkpoints) {
+        return publish(false, stageId, riderId, checkpoints.clone());
+    }
+    /**
+     * Queues the results of a rider in a stage to be deleted, as
+     * {@link CyclingPortalImpl#deleteRiderResultsInStage(int, int)} would
+     * @param stageId The ID of the stage the result refers to
+     * @param riderId The ID of the rider
+     * @return A future completed once the result is deleted, or completed
+     * exceptionally with the exception the portal threw
+     */
+    public CompletableFuture<Void> submitDeletion(int stageId, int riderId) {
+        return publish(true, stageId, riderId, null);
+    }
+    /**
+     * Claims the next slot of the ring buffer, fills it and makes it
+     * visible to the writer thread
+     * @param deletion Whether the command deletes results
+     * @param stageId The unique id of the stage
+     * @param riderId The unique id of the rider
+     * @param times The times being registered
+     * @return The future of the queued command
+     */
+    private CompletableFuture<Void> publish(boolean deletion, int stageId, int riderId, LocalTime[] times) {
+        //Registering as a producer before checking for close so the writer cannot stop underneath us
+        activeProducers.incrementAndGet();
+        try {
+            if(closed) {
+                throw new IllegalStateException("You cannot submit results to a pipeline that has been closed.");
+            }
+            if(failure != null) {
+                return CompletableFuture.failedFuture(failure);
+            }
+            long sequence = cursor.getAndIncrement();
+            //Waiting for the writer to free the slot when the buffer has wrapped around
+            while(sequence - buffer.length >= consumed.get()) {
+                if(failure != null) {
+                    return CompletableFuture.failedFuture(failure);
+                }
+                Thread.onSpinWait();
+            }
+            ResultCommand command = buffer[(int) sequence & mask];
+            CompletableFuture<Void> future = new CompletableFuture<Void>();
+            command.deletion = deletion;
+            command.stageId = stageId;
+            command.riderId = riderId;
+            command.times = times;
+            command.future = future;
+            published.set((int) sequence & mask, sequence);
+            //The writer may have failed and drained the queue before this command was published
+            IllegalStateException stopped = failure;
+            if(stopped != null) {
+                future.completeExceptionally(stopped);
+            }
+            return future;
+        } finally {
+            activeProducers.decrementAndGet();
+        }
+    }
+    /**
+     * Applies published commands to the portal in batches until
+     * the pipeline is closed and fully drained, or until applying
+     * a batch fails
+     */
+    private void runWriter() {
+        try {
+            applyCommands();
+        } catch(Throwable e) {
+            stop(e);
+        } finally {
+            portal.detachSnapshotPublisher();
+        }
+    }
+    /**
+     * Applies published commands to the portal in batches until
+     * the pipeline is closed and fully drained, or has failed
+     */
+    private void applyCommands() {
+        int idle = 0;
+        while(failure == null && (!closed || activeProducers.get() > 0 || consumed.get() < cursor.get())) {
+            long next = consumed.get();
+            int batch = 0;
+            while(batch < maxBatchSize && published.get((int) (next + batch) & mask) == next + batch) {
+                batch++;
+            }
+            if(batch == 0) {
+                //Spinning briefly before parking so bursts are picked up quickly
+                if(++idle < 100) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(50000);
+                }
+                continue;
+            }
+            idle = 0;
+            applyBatch(next, batch);
+        }
+    }
+    /**
+     * Applies a batch of commands, publishes a snapshot of every race
+     * changed by the batch and then completes the commands' futures
+     * @param first The sequence of the first command in the batch
+     * @param batch The number of commands in the batch
+     */
+    private void applyBatch(long first, int batch) {
+        long start = System.nanoTime();
+        Throwable[] failures = new Throwable[batch];
+        Throwable fatal = null;
+        int applied = 0;
+        try {
+            for(; applied<batch; applied++) {
+                ResultCommand command = buffer[(int) (first + applied) & mask];
+                try {
+                    if(command.deletion) {
+                        portal.deleteRiderResultsInStage(command.stageId, command.riderId);
+                    } else {
+                        portal.registerRiderResultsInStage(command.stageId, command.riderId, command.times);
+                    }
+                } catch(Exception e) {
+                    failures[applied] = e;
+                }
+            }
+        } catch(Throwable e) {
+            //An error leaves the portal in an unknown state, so the rest of the batch is not applied
+            fatal = e;
+        }
+        //The snapshots of the races the batch changed are captured once, on this thread, when it ends
+        try {
+            portal.publishSnapshots();
+        } catch(Throwable e) {
+            fatal = fatal == null ? e : fatal;
+        }
+        if(fatal != null) {
+            failure = new IllegalStateException("The result ingestion pipeline stopped as its writer thread failed.", fatal);
+            for(int i=applied; i<batch; i++) {
+                failures[i] = failure;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        appliedCommands.addAndGet(batch);
+        totalApplyNanos.addAndGet(elapsed);
+        maxApplyNanos.accumulateAndGet(elapsed, Math::max);
+        //Releasing the slots before completing so producers see an up to date queue depth
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[batch];
+        for(int i=0; i<batch; i++) {
+            ResultCommand command = buffer[(int) (first + i) & mask];
+            futures[i] = command.future;
+            command.times = null;
+            command.future = null;
+        }
+        consumed.set(first + batch);
+        for(int i=0; i<batch; i++) {
+            if(failures[i] == null) {
+                futures[i].complete(null);
+            } else {
+                futures[i].completeExceptionally(failures[i]);
+            }
+        }
+        if(fatal != null) {
+            stop(fatal);
+        }
+    }
+    /**
+     * Marks the pipeline as failed once the writer thread cannot carry on,
+     * completing every command still queued exceptionally. Producers publishing
+     * after this complete their own command, see {@link #publish}
+     * @param cause The failure which stopped the writer thread
+     */
+    private void stop(Throwable cause) {
+        if(failure == null) {
+            failure = new IllegalStateException("The result ingestion pipeline stopped as its writer thread failed.", cause);
+        }
+        for(long next = consumed.get(); next < cursor.get(); next++) {
+            ResultCommand command = buffer[(int) next & mask];
+            if(published.get((int) next & mask) == next) {
+                CompletableFuture<Void> future = command.future;
+                if(future != null) {
+                    future.completeExceptionally(failure);
+                }
+            }
+        }
+    }
+    /**
+     * Gets the failure which stopped the writer thread
+     * @return The failure, whose cause is what the writer thread threw,
+     * or null if the pipeline has not failed
+     */
+    public IllegalStateException getFailure() {
+        return failure;
+    }
+    /**
+     * Gets the number of commands waiting to be applied
+     * @return The current depth of the queue
+     */
+    public long getQueueDepth() {
+        return Math.max(0, cursor.get() - consumed.get());
+    }
+    /**
+     * Gets the number of commands applied so far
+     * @return The number of applied commands
+     */
+    public long getAppliedCommands() {
+        return appliedCommands.get();
+    }
+    /**
+     * Gets the average time spent applying a command, including
+     * publishing the snapshots of its batch
+     * @return The average apply latency in nanoseconds
+     */
+    public long getAverageApplyNanos() {
+        long applied = appliedCommands.get();
+        return applied == 0 ? 0 : totalApplyNanos.get() / applied;
+    }
+    /**
+     * Gets the longest time spent applying a single batch
+     * @return The maximum batch apply latency in nanoseconds
+     */
+    public long getMaxApplyNanos() {
+        return maxApplyNanos.get();
+    }
+    /**
+     * Stops accepting new commands, waits for every queued command
+     * to be applied and stops the writer thread. Returns once the
+     * writer thread has stopped even if it failed
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            writer.join();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,4 +1,7 @@
 package cycling;
+import java.io.ObjectOutput;
+import java.io.ObjectInput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.io.Serializable;
 
@@ -11,6 +14,10 @@ import java.io.Serializable;
  * @version 2.0
  */
 public class Rider implements Serializable{
+    /**
+     * The version of the serialised form
+     */
+    private static final long serialVersionUID = -1751971166078422590L;
     /**
      * The unique id of a rider
      */
@@ -20,7 +27,6 @@ public class Rider implements Serializable{
      * The name of a rider
      */
     private String name;
-    @SuppressWarnings("unused")
     /**
      * The year of birth of a rider
      */
@@ -62,6 +68,13 @@ public class Rider implements Serializable{
     public ArrayList<Integer> getRacesEnrolled() {
         return this.racesEnrolled;
     }
+    /**
+     * Gets the year of birth of a rider
+     * @return The year this rider was born
+     */
+    public int getYearOfBirth() {
+        return this.yearOfBirth;
+    }
     /**
      * Gets the team a rider belongs to
      * @return The team this rider belongs to
@@ -69,4 +82,54 @@ public class Rider implements Serializable{
     public Team getTeam() {
         return this.team;
     }
-}
\ No newline at end of file
+    /**
+     * Links a rider back to the team it belongs to once the team has been loaded
+     * @param team The team this rider belongs to
+     */
+    void setTeam(Team team) {
+        this.team = team;
+    }
+    /**
+     * Copies a rider into the copy of its team
+     * @param team The copy of the team the rider belongs to
+     * @return The copy of this rider
+     */
+    Rider copy(Team team) {
+        Rider rider = new Rider(name, yearOfBirth, id, team);
+        rider.racesEnrolled = racesEnrolled == null ? null : new ArrayList<Integer>(racesEnrolled);
+        return rider;
+    }
+    /**
+     * Replaces a rider with a {@link SerializationProxy} when it is serialised
+     * @return The proxy written in place of this rider
+     */
+    private Object writeReplace() {
+        return new SerializationProxy(SerializationProxy.RIDER, this);
+    }
+    /**
+     * Writes the fields of a rider for its {@link SerializationProxy}. The team is
+     * not written, it links its riders back when it is read
+     * @param out The stream written to
+     * @throws IOException If the stream cannot be written
+     */
+    void writeExternal(ObjectOutput out) throws IOException {
+        out.writeInt(id);
+        out.writeObject(name);
+        out.writeInt(yearOfBirth);
+        ExternalFormat.writeList(out, racesEnrolled, ExternalFormat.INT);
+    }
+    /**
+     * Rebuilds a rider written by {@link #writeExternal(ObjectOutput)}
+     * @param in The stream read from
+     * @return The rebuilt rider, not yet linked to its team
+     * @throws IOException If the stream cannot be read
+     * @throws ClassNotFoundException If the class of the name cannot be found
+     */
+    static Rider readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        int id = in.readInt();
+        String name = (String) in.readObject();
+        Rider rider = new Rider(name, in.readInt(), id, null);
+        rider.racesEnrolled = ExternalFormat.readList(in, ExternalFormat.READ_INT);
+        return rider;
+    }
+}
@@ -0,0 +1,165 @@
+package cycling;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * RiderCareerIndex keeps a posting list for every rider: the
+ * stages across all races they have results in. Which stages a
+ * rider is posted in is updated as results are registered and
+ * removed, while positions, times and points are recalculated
+ * once per stage the first time they are read after the stage's
+ * results change
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+public class RiderCareerIndex {
+    /**
+     * A map with riderIds as keys and maps of stageIds to their postings as values
+     */
+    private final Map<Integer, Map<Integer, CareerPosting>> postings;
+    /**
+     * A map with stageIds as keys and the riderIds posted in the stage as values
+     */
+    private final Map<Integer, Set<Integer>> stageRiders;
+    /**
+     * A map with stageIds as keys and their stage objects as values
+     */
+    private final Map<Integer, Stage> stages;
+    /**
+     * A map with stageIds as keys and the results version their postings were calculated at as values
+     */
+    private final Map<Integer, Long> stageVersions;
+
+    /**
+     * Builds the index from the results of every stage of every race
+     * @param races The races in CyclingPortalImpl
+     */
+    public RiderCareerIndex(Map<Integer, Race> races) {
+        this.postings = new HashMap<Integer, Map<Integer, CareerPosting>>();
+        this.stageRiders = new HashMap<Integer, Set<Integer>>();
+        this.stages = new HashMap<Integer, Stage>();
+        this.stageVersions = new HashMap<Integer, Long>();
+        for(Race race: races.values()) {
+            for(Stage stage: race.getStages().values()) {
+                for(int riderId: stage.getRiderPositions()) {
+                    addPosting(riderId, stage);
+                }
+            }
+        }
+    }
+    /**
+     * Posts a rider in a stage after their results are registered
+     * @param riderId The unique id of the rider
+     * @param stage The stage the rider has results in
+     */
+    public final void addPosting(int riderId, Stage stage) {
+        postings.computeIfAbsent(riderId, id -> new HashMap<Integer, CareerPosting>()).put(stage.getId(), null);
+        stageRiders.computeIfAbsent(stage.getId(), id -> new HashSet<Integer>()).add(riderId);
+        stages.put(stage.getId(), stage);
+        //Every posting of the stage may have moved so the stage is recalculated when next read
+        stageVersions.remove(stage.getId());
+    }
+    /**
+     * Removes the posting of a rider in a stage after their results are deleted
+     * @param riderId The unique id of the rider
+     * @param stageId The unique id of the stage
+     */
+    public void removePosting(int riderId, int stageId) {
+        Map<Integer, CareerPosting> riderPostings = postings.get(riderId);
+        if(riderPostings == null || !riderPostings.containsKey(stageId)) {
+            return;
+        }
+        riderPostings.remove(stageId);
+        if(riderPostings.isEmpty()) {
+            postings.remove(riderId);
+        }
+        Set<Integer> riders = stageRiders.get(stageId);
+        riders.remove(riderId);
+        if(riders.isEmpty()) {
+            stageRiders.remove(stageId);
+            stages.remove(stageId);
+        }
+        stageVersions.remove(stageId);
+    }
+    /**
+     * Removes every posting of a rider
+     * @param riderId The unique id of the rider
+     */
+    public void removeRider(int riderId) {
+        Map<Integer, CareerPosting> riderPostings = postings.get(riderId);
+        if(riderPostings == null) {
+            return;
+        }
+        for(int stageId: new ArrayList<Integer>(riderPostings.keySet())) {
+            removePosting(riderId, stageId);
+        }
+    }
+    /**
+     * Removes every posting in a stage after the stage is removed
+     * @param stageId The unique id of the stage
+     */
+    public void removeStage(int stageId) {
+        Set<Integer> riders = stageRiders.get(stageId);
+        if(riders == null) {
+            return;
+        }
+        for(int riderId: new ArrayList<Integer>(riders)) {
+            removePosting(riderId, stageId);
+        }
+    }
+    /**
+     * Recalculates the postings of every rider in a stage
+     * @param stage The stage being recalculated
+     */
+    private void refreshStage(Stage stage) {
+        ArrayList<Integer> positions = stage.getRiderPositions();
+        Map<Integer, LocalTime> adjustedTimes = stage.getAdjustedTimes();
+        Map<Integer, Integer> sprinterPoints = stage.getSprinterPoints();
+        Map<Integer, Integer> mountainPoints = stage.getMountainPoints();
+        for(int i=0; i<positions.size(); i++) {
+            int riderId = positions.get(i);
+            Map<Integer, CareerPosting> riderPostings = postings.get(riderId);
+            if(riderPostings != null && riderPostings.containsKey(stage.getId())) {
+                riderPostings.put(stage.getId(), new CareerPosting(stage.getRace().getId(), stage.getId(), i+1,
+                adjustedTimes.get(riderId), sprinterPoints.get(riderId), mountainPoints.get(riderId)));
+            }
+        }
+        stageVersions.put(stage.getId(), stage.getVersion());
+    }
+    /**
+     * Gets the career of a rider
+     * @param riderId The unique id of the rider
+     * @return The postings of the rider ordered by the start time of their stages,
+     * empty if the rider has no results
+     */
+    public CareerPosting[] getCareer(int riderId) {
+        Map<Integer, CareerPosting> riderPostings = postings.get(riderId);
+        if(riderPostings == null) {
+            return new CareerPosting[0];
+        }
+        ArrayList<Integer> stageIds = new ArrayList<Integer>(riderPostings.keySet());
+        for(int stageId: stageIds) {
+            Stage stage = stages.get(stageId);
+            Long version = stageVersions.get(stageId);
+            if(version == null || version != stage.getVersion()) {
+                refreshStage(stage);
+            }
+        }
+        stageIds.sort(Comparator.<Integer, LocalDateTime>comparing(id -> stages.get(id).getStartTime())
+        .thenComparing(Comparator.naturalOrder()));
+        CareerPosting[] career = new CareerPosting[stageIds.size()];
+        for(int i=0; i<career.length; i++) {
+            career[i] = riderPostings.get(stageIds.get(i));
+        }
+        return career;
+    }
+}
@@ -0,0 +1,86 @@
+package cycling;
+import java.time.Duration;
+
+/**
+ * SaveReport describes a finished background save of a portal:
+ * how long the in-memory image took to capture, how long the whole
+ * save took and how many bytes were written
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+public final class SaveReport {
+    /**
+     * The location of the file saved
+     */
+    private final String filename;
+    /**
+     * The number of bytes written
+     */
+    private final long bytesWritten;
+    /**
+     * The time spent capturing the image while writers were held back
+     */
+    private final Duration captureDuration;
+    /**
+     * The time from the start of the capture until the file was in place
+     */
+    private final Duration totalDuration;
+
+    /**
+     * Creates a new report
+     * @param filename The location of the file saved
+     * @param bytesWritten The number of bytes written
+     * @param captureDuration The time spent capturing the image
+     * @param totalDuration The time the whole save took
+     */
+    SaveReport(String filename, long bytesWritten, Duration captureDuration, Duration totalDuration) {
+        this.filename = filename;
+        this.bytesWritten = bytesWritten;
+        this.captureDuration = captureDuration;
+        this.totalDuration = totalDuration;
+    }
+    /**
+     * Gets the location of the file saved
+     * @return The location of the file
+     */
+    public String getFilename() {
+        return this.filename;
+    }
+    /**
+     * Gets the size of the file saved
+     * @return The number of bytes written
+     */
+    public long getBytesWritten() {
+        return this.bytesWritten;
+    }
+    /**
+     * Gets the time spent capturing the portal, the only part of the save writers wait for
+     * @return The time spent capturing the image
+     */
+    public Duration getCaptureDuration() {
+        return this.captureDuration;
+    }
+    /**
+     * Gets the time the whole save took
+     * @return The time from the start of the capture until the file was in place
+     */
+    public Duration getTotalDuration() {
+        return this.totalDuration;
+    }
+    /**
+     * Writes a formatted string containing information about a save
+     * @return A formatted string containing the file, size and durations of this save
+     */
+    @Override
+    public String toString() {
+        return "{" +
+            "filename='" + this.filename + "'" +
+            ", bytesWritten='" + this.bytesWritten + "'" +
+            ", captureDuration='" + this.captureDuration + "'" +
+            ", totalDuration='" + this.totalDuration + "'" +
+            "}";
+    }
+}
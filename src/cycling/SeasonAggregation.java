@@ -0,0 +1,121 @@
+package cycling;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * SeasonAggregation totals every rider's results across many races
+ * with fork/join. The races are split in half until one race is
+ * left, each race is totalled on its own worker and the per-rider
+ * maps are merged as the halves are joined. A race's stages are
+ * only ever read by one worker
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+public class SeasonAggregation extends RecursiveTask<Map<Integer, SeasonTotals>> {
+    /**
+     * The version of the serialised form, tasks are never saved but ForkJoinTask is Serializable
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * The races of the season
+     */
+    private final List<Race> races;
+    /**
+     * The index of the first race this task totals
+     */
+    private final int from;
+    /**
+     * The index after the last race this task totals
+     */
+    private final int to;
+
+    /**
+     * Creates a task totalling part of a season
+     * @param races The races of the season
+     * @param from The index of the first race to total
+     * @param to The index after the last race to total
+     */
+    private SeasonAggregation(List<Race> races, int from, int to) {
+        this.races = races;
+        this.from = from;
+        this.to = to;
+    }
+    /**
+     * Totals every rider's results across a season in the common fork/join pool
+     * @param races The races of the season
+     * @return A map with riderIds as keys and their season totals as values
+     */
+    public static Map<Integer, SeasonTotals> aggregate(List<Race> races) {
+        if(races.isEmpty()) {
+            return new HashMap<Integer, SeasonTotals>();
+        }
+        return ForkJoinPool.commonPool().invoke(new SeasonAggregation(new ArrayList<Race>(races), 0, races.size()));
+    }
+    @Override
+    protected Map<Integer, SeasonTotals> compute() {
+        if(to - from == 1) {
+            return totalRace(races.get(from));
+        }
+        int middle = (from + to) >>> 1;
+        SeasonAggregation left = new SeasonAggregation(races, from, middle);
+        left.fork();
+        Map<Integer, SeasonTotals> right = new SeasonAggregation(races, middle, to).compute();
+        Map<Integer, SeasonTotals> joined = left.join();
+        //Merging the smaller map into the larger one
+        if(joined.size() < right.size()) {
+            Map<Integer, SeasonTotals> swap = joined;
+            joined = right;
+            right = swap;
+        }
+        for(SeasonTotals totals: right.values()) {
+            SeasonTotals existing = joined.putIfAbsent(totals.getRiderId(), totals);
+            if(existing != null) {
+                existing.merge(totals);
+            }
+        }
+        return joined;
+    }
+    /**
+     * Totals every rider's results in one race
+     * @param race The race being totalled
+     * @return A map with riderIds as keys and their totals in the race as values
+     */
+    private static Map<Integer, SeasonTotals> totalRace(Race race) {
+        Map<Integer, SeasonTotals> raceTotals = new HashMap<Integer, SeasonTotals>();
+        for(Stage stage: race.getStages().values()) {
+            ArrayList<Integer> positions = stage.getRiderPositions();
+            if(positions.isEmpty()) {
+                continue;
+            }
+            Map<Integer, LocalTime> adjustedTimes = stage.getAdjustedTimes();
+            Map<Integer, Integer> sprinterPoints = stage.getSprinterPoints();
+            Map<Integer, Integer> mountainPoints = stage.getMountainPoints();
+            for(int i=0; i<positions.size(); i++) {
+                int riderId = positions.get(i);
+                raceTotals.computeIfAbsent(riderId, SeasonTotals::new).addStage(i+1,
+                adjustedTimes.get(riderId).toNanoOfDay(), sprinterPoints.get(riderId), mountainPoints.get(riderId));
+            }
+        }
+        //Bonuses and penalties only count for riders with results in the race
+        for(Stage stage: race.getStages().values()) {
+            for(Map.Entry<Integer, Long> entry: stage.getTimeAdjustments().getNetAdjustments().entrySet()) {
+                SeasonTotals totals = raceTotals.get(entry.getKey());
+                if(totals != null) {
+                    totals.addAdjustment(entry.getValue());
+                }
+            }
+        }
+        for(SeasonTotals totals: raceTotals.values()) {
+            totals.addRace();
+        }
+        return raceTotals;
+    }
+}
@@ -0,0 +1,157 @@
+package cycling;
+import java.time.Duration;
+
+/**
+ * SeasonTotals holds one rider's totals across the races of a
+ * season. Totals are accumulated race by race by
+ * {@link SeasonAggregation} and are read only once returned
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+public final class SeasonTotals {
+    /**
+     * The unique id of the rider
+     */
+    private final int riderId;
+    /**
+     * The number of races the rider has results in
+     */
+    private int races;
+    /**
+     * The number of stages the rider has results in
+     */
+    private int stages;
+    /**
+     * The number of stages the rider finished first in
+     */
+    private int stageWins;
+    /**
+     * The sum of the rider's adjusted elapsed times, bonuses and penalties in nanoseconds
+     */
+    private long totalTime;
+    /**
+     * The sprint points the rider won
+     */
+    private int sprinterPoints;
+    /**
+     * The mountain points the rider won
+     */
+    private int mountainPoints;
+
+    /**
+     * Creates empty totals for a rider
+     * @param riderId The unique id of the rider
+     */
+    SeasonTotals(int riderId) {
+        this.riderId = riderId;
+    }
+    /**
+     * Adds a rider's result in one stage
+     * @param position The finishing position of the rider, starting from 1
+     * @param adjustedTime The adjusted elapsed time of the rider in nanoseconds
+     * @param sprinterPoints The sprint points the rider won
+     * @param mountainPoints The mountain points the rider won
+     */
+    void addStage(int position, long adjustedTime, int sprinterPoints, int mountainPoints) {
+        this.stages++;
+        if(position == 1) {
+            this.stageWins++;
+        }
+        this.totalTime += adjustedTime;
+        this.sprinterPoints += sprinterPoints;
+        this.mountainPoints += mountainPoints;
+    }
+    /**
+     * Adds a time bonus or penalty to a rider's total time
+     * @param nanos The net adjustment in nanoseconds
+     */
+    void addAdjustment(long nanos) {
+        this.totalTime += nanos;
+    }
+    /**
+     * Counts one more race the rider has results in
+     */
+    void addRace() {
+        this.races++;
+    }
+    /**
+     * Adds the totals of the same rider from other races
+     * @param other The totals being merged in
+     */
+    void merge(SeasonTotals other) {
+        this.races += other.races;
+        this.stages += other.stages;
+        this.stageWins += other.stageWins;
+        this.totalTime += other.totalTime;
+        this.sprinterPoints += other.sprinterPoints;
+        this.mountainPoints += other.mountainPoints;
+    }
+    /**
+     * Gets the unique id of the rider of these totals
+     * @return The unique id of the rider
+     */
+    public int getRiderId() {
+        return this.riderId;
+    }
+    /**
+     * Gets the number of races a rider has results in
+     * @return The number of races
+     */
+    public int getRaces() {
+        return this.races;
+    }
+    /**
+     * Gets the number of stages a rider has results in
+     * @return The number of stages
+     */
+    public int getStages() {
+        return this.stages;
+    }
+    /**
+     * Gets the number of stages a rider won
+     * @return The number of stages the rider finished first in
+     */
+    public int getStageWins() {
+        return this.stageWins;
+    }
+    /**
+     * Gets the total time of a rider
+     * @return The sum of the rider's adjusted elapsed times, bonuses and penalties
+     */
+    public Duration getTotalTime() {
+        return Duration.ofNanos(this.totalTime);
+    }
+    /**
+     * Gets the total sprint points of a rider
+     * @return The sprint points the rider won
+     */
+    public int getSprinterPoints() {
+        return this.sprinterPoints;
+    }
+    /**
+     * Gets the total mountain points of a rider
+     * @return The mountain points the rider won
+     */
+    public int getMountainPoints() {
+        return this.mountainPoints;
+    }
+    /**
+     * Writes a formatted string containing information about season totals
+     * @return A formatted string containing the rider id and every total
+     */
+    @Override
+    public String toString() {
+        return "{" +
+            "riderId='" + this.riderId + "'" +
+            ", races='" + this.races + "'" +
+            ", stages='" + this.stages + "'" +
+            ", stageWins='" + this.stageWins + "'" +
+            ", totalTime='" + getTotalTime() + "'" +
+            ", sprinterPoints='" + this.sprinterPoints + "'" +
+            ", mountainPoints='" + this.mountainPoints + "'" +
+            "}";
+    }
+}
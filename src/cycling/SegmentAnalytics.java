@@ -0,0 +1,181 @@
+package cycling;
+import java.util.stream.IntStream;
+
+/**
+ * SegmentAnalytics derives performance figures from the geometry
+ * of a stage: the speed of every rider over each segment between
+ * consecutive checkpoints and their VAM (vertical ascent in metres
+ * per hour) on every categorised climb. It is calculated in bulk
+ * over the stage's {@link StageTimeColumns}, optionally with riders
+ * in parallel, and is cached by the stage until its results change
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+public final class SegmentAnalytics {
+    /**
+     * The number of nanoseconds in an hour
+     */
+    private static final double NANOS_PER_HOUR = 3600e9;
+    /**
+     * The version of the stage's results the analytics were calculated from
+     */
+    private final long version;
+    /**
+     * The riderIds of each row, in finishing order
+     */
+    private final int[] riderIds;
+    /**
+     * The kilometre location where each segment ends, the last being the finish
+     */
+    private final double[] segmentEnds;
+    /**
+     * The checkpointIds of each categorised climb ordered by location
+     */
+    private final int[] climbIds;
+    /**
+     * The speed in km/h of each rider over each segment
+     */
+    private final double[][] segmentSpeeds;
+    /**
+     * The VAM in metres per hour of each rider on each climb
+     */
+    private final double[][] climbVam;
+
+    /**
+     * Creates new analytics, use {@link #calculate(Stage, StageTimeColumns, boolean)} instead
+     * @param version The version of the stage's results
+     * @param riderIds The riderIds of each row
+     * @param segmentEnds The location where each segment ends
+     * @param climbIds The checkpointIds of each climb
+     * @param segmentSpeeds The speed of each rider over each segment
+     * @param climbVam The VAM of each rider on each climb
+     */
+    private SegmentAnalytics(long version, int[] riderIds, double[] segmentEnds, int[] climbIds,
+    double[][] segmentSpeeds, double[][] climbVam) {
+        this.version = version;
+        this.riderIds = riderIds;
+        this.segmentEnds = segmentEnds;
+        this.climbIds = climbIds;
+        this.segmentSpeeds = segmentSpeeds;
+        this.climbVam = climbVam;
+    }
+    /**
+     * Calculates the segment speeds and climb VAM of a stage. Only the
+     * summit of a climb is timed, so the time on a climb is taken from
+     * the segment ending at its summit assuming an even pace over it
+     * @param stage The stage being calculated
+     * @param timeColumns The results of the stage laid out as primitive columns
+     * @param parallel Whether riders are calculated in parallel
+     * @return The analytics of every rider with results in the stage
+     */
+    static SegmentAnalytics calculate(Stage stage, StageTimeColumns timeColumns, boolean parallel) {
+        int[] checkpointIds = timeColumns.getCheckpointIds();
+        int segments = timeColumns.getColumnCount();
+        double[] segmentEnds = new double[segments];
+        for(int i=0; i<checkpointIds.length; i++) {
+            segmentEnds[i] = stage.getCheckpoints().get(checkpointIds[i]).getLocation();
+        }
+        segmentEnds[segments-1] = stage.getLength();
+        //Climb geometry is resolved once so the per rider loop only indexes arrays
+        int[] climbColumns = stage.getLayout().getMountainColumns();
+        int[] climbIds = new int[climbColumns.length];
+        double[] ascents = new double[climbColumns.length];
+        double[] climbFractions = new double[climbColumns.length];
+        for(int i=0; i<climbColumns.length; i++) {
+            int segment = climbColumns[i] - 1;
+            MountainCheckpoint climb = (MountainCheckpoint) stage.getCheckpoints().get(checkpointIds[segment]);
+            double segmentLength = segmentEnds[segment] - (segment == 0 ? 0 : segmentEnds[segment-1]);
+            climbIds[i] = climb.getId();
+            ascents[i] = climb.getLength() * 1000 * climb.getGradient() / 100;
+            climbFractions[i] = segmentLength <= 0 ? 1 : Math.min(1, climb.getLength() / segmentLength);
+        }
+        int rows = timeColumns.getRowCount();
+        double[][] segmentSpeeds = new double[rows][segments];
+        double[][] climbVam = new double[rows][climbColumns.length];
+        IntStream riders = IntStream.range(0, rows);
+        if(parallel) {
+            riders = riders.parallel();
+        }
+        //Every rider writes only their own row so no synchronisation is needed
+        riders.forEach(row -> {
+            long previousTime = 0;
+            double previousLocation = 0;
+            for(int segment=0; segment<segments; segment++) {
+                long time = timeColumns.getColumn(segment)[row];
+                double hours = (time - previousTime) / NANOS_PER_HOUR;
+                segmentSpeeds[row][segment] = hours > 0 ? (segmentEnds[segment] - previousLocation) / hours : Double.NaN;
+                previousTime = time;
+                previousLocation = segmentEnds[segment];
+            }
+            for(int i=0; i<climbColumns.length; i++) {
+                int segment = climbColumns[i] - 1;
+                long start = segment == 0 ? 0 : timeColumns.getColumn(segment-1)[row];
+                double hours = (timeColumns.getColumn(segment)[row] - start) / NANOS_PER_HOUR * climbFractions[i];
+                climbVam[row][i] = hours > 0 ? ascents[i] / hours : Double.NaN;
+            }
+        });
+        return new SegmentAnalytics(timeColumns.getVersion(), timeColumns.getRiderIds().clone(), segmentEnds,
+        climbIds, segmentSpeeds, climbVam);
+    }
+    /**
+     * Gets the version of the stage's results the analytics were calculated from
+     * @return The version of the stage when these analytics were calculated
+     */
+    public long getVersion() {
+        return this.version;
+    }
+    /**
+     * Gets the riderIds of each row
+     * @return The riderIds in finishing order
+     */
+    public int[] getRiderIds() {
+        return this.riderIds.clone();
+    }
+    /**
+     * Gets where each segment of a stage ends. The first segment starts
+     * at the start line and each following one at the end of the last
+     * @return The kilometre location of each checkpoint ordered by location,
+     * followed by the length of the stage
+     */
+    public double[] getSegmentEnds() {
+        return this.segmentEnds.clone();
+    }
+    /**
+     * Gets the checkpointIds of every categorised climb
+     * @return The climb checkpointIds ordered by location
+     */
+    public int[] getClimbIds() {
+        return this.climbIds.clone();
+    }
+    /**
+     * Gets the speed of each rider over each segment
+     * @return The speeds in km/h indexed by row then segment, NaN
+     * where a segment took no time
+     */
+    public double[][] getSegmentSpeeds() {
+        return copy(this.segmentSpeeds);
+    }
+    /**
+     * Gets the VAM of each rider on each categorised climb
+     * @return The vertical ascent in metres per hour indexed by row
+     * then climb, NaN where a climb took no time
+     */
+    public double[][] getClimbVam() {
+        return copy(this.climbVam);
+    }
+    /**
+     * Copies a matrix so the cached one cannot be changed
+     * @param matrix The matrix being copied
+     * @return A copy of the matrix
+     */
+    private static double[][] copy(double[][] matrix) {
+        double[][] copy = new double[matrix.length][];
+        for(int i=0; i<matrix.length; i++) {
+            copy[i] = matrix[i].clone();
+        }
+        return copy;
+    }
+}
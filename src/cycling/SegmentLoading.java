@@ -0,0 +1,100 @@
+package cycling;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * SegmentLoading reads the race segments of a segmented save with
+ * fork/join. The segments are split in half until one is left, each
+ * race is decoded on its own worker along with the indexes built from
+ * it, and the races are merged as the halves are joined. A race is
+ * only ever touched by the worker which read it until it is handed back
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+final class SegmentLoading extends RecursiveTask<Map<Integer, Race>> {
+    /**
+     * The version of the serialised form
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * The store the segments are read from
+     */
+    private final SegmentStore store;
+    /**
+     * The names of the race segments
+     */
+    private final List<String> segments;
+    /**
+     * The loaded teams the race segments refer to
+     */
+    private final Map<Integer, Team> teams;
+    /**
+     * The index of the first segment this task reads
+     */
+    private final int from;
+    /**
+     * The index after the last segment this task reads
+     */
+    private final int to;
+
+    /**
+     * Creates a task reading part of the race segments
+     * @param store The store the segments are read from
+     * @param segments The names of the race segments
+     * @param teams The loaded teams the race segments refer to
+     * @param from The index of the first segment to read
+     * @param to The index after the last segment to read
+     */
+    SegmentLoading(SegmentStore store, List<String> segments, Map<Integer, Team> teams, int from, int to) {
+        this.store = store;
+        this.segments = segments;
+        this.teams = teams;
+        this.from = from;
+        this.to = to;
+    }
+    @Override
+    protected Map<Integer, Race> compute() {
+        if(to - from == 1) {
+            Race race = loadRace(segments.get(from));
+            Map<Integer, Race> loaded = new HashMap<Integer, Race>();
+            loaded.put(race.getId(), race);
+            return loaded;
+        }
+        int middle = (from + to) >>> 1;
+        SegmentLoading left = new SegmentLoading(store, segments, teams, from, middle);
+        left.fork();
+        Map<Integer, Race> right = new SegmentLoading(store, segments, teams, middle, to).compute();
+        Map<Integer, Race> joined = left.join();
+        joined.putAll(right);
+        return joined;
+    }
+    /**
+     * Reads one race, rebuilds the indexes linking its riders to their teams
+     * and its results to the general classification
+     * @param segment The name of the race segment
+     * @return The loaded race
+     */
+    private Race loadRace(String segment) {
+        Race race;
+        //Checked exceptions cannot leave a fork/join task so they are wrapped and unwrapped by the store
+        try {
+            race = store.readRace(segment, teams);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        } catch(ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+        for(Stage stage: race.getStages().values()) {
+            stage.getTeamClassification(teams);
+        }
+        race.getGeneralClassificationIndex();
+        return race;
+    }
+}
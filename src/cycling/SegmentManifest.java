@@ -0,0 +1,138 @@
+package cycling;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * SegmentManifest lists the segment files which make up a segmented
+ * portal save, the version each race segment was written at and the
+ * identifiers in use. It is written last, so a save only takes effect
+ * once every segment it lists is in place
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+final class SegmentManifest implements Serializable {
+    /**
+     * The version of the serialised form
+     */
+    private static final long serialVersionUID = -7740524956121536219L;
+    /**
+     * The version of the segment layout
+     */
+    static final int FORMAT_VERSION = 1;
+    /**
+     * The version of the segment layout this manifest was written with
+     */
+    private final int formatVersion;
+    /**
+     * The number of the save which wrote this manifest, part of every segment name it wrote
+     */
+    private final long generation;
+    /**
+     * The file holding every team and rider
+     */
+    private final String teamsSegment;
+    /**
+     * A map with raceIds as keys and the file holding each race as values
+     */
+    private final LinkedHashMap<Integer, String> raceSegments;
+    /**
+     * A map with raceIds as keys and the version each race was written at as values
+     */
+    private final LinkedHashMap<Integer, Long> raceVersions;
+    /**
+     * The stage ids in use
+     */
+    private final ArrayList<Integer> usedStageIds;
+    /**
+     * The checkpoint ids in use
+     */
+    private final ArrayList<Integer> usedCheckpointIds;
+    /**
+     * The rider ids in use
+     */
+    private final ArrayList<Integer> usedRiderIds;
+
+    /**
+     * Creates a new manifest
+     * @param generation The number of the save writing this manifest
+     * @param teamsSegment The file holding every team and rider
+     * @param raceSegments The file holding each race
+     * @param raceVersions The version each race was written at
+     * @param usedStageIds The stage ids in use
+     * @param usedCheckpointIds The checkpoint ids in use
+     * @param usedRiderIds The rider ids in use
+     */
+    SegmentManifest(long generation, String teamsSegment, Map<Integer, String> raceSegments,
+        Map<Integer, Long> raceVersions, ArrayList<Integer> usedStageIds, ArrayList<Integer> usedCheckpointIds,
+        ArrayList<Integer> usedRiderIds) {
+        this.formatVersion = FORMAT_VERSION;
+        this.generation = generation;
+        this.teamsSegment = teamsSegment;
+        this.raceSegments = new LinkedHashMap<Integer, String>(raceSegments);
+        this.raceVersions = new LinkedHashMap<Integer, Long>(raceVersions);
+        this.usedStageIds = new ArrayList<Integer>(usedStageIds);
+        this.usedCheckpointIds = new ArrayList<Integer>(usedCheckpointIds);
+        this.usedRiderIds = new ArrayList<Integer>(usedRiderIds);
+    }
+    /**
+     * Gets the version of the segment layout this manifest was written with
+     * @return The format version
+     */
+    int getFormatVersion() {
+        return this.formatVersion;
+    }
+    /**
+     * Gets the number of the save which wrote this manifest
+     * @return The generation of this manifest
+     */
+    long getGeneration() {
+        return this.generation;
+    }
+    /**
+     * Gets the file holding every team and rider
+     * @return The name of the teams segment
+     */
+    String getTeamsSegment() {
+        return this.teamsSegment;
+    }
+    /**
+     * Gets the file holding each race
+     * @return A map with raceIds as keys and segment names as values
+     */
+    Map<Integer, String> getRaceSegments() {
+        return this.raceSegments;
+    }
+    /**
+     * Gets the version each race was written at
+     * @return A map with raceIds as keys and race versions as values
+     */
+    Map<Integer, Long> getRaceVersions() {
+        return this.raceVersions;
+    }
+    /**
+     * Gets the stage ids in use
+     * @return The stage ids in use
+     */
+    ArrayList<Integer> getUsedStageIds() {
+        return this.usedStageIds;
+    }
+    /**
+     * Gets the checkpoint ids in use
+     * @return The checkpoint ids in use
+     */
+    ArrayList<Integer> getUsedCheckpointIds() {
+        return this.usedCheckpointIds;
+    }
+    /**
+     * Gets the rider ids in use
+     * @return The rider ids in use
+     */
+    ArrayList<Integer> getUsedRiderIds() {
+        return this.usedRiderIds;
+    }
+}
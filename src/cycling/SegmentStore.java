@@ -0,0 +1,403 @@
+package cycling;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * SegmentStore saves a portal as a directory of segment files: one
+ * holding every team and rider, one per race, and a manifest listing
+ * them. It remembers the version each race was last written at, so a
+ * save only rewrites the races which changed since, and the teams
+ * segment only when teams or riders changed. Race segments refer to
+ * riders and teams by id rather than repeating them
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+final class SegmentStore {
+    /**
+     * The name of the manifest in a segment directory
+     */
+    static final String MANIFEST = "manifest.ser";
+    /**
+     * The extension of every segment file
+     */
+    private static final String SEGMENT_SUFFIX = ".seg";
+    /**
+     * The directory the segments are saved in
+     */
+    private final Path directory;
+    /**
+     * The manifest last written or read by this store, null before the first
+     */
+    private SegmentManifest manifest;
+    /**
+     * Whether teams or riders changed since the last save
+     */
+    private boolean teamsDirty;
+    /**
+     * Whether every race is rewritten on the next save, whatever its version
+     */
+    private boolean racesDirty;
+
+    /**
+     * Creates a store for a segment directory, treating everything as changed
+     * @param directory The directory the segments are saved in
+     */
+    SegmentStore(Path directory) {
+        this.directory = directory.toAbsolutePath();
+        this.teamsDirty = true;
+        this.racesDirty = true;
+    }
+    /**
+     * Gets the directory the segments are saved in
+     * @return The absolute path of the directory
+     */
+    Path getDirectory() {
+        return this.directory;
+    }
+    /**
+     * Records that a team or rider changed, so the teams segment is rewritten on the next save
+     */
+    void markTeamsDirty() {
+        this.teamsDirty = true;
+    }
+    /**
+     * Records that every segment is rewritten on the next save, used when a
+     * team disappears which race segments may still refer to
+     */
+    void markAllDirty() {
+        this.teamsDirty = true;
+        this.racesDirty = true;
+    }
+    /**
+     * Saves the segments which changed since the last save and a manifest listing
+     * every current segment, then deletes the segments no longer listed
+     * @param races The races of the portal
+     * @param teams The teams of the portal
+     * @param usedStageIds The stage ids in use
+     * @param usedCheckpointIds The checkpoint ids in use
+     * @param usedRiderIds The rider ids in use
+     * @return The number of segments written
+     * @throws IOException If a segment or the manifest cannot be written
+     */
+    int save(Map<Integer, Race> races, Map<Integer, Team> teams, ArrayList<Integer> usedStageIds,
+        ArrayList<Integer> usedCheckpointIds, ArrayList<Integer> usedRiderIds) throws IOException {
+        Files.createDirectories(directory);
+        long generation = (manifest != null ? manifest.getGeneration() : readGeneration()) + 1;
+        int written = 0;
+        String teamsSegment;
+        if(teamsDirty || manifest == null) {
+            teamsSegment = "teams-" + generation + SEGMENT_SUFFIX;
+            writeSegment(teamsSegment, teams, null);
+            written++;
+        } else {
+            teamsSegment = manifest.getTeamsSegment();
+        }
+        LinkedHashMap<Integer, String> raceSegments = new LinkedHashMap<Integer, String>();
+        LinkedHashMap<Integer, Long> raceVersions = new LinkedHashMap<Integer, Long>();
+        for(Race race: races.values()) {
+            int raceId = race.getId();
+            long version = race.getVersion();
+            String segment = manifest == null ? null : manifest.getRaceSegments().get(raceId);
+            Long savedVersion = manifest == null ? null : manifest.getRaceVersions().get(raceId);
+            if(racesDirty || segment == null || savedVersion == null || savedVersion != version) {
+                segment = "race-" + raceId + "-" + generation + SEGMENT_SUFFIX;
+                writeSegment(segment, race, teams);
+                written++;
+            }
+            raceSegments.put(raceId, segment);
+            raceVersions.put(raceId, version);
+        }
+        SegmentManifest next = new SegmentManifest(generation, teamsSegment, raceSegments, raceVersions,
+            usedStageIds, usedCheckpointIds, usedRiderIds);
+        writeSegment(MANIFEST, next, null);
+        this.manifest = next;
+        this.teamsDirty = false;
+        this.racesDirty = false;
+        removeUnlistedSegments(next);
+        return written;
+    }
+    /**
+     * Loads every segment listed by the manifest of the directory. The teams
+     * are read first, then the races are read in parallel in the common
+     * fork/join pool, and nothing is handed back until every segment is read
+     * @return A portal holding the loaded races and teams
+     * @throws IOException If the manifest or a segment cannot be read
+     * @throws ClassNotFoundException If required class files cannot be found
+     */
+    @SuppressWarnings("unchecked")
+    CyclingPortalImpl load() throws IOException, ClassNotFoundException {
+        SegmentManifest read = readManifest();
+        Map<Integer, Team> teams = (Map<Integer, Team>) readSegment(read.getTeamsSegment(), null);
+        Map<Integer, Race> races = new HashMap<Integer, Race>();
+        List<String> segments = new ArrayList<String>(read.getRaceSegments().values());
+        if(!segments.isEmpty()) {
+            try {
+                races = ForkJoinPool.commonPool().invoke(new SegmentLoading(this, segments, teams, 0, segments.size()));
+            } catch(RuntimeException e) {
+                for(Throwable cause = e; cause != null; cause = cause.getCause()) {
+                    if(cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if(cause instanceof ClassNotFoundException) {
+                        throw (ClassNotFoundException) cause;
+                    }
+                }
+                throw e;
+            }
+        }
+        this.manifest = read;
+        this.teamsDirty = false;
+        this.racesDirty = false;
+        return new CyclingPortalImpl(races, teams, read.getUsedStageIds(), read.getUsedCheckpointIds(),
+            read.getUsedRiderIds());
+    }
+    /**
+     * Reads one race segment, resolving its riders and teams against the loaded teams
+     * @param name The name of the race segment
+     * @param teams The loaded teams
+     * @return The race the segment holds
+     * @throws IOException If the segment cannot be read
+     * @throws ClassNotFoundException If required class files cannot be found
+     */
+    Race readRace(String name, Map<Integer, Team> teams) throws IOException, ClassNotFoundException {
+        return (Race) readSegment(name, teams);
+    }
+    /**
+     * Reads the manifest of the directory
+     * @return The manifest
+     * @throws IOException If the manifest cannot be read or uses another layout
+     * @throws ClassNotFoundException If required class files cannot be found
+     */
+    private SegmentManifest readManifest() throws IOException, ClassNotFoundException {
+        SegmentManifest read = (SegmentManifest) readSegment(MANIFEST, null);
+        if(read.getFormatVersion() != SegmentManifest.FORMAT_VERSION) {
+            throw new IOException("The segmented portal uses an unsupported format version " + read.getFormatVersion() + ".");
+        }
+        return read;
+    }
+    /**
+     * Finds the generation of a save already in the directory, so new segment
+     * names never clash with the ones it lists
+     * @return The generation of the manifest in the directory, 0 if there is none
+     * @throws IOException If an existing manifest cannot be read
+     */
+    private long readGeneration() throws IOException {
+        if(!Files.exists(directory.resolve(MANIFEST))) {
+            return 0;
+        }
+        try {
+            return readManifest().getGeneration();
+        } catch(ClassNotFoundException e) {
+            throw new IOException("The existing manifest cannot be read.", e);
+        }
+    }
+    /**
+     * Writes one segment next to its final name and moves it into place once complete
+     * @param name The name of the segment
+     * @param contents The object the segment holds
+     * @param teams The teams race segments refer to by id, null to write everything in full
+     * @throws IOException If the segment cannot be written
+     */
+    private void writeSegment(String name, Object contents, Map<Integer, Team> teams) throws IOException {
+        Path target = directory.resolve(name);
+        Path temporary = directory.resolve(name + ".tmp");
+        FileOutputStream file = new FileOutputStream(temporary.toFile());
+        ObjectOutputStream out = teams == null ? new ObjectOutputStream(new BufferedOutputStream(file))
+            : new SegmentOutputStream(new BufferedOutputStream(file), teams);
+        try {
+            out.writeObject(contents);
+            out.flush();
+            file.getFD().sync();
+        } finally {
+            out.close();
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    /**
+     * Reads one segment
+     * @param name The name of the segment
+     * @param teams The loaded teams race segments refer to, null for other segments
+     * @return The object the segment holds
+     * @throws IOException If the segment cannot be read
+     * @throws ClassNotFoundException If required class files cannot be found
+     */
+    private Object readSegment(String name, Map<Integer, Team> teams) throws IOException, ClassNotFoundException {
+        InputStream file = new BufferedInputStream(Files.newInputStream(directory.resolve(name)));
+        ObjectInputStream in = teams == null ? new ObjectInputStream(file) : new SegmentInputStream(file, teams);
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+    /**
+     * Deletes the segments of earlier saves which the manifest no longer lists
+     * @param listed The manifest just written
+     * @throws IOException If the directory cannot be listed or a segment deleted
+     */
+    private void removeUnlistedSegments(SegmentManifest listed) throws IOException {
+        try(DirectoryStream<Path> segments = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for(Path segment: segments) {
+                String name = segment.getFileName().toString();
+                if(!name.equals(listed.getTeamsSegment()) && !listed.getRaceSegments().containsValue(name)) {
+                    Files.deleteIfExists(segment);
+                }
+            }
+        }
+    }
+    /**
+     * Stands in for a rider of the portal inside a race segment
+     */
+    private static final class RiderReference implements Serializable {
+        /**
+         * The version of the serialised form
+         */
+        private static final long serialVersionUID = -8669557028555487462L;
+        /**
+         * The id of the rider's team, as rider ids are only unique within a team
+         */
+        private final int teamId;
+        /**
+         * The id of the rider
+         */
+        private final int riderId;
+
+        /**
+         * Creates a new reference
+         * @param teamId The id of the rider's team
+         * @param riderId The id of the rider
+         */
+        private RiderReference(int teamId, int riderId) {
+            this.teamId = teamId;
+            this.riderId = riderId;
+        }
+    }
+    /**
+     * Stands in for a team of the portal inside a race segment
+     */
+    private static final class TeamReference implements Serializable {
+        /**
+         * The version of the serialised form
+         */
+        private static final long serialVersionUID = 3856974401142916726L;
+        /**
+         * The id of the team
+         */
+        private final int teamId;
+
+        /**
+         * Creates a new reference
+         * @param teamId The id of the team
+         */
+        private TeamReference(int teamId) {
+            this.teamId = teamId;
+        }
+    }
+    /**
+     * Writes a race segment, replacing the riders and teams of the portal with references
+     */
+    private static final class SegmentOutputStream extends ObjectOutputStream {
+        /**
+         * The teams of the portal
+         */
+        private final Map<Integer, Team> teams;
+
+        /**
+         * Creates a stream writing a race segment
+         * @param out The stream the segment is written to
+         * @param teams The teams of the portal
+         * @throws IOException If the stream header cannot be written
+         */
+        private SegmentOutputStream(OutputStream out, Map<Integer, Team> teams) throws IOException {
+            super(out);
+            this.teams = teams;
+            enableReplaceObject(true);
+        }
+        @Override
+        protected Object replaceObject(Object obj) {
+            //Riders and teams have already been swapped for their proxies by writeReplace
+            if(obj instanceof SerializationProxy) {
+                Object target = ((SerializationProxy) obj).getTarget();
+                if(target instanceof Rider || target instanceof Team) {
+                    Object reference = replaceObject(target);
+                    return reference == target ? obj : reference;
+                }
+                return obj;
+            }
+            //Riders and teams no longer in the portal are written in full so the segment still loads
+            if(obj instanceof Rider) {
+                Rider rider = (Rider) obj;
+                Team team = teams.get(rider.getTeam().getId());
+                if(team == rider.getTeam() && team.getRiders().get(rider.getId()) == rider) {
+                    return new RiderReference(team.getId(), rider.getId());
+                }
+            } else if(obj instanceof Team) {
+                Team team = (Team) obj;
+                if(teams.get(team.getId()) == team) {
+                    return new TeamReference(team.getId());
+                }
+            }
+            return obj;
+        }
+    }
+    /**
+     * Reads a race segment, resolving references against the loaded teams
+     */
+    private static final class SegmentInputStream extends ObjectInputStream {
+        /**
+         * The loaded teams
+         */
+        private final Map<Integer, Team> teams;
+
+        /**
+         * Creates a stream reading a race segment
+         * @param in The stream the segment is read from
+         * @param teams The loaded teams
+         * @throws IOException If the stream header cannot be read
+         */
+        private SegmentInputStream(InputStream in, Map<Integer, Team> teams) throws IOException {
+            super(in);
+            this.teams = teams;
+            enableResolveObject(true);
+        }
+        @Override
+        protected Object resolveObject(Object obj) throws IOException {
+            if(obj instanceof RiderReference) {
+                RiderReference reference = (RiderReference) obj;
+                Team team = teams.get(reference.teamId);
+                Rider rider = team == null ? null : team.getRiders().get(reference.riderId);
+                if(rider == null) {
+                    throw new InvalidObjectException("A race segment refers to a rider missing from the teams segment.");
+                }
+                return rider;
+            } else if(obj instanceof TeamReference) {
+                Team team = teams.get(((TeamReference) obj).teamId);
+                if(team == null) {
+                    throw new InvalidObjectException("A race segment refers to a team missing from the teams segment.");
+                }
+                return team;
+            }
+            return obj;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package cycling;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * SerializationProxy is written in place of a race, stage, checkpoint,
+ * team or rider. It writes the fields of the object it stands in for
+ * by hand in the {@link ExternalFormat}, instead of the much larger
+ * default serialised form, and resolves back to the rebuilt object when
+ * read. Back-references from stages to races and riders to teams are
+ * not written, the owning race or team links them back when it is read
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+final class SerializationProxy implements Externalizable {
+    /**
+     * The version of the proxy format, increased whenever the fields written change.
+     * Version 2 stopped writing the adjusted times and points races and stages no longer keep
+     */
+    private static final long serialVersionUID = 2L;
+    /**
+     * The kind of a proxy standing in for a race
+     */
+    static final byte RACE = 0;
+    /**
+     * The kind of a proxy standing in for a stage
+     */
+    static final byte STAGE = 1;
+    /**
+     * The kind of a proxy standing in for a sprint checkpoint
+     */
+    static final byte SPRINT_CHECKPOINT = 2;
+    /**
+     * The kind of a proxy standing in for a mountain checkpoint
+     */
+    static final byte MOUNTAIN_CHECKPOINT = 3;
+    /**
+     * The kind of a proxy standing in for a team
+     */
+    static final byte TEAM = 4;
+    /**
+     * The kind of a proxy standing in for a rider
+     */
+    static final byte RIDER = 5;
+    /**
+     * The kind of object this proxy stands in for
+     */
+    private byte kind;
+    /**
+     * The object this proxy stands in for, or the object rebuilt once read
+     */
+    private Object target;
+
+    /**
+     * Creates an empty proxy for serialisation to read into
+     */
+    public SerializationProxy() {
+
+    }
+    /**
+     * Creates a proxy standing in for an object being written
+     * @param kind The kind of object
+     * @param target The object being written
+     */
+    SerializationProxy(byte kind, Object target) {
+        this.kind = kind;
+        this.target = target;
+    }
+    /**
+     * Gets the object this proxy stands in for
+     * @return The object being written, or the object rebuilt once read
+     */
+    Object getTarget() {
+        return this.target;
+    }
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(kind);
+        switch(kind) {
+            case RACE:
+                ((Race) target).writeExternal(out);
+                break;
+            case STAGE:
+                ((Stage) target).writeExternal(out);
+                break;
+            case SPRINT_CHECKPOINT:
+                ((SprintCheckpoint) target).writeExternal(out);
+                break;
+            case MOUNTAIN_CHECKPOINT:
+                ((MountainCheckpoint) target).writeExternal(out);
+                break;
+            case TEAM:
+                ((Team) target).writeExternal(out);
+                break;
+            default:
+                ((Rider) target).writeExternal(out);
+                break;
+        }
+    }
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        kind = in.readByte();
+        switch(kind) {
+            case RACE:
+                target = Race.readExternal(in);
+                break;
+            case STAGE:
+                target = Stage.readExternal(in);
+                break;
+            case SPRINT_CHECKPOINT:
+                target = SprintCheckpoint.readExternal(in);
+                break;
+            case MOUNTAIN_CHECKPOINT:
+                target = MountainCheckpoint.readExternal(in);
+                break;
+            case TEAM:
+                target = Team.readExternal(in);
+                break;
+            case RIDER:
+                target = Rider.readExternal(in);
+                break;
+            default:
+                throw new InvalidObjectException("The saved portal holds an unknown kind of object " + kind + ".");
+        }
+    }
+    /**
+     * Replaces this proxy with the object it rebuilt
+     * @return The rebuilt race, stage, checkpoint, team or rider
+     */
+    private Object readResolve() {
+        return target;
+    }
+}
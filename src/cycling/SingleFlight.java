@@ -0,0 +1,118 @@
+package cycling;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * SingleFlight coalesces concurrent identical calls. The first call
+ * for a key runs, every call for the same key made while it is in
+ * flight shares its result instead of running again, and the key is
+ * forgotten as soon as the call completes so later calls run afresh
+ *
+ * @param <K> The type of the keys identifying identical calls
+ * @param <V> The type of the results of the calls
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+public class SingleFlight<K, V> {
+    /**
+     * A map with the keys of the calls in flight as keys and their shared results as values
+     */
+    private final ConcurrentHashMap<K, CompletableFuture<V>> calls;
+    /**
+     * The number of calls requested
+     */
+    private final LongAdder requests;
+    /**
+     * The number of calls actually run
+     */
+    private final LongAdder executions;
+
+    /**
+     * Creates a new coalescing layer with no calls in flight
+     */
+    public SingleFlight() {
+        this.calls = new ConcurrentHashMap<K, CompletableFuture<V>>();
+        this.requests = new LongAdder();
+        this.executions = new LongAdder();
+    }
+    /**
+     * Runs a call unless an identical one is already in flight. The key is
+     * forgotten by whichever thread completes the future given to the call,
+     * before any caller of the flight sees the result
+     * @param key The key identifying identical calls
+     * @param call Starts the call, which completes the future it is given, only
+     * invoked if no call for the key is in flight
+     * @return A future of the result, shared by every caller of the same flight
+     */
+    public CompletableFuture<V> execute(K key, Consumer<CompletableFuture<V>> call) {
+        requests.increment();
+        CompletableFuture<V> flight = new CompletableFuture<V>();
+        CompletableFuture<V> existing = calls.putIfAbsent(key, flight);
+        if(existing != null) {
+            return existing;
+        }
+        executions.increment();
+        CompletableFuture<V> started = new CompletableFuture<V>();
+        //Attaching the removal before the call starts, so it cannot run after the call has already completed
+        started.whenComplete((value, error) -> {
+            //Forgetting the key before completing so no caller joins a finished flight
+            calls.remove(key, flight);
+            if(error != null) {
+                flight.completeExceptionally(error);
+            } else {
+                flight.complete(value);
+            }
+        });
+        try {
+            call.accept(started);
+        } catch(RuntimeException e) {
+            started.completeExceptionally(e);
+        }
+        return flight;
+    }
+    /**
+     * Gets the number of calls requested
+     * @return The number of calls requested, run or coalesced
+     */
+    public long getRequests() {
+        return requests.sum();
+    }
+    /**
+     * Gets the number of calls run
+     * @return The number of calls which were not coalesced
+     */
+    public long getExecutions() {
+        return executions.sum();
+    }
+    /**
+     * Gets the number of calls coalesced
+     * @return The number of calls which shared the result of a call in flight
+     */
+    public long getCoalesced() {
+        return getRequests() - getExecutions();
+    }
+    /**
+     * Gets the number of calls in flight
+     * @return The number of distinct calls currently running
+     */
+    public int getInFlight() {
+        return calls.size();
+    }
+    /**
+     * Writes a formatted string containing the statistics of a coalescing layer
+     * @return A formatted string containing the requests, executions and coalesced calls
+     */
+    @Override
+    public String toString() {
+        return "{" +
+            "requests='" + getRequests() + "'" +
+            ", executions='" + getExecutions() + "'" +
+            ", coalesced='" + getCoalesced() + "'" +
+            "}";
+    }
+}
@@ -0,0 +1,24 @@
+package cycling;
+
+/**
+ * This enum is used to choose how saved portals are compressed.
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+public enum SnapshotCodec {
+
+	/**
+	 * Used to save the plain serialised portal, as {@link CyclingPortalImpl#saveCyclingPortal(String)} does.
+	 */
+	NONE,
+
+	/**
+	 * Used to save the portal in independently deflated blocks. Level 1 favours
+	 * speed, level 9 favours size.
+	 */
+	DEFLATE;
+
+}
@@ -0,0 +1,163 @@
+package cycling;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * SnapshotFileWriter encodes a captured portal image on a thread of its
+ * own and writes it to disk with an AsynchronousFileChannel, so no thread
+ * blocks on the disk. The image is written next to the target and moved
+ * over it once complete, so the target always holds either the previous
+ * save or the new one
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+final class SnapshotFileWriter {
+    /**
+     * Encodes a captured image into the bytes saved
+     */
+    @FunctionalInterface
+    interface ImageEncoder {
+        /**
+         * Writes the captured image
+         * @param out The stream the image is encoded into
+         * @throws IOException If the image cannot be encoded
+         */
+        void encode(OutputStream out) throws IOException;
+    }
+    /**
+     * The encoded image being written
+     */
+    private ByteBuffer image;
+    /**
+     * The file the image is saved to
+     */
+    private final Path target;
+    /**
+     * The temporary file the image is written to first
+     */
+    private final Path temporary;
+    /**
+     * The System.nanoTime() the save started at
+     */
+    private final long startNanos;
+    /**
+     * The time spent capturing the image
+     */
+    private final Duration captureDuration;
+    /**
+     * The future completed once the file is in place
+     */
+    private final CompletableFuture<SaveReport> result;
+    /**
+     * The open temporary file
+     */
+    private AsynchronousFileChannel channel;
+
+    /**
+     * Creates a writer for one save
+     * @param filename The location the image is saved to
+     * @param startNanos The System.nanoTime() the capture started at
+     * @param captureDuration The time spent capturing the image
+     */
+    private SnapshotFileWriter(String filename, long startNanos, Duration captureDuration) {
+        this.target = Path.of(filename).toAbsolutePath();
+        this.temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        this.startNanos = startNanos;
+        this.captureDuration = captureDuration;
+        this.result = new CompletableFuture<SaveReport>();
+    }
+    /**
+     * Starts encoding and writing a captured image in the background
+     * @param filename The location the image is saved to
+     * @param encoder Encodes the captured image, run on the encoding thread
+     * @param startNanos The System.nanoTime() the capture started at
+     * @param captureDuration The time spent capturing the image
+     * @return A future completed with a report once the file is in place,
+     * or exceptionally if encoding or writing it fails
+     */
+    static CompletableFuture<SaveReport> write(String filename, ImageEncoder encoder, long startNanos, Duration captureDuration) {
+        SnapshotFileWriter writer = new SnapshotFileWriter(filename, startNanos, captureDuration);
+        Thread encoding = new Thread(() -> writer.encode(encoder), "snapshot-encoder");
+        encoding.setDaemon(true);
+        encoding.start();
+        return writer.result;
+    }
+    /**
+     * Encodes the image and starts writing it to the temporary file
+     * @param encoder Encodes the captured image
+     */
+    private void encode(ImageEncoder encoder) {
+        try {
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            encoder.encode(encoded);
+            image = ByteBuffer.wrap(encoded.toByteArray());
+            channel = AsynchronousFileChannel.open(temporary, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch(Throwable e) {
+            result.completeExceptionally(e);
+            return;
+        }
+        writeRemaining();
+    }
+    /**
+     * Writes the part of the image not yet written, continuing from the completion handler
+     */
+    private void writeRemaining() {
+        channel.write(image, image.position(), null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer written, Void attachment) {
+                //A single write may be partial so the rest is written from where it stopped
+                if(image.hasRemaining()) {
+                    writeRemaining();
+                } else {
+                    finish();
+                }
+            }
+            @Override
+            public void failed(Throwable error, Void attachment) {
+                fail(error);
+            }
+        });
+    }
+    /**
+     * Closes the temporary file and moves it over the target
+     */
+    private void finish() {
+        try {
+            channel.force(true);
+            channel.close();
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(IOException e) {
+            fail(e);
+            return;
+        }
+        result.complete(new SaveReport(target.toString(), image.capacity(), captureDuration,
+            Duration.ofNanos(System.nanoTime() - startNanos)));
+    }
+    /**
+     * Abandons the save, leaving any previous save in place
+     * @param error The reason the save failed
+     */
+    private void fail(Throwable error) {
+        try {
+            channel.close();
+            Files.deleteIfExists(temporary);
+        } catch(IOException e) {
+            error.addSuppressed(e);
+        }
+        result.completeExceptionally(error);
+    }
+}
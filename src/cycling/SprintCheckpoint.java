@@ -1,4 +1,8 @@
 package cycling;
+import java.io.ObjectOutput;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -15,6 +19,10 @@ import java.time.LocalTime;
  * @version 2.0
  */
 public class SprintCheckpoint extends Checkpoint{
+    /**
+     * The version of the serialised form
+     */
+    private static final long serialVersionUID = -4731259459184731798L;
     @SuppressWarnings("unused")
     private double location;
     private int id;
@@ -29,6 +37,9 @@ public class SprintCheckpoint extends Checkpoint{
      */
     public SprintCheckpoint(double location, int id) {
         super(location, id);
+        this.id = id;
+        this.location = location;
+        this.type = CheckpointType.SPRINT;
         this.riderTimes = new HashMap<LocalTime, Integer>();
         this.sortedTimes = new ArrayList<LocalTime>();
     }
@@ -61,4 +72,62 @@ public class SprintCheckpoint extends Checkpoint{
         }
         return points;
     }
+    @Override
+    public int[] getPointsTable() {
+        return POINTS.clone();
+    }
+    /**
+     * Reads a checkpoint saved in the default serialised form by the baseline build
+     * @param in The stream read from
+     * @throws IOException If the stream cannot be read
+     * @throws ClassNotFoundException If the class of a field cannot be found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        //The baseline build only set the id and location held by Checkpoint
+        if(type == null) {
+            id = getBaseId();
+            location = getLocation();
+            type = CheckpointType.SPRINT;
+        }
+    }
+    @Override
+    SprintCheckpoint copy() {
+        SprintCheckpoint checkpoint = new SprintCheckpoint(location, id);
+        checkpoint.riderTimes = riderTimes == null ? null : new HashMap<LocalTime, Integer>(riderTimes);
+        checkpoint.sortedTimes = sortedTimes == null ? null : new ArrayList<LocalTime>(sortedTimes);
+        return checkpoint;
+    }
+    /**
+     * Replaces a checkpoint with a {@link SerializationProxy} when it is serialised
+     * @return The proxy written in place of this checkpoint
+     */
+    private Object writeReplace() {
+        return new SerializationProxy(SerializationProxy.SPRINT_CHECKPOINT, this);
+    }
+    /**
+     * Writes the fields of a checkpoint for its {@link SerializationProxy}
+     * @param out The stream written to
+     * @throws IOException If the stream cannot be written
+     */
+    void writeExternal(ObjectOutput out) throws IOException {
+        out.writeInt(id);
+        out.writeDouble(location);
+        ExternalFormat.writeMap(out, riderTimes, ExternalFormat.TIME, ExternalFormat.INT);
+        ExternalFormat.writeList(out, sortedTimes, ExternalFormat.TIME);
+    }
+    /**
+     * Rebuilds a checkpoint written by {@link #writeExternal(ObjectOutput)}
+     * @param in The stream read from
+     * @return The rebuilt checkpoint
+     * @throws IOException If the stream cannot be read
+     * @throws ClassNotFoundException Never, times are read as primitives
+     */
+    static SprintCheckpoint readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        int id = in.readInt();
+        SprintCheckpoint checkpoint = new SprintCheckpoint(in.readDouble(), id);
+        checkpoint.riderTimes = ExternalFormat.readMap(in, ExternalFormat.READ_TIME, ExternalFormat.READ_INT);
+        checkpoint.sortedTimes = ExternalFormat.readList(in, ExternalFormat.READ_TIME);
+        return checkpoint;
+    }
 }
@@ -1,9 +1,19 @@
 package cycling;
+import java.io.ObjectOutput;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.IOException;
 import java.time.LocalTime;
 import java.time.LocalDateTime;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.TreeMap;
 import java.io.Serializable;
 
 /**
@@ -16,6 +26,46 @@ import java.io.Serializable;
  *
  */
 public class Stage implements Serializable{
+    /**
+     * The version of the serialised form
+     */
+    private static final long serialVersionUID = 5153354418212854466L;
+    /**
+     * The adjusted times and points of every rider in a stage at one version
+     */
+    private static final class Standings {
+        /**
+         * The version of the stage these standings were calculated at
+         */
+        private final long version;
+        /**
+         * A map with riderIds as keys and their adjusted times as values, in finishing order
+         */
+        private final Map<Integer, LocalTime> adjustedTimes;
+        /**
+         * A map with riderIds as keys and their sprinter points as values, in finishing order
+         */
+        private final Map<Integer, Integer> sprinterPoints;
+        /**
+         * A map with riderIds as keys and their mountain points as values, in finishing order
+         */
+        private final Map<Integer, Integer> mountainPoints;
+
+        /**
+         * Creates new standings
+         * @param version The version of the stage
+         * @param adjustedTimes The adjusted times of every rider
+         * @param sprinterPoints The sprinter points of every rider
+         * @param mountainPoints The mountain points of every rider
+         */
+        private Standings(long version, Map<Integer, LocalTime> adjustedTimes, Map<Integer, Integer> sprinterPoints,
+        Map<Integer, Integer> mountainPoints) {
+            this.version = version;
+            this.adjustedTimes = Collections.unmodifiableMap(adjustedTimes);
+            this.sprinterPoints = Collections.unmodifiableMap(sprinterPoints);
+            this.mountainPoints = Collections.unmodifiableMap(mountainPoints);
+        }
+    }
     /**
      * The unique id of a stage
      */
@@ -50,6 +100,11 @@ public class Stage implements Serializable{
      * A map with checkpointIds as keys and checkpoint objects as values
      */
     private Map<Integer, Checkpoint> checkpoints;
+    /**
+     * A map with locations as keys and the checkpointIds at that location as values,
+     * kept ordered by location
+     */
+    private TreeMap<Double, ArrayList<Integer>> checkpointLocations;
     /**
      * The state a race is currently in
      */
@@ -59,37 +114,45 @@ public class Stage implements Serializable{
      */
     private Map<Integer, LocalTime[]> riderTimes;
     /**
-     * A map with riderIds as keys and their adjusted elapsed time as values
+     * A list of riderIds ordered by finish position
      */
-    private Map<Integer, LocalTime> adjustedTimes;
+    private ArrayList<Integer> riderPositions;
     /**
-     * A map with riderIds as keys and their sprint points as values
+     * The layout of a stage compiled when its preparation is concluded
      */
-    private Map<Integer, Integer> sprinterPoints;
+    private StageLayout layout;
     /**
-     * A map with riderIds as keys and their mountain points as values
+     * The time bonuses and penalties given to riders in a stage
      */
-    private Map<Integer, Integer> mountainPoints;
+    private TimeAdjustmentLedger timeAdjustments;
     /**
-     * A list of riderIds ordered by finish position
+     * The passages of riders while this stage is being raced
      */
-    private ArrayList<Integer> riderPositions;
+    private transient volatile LiveStage liveStage;
+    /**
+     * The number of times the results, checkpoints or state of a stage have changed
+     */
+    private volatile long version;
+    /**
+     * The adjusted times and points of a stage, cached until its results change
+     */
+    private transient volatile Standings standings;
     /**
-     * A list of sprintCheckpointIds
+     * The results of a stage laid out as primitive columns, cached until they change
      */
-    private ArrayList<Integer> sprintCheckpointIds;
+    private transient volatile StageTimeColumns timeColumns;
     /**
-     * A list of reference indexes for sprintCheckpoints
+     * The gap matrix of a stage, cached until its results change
      */
-    private ArrayList<Integer> sprintCheckpointRef;
+    private transient volatile GapMatrix gapMatrix;
     /**
-     * A list of mountainCheckpointIds
+     * The segment analytics of a stage, cached until its results change
      */
-    private ArrayList<Integer> mountainCheckpointIds;
+    private transient volatile SegmentAnalytics segmentAnalytics;
     /**
-     * A list of reference indexes for mountainCheckpoints
+     * The team classification of a stage, kept up to date as results change
      */
-    private ArrayList<Integer> mountainCheckpointRef;
+    private transient volatile TeamClassification teamClassification;
     private static final int[] FLATSTAGEPOINTS = {50,30,20,18,16,14,12,10,8,7,6,5,4,3,2};
     private static final int[] MEDIUMSTAGEPOINTS = {30,25,22,19,17,15,13,11,9,7,6,5,4,3,2};
     private static final int[] HIGHMOUNTAINPOINTS = {20,17,15,13,11,10,9,8,7,6,5,4,3,2,1};
@@ -122,91 +185,117 @@ public class Stage implements Serializable{
         this.type = type;
         this.race = race;
         this.state = "in preparation";
-        this.sprinterPoints = new HashMap<Integer, Integer>();
-        this.mountainPoints = new HashMap<Integer, Integer>();
         this.riderPositions = new ArrayList<Integer>();
-        this.sprintCheckpointIds = new ArrayList<Integer>();
-        this.sprintCheckpointRef = new ArrayList<Integer>();
-        this.mountainCheckpointIds = new ArrayList<Integer>();
-        this.mountainCheckpointRef = new ArrayList<Integer>();
         this.riderTimes = new HashMap<Integer, LocalTime[]>();
-        this.adjustedTimes = new HashMap<Integer, LocalTime>();
         this.checkpoints = new HashMap<Integer, Checkpoint>();
+        this.checkpointLocations = new TreeMap<Double, ArrayList<Integer>>();
+        this.timeAdjustments = new TimeAdjustmentLedger();
     }
     /**
-     * Calculates the mountain points for every rider in a stage
-     * @return The mountain points for every rider in this stage
+     * Gets the adjusted times and points of a stage, calculating them once
+     * per version so concurrent readers share one calculation
+     * @return The standings of this stage at its current version
      */
-    public Map<Integer, Integer> getMountainPoints() {
-        //Initalizing each riders points at 0 to avoid null access errors
-        for(int i=0; i< riderPositions.size(); i++) {
-            mountainPoints.put(riderPositions.get(i), 0);
-        }
-        //Adding all results of every rider to each mountain checkpoint
-        for(int i=0; i < mountainCheckpointIds.size(); i++) {
-            for(int j=0; j<riderPositions.size(); j++) {
-                int currRider = riderPositions.get(j);
-                checkpoints.get(mountainCheckpointIds.get(i)).addResult(currRider,
-                riderTimes.get(currRider)[mountainCheckpointRef.get(i)]);
-            }
-        checkpoints.get(mountainCheckpointIds.get(i)).sortResults();
-        
-        //Adding the points for each checkpoint for each rider to their total
-        for(int k=0; k<riderPositions.size(); k++) {
-            int points = checkpoints.get(mountainCheckpointIds.get(i))
-            .getRiderPointReward(riderPositions.get(k));
-            mountainPoints.put(riderPositions.get(k), 
-            riderPositions.get(k) + points);
+    private Standings getStandings() {
+        Standings current = this.standings;
+        if(current != null && current.version == this.version) {
+            return current;
+        }
+        synchronized(this) {
+            current = this.standings;
+            if(current == null || current.version != this.version) {
+                current = new Standings(this.version, calculateAdjustedTimes(), calculateSprinterPoints(),
+                calculateMountainPoints());
+                this.standings = current;
             }
+            return current;
         }
-        
-        return this.mountainPoints;
     }
     /**
-     * Calculates the sprinter points for every rider in a stage
-     * @return The sprinter points for each rider in this stage
+     * Checks whether the adjusted times and points of a stage have
+     * already been calculated at its current version
+     * @return True if reading them will not calculate them
+     */
+    boolean hasStandings() {
+        Standings current = this.standings;
+        return current != null && current.version == this.version;
+    }
+    /**
+     * Restores the adjusted times and points of a stage saved with a
+     * portal, unless the stage has changed since they were calculated
+     * @param version The version of the stage they were calculated at
+     * @param adjustedTimes The adjusted times of every rider, in finishing order
+     * @param sprinterPoints The sprinter points of every rider, in finishing order
+     * @param mountainPoints The mountain points of every rider, in finishing order
+     * @return True if they were restored
+     */
+    boolean restoreStandings(long version, Map<Integer, LocalTime> adjustedTimes, Map<Integer, Integer> sprinterPoints,
+    Map<Integer, Integer> mountainPoints) {
+        if(version != this.version) {
+            return false;
+        }
+        this.standings = new Standings(version, adjustedTimes, sprinterPoints, mountainPoints);
+        return true;
+    }
+    /**
+     * Gets the mountain points for every rider in a stage
+     * @return The mountain points for every rider in this stage, in finishing order
+     */
+    public Map<Integer, Integer> getMountainPoints() {
+        return getStandings().mountainPoints;
+    }
+    /**
+     * Gets the sprinter points for every rider in a stage
+     * @return The sprinter points for each rider in this stage, in finishing order
      */
     public Map<Integer, Integer> getSprinterPoints() {
-        //Points for the stage itself
+        return getStandings().sprinterPoints;
+    }
+    /**
+     * Calculates the mountain points for every rider in a stage
+     * @return The mountain points for every rider in this stage, in finishing order
+     */
+    private Map<Integer, Integer> calculateMountainPoints() {
+        StageLayout layout = getLayout();
+        Map<Integer, Integer> points = new LinkedHashMap<Integer, Integer>();
+        for(int riderId: riderPositions) {
+            points.put(riderId, 0);
+        }
+        for(int column: layout.getMountainColumns()) {
+            addCheckpointPoints(points, column, layout.getPointsTable(column));
+        }
+        return points;
+    }
+    /**
+     * Calculates the sprinter points for every rider in a stage
+     * @return The sprinter points for each rider in this stage, in finishing order
+     */
+    private Map<Integer, Integer> calculateSprinterPoints() {
+        StageLayout layout = getLayout();
+        Map<Integer, Integer> points = new LinkedHashMap<Integer, Integer>();
+        //Points for the stage itself, riders placing outside the table are given 0 points
+        int[] finishPoints = layout.getFinishPoints();
         for(int i=0; i<riderPositions.size(); i++) {
-            if(i < 15) {
-                switch(this.type) {
-                    case StageType.FLAT:
-                        sprinterPoints.put(riderPositions.get(i), FLATSTAGEPOINTS[i]);
-                        break;
-                    case StageType.MEDIUM_MOUNTAIN:
-                        sprinterPoints.put(riderPositions.get(i), MEDIUMSTAGEPOINTS[i]);
-                        break;
-                    case StageType.HIGH_MOUNTAIN:
-                        sprinterPoints.put(riderPositions.get(i), HIGHMOUNTAINPOINTS[i]);
-                        break;
-                    case StageType.TT:
-                        sprinterPoints.put(riderPositions.get(i), TIMETRIALPOINTS[i]);
-                } 
-            }
-            //If placing over 15th place, riders are given 0 points for stage finish
-            else {
-                sprinterPoints.put(riderPositions.get(i), 0);
-            }
+            points.put(riderPositions.get(i), i < finishPoints.length ? finishPoints[i] : 0);
         }
-        //Congregating all rider times for the all the sprint checkpoints in the stage
-        for(int i=0; i < sprintCheckpointIds.size(); i++) {
-            for(int j=0; j<riderPositions.size(); j++) {
-                int currRider = riderPositions.get(j);
-                checkpoints.get(sprintCheckpointIds.get(i)).addResult(currRider,
-                riderTimes.get(currRider)[sprintCheckpointRef.get(i)]);
-            }
-            checkpoints.get(sprintCheckpointIds.get(i)).sortResults();
-            
-            //Calculates the amount of points to be rewarded for this checkpoint
-            for(int k=0; k<riderPositions.size(); k++) {
-                int points = checkpoints.get(sprintCheckpointIds.get(i))
-                .getRiderPointReward(riderPositions.get(k));
-                sprinterPoints.put(riderPositions.get(k), 
-                riderPositions.get(k) + points);
-            }
+        for(int column: layout.getSprintColumns()) {
+            addCheckpointPoints(points, column, layout.getPointsTable(column));
+        }
+        return points;
+    }
+    /**
+     * Adds the points of one checkpoint to every rider's total
+     * @param points A map with riderIds as keys and their points so far as values
+     * @param column The column of the checkpoint in every rider's times
+     * @param table The points for each place at the checkpoint
+     */
+    private void addCheckpointPoints(Map<Integer, Integer> points, int column, int[] table) {
+        //Sorting is stable so riders passing together are placed by finishing position
+        ArrayList<Integer> order = new ArrayList<Integer>(riderPositions);
+        order.sort(Comparator.comparing(riderId -> riderTimes.get(riderId)[column]));
+        for(int i=0; i<table.length && i<order.size(); i++) {
+            points.merge(order.get(i), table[i], Integer::sum);
         }
-        return this.sprinterPoints;
     }
     /**
      * Gets the mountain points for a rider in a stage
@@ -214,7 +303,7 @@ public class Stage implements Serializable{
      * @return The mountain points for the rider in this stage
      */
     public int getRiderMountainPoints(int riderId) {
-        return this.mountainPoints.get(riderId);
+        return getMountainPoints().get(riderId);
     }
     /**
      * Gets the sprinter points for a rider in a stage
@@ -222,41 +311,263 @@ public class Stage implements Serializable{
      * @return The sprinter points for the rider in this stage
      */
     public int getRiderSprinterPoints(int riderId) {
-        return this.sprinterPoints.get(riderId);
+        return getSprinterPoints().get(riderId);
     }
     /**
      * Adjusts the times of riders who finish within 1 second
      * of each other to both have the adjusted time that was
      * the fastest between the two
-     * @param index What position to begin sorting from
-     * @return The Map of riderIds and their newly adjusted times for this stage
+     * @return The Map of riderIds and their adjusted times for this stage, in finishing order
      */
-    public Map<Integer, LocalTime> adjustTimes(int index) {
-        System.out.println(riderPositions.size());
-        for(int i: riderPositions) {
-            System.out.println(i);
-        }
-
-        LocalTime oldTime = riderTimes.get(riderPositions.get(0))[checkpoints.size()-1];
-        System.out.println(oldTime);
-        adjustedTimes.put(riderPositions.get(0), oldTime);
+    private Map<Integer, LocalTime> calculateAdjustedTimes() {
+        Map<Integer, LocalTime> adjusted = new LinkedHashMap<Integer, LocalTime>();
+        LocalTime previousTime = null;
+        LocalTime adjustedTime = null;
         for(int i=0; i<riderPositions.size(); i++) {
-            LocalTime newTime = riderTimes.get(riderPositions.get(i))[checkpoints.size()-1];
-            if(oldTime.plusSeconds(1).isAfter(newTime)) {
-                adjustedTimes.put(riderPositions.get(i), oldTime);
-            }else {
-                oldTime = riderTimes.get(riderPositions.get(i))[checkpoints.size()-1];
-                adjustedTimes.put(riderPositions.get(i), oldTime);
+            int riderId = riderPositions.get(i);
+            LocalTime newTime = getElapsedTime(riderId);
+            //A rider finishing less than a second behind the rider ahead shares their adjusted time
+            if(previousTime == null || !previousTime.plusSeconds(1).isAfter(newTime)) {
+                adjustedTime = newTime;
+            }
+            adjusted.put(riderId, adjustedTime);
+            previousTime = newTime;
+        }
+        return adjusted;
+    }
+    /**
+     * Gets the elapsed time of a rider in a stage
+     * @param riderId The unique id of the rider
+     * @return The elapsed time of the rider, stored as the
+     * last entry of their times for this stage
+     */
+    public LocalTime getElapsedTime(int riderId) {
+        LocalTime[] times = riderTimes.get(riderId);
+        return times[times.length-1];
+    }
+    /**
+     * Inserts a rider into the finishing positions of a stage
+     * after their times have been added, keeping the positions
+     * ordered by elapsed time
+     * @param riderId The unique id of the rider
+     * @return The position the rider was inserted at
+     */
+    public int addRiderPosition(int riderId) {
+        LocalTime elapsedTime = getElapsedTime(riderId);
+        int low = 0;
+        int high = riderPositions.size();
+        //Binary search for the first rider with a longer elapsed time
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(getElapsedTime(riderPositions.get(mid)).isAfter(elapsedTime)) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        riderPositions.add(low, riderId);
+        return low;
+    }
+    /**
+     * Replaces the times of a rider who already has results in a stage and
+     * increments its version. The rider is moved to their new finishing
+     * position and their team classification result is replaced. If the
+     * adjusted times and points were up to date only the entries the
+     * correction can change are recalculated: adjusted times from the first
+     * moved position until they match the old ones again, finish points
+     * between the old and new positions, and the places at each points
+     * checkpoint. Every other rider keeps their calculated values
+     * @param riderId The unique id of the rider
+     * @param times The corrected times, with the elapsed time as the last entry
+     * @return A map with riderIds as keys and the change to their adjusted time in
+     * nanoseconds as values, or null if the standings were not up to date and are
+     * recalculated the next time they are read
+     */
+    Map<Integer, Long> correctResults(int riderId, LocalTime[] times) {
+        Standings old = hasStandings() ? this.standings : null;
+        StageLayout layout = getLayout();
+        //The places at each points checkpoint before the correction, ties broken by the old finishing order
+        Map<Integer, ArrayList<Integer>> oldPlaces = new HashMap<Integer, ArrayList<Integer>>();
+        if(old != null) {
+            for(int column: getPointsColumns(layout)) {
+                oldPlaces.put(column, getPlaces(column, layout.getPointsTable(column).length));
+            }
+        }
+        int oldPosition = riderPositions.indexOf(riderId);
+        riderPositions.remove(oldPosition);
+        riderTimes.put(riderId, times);
+        int newPosition = addRiderPosition(riderId);
+        if(teamClassification != null) {
+            teamClassification.updateResult(riderId, getElapsedTime(riderId).toNanoOfDay());
+        }
+        incrementVersion();
+        if(old == null) {
+            return null;
+        }
+        int first = Math.min(oldPosition, newPosition);
+        int last = Math.max(oldPosition, newPosition);
+        Map<Integer, Integer> sprinterChanges = new HashMap<Integer, Integer>();
+        Map<Integer, Integer> mountainChanges = new HashMap<Integer, Integer>();
+        //Only the riders between the old and new positions change finishing place
+        ArrayList<Integer> oldOrder = new ArrayList<Integer>(riderPositions.subList(first, last + 1));
+        oldOrder.remove(Integer.valueOf(riderId));
+        oldOrder.add(oldPosition - first, riderId);
+        int[] finishPoints = layout.getFinishPoints();
+        for(int position=first; position<=last && position<finishPoints.length; position++) {
+            sprinterChanges.merge(oldOrder.get(position - first), -finishPoints[position], Integer::sum);
+            sprinterChanges.merge(riderPositions.get(position), finishPoints[position], Integer::sum);
+        }
+        for(Map.Entry<Integer, ArrayList<Integer>> places: oldPlaces.entrySet()) {
+            int column = places.getKey();
+            int[] table = layout.getPointsTable(column);
+            Map<Integer, Integer> changes = layout.getType(column) == CheckpointType.SPRINT ? sprinterChanges : mountainChanges;
+            ArrayList<Integer> newPlaces = getPlaces(column, table.length);
+            for(int i=0; i<table.length; i++) {
+                if(i < places.getValue().size()) {
+                    changes.merge(places.getValue().get(i), -table[i], Integer::sum);
+                }
+                if(i < newPlaces.size()) {
+                    changes.merge(newPlaces.get(i), table[i], Integer::sum);
+                }
+            }
+        }
+        //A rider's adjusted time only depends on the rider ahead, so once one after the moved
+        //positions matches its old value every later rider's does too
+        Map<Integer, Long> timeChanges = new HashMap<Integer, Long>();
+        Map<Integer, LocalTime> adjustedTimes = new LinkedHashMap<Integer, LocalTime>();
+        Map<Integer, Integer> sprinterPoints = new LinkedHashMap<Integer, Integer>();
+        Map<Integer, Integer> mountainPoints = new LinkedHashMap<Integer, Integer>();
+        boolean recalculating = true;
+        LocalTime previousTime = first == 0 ? null : getElapsedTime(riderPositions.get(first - 1));
+        LocalTime adjustedTime = first == 0 ? null : old.adjustedTimes.get(riderPositions.get(first - 1));
+        for(int position=0; position<riderPositions.size(); position++) {
+            int id = riderPositions.get(position);
+            LocalTime oldTime = old.adjustedTimes.get(id);
+            if(position >= first && recalculating) {
+                LocalTime newTime = getElapsedTime(id);
+                if(previousTime == null || !previousTime.plusSeconds(1).isAfter(newTime)) {
+                    adjustedTime = newTime;
+                }
+                previousTime = newTime;
+                if(!adjustedTime.equals(oldTime)) {
+                    timeChanges.put(id, adjustedTime.toNanoOfDay() - oldTime.toNanoOfDay());
+                } else if(position > last) {
+                    recalculating = false;
+                }
+                adjustedTimes.put(id, adjustedTime);
+            } else {
+                adjustedTimes.put(id, oldTime);
+            }
+            sprinterPoints.put(id, old.sprinterPoints.get(id) + sprinterChanges.getOrDefault(id, 0));
+            mountainPoints.put(id, old.mountainPoints.get(id) + mountainChanges.getOrDefault(id, 0));
+        }
+        this.standings = new Standings(this.version, adjustedTimes, sprinterPoints, mountainPoints);
+        return timeChanges;
+    }
+    /**
+     * Gets the columns of every checkpoint awarding points in a stage
+     * @param layout The layout of this stage
+     * @return The sprint columns followed by the climb columns
+     */
+    private int[] getPointsColumns(StageLayout layout) {
+        int[] sprints = layout.getSprintColumns();
+        int[] climbs = layout.getMountainColumns();
+        int[] columns = Arrays.copyOf(sprints, sprints.length + climbs.length);
+        System.arraycopy(climbs, 0, columns, sprints.length, climbs.length);
+        return columns;
+    }
+    /**
+     * Gets the riders placed first at a checkpoint, ordered as
+     * {@link #addCheckpointPoints(Map, int, int[])} orders them
+     * @param column The column of the checkpoint in every rider's times
+     * @param places The number of places wanted
+     * @return The riderIds of the first riders to pass, first place first
+     */
+    private ArrayList<Integer> getPlaces(int column, int places) {
+        ArrayList<Integer> placed = new ArrayList<Integer>(places + 1);
+        //Visiting riders in finishing order and placing them after equal times keeps ties in finishing order
+        for(int riderId: riderPositions) {
+            LocalTime time = riderTimes.get(riderId)[column];
+            int place = placed.size();
+            while(place > 0 && riderTimes.get(placed.get(place-1))[column].isAfter(time)) {
+                place--;
+            }
+            if(place < places) {
+                placed.add(place, riderId);
+                if(placed.size() > places) {
+                    placed.remove(places);
+                }
+            }
+        }
+        return placed;
+    }
+    /**
+     * Removes all results of a rider in a stage
+     * @param riderId The unique id of the rider
+     * @return True if the rider had results in this stage
+     */
+    public boolean removeResults(int riderId) {
+        if(liveStage != null) {
+            liveStage.removeRider(riderId);
+        }
+        if(teamClassification != null) {
+            teamClassification.removeResult(riderId);
+        }
+        if(riderTimes.remove(riderId) == null) {
+            return false;
+        }
+        riderPositions.remove(Integer.valueOf(riderId));
+        return true;
+    }
+    /**
+     * Gets the time bonuses and penalties given in a stage
+     * @return The ledger of this stage
+     */
+    public TimeAdjustmentLedger getTimeAdjustments() {
+        return this.timeAdjustments;
+    }
+    /**
+     * Gets the team classification of a stage, building it from the
+     * results the first time it is used
+     * @param teams The teams in CyclingPortalImpl
+     * @return The team classification of this stage
+     */
+    public TeamClassification getTeamClassification(Map<Integer, Team> teams) {
+        TeamClassification current = this.teamClassification;
+        if(current != null) {
+            return current;
+        }
+        synchronized(this) {
+            if(this.teamClassification == null) {
+                TeamClassification built = new TeamClassification();
+                for(Team team: teams.values()) {
+                    for(int riderId: team.getRiders().keySet()) {
+                        if(riderTimes.containsKey(riderId)) {
+                            built.addResult(team.getId(), riderId, getElapsedTime(riderId).toNanoOfDay());
+                        }
+                    }
+                }
+                this.teamClassification = built;
             }
+            return this.teamClassification;
         }
-        return adjustedTimes;
     }
     /**
-     * Gets the adjusted times of a race
-     * @return The adjusted times of this race
+     * Removes a team from the team classification of a stage
+     * @param teamId The unique id of the team
+     */
+    public void removeTeamFromClassification(int teamId) {
+        if(this.teamClassification != null) {
+            this.teamClassification.removeTeam(teamId);
+        }
+    }
+    /**
+     * Gets the adjusted times of a stage, where riders finishing within
+     * 1 second of the rider ahead share that rider's adjusted time
+     * @return A map with riderIds as keys and their adjusted times as values, in finishing order
      */
     public Map<Integer, LocalTime> getAdjustedTimes() {
-        return this.adjustedTimes;
+        return getStandings().adjustedTimes;
     }
     /**
      * Gets the checkpoints within a stage
@@ -265,6 +576,154 @@ public class Stage implements Serializable{
     public Map<Integer, Checkpoint> getCheckpoints() {
         return this.checkpoints;
     }
+    /**
+     * Gets the checkpoint ids of a stage ordered by location
+     * @return The checkpoint ids of this stage from first to last
+     */
+    public int[] getOrderedCheckpointIds() {
+        return getCheckpointLocations().values().stream()
+        .flatMap(ArrayList::stream).mapToInt(Integer::intValue).toArray();
+    }
+    /**
+     * Gets the compiled layout of a stage. While a stage is still in
+     * preparation its checkpoints can change, so a fresh layout is
+     * compiled on every call
+     * @return The layout of this stage
+     */
+    public StageLayout getLayout() {
+        if(this.state == "in preparation") {
+            return StageLayout.compile(checkpoints, getFinishPoints());
+        }
+        return this.layout;
+    }
+    /**
+     * Gets the points table for finishing a stage of this type
+     * @return The points for each finishing place, first place first
+     */
+    private int[] getFinishPoints() {
+        switch(this.type) {
+            case FLAT:
+                return FLATSTAGEPOINTS;
+            case MEDIUM_MOUNTAIN:
+                return MEDIUMSTAGEPOINTS;
+            case HIGH_MOUNTAIN:
+                return HIGHMOUNTAINPOINTS;
+            default:
+                return TIMETRIALPOINTS;
+        }
+    }
+    /**
+     * Gets the live view of a stage, creating it the first time
+     * a passage is recorded after preparation has been concluded
+     * @return The live view of this stage
+     */
+    public LiveStage getLiveStage() {
+        LiveStage current = this.liveStage;
+        if(current != null) {
+            return current;
+        }
+        synchronized(this) {
+            if(this.liveStage == null) {
+                LiveStage live = new LiveStage(getOrderedCheckpointIds());
+                //Riders registered before the stage went live still appear in the rankings
+                for(Map.Entry<Integer, LocalTime[]> entry: riderTimes.entrySet()) {
+                    LocalTime[] times = entry.getValue().clone();
+                    times[times.length-1] = times[0].plus(Duration.between(LocalTime.MIDNIGHT, times[times.length-1]));
+                    live.recordResults(entry.getKey(), times);
+                }
+                this.liveStage = live;
+            }
+            return this.liveStage;
+        }
+    }
+    /**
+     * Gets the virtual general classification of a stage being raced,
+     * first recalculating every rider's time before this stage if the
+     * results of an earlier stage have changed. Readers recalculating it
+     * take turns so it is only recalculated once per change
+     * @return The virtual classification of this stage
+     */
+    public synchronized VirtualClassification getVirtualClassification() {
+        VirtualClassification virtual = getLiveStage().getVirtualClassification();
+        ArrayList<Integer> orderedStageIds = race.getOrderedStageIds();
+        int earlierStages = orderedStageIds.indexOf(this.id);
+        long[] stamp = new long[earlierStages];
+        for(int i=0; i<earlierStages; i++) {
+            stamp[i] = race.getStages().get(orderedStageIds.get(i)).getVersion();
+        }
+        if(Arrays.equals(virtual.getBaseStamp(), stamp)) {
+            return virtual;
+        }
+        //Summing the adjusted times of every earlier stage as the general classification would
+        Map<Integer, Long> baseTimes = new HashMap<Integer, Long>();
+        for(int i=0; i<earlierStages; i++) {
+            Stage stage = race.getStages().get(orderedStageIds.get(i));
+            for(Map.Entry<Integer, LocalTime> entry: stage.getAdjustedTimes().entrySet()) {
+                baseTimes.merge(entry.getKey(), entry.getValue().toNanoOfDay(), Long::sum);
+            }
+        }
+        virtual.rebase(baseTimes, stamp, liveStage.getRecordedTimes());
+        return virtual;
+    }
+    /**
+     * Gets the gap matrix of a stage, recalculating it only if the
+     * results have changed since it was last calculated
+     * @return The gap matrix of this stage
+     */
+    public GapMatrix getGapMatrix() {
+        GapMatrix current = this.gapMatrix;
+        if(current != null && current.getVersion() == this.version) {
+            return current;
+        }
+        synchronized(this) {
+            if(this.gapMatrix == null || this.gapMatrix.getVersion() != this.version) {
+                this.gapMatrix = GapMatrix.calculate(getTimeColumns());
+            }
+            return this.gapMatrix;
+        }
+    }
+    /**
+     * Gets the segment speeds and climb VAM of a stage, recalculating
+     * them only if the results have changed since they were last calculated
+     * @param parallel Whether riders are calculated in parallel
+     * @return The segment analytics of this stage
+     */
+    public SegmentAnalytics getSegmentAnalytics(boolean parallel) {
+        SegmentAnalytics current = this.segmentAnalytics;
+        if(current != null && current.getVersion() == this.version) {
+            return current;
+        }
+        synchronized(this) {
+            if(this.segmentAnalytics == null || this.segmentAnalytics.getVersion() != this.version) {
+                this.segmentAnalytics = SegmentAnalytics.calculate(this, getTimeColumns(), parallel);
+            }
+            return this.segmentAnalytics;
+        }
+    }
+    /**
+     * Gets the results of a stage laid out as primitive columns,
+     * laying them out again only if they have changed
+     * @return The time columns of this stage
+     */
+    StageTimeColumns getTimeColumns() {
+        StageTimeColumns current = this.timeColumns;
+        if(current != null && current.getVersion() == this.version) {
+            return current;
+        }
+        synchronized(this) {
+            if(this.timeColumns == null || this.timeColumns.getVersion() != this.version) {
+                this.timeColumns = new StageTimeColumns(this);
+            }
+            return this.timeColumns;
+        }
+    }
+    /**
+     * Checks whether a stage has a live view
+     * @return True if passages have been recorded in this stage
+     */
+    public boolean isLive() {
+        return this.liveStage != null;
+    }
     /**
      * Gets the id of a stage
      * @return The unique id of this stage
@@ -272,6 +731,19 @@ public class Stage implements Serializable{
     public int getId() {
         return this.id;
     }
+    /**
+     * Gets the version of a stage
+     * @return The number of times the results of this stage have changed
+     */
+    public long getVersion() {
+        return this.version;
+    }
+    /**
+     * Increments the version of a stage after its results, checkpoints or state change
+     */
+    public void incrementVersion() {
+        this.version++;
+    }
     /**
      * Gets the name of a stage
      * @return The name of this stage
@@ -294,11 +766,20 @@ public class Stage implements Serializable{
         return this.state;
     }
     /**
-     * Sets the current state of a stage to "waiting for results".
-     * Applies after this stage has finished being configured
+     * Sets the current state of a stage to "waiting for results"
+     * and compiles its layout. Applies after this stage has finished
+     * being configured
      */
     public void setState() {
         this.state = "waiting for results";
+        this.layout = StageLayout.compile(checkpoints, getFinishPoints());
+    }
+    /**
+     * Gets the start time of a stage
+     * @return The date and time this stage begins
+     */
+    public LocalDateTime getStartTime() {
+        return this.startTime;
     }
     /**
      * Gets the type of a stage
@@ -347,8 +828,7 @@ public class Stage implements Serializable{
             }
         }
         checkpoints.put(id, new MountainCheckpoint(location, type, gradient, length, id));
-        mountainCheckpointIds.add(id);
-        mountainCheckpointRef.add(checkpoints.size()-1);
+        indexCheckpoint(location, id);
         return id;
     }
     /**
@@ -366,10 +846,87 @@ public class Stage implements Serializable{
             }
         }
         checkpoints.put(id, new SprintCheckpoint(location, id));
-        sprintCheckpointIds.add(id);
-        sprintCheckpointRef.add(checkpoints.size()-1);
+        indexCheckpoint(location, id);
         return id;
     }
+    /**
+     * Removes a checkpoint from a stage
+     * @param checkpointId The unique id of the checkpoint
+     */
+    public void removeCheckpoint(int checkpointId) {
+        Checkpoint checkpoint = checkpoints.remove(checkpointId);
+        if(checkpoint == null) {
+            return;
+        }
+        ArrayList<Integer> ids = getCheckpointLocations().get(checkpoint.getLocation());
+        ids.remove(Integer.valueOf(checkpointId));
+        if(ids.isEmpty()) {
+            checkpointLocations.remove(checkpoint.getLocation());
+        }
+    }
+    /**
+     * Adds a checkpoint to the location index of a stage, checkpoints
+     * sharing a location are kept in id order
+     * @param location Where in the stage the checkpoint is
+     * @param checkpointId The unique id of the checkpoint
+     */
+    private void indexCheckpoint(double location, int checkpointId) {
+        ArrayList<Integer> ids = getCheckpointLocations().computeIfAbsent(location, l -> new ArrayList<Integer>());
+        int index = Collections.binarySearch(ids, checkpointId);
+        ids.add(-index - 1, checkpointId);
+    }
+    /**
+     * Gets the location index of a stage
+     * @return A map with locations as keys and the checkpointIds at that location as values
+     */
+    private TreeMap<Double, ArrayList<Integer>> getCheckpointLocations() {
+        return checkpointLocations;
+    }
+    /**
+     * Fills in the fields a stage read from a save may not hold, so they are
+     * never filled in lazily while the stage is being read. Stages saved by
+     * the baseline build have no location index, ledger or compiled layout,
+     * and the location index is never saved
+     */
+    private void completeLoadedFields() {
+        checkpointLocations = new TreeMap<Double, ArrayList<Integer>>();
+        for(Checkpoint checkpoint: checkpoints.values()) {
+            indexCheckpoint(checkpoint.getLocation(), checkpoint.getId());
+        }
+        if(timeAdjustments == null) {
+            timeAdjustments = new TimeAdjustmentLedger();
+        }
+        if(layout == null && state != "in preparation") {
+            layout = StageLayout.compile(checkpoints, getFinishPoints());
+        }
+    }
+    /**
+     * Gets the checkpoint ids of a stage between two locations
+     * @param from The first location, inclusive
+     * @param to The last location, inclusive
+     * @return The checkpoint ids between the two locations from first to last
+     */
+    public int[] getCheckpointsBetween(double from, double to) {
+        return getCheckpointLocations().subMap(from, true, to, true).values().stream()
+        .flatMap(ArrayList::stream).mapToInt(Integer::intValue).toArray();
+    }
+    /**
+     * Gets the checkpoint of a stage closest to a location, the earlier
+     * checkpoint is chosen if two are equally close
+     * @param location The location in the stage
+     * @return The unique id of the closest checkpoint, or -1 if the stage has no checkpoints
+     */
+    public int getNearestCheckpoint(double location) {
+        Map.Entry<Double, ArrayList<Integer>> before = getCheckpointLocations().floorEntry(location);
+        Map.Entry<Double, ArrayList<Integer>> after = getCheckpointLocations().ceilingEntry(location);
+        if(before == null && after == null) {
+            return -1;
+        }
+        if(after == null || (before != null && location - before.getKey() <= after.getKey() - location)) {
+            return before.getValue().get(before.getValue().size()-1);
+        }
+        return after.getValue().get(0);
+    }
     /**
      * Finds the stage a checkpoint is in
      * @param checkpointId The unique id of the checkpoint being referenced
@@ -413,4 +970,110 @@ public class Stage implements Serializable{
     public Race getRace() {
         return this.race;
     }
+    /**
+     * Links a stage back to the race it belongs to once the race has been loaded
+     * @param race The race this stage belongs to
+     */
+    void setRace(Race race) {
+        this.race = race;
+    }
+    /**
+     * Reads a stage saved in the default serialised form by the baseline build
+     * @param in The stream read from
+     * @throws IOException If the stream cannot be read
+     * @throws ClassNotFoundException If the class of a field cannot be found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        //The state is compared by reference so it is interned to match the literals
+        if(state != null) {
+            state = state.intern();
+        }
+        completeLoadedFields();
+    }
+    /**
+     * Copies a stage, its checkpoints and its results, so the copy is unaffected
+     * by later changes. Stored times are replaced rather than changed, so they are shared
+     * @param race The copy of the race the stage belongs to
+     * @return The copy of this stage
+     */
+    Stage copy(Race race) {
+        Stage stage = new Stage();
+        stage.id = id;
+        stage.name = name;
+        stage.startTime = startTime;
+        stage.length = length;
+        stage.race = race;
+        stage.description = description;
+        stage.type = type;
+        stage.checkpoints = new HashMap<Integer, Checkpoint>();
+        for(Map.Entry<Integer, Checkpoint> checkpoint: checkpoints.entrySet()) {
+            stage.checkpoints.put(checkpoint.getKey(), checkpoint.getValue().copy());
+        }
+        stage.state = state;
+        stage.riderTimes = new HashMap<Integer, LocalTime[]>(riderTimes);
+        stage.riderPositions = new ArrayList<Integer>(riderPositions);
+        stage.layout = layout;
+        stage.timeAdjustments = timeAdjustments.copy();
+        stage.version = version;
+        stage.completeLoadedFields();
+        return stage;
+    }
+    /**
+     * Replaces a stage with a {@link SerializationProxy} when it is serialised
+     * @return The proxy written in place of this stage
+     */
+    private Object writeReplace() {
+        return new SerializationProxy(SerializationProxy.STAGE, this);
+    }
+    /**
+     * Writes the fields of a stage for its {@link SerializationProxy}. The race is
+     * not written, it links its stages back when it is read, and the location
+     * index is rebuilt from the checkpoints when the stage is read
+     * @param out The stream written to
+     * @throws IOException If the stream cannot be written
+     */
+    void writeExternal(ObjectOutput out) throws IOException {
+        out.writeInt(id);
+        out.writeObject(name);
+        ExternalFormat.writeDateTime(out, startTime);
+        out.writeDouble(length);
+        out.writeObject(description);
+        out.writeByte(type == null ? -1 : type.ordinal());
+        ExternalFormat.writeMap(out, checkpoints, ExternalFormat.INT, ExternalFormat.OBJECT);
+        out.writeObject(state);
+        ExternalFormat.writeMap(out, riderTimes, ExternalFormat.INT, ExternalFormat.TIMES);
+        ExternalFormat.writeList(out, riderPositions, ExternalFormat.INT);
+        out.writeObject(layout);
+        out.writeObject(timeAdjustments);
+        out.writeLong(version);
+    }
+    /**
+     * Rebuilds a stage written by {@link #writeExternal(ObjectOutput)}
+     * @param in The stream read from
+     * @return The rebuilt stage, not yet linked to its race
+     * @throws IOException If the stream cannot be read
+     * @throws ClassNotFoundException If the class of a checkpoint cannot be found
+     */
+    static Stage readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        Stage stage = new Stage();
+        stage.id = in.readInt();
+        stage.name = (String) in.readObject();
+        stage.startTime = ExternalFormat.readDateTime(in);
+        stage.length = in.readDouble();
+        stage.description = (String) in.readObject();
+        int type = in.readByte();
+        stage.type = type < 0 ? null : StageType.values()[type];
+        stage.checkpoints = ExternalFormat.readMap(in, ExternalFormat.READ_INT, ExternalFormat.objects(Checkpoint.class));
+        String state = (String) in.readObject();
+        //The state is compared by reference so it is interned to match the literals
+        stage.state = state == null ? null : state.intern();
+        stage.riderTimes = ExternalFormat.readMap(in, ExternalFormat.READ_INT, ExternalFormat.READ_TIMES);
+        stage.riderPositions = ExternalFormat.readList(in, ExternalFormat.READ_INT);
+        stage.layout = (StageLayout) in.readObject();
+        stage.timeAdjustments = (TimeAdjustmentLedger) in.readObject();
+        stage.version = in.readLong();
+        stage.completeLoadedFields();
+        return stage;
+    }
 }
@@ -0,0 +1,170 @@
+package cycling;
+import java.io.Serializable;
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * StageLayout is the immutable layout of a stage compiled when
+ * its preparation is concluded. Checkpoints are sorted by location
+ * and every column of a rider's times (the start, each checkpoint
+ * and the finish) maps directly to its checkpoint, type and points
+ * table so results are scored with plain array indexing
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+public final class StageLayout implements Serializable {
+    /**
+     * The version of the serialised form
+     */
+    private static final long serialVersionUID = -1674299740081387664L;
+    /**
+     * The checkpointIds of the stage ordered by location, checkpoint i is column i+1
+     */
+    private final int[] checkpointIds;
+    /**
+     * The type of each checkpoint ordered by location
+     */
+    private final CheckpointType[] types;
+    /**
+     * The points table of each checkpoint ordered by location
+     */
+    private final int[][] pointsTables;
+    /**
+     * The columns of every intermediate sprint in the stage
+     */
+    private final int[] sprintColumns;
+    /**
+     * The columns of every categorised climb in the stage
+     */
+    private final int[] mountainColumns;
+    /**
+     * The points table for finishing the stage
+     */
+    private final int[] finishPoints;
+
+    /**
+     * Creates a new layout, use {@link #compile(Map, int[])} instead
+     * @param checkpointIds The checkpointIds ordered by location
+     * @param types The type of each checkpoint
+     * @param pointsTables The points table of each checkpoint
+     * @param finishPoints The points table for finishing the stage
+     */
+    private StageLayout(int[] checkpointIds, CheckpointType[] types, int[][] pointsTables, int[] finishPoints) {
+        this.checkpointIds = checkpointIds;
+        this.types = types;
+        this.pointsTables = pointsTables;
+        this.finishPoints = finishPoints;
+        int sprints = 0;
+        for(CheckpointType type: types) {
+            if(type == CheckpointType.SPRINT) {
+                sprints++;
+            }
+        }
+        this.sprintColumns = new int[sprints];
+        this.mountainColumns = new int[types.length - sprints];
+        int sprint = 0;
+        int mountain = 0;
+        for(int i=0; i<types.length; i++) {
+            if(types[i] == CheckpointType.SPRINT) {
+                sprintColumns[sprint++] = i + 1;
+            } else {
+                mountainColumns[mountain++] = i + 1;
+            }
+        }
+    }
+    /**
+     * Compiles the layout of a stage from its checkpoints
+     * @param checkpoints A map with checkpointIds as keys and checkpoint objects as values
+     * @param finishPoints The points table for finishing the stage
+     * @return The compiled layout
+     */
+    public static StageLayout compile(Map<Integer, Checkpoint> checkpoints, int[] finishPoints) {
+        Checkpoint[] ordered = checkpoints.values().stream()
+        .sorted(Comparator.comparingDouble(Checkpoint::getLocation).thenComparingInt(Checkpoint::getId))
+        .toArray(Checkpoint[]::new);
+        int[] checkpointIds = new int[ordered.length];
+        CheckpointType[] types = new CheckpointType[ordered.length];
+        int[][] pointsTables = new int[ordered.length][];
+        for(int i=0; i<ordered.length; i++) {
+            checkpointIds[i] = ordered[i].getId();
+            types[i] = ordered[i].getType();
+            pointsTables[i] = ordered[i].getPointsTable();
+        }
+        return new StageLayout(checkpointIds, types, pointsTables, finishPoints.clone());
+    }
+    /**
+     * Gets the number of columns of a stage: the start, every checkpoint and the finish
+     * @return The length every rider's times must have
+     */
+    public int getColumnCount() {
+        return checkpointIds.length + 2;
+    }
+    /**
+     * Gets the checkpointIds of a stage ordered by location
+     * @return A copy of the ordered checkpointIds
+     */
+    public int[] getCheckpointIds() {
+        return checkpointIds.clone();
+    }
+    /**
+     * Gets the column of a checkpoint
+     * @param checkpointId The unique id of the checkpoint
+     * @return The column of the checkpoint, or -1 if it is not in this stage
+     */
+    public int getColumn(int checkpointId) {
+        for(int i=0; i<checkpointIds.length; i++) {
+            if(checkpointIds[i] == checkpointId) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+    /**
+     * Gets the checkpoint at a column
+     * @param column A column between 1 and the number of checkpoints
+     * @return The unique id of the checkpoint
+     */
+    public int getCheckpointId(int column) {
+        return checkpointIds[column - 1];
+    }
+    /**
+     * Gets the type of the checkpoint at a column
+     * @param column A column between 1 and the number of checkpoints
+     * @return The type of the checkpoint
+     */
+    public CheckpointType getType(int column) {
+        return types[column - 1];
+    }
+    /**
+     * Gets the points table of the checkpoint at a column
+     * @param column A column between 1 and the number of checkpoints
+     * @return The points for each place, first place first
+     */
+    public int[] getPointsTable(int column) {
+        return pointsTables[column - 1];
+    }
+    /**
+     * Gets the columns of every intermediate sprint
+     * @return The sprint columns from first to last
+     */
+    public int[] getSprintColumns() {
+        return sprintColumns;
+    }
+    /**
+     * Gets the columns of every categorised climb
+     * @return The climb columns from first to last
+     */
+    public int[] getMountainColumns() {
+        return mountainColumns;
+    }
+    /**
+     * Gets the points table for finishing a stage
+     * @return The points for each finishing place, first place first
+     */
+    public int[] getFinishPoints() {
+        return finishPoints;
+    }
+}
@@ -0,0 +1,96 @@
+package cycling;
+import java.time.LocalTime;
+
+/**
+ * StageTimeColumns lays the results of a stage out as one primitive
+ * column per checkpoint and the finish, holding the nanoseconds each
+ * rider took from their own start. It is shared by the calculations
+ * over a stage's results and cached by the stage until they change
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+final class StageTimeColumns {
+    /**
+     * The version of the stage's results the columns were built from
+     */
+    private final long version;
+    /**
+     * The riderIds of each row, in finishing order
+     */
+    private final int[] riderIds;
+    /**
+     * The checkpointIds of each column ordered by location, the finish is the extra last column
+     */
+    private final int[] checkpointIds;
+    /**
+     * The elapsed time in nanoseconds of each rider at each column, indexed by column then row
+     */
+    private final long[][] elapsed;
+
+    /**
+     * Lays out the results of a stage
+     * @param stage The stage whose results are laid out
+     */
+    StageTimeColumns(Stage stage) {
+        this.version = stage.getVersion();
+        this.riderIds = stage.getRiderPositions().stream().mapToInt(Integer::intValue).toArray();
+        this.checkpointIds = stage.getOrderedCheckpointIds();
+        int columns = checkpointIds.length + 1;
+        this.elapsed = new long[columns][riderIds.length];
+        for(int row=0; row<riderIds.length; row++) {
+            LocalTime[] times = stage.getResults(riderIds[row]);
+            long start = times[0].toNanoOfDay();
+            for(int column=0; column<columns-1; column++) {
+                elapsed[column][row] = times[column+1].toNanoOfDay() - start;
+            }
+            //The finish is stored as the elapsed time already
+            elapsed[columns-1][row] = times[times.length-1].toNanoOfDay();
+        }
+    }
+    /**
+     * Gets the version of the stage's results the columns were built from
+     * @return The version of the stage when these columns were built
+     */
+    long getVersion() {
+        return this.version;
+    }
+    /**
+     * Gets the riderIds of each row, which must not be modified
+     * @return The riderIds in finishing order
+     */
+    int[] getRiderIds() {
+        return this.riderIds;
+    }
+    /**
+     * Gets the checkpointIds of each column, which must not be modified
+     * @return The checkpointIds ordered by location
+     */
+    int[] getCheckpointIds() {
+        return this.checkpointIds;
+    }
+    /**
+     * Gets the number of rows
+     * @return The number of riders with results
+     */
+    int getRowCount() {
+        return this.riderIds.length;
+    }
+    /**
+     * Gets the number of columns
+     * @return The number of checkpoints plus the finish
+     */
+    int getColumnCount() {
+        return this.elapsed.length;
+    }
+    /**
+     * Gets a column of elapsed times, which must not be modified
+     * @param column The column, the last one being the finish
+     * @return The elapsed time in nanoseconds of each row at the column
+     */
+    long[] getColumn(int column) {
+        return this.elapsed[column];
+    }
+}
@@ -1,4 +1,7 @@
 package cycling;
+import java.io.ObjectOutput;
+import java.io.ObjectInput;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.ArrayList;
@@ -13,6 +16,10 @@ import java.io.Serializable;
  *
  */
 public class Team implements Serializable{
+    /**
+     * The version of the serialised form
+     */
+    private static final long serialVersionUID = 6769452529651660103L;
     /**
      * The unique id of a team
      */
@@ -136,4 +143,65 @@ public class Team implements Serializable{
     public static Team findTeam(int teamId, Map<Integer, Team> teams) {
         return teams.get(teamId);
     } 
+    /**
+     * Copies a team and its riders, so the copy is unaffected by later changes
+     * @param copiedRiders The map every copied rider is added to, by riderId
+     * @return The copy of this team
+     */
+    Team copy(Map<Integer, Rider> copiedRiders) {
+        Team team = new Team();
+        team.id = id;
+        team.name = name;
+        team.description = description;
+        if(riders != null) {
+            team.riders = new HashMap<Integer, Rider>();
+            for(Map.Entry<Integer, Rider> rider: riders.entrySet()) {
+                Rider copied = rider.getValue().copy(team);
+                team.riders.put(rider.getKey(), copied);
+                copiedRiders.put(copied.getId(), copied);
+            }
+        }
+        team.orderedRiderIds = orderedRiderIds == null ? null : new ArrayList<Integer>(orderedRiderIds);
+        return team;
+    }
+    /**
+     * Replaces a team with a {@link SerializationProxy} when it is serialised
+     * @return The proxy written in place of this team
+     */
+    private Object writeReplace() {
+        return new SerializationProxy(SerializationProxy.TEAM, this);
+    }
+    /**
+     * Writes the fields of a team for its {@link SerializationProxy}
+     * @param out The stream written to
+     * @throws IOException If the stream cannot be written
+     */
+    void writeExternal(ObjectOutput out) throws IOException {
+        out.writeInt(id);
+        out.writeObject(name);
+        out.writeObject(description);
+        ExternalFormat.writeMap(out, riders, ExternalFormat.INT, ExternalFormat.OBJECT);
+        ExternalFormat.writeList(out, orderedRiderIds, ExternalFormat.INT);
+    }
+    /**
+     * Rebuilds a team written by {@link #writeExternal(ObjectOutput)} and links its riders back to it
+     * @param in The stream read from
+     * @return The rebuilt team
+     * @throws IOException If the stream cannot be read
+     * @throws ClassNotFoundException If the class of a rider cannot be found
+     */
+    static Team readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        Team team = new Team();
+        team.id = in.readInt();
+        team.name = (String) in.readObject();
+        team.description = (String) in.readObject();
+        team.riders = ExternalFormat.readMap(in, ExternalFormat.READ_INT, ExternalFormat.objects(Rider.class));
+        if(team.riders != null) {
+            for(Rider rider: team.riders.values()) {
+                rider.setTeam(team);
+            }
+        }
+        team.orderedRiderIds = ExternalFormat.readList(in, ExternalFormat.READ_INT);
+        return team;
+    }
 }
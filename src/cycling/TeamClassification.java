@@ -0,0 +1,292 @@
+package cycling;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * TeamClassification keeps the team classification of a stage:
+ * the sum of the elapsed times of each team's three fastest riders.
+ * Every team keeps a small bounded array of its best times so a
+ * result only moves its own team, and teams with fewer than three
+ * finishers are not classified
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+public class TeamClassification {
+    /**
+     * The number of riders whose times count for their team
+     */
+    public static final int COUNTED_RIDERS = 3;
+    /**
+     * The riders of one team with results in the stage
+     */
+    private static class TeamTimes {
+        /**
+         * The riderIds of the team with results in the stage
+         */
+        private final ArrayList<Integer> members = new ArrayList<Integer>();
+        /**
+         * The riderIds of the fastest riders, fastest first
+         */
+        private final int[] bestRiders = new int[COUNTED_RIDERS];
+        /**
+         * The number of entries of bestRiders in use
+         */
+        private int size;
+        /**
+         * The sum of the fastest riders' times in nanoseconds
+         */
+        private long total;
+    }
+    /**
+     * A team's total time in the classification
+     */
+    private static class Entry {
+        /**
+         * The unique id of the team
+         */
+        private final int teamId;
+        /**
+         * The sum of the team's fastest times in nanoseconds
+         */
+        private final long total;
+
+        /**
+         * Creates a new entry
+         * @param teamId The unique id of the team
+         * @param total The total time in nanoseconds
+         */
+        private Entry(int teamId, long total) {
+            this.teamId = teamId;
+            this.total = total;
+        }
+    }
+    /**
+     * Orders entries by total time, using the team id to break ties
+     */
+    private static final Comparator<Entry> TOTAL_ORDER =
+        Comparator.<Entry>comparingLong(e -> e.total).thenComparingInt(e -> e.teamId);
+    /**
+     * A map with teamIds as keys and their riders' times as values
+     */
+    private final Map<Integer, TeamTimes> teams;
+    /**
+     * A map with riderIds as keys and their teamIds as values
+     */
+    private final Map<Integer, Integer> riderTeams;
+    /**
+     * A map with riderIds as keys and their elapsed times in nanoseconds as values
+     */
+    private final Map<Integer, Long> riderTimes;
+    /**
+     * The classified teams ordered by total time
+     */
+    private final TreeSet<Entry> order;
+
+    /**
+     * Creates an empty team classification
+     */
+    public TeamClassification() {
+        this.teams = new HashMap<Integer, TeamTimes>();
+        this.riderTeams = new HashMap<Integer, Integer>();
+        this.riderTimes = new HashMap<Integer, Long>();
+        this.order = new TreeSet<Entry>(TOTAL_ORDER);
+    }
+    /**
+     * Adds the elapsed time of a rider, replacing any time they already have
+     * @param teamId The unique id of the rider's team
+     * @param riderId The unique id of the rider
+     * @param elapsed The elapsed time of the rider in nanoseconds
+     */
+    public void addResult(int teamId, int riderId, long elapsed) {
+        removeResult(riderId);
+        TeamTimes team = teams.computeIfAbsent(teamId, id -> new TeamTimes());
+        unrank(teamId, team);
+        riderTeams.put(riderId, teamId);
+        riderTimes.put(riderId, elapsed);
+        team.members.add(riderId);
+        insertBest(team, riderId);
+        team.total = sumBest(team);
+        rank(teamId, team);
+    }
+    /**
+     * Replaces the elapsed time of a rider already in the classification
+     * @param riderId The unique id of the rider
+     * @param elapsed The corrected elapsed time in nanoseconds
+     */
+    public void updateResult(int riderId, long elapsed) {
+        Integer teamId = riderTeams.get(riderId);
+        if(teamId != null) {
+            addResult(teamId, riderId, elapsed);
+        }
+    }
+    /**
+     * Removes the elapsed time of a rider
+     * @param riderId The unique id of the rider
+     */
+    public void removeResult(int riderId) {
+        Integer teamId = riderTeams.remove(riderId);
+        if(teamId == null) {
+            return;
+        }
+        TeamTimes team = teams.get(teamId);
+        unrank(teamId, team);
+        team.members.remove(Integer.valueOf(riderId));
+        boolean counted = false;
+        for(int i=0; i<team.size; i++) {
+            if(team.bestRiders[i] == riderId) {
+                counted = true;
+            }
+        }
+        riderTimes.remove(riderId);
+        //Only a counted rider leaving means the next fastest member has to be found
+        if(counted) {
+            refill(team);
+        }
+        if(team.members.isEmpty()) {
+            teams.remove(teamId);
+        } else {
+            rank(teamId, team);
+        }
+    }
+    /**
+     * Removes every result of a team
+     * @param teamId The unique id of the team
+     */
+    public void removeTeam(int teamId) {
+        TeamTimes team = teams.get(teamId);
+        if(team == null) {
+            return;
+        }
+        for(int riderId: new ArrayList<Integer>(team.members)) {
+            removeResult(riderId);
+        }
+    }
+    /**
+     * Checks whether one rider is faster than another, using the
+     * rider id to break ties
+     * @param riderId The unique id of the rider
+     * @param otherId The unique id of the rider being compared to
+     * @return True if the rider is placed ahead of the other rider
+     */
+    private boolean isFaster(int riderId, int otherId) {
+        int compare = Long.compare(riderTimes.get(riderId), riderTimes.get(otherId));
+        return compare != 0 ? compare < 0 : riderId < otherId;
+    }
+    /**
+     * Rebuilds the best times of a team from all of its members
+     * @param team The team being rebuilt
+     */
+    private void refill(TeamTimes team) {
+        team.size = 0;
+        for(int riderId: team.members) {
+            insertBest(team, riderId);
+        }
+        team.total = sumBest(team);
+    }
+    /**
+     * Inserts a rider into the bounded best times of a team,
+     * dropping the slowest rider if it is already full
+     * @param team The team the rider belongs to
+     * @param riderId The unique id of the rider
+     */
+    private void insertBest(TeamTimes team, int riderId) {
+        int position = team.size;
+        while(position > 0 && isFaster(riderId, team.bestRiders[position-1])) {
+            position--;
+        }
+        if(position >= COUNTED_RIDERS) {
+            return;
+        }
+        for(int i=Math.min(team.size, COUNTED_RIDERS - 1); i>position; i--) {
+            team.bestRiders[i] = team.bestRiders[i-1];
+        }
+        team.bestRiders[position] = riderId;
+        team.size = Math.min(team.size + 1, COUNTED_RIDERS);
+    }
+    /**
+     * Sums the best times of a team
+     * @param team The team being summed
+     * @return The sum of the team's best times in nanoseconds
+     */
+    private long sumBest(TeamTimes team) {
+        long total = 0;
+        for(int i=0; i<team.size; i++) {
+            total += riderTimes.get(team.bestRiders[i]);
+        }
+        return total;
+    }
+    /**
+     * Removes a team from the ordered classification
+     * @param teamId The unique id of the team
+     * @param team The times of the team
+     */
+    private void unrank(int teamId, TeamTimes team) {
+        if(team.size == COUNTED_RIDERS) {
+            order.remove(new Entry(teamId, team.total));
+        }
+    }
+    /**
+     * Adds a team to the ordered classification if enough of its riders have finished
+     * @param teamId The unique id of the team
+     * @param team The times of the team
+     */
+    private void rank(int teamId, TeamTimes team) {
+        if(team.size == COUNTED_RIDERS) {
+            order.add(new Entry(teamId, team.total));
+        }
+    }
+    /**
+     * Gets the team classification rank
+     * @return The teamIds ordered by total time
+     */
+    public int[] getRank() {
+        return order.stream().mapToInt(e -> e.teamId).toArray();
+    }
+    /**
+     * Gets the team classification times
+     * @return The total times matching {@link #getRank()}
+     */
+    public LocalTime[] getTimes() {
+        return order.stream().map(e -> LocalTime.MIDNIGHT.plusNanos(e.total)).toArray(LocalTime[]::new);
+    }
+    /**
+     * Gets the total times of every classified team
+     * @return A map with teamIds as keys and their total time in nanoseconds as values
+     */
+    public Map<Integer, Long> getTotals() {
+        Map<Integer, Long> totals = new HashMap<Integer, Long>();
+        for(Entry entry: order) {
+            totals.put(entry.teamId, entry.total);
+        }
+        return totals;
+    }
+    /**
+     * Sums the team classifications of the stages of a race. Only teams
+     * classified in every stage are classified in the race
+     * @param stages The team classifications of every stage with results
+     * @return A map with teamIds as keys and their total time in nanoseconds as values
+     */
+    public static Map<Integer, Long> sumStages(List<TeamClassification> stages) {
+        Map<Integer, Long> totals = null;
+        for(TeamClassification stage: stages) {
+            Map<Integer, Long> stageTotals = stage.getTotals();
+            if(totals == null) {
+                totals = stageTotals;
+                continue;
+            }
+            totals.keySet().retainAll(stageTotals.keySet());
+            for(Map.Entry<Integer, Long> entry: totals.entrySet()) {
+                entry.setValue(entry.getValue() + stageTotals.get(entry.getKey()));
+            }
+        }
+        return totals == null ? new HashMap<Integer, Long>() : totals;
+    }
+}
@@ -0,0 +1,110 @@
+package cycling;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * TimeAdjustmentLedger records the time bonuses and jury penalties
+ * given to riders in a stage. They are applied on top of adjusted
+ * elapsed times in the general classification only, so the stage
+ * rankings are unaffected, and are saved with the stage
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+public class TimeAdjustmentLedger implements Serializable {
+    /**
+     * The version of the serialised form
+     */
+    private static final long serialVersionUID = 4643383914331444345L;
+    /**
+     * A map with riderIds as keys and their total bonus in nanoseconds as values
+     */
+    private final Map<Integer, Long> bonuses;
+    /**
+     * A map with riderIds as keys and their total penalty in nanoseconds as values
+     */
+    private final Map<Integer, Long> penalties;
+
+    /**
+     * Creates an empty ledger
+     */
+    public TimeAdjustmentLedger() {
+        this.bonuses = new HashMap<Integer, Long>();
+        this.penalties = new HashMap<Integer, Long>();
+    }
+    /**
+     * Records a time bonus for a rider
+     * @param riderId The unique id of the rider
+     * @param nanos The bonus in nanoseconds
+     */
+    public void addBonus(int riderId, long nanos) {
+        bonuses.merge(riderId, nanos, Long::sum);
+    }
+    /**
+     * Records a time penalty for a rider
+     * @param riderId The unique id of the rider
+     * @param nanos The penalty in nanoseconds
+     */
+    public void addPenalty(int riderId, long nanos) {
+        penalties.merge(riderId, nanos, Long::sum);
+    }
+    /**
+     * Gets the total bonus of a rider
+     * @param riderId The unique id of the rider
+     * @return The total bonus in nanoseconds, 0 if the rider has none
+     */
+    public long getBonus(int riderId) {
+        return bonuses.getOrDefault(riderId, 0L);
+    }
+    /**
+     * Gets the total penalty of a rider
+     * @param riderId The unique id of the rider
+     * @return The total penalty in nanoseconds, 0 if the rider has none
+     */
+    public long getPenalty(int riderId) {
+        return penalties.getOrDefault(riderId, 0L);
+    }
+    /**
+     * Gets the net change to a rider's general classification time
+     * @param riderId The unique id of the rider
+     * @return The penalties less the bonuses in nanoseconds
+     */
+    public long getNetAdjustment(int riderId) {
+        return getPenalty(riderId) - getBonus(riderId);
+    }
+    /**
+     * Gets the net change to every rider's general classification time
+     * @return A map with riderIds as keys and their net adjustment in nanoseconds as values
+     */
+    public Map<Integer, Long> getNetAdjustments() {
+        Map<Integer, Long> net = new HashMap<Integer, Long>(penalties);
+        for(Map.Entry<Integer, Long> entry: bonuses.entrySet()) {
+            net.merge(entry.getKey(), -entry.getValue(), Long::sum);
+        }
+        return net;
+    }
+    /**
+     * Removes every bonus and penalty of a rider
+     * @param riderId The unique id of the rider
+     * @return The net adjustment removed in nanoseconds
+     */
+    public long removeRider(int riderId) {
+        long net = getNetAdjustment(riderId);
+        bonuses.remove(riderId);
+        penalties.remove(riderId);
+        return net;
+    }
+    /**
+     * Copies a ledger, so the copy is unaffected by later bonuses and penalties
+     * @return The copy of this ledger
+     */
+    TimeAdjustmentLedger copy() {
+        TimeAdjustmentLedger ledger = new TimeAdjustmentLedger();
+        ledger.bonuses.putAll(bonuses);
+        ledger.penalties.putAll(penalties);
+        return ledger;
+    }
+}
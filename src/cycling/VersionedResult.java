@@ -0,0 +1,92 @@
+package cycling;
+
+/**
+ * VersionedResult is the answer to a conditional read. It carries
+ * the current version of the race or stage queried and, only if
+ * that differs from the version the caller already knew, the
+ * freshly queried value
+ *
+ * @param <T> The type of the value queried
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+public final class VersionedResult<T> {
+    /**
+     * The current version of the race or stage queried
+     */
+    private final long version;
+    /**
+     * Whether the race or stage changed since the version the caller knew
+     */
+    private final boolean modified;
+    /**
+     * The value queried, null if not modified
+     */
+    private final T value;
+
+    /**
+     * Creates a new result
+     * @param version The current version
+     * @param modified Whether the version differs from the one the caller knew
+     * @param value The value queried, null if not modified
+     */
+    private VersionedResult(long version, boolean modified, T value) {
+        this.version = version;
+        this.modified = modified;
+        this.value = value;
+    }
+    /**
+     * Creates a result for a race or stage that has changed
+     * @param <T> The type of the value queried
+     * @param version The current version
+     * @param value The value queried at that version
+     * @return A modified result holding the value
+     */
+    public static <T> VersionedResult<T> modified(long version, T value) {
+        return new VersionedResult<T>(version, true, value);
+    }
+    /**
+     * Creates a result for a race or stage that has not changed
+     * @param <T> The type of the value queried
+     * @param version The current version, the same as the one the caller knew
+     * @return A result without a value
+     */
+    public static <T> VersionedResult<T> notModified(long version) {
+        return new VersionedResult<T>(version, false, null);
+    }
+    /**
+     * Gets the version of a result
+     * @return The current version of the race or stage queried
+     */
+    public long getVersion() {
+        return this.version;
+    }
+    /**
+     * Checks whether a result holds a new value
+     * @return True if the race or stage changed since the version the caller knew
+     */
+    public boolean isModified() {
+        return this.modified;
+    }
+    /**
+     * Gets the value of a result
+     * @return The value queried, null if not modified
+     */
+    public T getValue() {
+        return this.value;
+    }
+    /**
+     * Writes a formatted string containing information about a result
+     * @return A formatted string containing the version and whether it was modified
+     */
+    @Override
+    public String toString() {
+        return "{" +
+            "version='" + this.version + "'" +
+            ", modified='" + this.modified + "'" +
+            "}";
+    }
+}
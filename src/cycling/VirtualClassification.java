@@ -0,0 +1,213 @@
+package cycling;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * VirtualClassification keeps the general classification of a
+ * race as if it ended at each checkpoint of a stage being raced.
+ * A rider's virtual time at a checkpoint is their general
+ * classification time before the stage plus the time they took
+ * to reach the checkpoint. Every column keeps its riders ordered
+ * by virtual time so each passage costs O(log n)
+ *
+ * @author Jake Klar
+ * @author Tamanna Kar
+ * @version 2.0
+ *
+ */
+public class VirtualClassification {
+    /**
+     * A rider's virtual time at one column
+     */
+    private static class Entry {
+        /**
+         * The unique id of the rider
+         */
+        private final int riderId;
+        /**
+         * The virtual general classification time in nanoseconds
+         */
+        private final long virtualTime;
+
+        /**
+         * Creates a new entry
+         * @param riderId The unique id of the rider
+         * @param virtualTime The virtual time in nanoseconds
+         */
+        private Entry(int riderId, long virtualTime) {
+            this.riderId = riderId;
+            this.virtualTime = virtualTime;
+        }
+    }
+    /**
+     * Orders entries by virtual time, using the rider id to break ties
+     */
+    private static final Comparator<Entry> VIRTUAL_ORDER =
+        Comparator.<Entry>comparingLong(e -> e.virtualTime).thenComparingInt(e -> e.riderId);
+    /**
+     * A map with riderIds as keys and their general classification time
+     * before the stage, in nanoseconds, as values
+     */
+    private Map<Integer, Long> baseTimes;
+    /**
+     * The versions of the earlier stages the base times were calculated from
+     */
+    private long[] baseStamp;
+    /**
+     * The riders of every column ordered by virtual time
+     */
+    private final ArrayList<TreeSet<Entry>> columns;
+
+    /**
+     * Creates an empty virtual classification
+     * @param columnCount The number of columns of the stage
+     */
+    public VirtualClassification(int columnCount) {
+        this.baseTimes = new HashMap<Integer, Long>();
+        this.baseStamp = new long[0];
+        this.columns = new ArrayList<TreeSet<Entry>>();
+        for(int i=0; i<columnCount; i++) {
+            this.columns.add(new TreeSet<Entry>(VIRTUAL_ORDER));
+        }
+    }
+    /**
+     * Gets the versions of the earlier stages the base times were calculated from
+     * @return The base stamp of this classification
+     */
+    public long[] getBaseStamp() {
+        return this.baseStamp;
+    }
+    /**
+     * Replaces the base times after an earlier stage changed and
+     * recalculates every virtual time
+     * @param baseTimes A map with riderIds as keys and their time before the stage as values
+     * @param baseStamp The versions of the earlier stages the base times were calculated from
+     * @param times A map with riderIds as keys and their passage times in this stage as values
+     */
+    public void rebase(Map<Integer, Long> baseTimes, long[] baseStamp, Map<Integer, LocalTime[]> times) {
+        this.baseTimes = baseTimes;
+        this.baseStamp = baseStamp;
+        for(TreeSet<Entry> column: columns) {
+            column.clear();
+        }
+        for(Map.Entry<Integer, LocalTime[]> entry: times.entrySet()) {
+            for(int i=1; i<columns.size(); i++) {
+                add(entry.getKey(), i, entry.getValue());
+            }
+        }
+    }
+    /**
+     * Calculates the virtual time of a rider at a column
+     * @param riderId The unique id of the rider
+     * @param column The column being passed
+     * @param times The passage times of the rider in this stage
+     * @return The virtual time, or -1 if the rider has not started or passed the column
+     */
+    private long virtualTime(int riderId, int column, LocalTime[] times) {
+        if(times[0] == null || times[column] == null) {
+            return -1;
+        }
+        long elapsed = times[column].toNanoOfDay() - times[0].toNanoOfDay();
+        return baseTimes.getOrDefault(riderId, 0L) + elapsed;
+    }
+    /**
+     * Adds a rider's virtual time at a column
+     * @param riderId The unique id of the rider
+     * @param column The column passed
+     * @param times The passage times of the rider in this stage
+     */
+    private void add(int riderId, int column, LocalTime[] times) {
+        long virtualTime = virtualTime(riderId, column, times);
+        if(virtualTime >= 0) {
+            columns.get(column).add(new Entry(riderId, virtualTime));
+        }
+    }
+    /**
+     * Removes a rider's virtual time at a column
+     * @param riderId The unique id of the rider
+     * @param column The column passed
+     * @param times The passage times the rider was added with
+     */
+    private void remove(int riderId, int column, LocalTime[] times) {
+        long virtualTime = virtualTime(riderId, column, times);
+        if(virtualTime >= 0) {
+            columns.get(column).remove(new Entry(riderId, virtualTime));
+        }
+    }
+    /**
+     * Updates a rider after one of their passages was recorded
+     * @param riderId The unique id of the rider
+     * @param column The column passed
+     * @param times The passage times of the rider including the new passage
+     */
+    public void onPassage(int riderId, int column, LocalTime[] times) {
+        if(column > 0) {
+            add(riderId, column, times);
+            return;
+        }
+        //Passages recorded before the start can only now be placed
+        for(int i=1; i<columns.size(); i++) {
+            add(riderId, i, times);
+        }
+    }
+    /**
+     * Removes every virtual time of a rider
+     * @param riderId The unique id of the rider
+     * @param times The passage times the rider was added with
+     */
+    public void onRemove(int riderId, LocalTime[] times) {
+        for(int i=1; i<columns.size(); i++) {
+            remove(riderId, i, times);
+        }
+    }
+    /**
+     * Updates a rider after one of their passages was corrected
+     * @param riderId The unique id of the rider
+     * @param column The column of the corrected passage
+     * @param oldTimes The passage times before the correction
+     * @param newTimes The passage times after the correction
+     */
+    public void onReplace(int riderId, int column, LocalTime[] oldTimes, LocalTime[] newTimes) {
+        if(column > 0) {
+            remove(riderId, column, oldTimes);
+            add(riderId, column, newTimes);
+            return;
+        }
+        //A corrected start moves the rider at every column
+        onRemove(riderId, oldTimes);
+        onPassage(riderId, 0, newTimes);
+    }
+    /**
+     * Gets the furthest column any rider has reached
+     * @return The latest column with a virtual time, or 0 if no rider has passed a checkpoint
+     */
+    public int getLatestColumn() {
+        for(int i=columns.size()-1; i>0; i--) {
+            if(!columns.get(i).isEmpty()) {
+                return i;
+            }
+        }
+        return 0;
+    }
+    /**
+     * Gets the virtual general classification at a column
+     * @param column The column being queried
+     * @return The riderIds ordered by virtual time
+     */
+    public int[] getRank(int column) {
+        return columns.get(column).stream().mapToInt(e -> e.riderId).toArray();
+    }
+    /**
+     * Gets the virtual general classification times at a column
+     * @param column The column being queried
+     * @return The virtual times matching {@link #getRank(int)}, which wrap
+     * past midnight like the general classification times
+     */
+    public LocalTime[] getTimes(int column) {
+        return columns.get(column).stream().map(e -> LocalTime.MIDNIGHT.plusNanos(e.virtualTime)).toArray(LocalTime[]::new);
+    }
+}